@@ -0,0 +1,412 @@
+package ml.that.pigeon.auth;
+
+import java.security.InvalidKeyException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import ml.that.pigeon.auth.SessionCache.Session;
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.Endpoint;
+import ml.that.pigeon.conn.MessageListener;
+import ml.that.pigeon.filter.MessageIdFilter;
+import ml.that.pigeon.filter.OrFilter;
+import ml.that.pigeon.msg.AuthenticateRequest;
+import ml.that.pigeon.msg.ChallengeCommand;
+import ml.that.pigeon.msg.ChallengeResponse;
+import ml.that.pigeon.msg.LoginCommand;
+import ml.that.pigeon.msg.LoginResponse;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.util.CryptoUtils;
+import ml.that.pigeon.util.EventSink;
+import ml.that.pigeon.util.EventUtils;
+import ml.that.pigeon.util.LogUtils;
+import ml.that.pigeon.util.RandomPool;
+
+/**
+ * Authenticates with the server using the challenge-response handshake: an authenticate request,
+ * a challenge command, a challenge response and a login command.
+ * <p>
+ * The handshake is a state machine driven by the messages received, no thread is blocked while
+ * waiting for the server. Each step times out after {@link
+ * ConnectionConfiguration#getAuthTimeout()} on a shared timer, and the last message is sent again
+ * up to {@link ConnectionConfiguration#getAuthRetries()} times before the authentication fails.
+ * <p>
+ * If a {@link ConnectionConfiguration#getSessionCache() session cache} is configured and holds the
+ * session of a previous login to the server, the fast path is tried first: the challenge response
+ * of that session is sent right after the authenticate request, without waiting for a challenge.
+ * If the server challenges or rejects the client instead, or does not reply in time, the cached
+ * session is dropped and the full handshake is run.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class AdvancedAuthentication {
+
+  private static final String TAG = LogUtils.makeTag(AdvancedAuthentication.class);
+
+  private static final String[] SVR_KEYS = new String[]{ "0123456789ABCDEF" };
+  private static final String[] CLT_KEYS = new String[]{ "123456789JIANGSU" };
+
+  // States of a handshake
+  private static final int STATE_IDLE      = 0;
+  private static final int STATE_CHALLENGE = 1;
+  private static final int STATE_LOGIN     = 2;
+  private static final int STATE_DONE      = 3;
+
+  private Connection mConnection;
+
+  public AdvancedAuthentication(Connection conn) {
+    mConnection = conn;
+  }
+
+  /**
+   * Authenticates with the server, blocking until the handshake completes.
+   *
+   * @param auth the authentication code
+   * @return true if logged in
+   */
+  public boolean authenticate(String auth) {
+    AuthFuture future = authenticateAsync(auth);
+    try {
+      return future.get().isSuccess();
+    } catch (InterruptedException ie) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Starts authenticating with the server and returns immediately.
+   *
+   * @param auth the authentication code
+   * @return the pending outcome of the authentication
+   */
+  public AuthFuture authenticateAsync(String auth) {
+    Handshake handshake = new Handshake(auth);
+    handshake.start();
+    return handshake.mFuture;
+  }
+
+  /**
+   * Checks the algorithm and keys requested by the challenge, and decrypts its random number A.
+   *
+   * @param challenge the challenge command from the server
+   * @return the negotiated session
+   * @throws IllegalStateException if the challenge cannot be answered
+   */
+  private static Session negotiate(ChallengeCommand challenge) {
+    byte algorithm = challenge.getAlgorithm();
+    switch (algorithm) {
+      case ChallengeCommand.ALGORITHM_AES128:
+        break;
+      default:
+        throw new IllegalStateException("No such algorithm - " + algorithm);
+    }
+
+    short sKeyIdx = challenge.getSvrKeyIndex();
+    if (sKeyIdx < 0 || sKeyIdx >= SVR_KEYS.length) {
+      throw new IllegalStateException("Sever key " + sKeyIdx + " not found.");
+    }
+    String svrKey = SVR_KEYS[sKeyIdx];
+
+    short cKeyIdx = challenge.getCltKeyIndex();
+    if (cKeyIdx < 0 || cKeyIdx >= CLT_KEYS.length) {
+      throw new IllegalStateException("Client key " + cKeyIdx + " not found.");
+    }
+
+    try {
+      byte[] rdmA = CryptoUtils.decrypt(challenge.getEncryptedRdmA(), svrKey);
+      // Taken from the pool, so the handshake never waits for the entropy source
+      byte[] rdmB = RandomPool.getDefault().next();
+      return new Session(sKeyIdx, cKeyIdx, rdmA, rdmB);
+    } catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
+      throw new IllegalStateException("Decryption failed.", e);
+    }
+  }
+
+  /**
+   * Builds the challenge response of the specified session.
+   *
+   * @param session the negotiated session
+   * @return the challenge response
+   * @throws IllegalStateException if the response cannot be built
+   */
+  private static ChallengeResponse respond(Session session) {
+    short cKeyIdx = session.getCltKeyIndex();
+    ChallengeResponse response =
+        new ChallengeResponse.Builder(cKeyIdx,
+                                      CLT_KEYS[cKeyIdx],
+                                      session.getRandomA(),
+                                      session.getRandomB()).build();
+    if (response == null) {
+      throw new IllegalStateException("Build challenge response failed.");
+    }
+    return response;
+  }
+
+  /** A single run of the handshake, advanced by the messages from the server and its timeouts. */
+  private class Handshake implements MessageListener {
+
+    private final String       mAuth;
+    private final AuthFuture   mFuture;
+    private final SessionCache mCache;
+    private final String       mCacheKey;
+
+    private final Runnable mTimeoutTask = new Runnable() {
+      @Override
+      public void run() {
+        onTimeout();
+      }
+    };
+
+    // Guarded by this
+    private int                mState = STATE_IDLE;
+    private Message            mPending;
+    private int                mAttempts;
+    private ScheduledFuture<?> mTimeout;
+    // The session negotiated, or the cached one tried by the fast path
+    private Session            mSession;
+    // Set while the login command replies to a challenge response built from a cached session
+    private boolean            mFast;
+    // Number of rejections to ignore, sent in reply to an abandoned fast path
+    private int                mStaleRejections;
+    // The step in progress and when it started, reported as an event when it ends
+    private String             mStep;
+    private long               mStepStart;
+    private boolean            mReplied;
+
+    Handshake(String auth) {
+      ConnectionConfiguration cfg = mConnection.getConfig();
+      mAuth = auth;
+      mCache = cfg.getSessionCache();
+      // A session is only known to the front-end which opened it
+      Endpoint endpoint = mConnection.getEndpoint();
+      mCacheKey = endpoint != null
+                  ? SessionCache.key(endpoint.getHost(), endpoint.getPort(), auth)
+                  : SessionCache.key(cfg.getHost(), cfg.getPort(), auth);
+      mFuture = new AuthFuture(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (Handshake.this) {
+            finish();
+          }
+        }
+      });
+    }
+
+    void start() {
+      mConnection.addRcvListener(this,
+                                 new OrFilter(new MessageIdFilter(ChallengeCommand.ID),
+                                              new MessageIdFilter(LoginCommand.ID)));
+
+      AuthResult result;
+      synchronized (this) {
+        Session cached = mCache != null ? mCache.get(mCacheKey) : null;
+        result = cached != null ? startFast(cached) : startFull();
+      }
+      complete(result);
+    }
+
+    /** Starts the full handshake, waiting for a challenge from the server. */
+    private AuthResult startFull() {
+      mFast = false;
+      mSession = null;
+      return advance(STATE_CHALLENGE, new AuthenticateRequest.Builder(mAuth).build());
+    }
+
+    /**
+     * Starts the fast path: the authenticate request is immediately followed by the challenge
+     * response of the cached session, so the login command arrives in a single round trip if the
+     * server accepts the session again.
+     */
+    private AuthResult startFast(Session cached) {
+      mFast = true;
+      mSession = cached;
+      try {
+        mConnection.sendMessage(new AuthenticateRequest.Builder(mAuth).build());
+        return advance(STATE_LOGIN, respond(cached));
+      } catch (IllegalStateException ise) {
+        LogUtils.e(TAG, "startFast: Send fast login failed.", ise);
+        finish();
+        return AuthResult.failure(AuthResult.REASON_ERROR, ise.getMessage());
+      }
+    }
+
+    /** Forgets the cached session, and starts over with the full handshake. */
+    private AuthResult fallBack() {
+      LogUtils.i(TAG, "fallBack: Cached session not accepted, run the full handshake.");
+      mCache.remove(mCacheKey);
+      return startFull();
+    }
+
+    @Override
+    public void processMessage(Message msg) {
+      AuthResult result = null;
+      synchronized (this) {
+        boolean challenged = mState == STATE_CHALLENGE || mState == STATE_LOGIN && mFast;
+        if (challenged && msg.getId() == ChallengeCommand.ID) {
+          mReplied = true;
+          if (mFast) {
+            // The server wants a fresh handshake, it will also reject the stale response
+            LogUtils.i(TAG, "processMessage: Challenged on fast login, run the full handshake.");
+            mCache.remove(mCacheKey);
+            mFast = false;
+            mStaleRejections++;
+          }
+          try {
+            ChallengeCommand challenge = msg instanceof ChallengeCommand
+                                         ? (ChallengeCommand) msg
+                                         : new ChallengeCommand.Builder(msg).build();
+            mSession = negotiate(challenge);
+            result = advance(STATE_LOGIN, respond(mSession));
+          } catch (IllegalStateException | IllegalArgumentException e) {
+            LogUtils.e(TAG, "processMessage: Answer challenge failed.", e);
+            result = AuthResult.failure(AuthResult.REASON_ERROR, e.getMessage());
+          }
+        } else if (mState == STATE_LOGIN && msg.getId() == LoginCommand.ID) {
+          mReplied = true;
+          result = onLogin(msg);
+        }
+
+        if (result != null) {
+          finish();
+        }
+      }
+      complete(result);
+    }
+
+    private AuthResult onLogin(Message msg) {
+      byte code;
+      try {
+        LoginCommand command = msg instanceof LoginCommand
+                               ? (LoginCommand) msg
+                               : new LoginCommand.Builder(msg).build();
+        code = command.getResult();
+      } catch (IllegalArgumentException iae) {
+        LogUtils.e(TAG, "onLogin: Illegal login command.", iae);
+        return AuthResult.failure(AuthResult.REASON_ERROR, iae.getMessage());
+      }
+
+      if (code != LoginCommand.RESULT_OK) {
+        if (mFast) {
+          return fallBack();
+        }
+        if (mStaleRejections > 0) {
+          mStaleRejections--;
+          LogUtils.d(TAG, "onLogin: Ignore rejection of the stale response.");
+          return null;
+        }
+        return AuthResult.rejected(code);
+      }
+      if (mCache != null) {
+        mCache.put(mCacheKey, mSession);
+      }
+      // Send the last message
+      try {
+        mConnection.sendMessage(new LoginResponse.Builder().build());
+      } catch (IllegalStateException ise) {
+        return AuthResult.failure(AuthResult.REASON_ERROR, ise.getMessage());
+      }
+      return AuthResult.success();
+    }
+
+    private void onTimeout() {
+      AuthResult result = null;
+      synchronized (this) {
+        if (mState == STATE_DONE) {
+          return;
+        }
+
+        if (mFast) {
+          // The fast path is optimistic, do not retry it
+          result = fallBack();
+        } else if (mAttempts < mConnection.getConfig().getAuthRetries()) {
+          mAttempts++;
+          LogUtils.w(TAG, "onTimeout: No reply in state {}, retry {}.", mState, mAttempts);
+          result = send();
+        } else {
+          result = AuthResult.failure(AuthResult.REASON_TIMEOUT,
+                                      mState == STATE_CHALLENGE
+                                      ? "No challenge command from the server."
+                                      : "No login command from the server.");
+        }
+
+        if (result != null) {
+          finish();
+        }
+      }
+      complete(result);
+    }
+
+    /** Moves to the specified state, and sends the message it waits a reply to. */
+    private AuthResult advance(int state, Message msg) {
+      endStep();
+      mState = state;
+      mPending = msg;
+      mAttempts = 0;
+      mStep = state == STATE_CHALLENGE ? "challenge" : mFast ? "fast-login" : "login";
+      mStepStart = System.nanoTime();
+      mReplied = false;
+      if (mTimeout != null) {
+        mTimeout.cancel(false);
+      }
+      AuthResult result = send();
+      if (result != null) {
+        finish();
+      }
+      return result;
+    }
+
+    /** Sends the pending message and arms the timeout, returns a result only if it failed. */
+    private AuthResult send() {
+      try {
+        mConnection.sendMessage(mPending);
+      } catch (IllegalStateException ise) {
+        LogUtils.e(TAG, "send: Send message failed.", ise);
+        return AuthResult.failure(AuthResult.REASON_ERROR, ise.getMessage());
+      }
+
+      mTimeout = AuthTimer.get().schedule(mTimeoutTask,
+                                          mConnection.getConfig().getAuthTimeout(),
+                                          TimeUnit.MILLISECONDS);
+      return null;
+    }
+
+    /** Reports the step in progress as an event, if any, must hold the lock. */
+    private void endStep() {
+      if (mStep == null) {
+        return;
+      }
+
+      EventSink events = EventUtils.getSink();
+      if (events.isEnabled()) {
+        events.onAuthStep(mStep, mAttempts + 1, mReplied, System.nanoTime() - mStepStart);
+      }
+      mStep = null;
+    }
+
+    /** Stops the handshake, must hold the lock. */
+    private void finish() {
+      endStep();
+      mState = STATE_DONE;
+      if (mTimeout != null) {
+        mTimeout.cancel(false);
+        mTimeout = null;
+      }
+      mConnection.removeRcvListener(this);
+    }
+
+    /** Completes the future outside of the lock, so callbacks may call back into the connection. */
+    private void complete(AuthResult result) {
+      if (result != null) {
+        mFuture.complete(result);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,18 @@
+package ml.that.pigeon.auth;
+
+/**
+ * A callback notified once an authentication completes.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface AuthCallback {
+
+  /**
+   * Called once the authentication completes, either on the thread delivering the last message
+   * from the server or on the authentication timer. Implementations must not block.
+   *
+   * @param result the outcome of the authentication
+   */
+  void onComplete(AuthResult result);
+
+}
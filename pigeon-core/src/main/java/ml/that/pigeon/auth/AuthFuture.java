@@ -0,0 +1,120 @@
+package ml.that.pigeon.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending outcome of an asynchronous authentication. Callbacks can be added to be notified
+ * without parking a thread, or the result can be waited for with {@link #get()}.
+ * <p>
+ * The future never completes exceptionally, failures are reported through the {@link AuthResult}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class AuthFuture implements Future<AuthResult> {
+
+  private final CountDownLatch mDone = new CountDownLatch(1);
+
+  // Callbacks to notify on completion, null once completed
+  private List<AuthCallback> mCallbacks = new ArrayList<>();
+  private AuthResult         mResult;
+
+  // Called to stop the authentication when cancelled
+  private final Runnable mCanceller;
+
+  AuthFuture(Runnable canceller) {
+    mCanceller = canceller;
+  }
+
+  /**
+   * Adds a callback to notify once the authentication completes. If already completed, the
+   * callback is notified right away on the calling thread.
+   *
+   * @param callback the callback to notify
+   * @return this future
+   */
+  public AuthFuture addCallback(AuthCallback callback) {
+    if (callback == null) {
+      throw new NullPointerException("Auth callback is null.");
+    }
+
+    AuthResult result;
+    synchronized (this) {
+      if (mCallbacks != null) {
+        mCallbacks.add(callback);
+        return this;
+      }
+      result = mResult;
+    }
+    callback.onComplete(result);
+    return this;
+  }
+
+  /**
+   * Completes the future with the specified result, unless already completed.
+   *
+   * @param result the outcome of the authentication
+   * @return true if this call completed the future
+   */
+  boolean complete(AuthResult result) {
+    List<AuthCallback> callbacks;
+    synchronized (this) {
+      if (mCallbacks == null) {
+        return false;
+      }
+      callbacks = mCallbacks;
+      mCallbacks = null;
+      mResult = result;
+    }
+    mDone.countDown();
+
+    for (AuthCallback callback : callbacks) {
+      callback.onComplete(result);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!complete(AuthResult.failure(AuthResult.REASON_CANCELLED, "Cancelled."))) {
+      return false;
+    }
+
+    mCanceller.run();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return mResult != null && mResult.getReason() == AuthResult.REASON_CANCELLED;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return mResult != null;
+  }
+
+  @Override
+  public AuthResult get() throws InterruptedException {
+    mDone.await();
+    return getNow();
+  }
+
+  @Override
+  public AuthResult get(long timeout, TimeUnit unit)
+      throws InterruptedException, TimeoutException {
+    if (!mDone.await(timeout, unit)) {
+      throw new TimeoutException("Authentication not completed.");
+    }
+    return getNow();
+  }
+
+  private synchronized AuthResult getNow() {
+    return mResult;
+  }
+
+}
@@ -0,0 +1,84 @@
+package ml.that.pigeon.auth;
+
+import ml.that.pigeon.msg.LoginCommand;
+
+/**
+ * The outcome of an authentication with the server.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public final class AuthResult {
+
+  /** The client is logged in. */
+  public static final int REASON_NONE      = 0;
+  /** The server rejected the client, see {@link #getServerResult()}. */
+  public static final int REASON_REJECTED  = 1;
+  /** A step timed out after all its retries. */
+  public static final int REASON_TIMEOUT   = 2;
+  /** The handshake could not be carried on, e.g. an unknown key or algorithm. */
+  public static final int REASON_ERROR     = 3;
+  /** The authentication was cancelled. */
+  public static final int REASON_CANCELLED = 4;
+
+  private static final AuthResult SUCCESS =
+      new AuthResult(REASON_NONE, LoginCommand.RESULT_OK, null);
+
+  private final int    mReason;
+  private final byte   mServerResult;
+  private final String mDetail;
+
+  private AuthResult(int reason, byte serverResult, String detail) {
+    mReason = reason;
+    mServerResult = serverResult;
+    mDetail = detail;
+  }
+
+  static AuthResult success() {
+    return SUCCESS;
+  }
+
+  static AuthResult rejected(byte serverResult) {
+    return new AuthResult(REASON_REJECTED, serverResult, null);
+  }
+
+  static AuthResult failure(int reason, String detail) {
+    return new AuthResult(reason, LoginCommand.RESULT_OTHER_ERROR, detail);
+  }
+
+  public boolean isSuccess() {
+    return mReason == REASON_NONE;
+  }
+
+  public int getReason() {
+    return mReason;
+  }
+
+  /**
+   * Returns the result code sent by the server, only meaningful if the server {@link
+   * #REASON_REJECTED rejected} the client.
+   *
+   * @return the result code sent by the server
+   */
+  public byte getServerResult() {
+    return mServerResult;
+  }
+
+  /**
+   * Returns a description of the failure.
+   *
+   * @return a description of the failure, or {@code null} if none
+   */
+  public String getDetail() {
+    return mDetail;
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder("{ ")
+        .append("rsn=").append(mReason)
+        .append(", svr=").append(mServerResult)
+        .append(", dtl=").append(mDetail)
+        .append(" }").toString();
+  }
+
+}
@@ -0,0 +1,44 @@
+package ml.that.pigeon.auth;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Holds the single timer thread shared by all authentications to time their steps out, so no
+ * thread is parked per handshake.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+final class AuthTimer {
+
+  private static volatile ScheduledExecutorService sTimer;
+
+  private AuthTimer() {
+  }
+
+  static ScheduledExecutorService get() {
+    ScheduledExecutorService timer = sTimer;
+    if (timer == null) {
+      synchronized (AuthTimer.class) {
+        timer = sTimer;
+        if (timer == null) {
+          ScheduledThreadPoolExecutor executor =
+              new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "Pigeon Auth Timer");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+          // Timeouts are cancelled on most steps, do not keep them queued until they expire
+          executor.setRemoveOnCancelPolicy(true);
+          timer = sTimer = executor;
+        }
+      }
+    }
+    return timer;
+  }
+
+}
@@ -22,13 +22,16 @@ public class BasicAuthentication {
     // Send the message
     mConnection.sendMessage(request);
     // Wait up to a certain number of seconds for a reply from the server
-    Message replyMsg = collector.nextResult(5000L);
-    ServerGenericReply reply = new ServerGenericReply.Builder(replyMsg).build();
-    if (reply == null) {
-      throw new NullPointerException("No reply from the server.");
-    }
+    Message replyMsg = collector.nextResult(mConnection.getConfig().getAuthTimeout());
     // Otherwise, no error so continue processing
     collector.cancel();
+    if (replyMsg == null) {
+      // No reply from the server
+      return false;
+    }
+    ServerGenericReply reply = replyMsg instanceof ServerGenericReply
+                               ? (ServerGenericReply) replyMsg
+                               : new ServerGenericReply.Builder(replyMsg).build();
 
     switch (reply.getResult()) {
       case ServerGenericReply.RESULT_OK:
@@ -0,0 +1,133 @@
+package ml.that.pigeon.auth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the parameters negotiated by the last successful handshake with each server, so that a
+ * reconnecting client can log in again in a single round trip.
+ * <p>
+ * Sessions are keyed by server and authentication code, see {@link #key(String, int, String)}.
+ * They expire after a time to live, and the least recently used sessions are evicted once the cache
+ * is full. The cache is thread-safe and can be shared by several connections.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class SessionCache {
+
+  /** The default number of sessions to keep. */
+  public static final int  DEFAULT_CAPACITY = 16;
+  /** The default time to live of a session, one hour. */
+  public static final long DEFAULT_TTL      = 60 * 60 * 1000L;
+
+  private final Map<String, Session> mSessions;
+  private final long                 mTtl;
+
+  /** Creates a cache with the default capacity and time to live. */
+  public SessionCache() {
+    this(DEFAULT_CAPACITY, DEFAULT_TTL);
+  }
+
+  /**
+   * Creates a cache with the specified capacity and time to live.
+   *
+   * @param capacity the maximum number of sessions to keep
+   * @param ttl      the time to live of a session, in milliseconds
+   */
+  public SessionCache(final int capacity, long ttl) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive.");
+    }
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("Time to live must be positive.");
+    }
+
+    mSessions = new LinkedHashMap<String, Session>(capacity, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+        return size() > capacity;
+      }
+    };
+    mTtl = ttl;
+  }
+
+  /**
+   * Returns the key of the session with the specified server and authentication code.
+   *
+   * @param host the host of the server
+   * @param port the port of the server
+   * @param auth the authentication code
+   * @return the key of the session
+   */
+  public static String key(String host, int port, String auth) {
+    return host + ':' + port + '/' + auth;
+  }
+
+  /**
+   * Removes the session with the specified key, e.g. once the authentication code changes.
+   *
+   * @param key the key of the session
+   */
+  public synchronized void remove(String key) {
+    mSessions.remove(key);
+  }
+
+  /** Removes all sessions. */
+  public synchronized void clear() {
+    mSessions.clear();
+  }
+
+  /**
+   * Returns the unexpired session with the specified key.
+   *
+   * @param key the key of the session
+   * @return the session, or {@code null} if none
+   */
+  synchronized Session get(String key) {
+    Session session = mSessions.get(key);
+    if (session != null && System.currentTimeMillis() - session.mCreated > mTtl) {
+      mSessions.remove(key);
+      return null;
+    }
+    return session;
+  }
+
+  synchronized void put(String key, Session session) {
+    mSessions.put(key, session);
+  }
+
+  /** The parameters negotiated by a handshake, needed to build a challenge response again. */
+  static final class Session {
+
+    private final short  mSvrKeyIndex;
+    private final short  mCltKeyIndex;
+    private final byte[] mRandomA;
+    private final byte[] mRandomB;
+    private final long   mCreated = System.currentTimeMillis();
+
+    Session(short svrKeyIndex, short cltKeyIndex, byte[] rdmA, byte[] rdmB) {
+      mSvrKeyIndex = svrKeyIndex;
+      mCltKeyIndex = cltKeyIndex;
+      mRandomA = rdmA;
+      mRandomB = rdmB;
+    }
+
+    short getSvrKeyIndex() {
+      return mSvrKeyIndex;
+    }
+
+    short getCltKeyIndex() {
+      return mCltKeyIndex;
+    }
+
+    byte[] getRandomA() {
+      return mRandomA;
+    }
+
+    byte[] getRandomB() {
+      return mRandomB;
+    }
+
+  }
+
+}
@@ -0,0 +1,25 @@
+package ml.that.pigeon.conn;
+
+/**
+ * Extracts the key of a message sent with coalescing, see {@link
+ * ConnectionConfiguration#setCoalescing(short, CoalescingKey)}. A queued message is only replaced
+ * by a newer one with the same ID and an equal key, e.g. the status of the same channel.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface CoalescingKey {
+
+  /**
+   * Returns the key of the specified message. Since this method is invoked by the sending thread
+   * for every coalesced message, it should be fast.
+   *
+   * @param id   the message ID
+   * @param body the buffer holding the body of the message, before it is encrypted
+   * @param off  the start offset of the body in <tt>body</tt>
+   * @param len  the length of the body
+   * @return the key of the message, compared with {@link Object#equals(Object)}, or {@code null}
+   * to never replace nor be replaced
+   */
+  Object keyOf(short id, byte[] body, int off, int len);
+
+}
@@ -0,0 +1,276 @@
+package ml.that.pigeon.conn;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ml.that.pigeon.util.LogUtils;
+
+/**
+ * Connects a socket to the first of the endpoints of a configuration which accepts it, racing the
+ * endpoints in staggered parallel.
+ * <p>
+ * The addresses of the endpoints are tried in order: the next one is started once the previous
+ * ones have not connected for the stagger of the configuration, or right away when one fails. The
+ * first socket to connect wins, the attempts still running are closed, and so are the sockets
+ * connected meanwhile. The endpoints which failed recently are tried last.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see ConnectionConfiguration#addEndpoint(String, int)
+ */
+class ConnectRace {
+
+  private static final String TAG = LogUtils.makeTag(ConnectRace.class);
+
+  // Time an endpoint which failed to connect is tried after the others, in milliseconds
+  private static final long FAILURE_PENALTY = 30000L;
+
+  private final ConnectionConfiguration mConfig;
+
+  // Attempts which completed, in order of completion
+  private final BlockingQueue<Attempt> mResults = new LinkedBlockingQueue<>();
+  // Attempts started, guarded by this
+  private final List<Attempt>          mStarted = new ArrayList<>();
+
+  // Set once a winner has been picked or every attempt failed, guarded by this
+  private boolean mDone = false;
+
+  ConnectRace(ConnectionConfiguration cfg) {
+    mConfig = cfg;
+  }
+
+  /**
+   * Runs the race, blocking until a socket connects or every attempt fails.
+   *
+   * @return the winning attempt, holding the connected socket
+   * @throws IOException if no endpoint could be connected, the failure of the last attempt
+   */
+  Attempt run() throws IOException {
+    List<Attempt> attempts = new ArrayList<>();
+    IOException failure = null;
+    long now = System.nanoTime();
+    for (Endpoint endpoint : order(mConfig.getEndpoints(), now)) {
+      try {
+        for (InetAddress address : endpoint.resolve(mConfig.getAddressCacheTtl())) {
+          attempts.add(new Attempt(endpoint, address));
+        }
+      } catch (UnknownHostException uhe) {
+        LogUtils.w(TAG, "run: Resolve {} failed.", endpoint);
+        endpoint.recordFailure(now);
+        failure = uhe;
+      }
+    }
+    if (attempts.isEmpty()) {
+      throw failure;
+    }
+
+    // Nothing to race, connect on the calling thread
+    if (attempts.size() == 1) {
+      Attempt attempt = attempts.get(0);
+      attempt.connect();
+      if (attempt.mSocket == null) {
+        throw attempt.mFailure;
+      }
+      return attempt;
+    }
+
+    Attempt winner = null;
+    try {
+      int started = 0;
+      int completed = 0;
+      start(attempts.get(started++));
+      while (completed < started) {
+        Attempt result;
+        if (started < attempts.size()) {
+          result = mResults.poll(mConfig.getConnectStagger(), TimeUnit.MILLISECONDS);
+        } else {
+          result = mResults.take();
+        }
+        if (result == null) {
+          // The attempts running are slow, race the next one
+          start(attempts.get(started++));
+          continue;
+        }
+
+        completed++;
+        if (result.mSocket != null) {
+          winner = result;
+          return winner;
+        }
+        failure = result.mFailure;
+        if (started < attempts.size()) {
+          start(attempts.get(started++));
+        }
+      }
+      throw failure;
+    } catch (InterruptedException ie) {
+      throw new InterruptedIOException("Connect interrupted.");
+    } finally {
+      finish(winner);
+    }
+  }
+
+  /**
+   * Returns the endpoints in the order to try them: in order of preference, the ones which failed
+   * recently last.
+   */
+  private static List<Endpoint> order(List<Endpoint> endpoints, long now) {
+    List<Endpoint> ordered = new ArrayList<>(endpoints.size());
+    List<Endpoint> failing = new ArrayList<>();
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint.isFailing(now, FAILURE_PENALTY)) {
+        failing.add(endpoint);
+      } else {
+        ordered.add(endpoint);
+      }
+    }
+    ordered.addAll(failing);
+    return ordered;
+  }
+
+  private void start(Attempt attempt) {
+    synchronized (this) {
+      mStarted.add(attempt);
+    }
+    Thread thread = new Thread(attempt);
+    thread.setDaemon(true);
+    thread.setName("Pigeon Connect (" + attempt.mEndpoint + ")");
+    thread.start();
+  }
+
+  /** Ends the race, closing the sockets of the attempts other than the winner. */
+  private void finish(Attempt winner) {
+    List<Attempt> started;
+    synchronized (this) {
+      mDone = true;
+      started = new ArrayList<>(mStarted);
+    }
+    for (Attempt attempt : started) {
+      if (attempt != winner) {
+        attempt.close();
+      }
+    }
+  }
+
+  /**
+   * Creates a socket with the options of the specified configuration, not connected yet.
+   *
+   * @param cfg the configuration
+   * @return the unconnected socket
+   * @throws IOException if an option could not be set
+   */
+  static Socket openSocket(ConnectionConfiguration cfg) throws IOException {
+    Socket socket = new Socket();
+    // Set before connecting, the receive buffer bounds the window negotiated
+    socket.setTcpNoDelay(cfg.isTcpNoDelay());
+    socket.setKeepAlive(cfg.isKeepAlive());
+    if (cfg.getSendBufferSize() > 0) {
+      socket.setSendBufferSize(cfg.getSendBufferSize());
+    }
+    if (cfg.getReceiveBufferSize() > 0) {
+      socket.setReceiveBufferSize(cfg.getReceiveBufferSize());
+    }
+    if (cfg.getLinger() >= 0) {
+      socket.setSoLinger(true, cfg.getLinger());
+    }
+    return socket;
+  }
+
+  /** A connect to one address of an endpoint. */
+  class Attempt implements Runnable {
+
+    final Endpoint    mEndpoint;
+    final InetAddress mAddress;
+
+    // Set by the attempt before it completes, guarded by the race
+    private Socket      mSocket;
+    private IOException mFailure;
+    private Socket      mConnecting;
+
+    Attempt(Endpoint endpoint, InetAddress address) {
+      mEndpoint = endpoint;
+      mAddress = address;
+    }
+
+    Socket getSocket() {
+      return mSocket;
+    }
+
+    @Override
+    public void run() {
+      connect();
+      synchronized (ConnectRace.this) {
+        if (!mDone) {
+          mResults.add(this);
+          return;
+        }
+      }
+      // Lost the race
+      close();
+    }
+
+    /** Connects the socket, then records the health of the endpoint. */
+    void connect() {
+      long start = System.nanoTime();
+      Socket socket = null;
+      try {
+        socket = openSocket(mConfig);
+        synchronized (ConnectRace.this) {
+          if (mDone) {
+            socket.close();
+            return;
+          }
+          mConnecting = socket;
+        }
+        socket.connect(new InetSocketAddress(mAddress, mEndpoint.getPort()),
+                       mConfig.getConnectTimeout());
+        mEndpoint.recordSuccess(System.nanoTime() - start);
+        synchronized (ConnectRace.this) {
+          mSocket = socket;
+        }
+      } catch (IOException ioe) {
+        synchronized (ConnectRace.this) {
+          mFailure = ioe;
+          if (mDone) {
+            // Closed by the race, the endpoint did not fail
+            return;
+          }
+        }
+        LogUtils.w(TAG, "connect: Connect to {} ({}) failed.", mEndpoint, mAddress);
+        mEndpoint.recordFailure(System.nanoTime());
+        if (socket != null) {
+          try {
+            socket.close();
+          } catch (IOException e) {
+            // Ignore
+          }
+        }
+      }
+    }
+
+    /** Closes the socket of the attempt, connected or connecting. */
+    void close() {
+      Socket socket;
+      synchronized (ConnectRace.this) {
+        socket = mSocket != null ? mSocket : mConnecting;
+      }
+      if (socket != null) {
+        try {
+          socket.close();
+        } catch (IOException ioe) {
+          // Ignore
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,768 @@
+package ml.that.pigeon.conn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import ml.that.pigeon.auth.AdvancedAuthentication;
+import ml.that.pigeon.auth.AuthCallback;
+import ml.that.pigeon.auth.AuthFuture;
+import ml.that.pigeon.auth.AuthResult;
+import ml.that.pigeon.crypto.BodyCipher;
+import ml.that.pigeon.filter.MessageFilter;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+import ml.that.pigeon.msg.MessageView;
+import ml.that.pigeon.util.LogUtils;
+import ml.that.pigeon.util.RandomPool;
+
+/**
+ * Creates a socket connection to a JT/T808 server.
+ * <p>
+ * To create a connection to a JT/T808 server a simple usage of this API might looks like the
+ * following:
+ * <p>
+ * <pre>
+ *   // Create a configuration for new connection
+ *   ConnectionConfiguration cfg = new ConnectionConfiguration("10.1.5.21", 29930);
+ *   // Create a connection to the JT/T808 server
+ *   Connection conn = new Connection(cfg);
+ *   // Connect to the server
+ *   conn.connect();
+ *   // JT/T808 servers require you to login before performing other tasks
+ *   conn.login();
+ *   // Create a message to send
+ *   Message msg = new Message.Builder().build();
+ *   // Send the server a message
+ *   conn.sendMessage(msg);
+ *   // Disconnect from the server
+ *   conn.disconnect();
+ * </pre>
+ * <p>
+ * Connection can be reused between connections. This means that a Connection may be connected,
+ * disconnected, and then connected again. Listeners of the Connection will be retained across
+ * connections.
+ * <p>
+ * If a connected Connection gets disconnected abruptly and automatic reconnection is enabled
+ * ({@link ConnectionConfiguration#isReconnectionAllowed()}, the default), then it will try to
+ * reconnect again. To stop the reconnection process, use {@link #disconnect()}. Once stopped you
+ * can use {@link #connect()} to manually connect to the server.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class Connection {
+
+  private static final String TAG = LogUtils.makeTag(Connection.class);
+
+  // Time the writer is given to flush the frames queued when disconnecting, in milliseconds
+  private static final long FLUSH_TIMEOUT = 1000L;
+
+  /** Priority of the heartbeat, the authentication and the replies to commands. */
+  public static final int PRIORITY_CONTROL  = 0;
+  /** Priority of short messages, such as location reports. */
+  public static final int PRIORITY_REALTIME = 1;
+  /** Priority of long messages, such as uploads of media. */
+  public static final int PRIORITY_BULK     = 2;
+
+  // Holds the initial configuration used while creating the connection
+  private ConnectionConfiguration mConfig;
+
+  // The socket which is used for this connection
+  private Socket        mSocket;
+  private InputStream   mInput;
+  private OutputStream  mOutput;
+  private MessageReader mReader;
+  private MessageWriter mWriter;
+
+  private boolean mConnected     = false;
+  // Flag that indicates if the client is currently authenticated with the server
+  private volatile boolean mAuthenticated = false;
+  // The pending authentication, if any
+  private AuthFuture mLogin;
+
+  // mSocketClosed is used concurrent by Connection, MessageReader, MessageWriter
+  private volatile boolean mSocketClosed = false;
+
+  // The endpoint connected to last
+  private volatile Endpoint mEndpoint;
+
+  // A collection of MessageCollectors which collects messages for a specified filter and perform
+  // blocking and polling operations on the result queue.
+  private final Collection<MessageCollector>          mCollectors   = new ConcurrentLinkedQueue<>();
+  // List of MessageListeners that will be notified when a new message was received
+  private final Map<MessageListener, ListenerWrapper> mRcvListeners = new ConcurrentHashMap<>();
+  // List of MessageViewListeners that will be notified when a new message was read
+  private final Map<MessageViewListener, ViewListenerWrapper> mViewListeners =
+      new ConcurrentHashMap<>();
+  // List of MessageListeners that will be notified when a new messgae was sent
+  private final Map<MessageListener, ListenerWrapper> mSndListeners = new ConcurrentHashMap<>();
+
+  private final ConnectionMetrics mMetrics = new ConnectionMetrics(this);
+
+  /**
+   * Creates a new JT/T808 connection using the specified connection configuration.
+   * <p>
+   * Note that Connection constructors do not establish a connection to the server and you must call
+   * {@link #connect()}.
+   *
+   * @param cfg the configuration which is used to establish the connection
+   */
+  public Connection(ConnectionConfiguration cfg) {
+    mConfig = cfg;
+  }
+
+  /**
+   * Establishes a connection to the JT/T808 server and performs an automatic login only if the
+   * previous connection state was logged (authenticated). It basically creates and maintains a
+   * connection to the server.
+   * <p>
+   * Listeners will be preserved from a previous connection. When several endpoints are
+   * configured, they are raced and the first to accept the connection is used, see {@link
+   * ConnectionConfiguration#addEndpoint(String, int)}.
+   *
+   * @throws java.net.SocketTimeoutException if the socket did not connect in time, see {@link
+   *                                         ConnectionConfiguration#getConnectTimeout()}
+   * @throws IOException                     if no endpoint could be connected
+   */
+  public void connect() throws IOException {
+    // Seeds the nonces of the login while connecting
+    RandomPool.start();
+    ConnectRace.Attempt winner = new ConnectRace(mConfig).run();
+    mSocket = winner.getSocket();
+    mEndpoint = winner.mEndpoint;
+    mSocketClosed = false;
+    initConnection();
+  }
+
+  /**
+   * Returns the endpoint this connection is connected to, or was connected to last.
+   *
+   * @return the endpoint, or {@code null} if never connected
+   */
+  public Endpoint getEndpoint() {
+    return mEndpoint;
+  }
+
+  /**
+   * Closes the connection. The Connection can still be used for connecting to the server again.
+   * <p>
+   * The frames already queued are flushed first, for up to a second. The sends of the frames
+   * still queued after that, e.g. if the server stopped reading, fail.
+   */
+  public synchronized void disconnect() {
+    if (!isConnected()) {
+      return;
+    }
+
+    mConnected = false;
+    mAuthenticated = false;
+    mSocketClosed = true;
+
+    // The writer flushes the frames already queued before it stops, it is only waited for a
+    // while in case the server stopped reading
+    mWriter.shutdown();
+    mReader.shutdown();
+    if (!mWriter.awaitTermination(FLUSH_TIMEOUT)) {
+      LogUtils.w(TAG, "disconnect: Flush timed out, frames left unsent.");
+    }
+    try {
+      // Unblocks the reader, and the writer if the server stopped reading
+      mSocket.close();
+    } catch (IOException ioe) {
+      // Ignore
+    }
+  }
+
+  /**
+   * Logs in to the server using the strongest authentication mode supported by the server. If the
+   * server supports advanced authentication then the client will be authenticated using advanced if
+   * not basic authentication will be tried. If more than five seconds (default timeout) elapses in
+   * each step of the authentication process without a reply from the server, or if an error
+   * occurs.
+   * <p>
+   * Before logging in (i.e. authenticate) to the server the connection must be connected.
+   *
+   * @param auth the authentication code
+   * @see #loginAsync(String)
+   */
+  public void login(String auth) {
+    AuthFuture future = loginAsync(auth);
+    try {
+      mAuthenticated = future.get().isSuccess();
+    } catch (InterruptedException ie) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Starts logging in to the server and returns immediately, the authentication is carried on by
+   * the messages received from the server without blocking any thread. If a login is already in
+   * progress, its pending outcome is returned.
+   * <p>
+   * Before logging in (i.e. authenticate) to the server the connection must be connected.
+   *
+   * @param auth the authentication code
+   * @return the pending outcome of the authentication
+   */
+  public synchronized AuthFuture loginAsync(String auth) {
+    if (!isConnected()) {
+      throw new IllegalStateException("Not connected to server.");
+    }
+    if (isAuthenticated()) {
+      throw new IllegalStateException("Already logged in to server.");
+    }
+    if (mLogin != null && !mLogin.isDone()) {
+      return mLogin;
+    }
+
+    final long start = System.nanoTime();
+    // TODO: 2016/10/28 choose from basic and advanced authentication
+    mLogin = new AdvancedAuthentication(this).authenticateAsync(auth);
+    mLogin.addCallback(new AuthCallback() {
+      @Override
+      public void onComplete(AuthResult result) {
+        mAuthenticated = result.isSuccess();
+        mMetrics.recordLogin(System.nanoTime() - start);
+      }
+    });
+    return mLogin;
+  }
+
+  /**
+   * Sends the specified message with its default priority: control for the heartbeat, the
+   * registration, the authentication and the replies to commands, bulk for long messages and
+   * realtime otherwise.
+   *
+   * @param msg the message to send
+   * @return the future completed once the message is written
+   */
+  public SendFuture sendMessage(Message msg) {
+    if (msg == null) {
+      throw new NullPointerException("Message is null.");
+    }
+
+    return sendMessage(msg, FrameScheduler.priorityOf(msg.getId(), msg.isLong()));
+  }
+
+  /**
+   * Sends the specified message with the specified priority. Control messages are written before
+   * any other, and realtime messages share the connection with bulk ones by weight, see {@link
+   * ConnectionConfiguration#getRealtimeWeight()}. Messages of the same priority are written in
+   * order.
+   * <p>
+   * The message is written by a dedicated thread, the returned future completes once it has been
+   * flushed to the server, see {@link SendFuture}.
+   *
+   * @param msg      the message to send
+   * @param priority the priority, e.g. {@link #PRIORITY_REALTIME}
+   * @return the future completed once the message is written
+   */
+  public SendFuture sendMessage(Message msg, int priority) {
+    if (!isConnected()) {
+      throw new IllegalStateException("Not connected to server.");
+    }
+    if (msg == null) {
+      throw new NullPointerException("Message is null.");
+    }
+    checkPriority(priority);
+
+    return mWriter.sendMessage(msg, priority);
+  }
+
+  /**
+   * Sends the message held by the specified encoder with its default priority, see {@link
+   * #sendMessage(Message)}. The encoder is recycled once the message is queued, and must not be
+   * used afterwards.
+   *
+   * @param encoder the encoder holding the message to send
+   * @return the future completed once the message is written
+   */
+  public SendFuture sendMessage(MessageEncoder encoder) {
+    if (encoder == null) {
+      throw new NullPointerException("Message encoder is null.");
+    }
+
+    return sendMessage(encoder,
+                       FrameScheduler.priorityOf(encoder.getId(), encoder.getFrameCount() > 1));
+  }
+
+  /**
+   * Sends the message held by the specified encoder with the specified priority, see {@link
+   * #sendMessage(Message, int)}. The encoder is recycled once the message is queued, and must not
+   * be used afterwards.
+   *
+   * @param encoder  the encoder holding the message to send
+   * @param priority the priority, e.g. {@link #PRIORITY_REALTIME}
+   * @return the future completed once the message is written
+   */
+  public SendFuture sendMessage(MessageEncoder encoder, int priority) {
+    if (encoder == null) {
+      throw new NullPointerException("Message encoder is null.");
+    }
+    if (!isConnected()) {
+      encoder.recycle();
+      throw new IllegalStateException("Not connected to server.");
+    }
+    try {
+      checkPriority(priority);
+    } catch (IllegalArgumentException iae) {
+      encoder.recycle();
+      throw iae;
+    }
+
+    return mWriter.sendMessage(encoder, priority);
+  }
+
+  /**
+   * Sends the frames of a message encoded once for several connections, see {@link
+   * MessagePublisher}. Frames which are not copied are handed over, and recycled even if they are
+   * not sent.
+   *
+   * @param encoder  the encoder holding the message, which is only read
+   * @param frames   the frames encoded by the encoder
+   * @param copy     true to send copies of the frames under new serial numbers
+   * @param msg      the message to notify the send listeners with, or {@code null} if none
+   * @param priority the priority, e.g. {@link #PRIORITY_REALTIME}
+   * @return the future completed once the message is written, failed if not connected
+   */
+  SendFuture sendFrames(MessageEncoder encoder,
+                        Frame[] frames,
+                        boolean copy,
+                        Message msg,
+                        int priority) {
+    MessageWriter writer = mWriter;
+    if (!isConnected() || writer == null) {
+      if (!copy) {
+        for (Frame frame : frames) {
+          frame.recycle();
+        }
+      }
+      return SendFuture.failed(new IOException("Not connected to server."));
+    }
+
+    return writer.sendFrames(encoder, frames, copy, msg, priority);
+  }
+
+  /**
+   * Returns the configuration used to connect to the server.
+   *
+   * @return the configuration used to connect to the server
+   */
+  public ConnectionConfiguration getConfig() {
+    return mConfig;
+  }
+
+  public InputStream getInput() {
+    return mInput;
+  }
+
+  public OutputStream getOutput() {
+    return mOutput;
+  }
+
+  /**
+   * Returns true if currently connected to the JT/T808 server.
+   *
+   * @return true if connected
+   */
+  public boolean isConnected() {
+    return mConnected;
+  }
+
+  public boolean isAuthenticated() {
+    return mAuthenticated;
+  }
+
+  /**
+   * Returns true if the socket has been closed, either by {@link #disconnect()} or because the
+   * server closed it or it failed. The connection must be disconnected and connected again to be
+   * used after a failure.
+   *
+   * @return true if the socket is closed
+   */
+  public boolean isSocketClosed() {
+    return mSocketClosed;
+  }
+
+  /**
+   * Returns the metrics of this connection, which are kept across reconnections.
+   *
+   * @return the metrics of this connection
+   */
+  public ConnectionMetrics getMetrics() {
+    return mMetrics;
+  }
+
+  /**
+   * Returns the number of frames waiting to be written.
+   *
+   * @return the size of the write queue, or {@code 0} if never connected
+   */
+  int getWriteQueueSize() {
+    MessageWriter writer = mWriter;
+    return writer == null ? 0 : writer.getQueueSize();
+  }
+
+  /**
+   * Returns the number of received messages waiting to be delivered to the listeners.
+   *
+   * @return the size of the listener queue, or {@code 0} if never connected
+   */
+  int getListenerQueueSize() {
+    MessageReader reader = mReader;
+    return reader == null ? 0 : reader.getQueueSize();
+  }
+
+  /**
+   * Returns the time the connection stays idle before a heartbeat is sent, as learnt so far, see
+   * {@link ConnectionConfiguration#setHeartbeatInterval(long, long)}.
+   *
+   * @return the heartbeat interval in milliseconds, or {@code -1} if never connected
+   */
+  public long getHeartbeatInterval() {
+    MessageWriter writer = mWriter;
+    return writer == null ? -1 : writer.getHeartbeatInterval();
+  }
+
+  /**
+   * Returns the time the last bytes were read from the server.
+   *
+   * @return the timestamp in milliseconds, or {@code 0} if never connected
+   */
+  long getLastReceived() {
+    MessageReader reader = mReader;
+    return reader == null ? 0 : reader.getLastActive();
+  }
+
+  /** Notes that the server closed the socket or it failed, as seen by the reader or the writer. */
+  void notifySocketClosed() {
+    mSocketClosed = true;
+  }
+
+  /**
+   * Creates a new message collector for this connection. A message filter determines which messages
+   * will be accumulated by the collector. A MessageCollector is more suitable to use than a {@link
+   * MessageListener} when you need to wait for a specific result.
+   *
+   * @param filter the message filter to use
+   * @return a new message collector
+   */
+  public MessageCollector createMessageCollector(MessageFilter filter) {
+    MessageCollector collector = new MessageCollector(this, filter);
+    // Add the collector to the list of active collectors
+    mCollectors.add(collector);
+    return collector;
+  }
+
+  /**
+   * Removes a message collector of this connection.
+   *
+   * @param collector a message collector which was created for this connection
+   */
+  void removeMessageCollector(MessageCollector collector) {
+    mCollectors.remove(collector);
+  }
+
+  /**
+   * Get the collection of all message collectors for this connection.
+   *
+   * @return a collection of message collectors for this connection
+   */
+  public Collection<MessageCollector> getCollectors() {
+    return mCollectors;
+  }
+
+  /**
+   * Registers a message listener with this connection. A message filter determines which messages
+   * will be delivered to the listener. If the same message listener is added again with a different
+   * filter, only the new filter will be used.
+   *
+   * @param listener the message listener to notify of new received messages
+   * @param filter   the message filter to use
+   */
+  public void addRcvListener(MessageListener listener, MessageFilter filter) {
+    if (listener == null) {
+      throw new NullPointerException("Message listener is null.");
+    }
+
+    ListenerWrapper wrapper = new ListenerWrapper(listener, filter);
+    mRcvListeners.put(listener, wrapper);
+  }
+
+  /**
+   * Removes a message listener for received messages from this connection.
+   *
+   * @param listener the message listener to remove
+   */
+  public void removeRcvListener(MessageListener listener) {
+    mRcvListeners.remove(listener);
+  }
+
+  /**
+   * Get a map of all message listeners for received messages of this connection.
+   *
+   * @return a map of all message listeners for received messages
+   */
+  Map<MessageListener, ListenerWrapper> getRcvListeners() {
+    return mRcvListeners;
+  }
+
+  /**
+   * Registers a message view listener with this connection. The listener will be notified of every
+   * received message with the specified ID, before it is copied out of the pooled frame buffer. If
+   * the same listener is added again with a different ID, only the new ID will be used.
+   *
+   * @param listener the message view listener to notify of new received messages
+   * @param id       the message ID to listen for
+   */
+  public void addViewListener(MessageViewListener listener, short id) {
+    if (listener == null) {
+      throw new NullPointerException("Message view listener is null.");
+    }
+
+    mViewListeners.put(listener, new ViewListenerWrapper(listener, id));
+  }
+
+  /**
+   * Removes a message view listener from this connection.
+   *
+   * @param listener the message view listener to remove
+   */
+  public void removeViewListener(MessageViewListener listener) {
+    mViewListeners.remove(listener);
+  }
+
+  /**
+   * Get a map of all message view listeners of this connection.
+   *
+   * @return a map of all message view listeners
+   */
+  Map<MessageViewListener, ViewListenerWrapper> getViewListeners() {
+    return mViewListeners;
+  }
+
+  /**
+   * Registers a message listener with this connection. The listener will be notified of every
+   * message that this connection sends, once it has been written to the server. A message filter
+   * determines which messages will be delivered to the listener. Note that the thread that delivers
+   * received messages will be used to invoke the listeners. Therefore, each message listener
+   * should complete all operations quickly or use a different thread for processing. A {@link
+   * SentMessageListener} is also told when each message was written.
+   *
+   * @param listener the message listener to notify of sent messages
+   * @param filter   the message filter to use
+   */
+  public void addSndListener(MessageListener listener, MessageFilter filter) {
+    if (listener == null) {
+      throw new NullPointerException("Message listener is null.");
+    }
+
+    ListenerWrapper wrapper = new ListenerWrapper(listener, filter);
+    mSndListeners.put(listener, wrapper);
+  }
+
+  /**
+   * Removes a message listener for sending message from this connection.
+   *
+   * @param listener the message listener to remove
+   */
+  public void removeSndListener(MessageListener listener) {
+    mSndListeners.remove(listener);
+  }
+
+  /**
+   * Get a map of all message listeners for sending messages of this connection.
+   *
+   * @return a map of all message listeners for sent messages
+   */
+  Map<MessageListener, ListenerWrapper> getSndListeners() {
+    return mSndListeners;
+  }
+
+  /**
+   * Runs the specified notification on the thread delivering the messages to the listeners, or on
+   * the calling thread if the reader has been shut down.
+   *
+   * @param notification the notification to run
+   */
+  void deliver(Runnable notification) {
+    MessageReader reader = mReader;
+    if (reader == null || !reader.submit(notification)) {
+      notification.run();
+    }
+  }
+
+  static void checkPriority(int priority) {
+    if (priority < PRIORITY_CONTROL || priority > PRIORITY_BULK) {
+      throw new IllegalArgumentException("No such priority - " + priority);
+    }
+  }
+
+  /** Initializes the connection by creating a message reader and writer. */
+  private void initConnection() throws IOException {
+    boolean isFirstInit = (mReader == null || mWriter == null);
+
+    // Set the input stream and output stream instance variables
+    try {
+      mInput = mSocket.getInputStream();
+      mOutput = mSocket.getOutputStream();
+    } catch (IOException ioe) {
+      // An exception occurred in setting up the connection. Make sure we shut down the input
+      // stream and output stream and close the socket
+      if (mWriter != null) {
+        mWriter.shutdown();
+        mWriter = null;
+      }
+      if (mReader != null) {
+        mReader.shutdown();
+        mReader = null;
+      }
+      if (mInput != null) {
+        try {
+          mInput.close();
+        } catch (IOException e) {
+          // Ignore
+        }
+        mInput = null;
+      }
+      if (mOutput != null) {
+        try {
+          mOutput.close();
+        } catch (IOException e) {
+          // Ignore
+        }
+        mOutput = null;
+      }
+      if (mSocket != null) {
+        try {
+          mSocket.close();
+        } catch (IOException e) {
+          // Ignore
+        }
+        mSocket = null;
+      }
+
+      mConnected = false;
+
+      throw ioe;
+    }
+
+    if (isFirstInit) {
+      mWriter = new MessageWriter(this);
+      mReader = new MessageReader(this);
+    } else {
+      mWriter.init();
+      mReader.init();
+      mMetrics.recordReconnect();
+    }
+
+    // The server does not know the cipher session of a previous connection
+    BodyCipher cipher = mConfig.getBodyCipher();
+    if (cipher != null) {
+      cipher.reset();
+    }
+
+    // Start the message writer
+    mWriter.startup();
+    // Start the message reader, the startup() method will block until we get a packet from server
+    mReader.startup();
+
+    // Make note of the fact that we're now connected
+    mConnected = true;
+
+    // TODO: 2016/11/1 move this to when logged in
+    // Start keep alive process
+    mWriter.keepAlive();
+  }
+
+  /** A wrapper class to associate a message filter with a listener. */
+  static class ListenerWrapper {
+
+    private MessageListener listener;
+    private MessageFilter   filter;
+
+    /**
+     * Creates a class which associates a message filter with a listener.
+     *
+     * @param listener the message listener
+     * @param filter   the associated filter or {@code null} if it listen for all messages
+     */
+    public ListenerWrapper(MessageListener listener, MessageFilter filter) {
+      this.listener = listener;
+      this.filter = filter;
+    }
+
+    /**
+     * Notify and process the message listener if the filter matches the message.
+     *
+     * @param msg the message which was sent or received
+     * @return true if the listener was notified
+     */
+    public boolean notifyListener(Message msg) {
+      if (this.filter == null || this.filter.accept(msg)) {
+        listener.processMessage(msg);
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Notify the send listener if the filter matches the message written.
+     *
+     * @param msg      the message which was written
+     * @param sentTime the time the message was flushed
+     */
+    public void notifySent(Message msg, long sentTime) {
+      if (this.filter == null || this.filter.accept(msg)) {
+        if (listener instanceof SentMessageListener) {
+          ((SentMessageListener) listener).processSent(msg, sentTime);
+        } else {
+          listener.processMessage(msg);
+        }
+      }
+    }
+
+    public MessageListener getListener() {
+      return listener;
+    }
+
+  }
+
+  /** A wrapper class to associate a message ID with a view listener. */
+  static class ViewListenerWrapper {
+
+    private MessageViewListener listener;
+    private short               id;
+
+    public ViewListenerWrapper(MessageViewListener listener, short id) {
+      this.listener = listener;
+      this.id = id;
+    }
+
+    /**
+     * Notify and process the view listener if the message ID matches the view.
+     *
+     * @param view the message view which was received
+     */
+    public void notifyListener(MessageView view) {
+      if (this.id != view.getId()) {
+        return;
+      }
+      // Invoked on the reader thread, which a failing listener must not kill
+      try {
+        listener.processView(view);
+      } catch (RuntimeException re) {
+        LogUtils.w(TAG, "notifyListener: View listener failed.", re);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,735 @@
+package ml.that.pigeon.conn;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ml.that.pigeon.auth.SessionCache;
+import ml.that.pigeon.crypto.BodyCipher;
+import ml.that.pigeon.journal.FrameJournal;
+import ml.that.pigeon.msg.MessageRegistry;
+
+/**
+ * Configuration to use while establishing the connection to the server.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class ConnectionConfiguration {
+
+  private String mHost;
+  private int    mPort;
+
+  // Front-ends to connect to in order of preference, the host and port above first
+  private final List<Endpoint> mEndpoints = new CopyOnWriteArrayList<>();
+  // Time to wait for a connect before racing the next endpoint, in milliseconds
+  private long                 mConnectStagger = 250L;
+
+  // Time to wait for the socket to connect, in milliseconds, 0 to wait forever
+  private int  mConnectTimeout  = 10000;
+  // Time the resolved addresses of the host are reused for, in milliseconds, 0 to resolve each time
+  private long mAddressCacheTtl = 300000L;
+
+  // Socket options, the buffer sizes and the linger time are left to the system if negative
+  private boolean mTcpNoDelay        = true;
+  private boolean mKeepAlive         = false;
+  private int     mSendBufferSize    = -1;
+  private int     mReceiveBufferSize = -1;
+  private int     mLinger            = -1;
+
+  // Flag that indicates if a reconnection should be attempted when abruptly disconnected
+  private boolean mReconnectionAllowed = true;
+
+  // Registry used to turn received messages into typed messages
+  private MessageRegistry mRegistry = MessageRegistry.getDefault();
+
+  // Journal to capture the raw frames on the wire into, or null if not captured
+  private FrameJournal mJournal = null;
+
+  // Time to wait for the reply to each step of the authentication, in milliseconds
+  private long mAuthTimeout = 5000L;
+  // Number of times the message of a step is sent again when the step times out
+  private int  mAuthRetries = 0;
+
+  // Time the connection may stay idle before a heartbeat is sent, in milliseconds. The interval
+  // is probed from the minimum up to the maximum, see MessageWriter.keepAlive()
+  private long           mMinHeartbeat      = 30000L;
+  private long           mMaxHeartbeat      = 300000L;
+  // Time to wait for the reply to a heartbeat, in milliseconds
+  private long           mHeartbeatTimeout  = 10000L;
+  // Time after which an interval known to fail is probed again, in milliseconds
+  private long           mHeartbeatLimitTtl = 86400000L;
+  // Store of the heartbeat intervals learnt, or null if only kept by the connection
+  private KeepAliveStore mKeepAliveStore    = null;
+
+  // Sessions of previous logins to try again on reconnection, or null to always run the full
+  // handshake
+  private SessionCache mSessionCache = null;
+
+  // Cipher stage for the bodies of messages with the RSA cipher bit set, or null if not encrypted
+  private BodyCipher mBodyCipher = null;
+
+  // Tracer of a sample of the messages through their lifecycle, or null if not traced
+  private MessageTracer mTracer = null;
+
+  // Number of realtime frames written for each bulk frame, while both are waiting
+  private int mRealtimeWeight = 4;
+
+  // Rate limits of the frames written, 0 if unlimited
+  private double mMessageRate  = 0;
+  private int    mMessageBurst = 0;
+  private double mByteRate     = 0;
+  private int    mByteBurst    = 0;
+
+  // Key extractors of the coalesced messages by message ID
+  private final Map<Short, CoalescingKey> mCoalescing = new ConcurrentHashMap<>();
+
+  // Coalesces the messages by ID only
+  private static final CoalescingKey BY_ID = new CoalescingKey() {
+    @Override
+    public Object keyOf(short id, byte[] body, int off, int len) {
+      return id;
+    }
+  };
+
+  /**
+   * Creates a new ConnectionConfiguration for a connection that will connect to the desired host
+   * and port.
+   *
+   * @param host the host where the JT/T808 server is running
+   * @param port the port where the JT/T808 server is listening
+   */
+  public ConnectionConfiguration(String host, int port) {
+    mHost = host;
+    mPort = port;
+    mEndpoints.add(new Endpoint(host, port));
+  }
+
+  public String getHost() {
+    return mHost;
+  }
+
+  public int getPort() {
+    return mPort;
+  }
+
+  /**
+   * Adds a front-end to connect to, after the ones already added. The host and port of the
+   * constructor are the first one.
+   * <p>
+   * When connecting, the endpoints are tried in order, each in parallel with the previous ones
+   * once they have not connected for {@link #getConnectStagger()}, or right away when they fail.
+   * The first socket to connect is kept, the others are closed. The addresses of a host are tried
+   * in turn in the same manner. An endpoint which failed recently is tried after the others, so a
+   * reconnection fails over to a working front-end in about a round trip.
+   *
+   * @param host the host where the JT/T808 server is running
+   * @param port the port where the JT/T808 server is listening
+   * @return the added endpoint, which tells the health of the front-end
+   */
+  public Endpoint addEndpoint(String host, int port) {
+    Endpoint endpoint = new Endpoint(host, port);
+    mEndpoints.add(endpoint);
+    return endpoint;
+  }
+
+  /**
+   * Returns the front-ends to connect to, in order of preference.
+   *
+   * @return an unmodifiable list of the endpoints
+   */
+  public List<Endpoint> getEndpoints() {
+    return Collections.unmodifiableList(mEndpoints);
+  }
+
+  /**
+   * Returns the time to wait for a connect before trying the next endpoint or address in parallel.
+   * The default is 250 milliseconds.
+   *
+   * @return the stagger of the connects, in milliseconds
+   */
+  public long getConnectStagger() {
+    return mConnectStagger;
+  }
+
+  /**
+   * Sets the time to wait for a connect before trying the next endpoint or address in parallel,
+   * see {@link #addEndpoint(String, int)}. It should be a little longer than a usual round trip to
+   * the preferred endpoint.
+   *
+   * @param stagger the stagger of the connects, in milliseconds
+   */
+  public void setConnectStagger(long stagger) {
+    if (stagger <= 0) {
+      throw new IllegalArgumentException("Connect stagger must be positive.");
+    }
+
+    mConnectStagger = stagger;
+  }
+
+  /**
+   * Returns the time to wait for the socket to connect to the server. The default is 10 seconds.
+   *
+   * @return the connect timeout in milliseconds, or {@code 0} to wait forever
+   */
+  public int getConnectTimeout() {
+    return mConnectTimeout;
+  }
+
+  /**
+   * Sets the time to wait for the socket to connect to the server, after which {@link
+   * Connection#connect()} fails with a {@link java.net.SocketTimeoutException}. Without a timeout,
+   * connecting through a route which drops the packets hangs for minutes.
+   *
+   * @param timeout the connect timeout in milliseconds, or {@code 0} to wait forever
+   */
+  public void setConnectTimeout(int timeout) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Connect timeout must not be negative.");
+    }
+
+    mConnectTimeout = timeout;
+  }
+
+  /**
+   * Returns the time the resolved addresses of the host are reused for. The default is 5 minutes.
+   *
+   * @return the time to live of the resolved addresses in milliseconds, or {@code 0} if not cached
+   */
+  public long getAddressCacheTtl() {
+    return mAddressCacheTtl;
+  }
+
+  /**
+   * Sets the time the resolved addresses of the host are reused for, so a reconnection does not
+   * wait for the name resolution. The addresses are resolved again once a connection to them
+   * fails.
+   *
+   * @param ttl the time to live of the resolved addresses in milliseconds, or {@code 0} to resolve
+   *            the host on each connection
+   */
+  public void setAddressCacheTtl(long ttl) {
+    if (ttl < 0) {
+      throw new IllegalArgumentException("Address cache TTL must not be negative.");
+    }
+
+    mAddressCacheTtl = ttl;
+  }
+
+  /**
+   * Returns if Nagle's algorithm is disabled on the socket ({@code TCP_NODELAY}). By default it is
+   * disabled.
+   *
+   * @return true if small frames are sent right away
+   */
+  public boolean isTcpNoDelay() {
+    return mTcpNoDelay;
+  }
+
+  /**
+   * Sets if Nagle's algorithm is disabled on the socket ({@code TCP_NODELAY}). The frames of the
+   * protocol are small and mostly wait for a reply, so holding them back until the previous one is
+   * acknowledged costs tens of milliseconds per round trip. The writer already batches the frames
+   * queued meanwhile into a single flush.
+   *
+   * @param noDelay true to send small frames right away
+   */
+  public void setTcpNoDelay(boolean noDelay) {
+    mTcpNoDelay = noDelay;
+  }
+
+  /**
+   * Returns if TCP keep-alive probes are enabled on the socket ({@code SO_KEEPALIVE}). By default
+   * they are disabled, the heartbeat keeps the connection alive.
+   *
+   * @return true if keep-alive probes are enabled
+   */
+  public boolean isKeepAlive() {
+    return mKeepAlive;
+  }
+
+  /**
+   * Sets if TCP keep-alive probes are enabled on the socket ({@code SO_KEEPALIVE}).
+   *
+   * @param keepAlive true to enable keep-alive probes
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    mKeepAlive = keepAlive;
+  }
+
+  /**
+   * Returns the size of the send buffer of the socket ({@code SO_SNDBUF}).
+   *
+   * @return the size in bytes, or {@code -1} if left to the system
+   */
+  public int getSendBufferSize() {
+    return mSendBufferSize;
+  }
+
+  /**
+   * Sets the size of the send buffer of the socket ({@code SO_SNDBUF}). The system may adjust it.
+   *
+   * @param size the size in bytes, or {@code -1} to leave it to the system
+   */
+  public void setSendBufferSize(int size) {
+    checkBufferSize(size);
+
+    mSendBufferSize = size;
+  }
+
+  /**
+   * Returns the size of the receive buffer of the socket ({@code SO_RCVBUF}).
+   *
+   * @return the size in bytes, or {@code -1} if left to the system
+   */
+  public int getReceiveBufferSize() {
+    return mReceiveBufferSize;
+  }
+
+  /**
+   * Sets the size of the receive buffer of the socket ({@code SO_RCVBUF}). It is set before
+   * connecting, so it applies to the window negotiated with the server. The system may adjust it.
+   *
+   * @param size the size in bytes, or {@code -1} to leave it to the system
+   */
+  public void setReceiveBufferSize(int size) {
+    checkBufferSize(size);
+
+    mReceiveBufferSize = size;
+  }
+
+  /**
+   * Returns the time closing the socket waits for the data left to be sent ({@code SO_LINGER}).
+   *
+   * @return the linger time in seconds, or {@code -1} if lingering is disabled
+   */
+  public int getLinger() {
+    return mLinger;
+  }
+
+  /**
+   * Sets the time closing the socket waits for the data left to be sent ({@code SO_LINGER}). A
+   * linger time of {@code 0} resets the connection on close, dropping the data left. By default
+   * lingering is disabled, the data left is sent in the background.
+   *
+   * @param linger the linger time in seconds, or {@code -1} to disable lingering
+   */
+  public void setLinger(int linger) {
+    if (linger < -1) {
+      throw new IllegalArgumentException("Linger must be -1 or more.");
+    }
+
+    mLinger = linger;
+  }
+
+  private static void checkBufferSize(int size) {
+    if (size == 0 || size < -1) {
+      throw new IllegalArgumentException("Buffer size must be positive or -1.");
+    }
+  }
+
+  /**
+   * Returns if the reconnection mechanism is allowed to be used. By default reconnection is
+   * allowed. You can disable the reconnection mechanism with
+   * {@link #setReconnectionAllowed(boolean)}.
+   *
+   * @return true, if the reconnection mechanism is enabled
+   */
+  public boolean isReconnectionAllowed() {
+    return mReconnectionAllowed;
+  }
+
+  /**
+   * Sets if the reconnection mechanism is allowed to be used. By default reconnection is allowed.
+   *
+   * @param allowed if the reconnection mechanism should be enabled for this connection
+   */
+  public void setReconnectionAllowed(boolean allowed) {
+    mReconnectionAllowed = allowed;
+  }
+
+  /**
+   * Returns the registry used to decode received messages into typed messages.
+   *
+   * @return the message registry
+   */
+  public MessageRegistry getMessageRegistry() {
+    return mRegistry;
+  }
+
+  /**
+   * Sets the registry used to decode received messages into typed messages. By default, the
+   * {@link MessageRegistry#getDefault() default registry} is used.
+   *
+   * @param registry the message registry
+   */
+  public void setMessageRegistry(MessageRegistry registry) {
+    if (registry == null) {
+      throw new NullPointerException("Message registry is null.");
+    }
+
+    mRegistry = registry;
+  }
+
+  /**
+   * Returns the journal which the raw frames sent and received by the connection are captured into.
+   *
+   * @return the journal, or {@code null} if frames are not captured
+   */
+  public FrameJournal getJournal() {
+    return mJournal;
+  }
+
+  /**
+   * Sets the journal to capture every raw frame sent and received by the connection into, a record
+   * per frame. By default frames are not captured.
+   *
+   * @param journal the journal, or {@code null} to stop capturing
+   */
+  public void setJournal(FrameJournal journal) {
+    mJournal = journal;
+  }
+
+  /**
+   * Returns the time to wait for the reply to each step of the authentication. The default is 5
+   * seconds.
+   *
+   * @return the timeout of each step, in milliseconds
+   */
+  public long getAuthTimeout() {
+    return mAuthTimeout;
+  }
+
+  /**
+   * Sets the time to wait for the reply to each step of the authentication.
+   *
+   * @param timeout the timeout of each step, in milliseconds
+   */
+  public void setAuthTimeout(long timeout) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("Auth timeout must be positive.");
+    }
+
+    mAuthTimeout = timeout;
+  }
+
+  /**
+   * Returns the number of times the message of an authentication step is sent again when the step
+   * times out. By default steps are not retried.
+   *
+   * @return the number of retries of each step
+   */
+  public int getAuthRetries() {
+    return mAuthRetries;
+  }
+
+  /**
+   * Sets the number of times the message of an authentication step is sent again when the step
+   * times out.
+   *
+   * @param retries the number of retries of each step
+   */
+  public void setAuthRetries(int retries) {
+    if (retries < 0) {
+      throw new IllegalArgumentException("Auth retries is less than 0.");
+    }
+
+    mAuthRetries = retries;
+  }
+
+  /**
+   * Returns the shortest time the connection stays idle before a heartbeat is sent. The default is
+   * 30 seconds.
+   *
+   * @return the minimum heartbeat interval, in milliseconds
+   */
+  public long getMinHeartbeatInterval() {
+    return mMinHeartbeat;
+  }
+
+  /**
+   * Returns the longest time the connection stays idle before a heartbeat is sent. The default is
+   * 5 minutes.
+   *
+   * @return the maximum heartbeat interval, in milliseconds
+   */
+  public long getMaxHeartbeatInterval() {
+    return mMaxHeartbeat;
+  }
+
+  /**
+   * Sets the range of the time the connection stays idle before a heartbeat is sent.
+   * <p>
+   * The interval starts from the minimum, or from the one learnt before, and longer intervals are
+   * probed up to the maximum. An interval is confirmed once its heartbeats are answered a few
+   * times in a row. A heartbeat which is not answered, or which resets the connection, means the
+   * interval is longer than the idle timeout of a NAT on the way: the connection falls back to
+   * the last interval confirmed, and the probing narrows down below the one which failed. Set both
+   * to the same value for a fixed interval.
+   *
+   * @param min the minimum interval, also the precision of the probing, in milliseconds
+   * @param max the maximum interval, in milliseconds
+   */
+  public void setHeartbeatInterval(long min, long max) {
+    if (min <= 0) {
+      throw new IllegalArgumentException("Heartbeat interval must be positive.");
+    }
+    if (max < min) {
+      throw new IllegalArgumentException("Max heartbeat interval is less than min.");
+    }
+
+    mMinHeartbeat = min;
+    mMaxHeartbeat = max;
+  }
+
+  /**
+   * Returns the time to wait for the reply to a heartbeat before it is missed. The default is 10
+   * seconds.
+   *
+   * @return the heartbeat timeout, in milliseconds
+   */
+  public long getHeartbeatTimeout() {
+    return mHeartbeatTimeout;
+  }
+
+  /**
+   * Sets the time to wait for the reply to a heartbeat before it is missed.
+   *
+   * @param timeout the heartbeat timeout, in milliseconds
+   */
+  public void setHeartbeatTimeout(long timeout) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("Heartbeat timeout must be positive.");
+    }
+
+    mHeartbeatTimeout = timeout;
+  }
+
+  /**
+   * Returns the time after which a heartbeat interval known to fail is forgotten. The default is
+   * 1 day.
+   *
+   * @return the time to live of the limit, in milliseconds, or {@code -1} if never forgotten
+   */
+  public long getHeartbeatLimitTtl() {
+    return mHeartbeatLimitTtl;
+  }
+
+  /**
+   * Sets the time after which a heartbeat interval known to fail is forgotten, so that longer
+   * intervals are probed again, e.g. once the NAT which timed out has been replaced. A limit
+   * loaded from the keep-alive store counts from the time it is loaded.
+   *
+   * @param ttl the time to live of the limit, in milliseconds, or {@code -1} to never forget it
+   */
+  public void setHeartbeatLimitTtl(long ttl) {
+    if (ttl <= 0 && ttl != -1) {
+      throw new IllegalArgumentException("Heartbeat limit TTL must be positive.");
+    }
+
+    mHeartbeatLimitTtl = ttl;
+  }
+
+  /**
+   * Returns the store of the heartbeat intervals learnt.
+   *
+   * @return the keep-alive store, or {@code null} if the intervals are not persisted
+   */
+  public KeepAliveStore getKeepAliveStore() {
+    return mKeepAliveStore;
+  }
+
+  /**
+   * Sets the store of the heartbeat intervals learnt for each network and endpoint. Without a
+   * store the interval learnt is kept by the connection, across its reconnections only.
+   *
+   * @param store the keep-alive store, or {@code null} to not persist the intervals
+   */
+  public void setKeepAliveStore(KeepAliveStore store) {
+    mKeepAliveStore = store;
+  }
+
+  /**
+   * Returns the cache of the sessions negotiated by previous logins.
+   *
+   * @return the session cache, or {@code null} if sessions are not cached
+   */
+  public SessionCache getSessionCache() {
+    return mSessionCache;
+  }
+
+  /**
+   * Sets the cache of the sessions negotiated by previous logins. When the cache holds a session
+   * with the server, logging in again takes a single round trip if the server accepts it. Only set
+   * it if the server accepts a challenge response without a new challenge. By default sessions are
+   * not cached.
+   *
+   * @param cache the session cache, or {@code null} to always run the full handshake
+   */
+  public void setSessionCache(SessionCache cache) {
+    mSessionCache = cache;
+  }
+
+  /**
+   * Returns the cipher which encrypts and decrypts the bodies of messages with the {@link
+   * ml.that.pigeon.msg.Message#CIPHER_RSA RSA} cipher bit set.
+   *
+   * @return the body cipher, or {@code null} if bodies are sent and received as is
+   */
+  public BodyCipher getBodyCipher() {
+    return mBodyCipher;
+  }
+
+  /**
+   * Sets the cipher which encrypts and decrypts the bodies of messages with the {@link
+   * ml.that.pigeon.msg.Message#CIPHER_RSA RSA} cipher bit set. By default bodies are sent and
+   * received as is, whatever the cipher bit.
+   *
+   * @param cipher the body cipher, or {@code null} to send and receive bodies as is
+   */
+  public void setBodyCipher(BodyCipher cipher) {
+    mBodyCipher = cipher;
+  }
+
+  /**
+   * Returns the tracer of the lifecycle of a sample of the messages sent and received.
+   *
+   * @return the message tracer, or {@code null} if messages are not traced
+   */
+  public MessageTracer getTracer() {
+    return mTracer;
+  }
+
+  /**
+   * Sets the tracer of the lifecycle of a sample of the messages sent and received. By default
+   * messages are not traced.
+   *
+   * @param tracer the message tracer, or {@code null} to stop tracing
+   */
+  public void setTracer(MessageTracer tracer) {
+    mTracer = tracer;
+  }
+
+  /**
+   * Returns the number of realtime frames written for each bulk frame, while frames of both
+   * priorities are waiting. The default is 4.
+   *
+   * @return the weight of the realtime frames
+   * @see Connection#PRIORITY_REALTIME
+   */
+  public int getRealtimeWeight() {
+    return mRealtimeWeight;
+  }
+
+  /**
+   * Sets the number of realtime frames written for each bulk frame, while frames of both
+   * priorities are waiting. Control frames are always written first, whatever the weight.
+   *
+   * @param weight the weight of the realtime frames
+   */
+  public void setRealtimeWeight(int weight) {
+    if (weight <= 0) {
+      throw new IllegalArgumentException("Realtime weight must be positive.");
+    }
+
+    mRealtimeWeight = weight;
+  }
+
+  public double getMessageRate() {
+    return mMessageRate;
+  }
+
+  public int getMessageBurst() {
+    return mMessageBurst;
+  }
+
+  /**
+   * Limits the rate of the frames written to the server, e.g. to the number of messages per second
+   * a platform accepts from a terminal. Each packet of a long message counts as a message. Up to
+   * <tt>burst</tt> frames are written at once after an idle period, then no more than
+   * <tt>rate</tt> per second.
+   * <p>
+   * Control frames, such as the heartbeat and the authentication, are never held back, but they
+   * count against the limit. Other frames wait in the queue by priority, see {@link
+   * Connection#sendMessage(ml.that.pigeon.msg.Message, int)}. The limit must be set before
+   * connecting. By default the rate is not limited.
+   *
+   * @param rate  the frames written per second, or {@code 0} for no limit
+   * @param burst the largest number of frames written at once
+   */
+  public void setMessageRate(double rate, int burst) {
+    checkRate(rate, burst);
+
+    mMessageRate = rate;
+    mMessageBurst = burst;
+  }
+
+  public double getByteRate() {
+    return mByteRate;
+  }
+
+  public int getByteBurst() {
+    return mByteBurst;
+  }
+
+  /**
+   * Limits the bytes written to the server, flags and escape bytes included, in the same manner as
+   * {@link #setMessageRate(double, int)}. A frame larger than the burst waits for a full bucket.
+   * The limit must be set before connecting. By default the rate is not limited.
+   *
+   * @param rate  the bytes written per second, or {@code 0} for no limit
+   * @param burst the largest number of bytes written at once
+   */
+  public void setByteRate(double rate, int burst) {
+    checkRate(rate, burst);
+
+    mByteRate = rate;
+    mByteBurst = burst;
+  }
+
+  private static void checkRate(double rate, int burst) {
+    if (!(rate >= 0)) {
+      throw new IllegalArgumentException("Rate must not be negative.");
+    }
+    if (rate > 0 && burst <= 0) {
+      throw new IllegalArgumentException("Burst must be positive.");
+    }
+  }
+
+  /**
+   * Returns the key extractor of the messages with the specified ID, if they are coalesced.
+   *
+   * @param id the message ID
+   * @return the key extractor, or {@code null} if the messages are not coalesced
+   */
+  public CoalescingKey getCoalescing(short id) {
+    return mCoalescing.get(id);
+  }
+
+  /**
+   * Coalesces the messages with the specified ID: a message sent while an older one with the same
+   * key is still waiting to be written replaces it in the queue, instead of being queued after it.
+   * Only the newest value is then written, in the place of the oldest one, which bounds the queue
+   * and the bytes sent when the connection is slow. It suits periodic status reports, where a
+   * stale report is worthless once a newer one exists.
+   * <p>
+   * Long messages are never coalesced. By default no message is coalesced.
+   *
+   * @param id  the message ID
+   * @param key the key extractor, or {@code null} to coalesce by message ID only
+   */
+  public void setCoalescing(short id, CoalescingKey key) {
+    mCoalescing.put(id, key != null ? key : BY_ID);
+  }
+
+  /**
+   * Stops coalescing the messages with the specified ID.
+   *
+   * @param id the message ID
+   */
+  public void removeCoalescing(short id) {
+    mCoalescing.remove(id);
+  }
+
+}
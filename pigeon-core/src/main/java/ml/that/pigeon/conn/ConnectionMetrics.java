@@ -0,0 +1,419 @@
+package ml.that.pigeon.conn;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ml.that.pigeon.util.RandomPool;
+import ml.that.pigeon.util.StripedCounter;
+
+/**
+ * Counters of the traffic and the internals of a {@link Connection}, kept across reconnections.
+ * <p>
+ * The counters are updated by the reader, the writer and the callers of the connection with
+ * striped counters, so they cost little on the hot paths. They are read through a {@link
+ * Snapshot}, which can be handed to an external registry as a map of named values, see {@link
+ * Snapshot#toMap()}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see Connection#getMetrics()
+ */
+public class ConnectionMetrics {
+
+  private final Connection mConnection;
+
+  private final StripedCounter mBytesIn        = new StripedCounter();
+  private final StripedCounter mBytesOut       = new StripedCounter();
+  private final StripedCounter mFramesIn       = new StripedCounter();
+  private final StripedCounter mFramesOut      = new StripedCounter();
+  private final StripedCounter mDecodeNanos    = new StripedCounter();
+  private final StripedCounter mEncodes        = new StripedCounter();
+  private final StripedCounter mEncodeNanos    = new StripedCounter();
+  private final StripedCounter mCollectorDrops = new StripedCounter();
+  private final StripedCounter mCoalesced      = new StripedCounter();
+  private final StripedCounter mThrottles      = new StripedCounter();
+  private final StripedCounter mThrottleNanos  = new StripedCounter();
+  private final StripedCounter mHeartbeats     = new StripedCounter();
+  private final StripedCounter mReconnects     = new StripedCounter();
+  private final StripedCounter mEscapeErrors   = new StripedCounter();
+  private final StripedCounter mFrameErrors    = new StripedCounter();
+  private final StripedCounter mLogins         = new StripedCounter();
+  private final StripedCounter mLoginNanos     = new StripedCounter();
+
+  private final AtomicLong mWriteQueueHighWater = new AtomicLong();
+
+  // If the rate limits are holding a frame back
+  private volatile boolean mThrottled = false;
+
+  ConnectionMetrics(Connection conn) {
+    mConnection = conn;
+  }
+
+  /**
+   * Takes a snapshot of the counters. Each value is read atomically, but the snapshot as a whole
+   * is not if the connection is active meanwhile.
+   *
+   * @return the current values of the counters
+   */
+  public Snapshot snapshot() {
+    return new Snapshot(this,
+                        mConnection.getWriteQueueSize(),
+                        mConnection.getListenerQueueSize(),
+                        RandomPool.getDefault().getUnderruns());
+  }
+
+  void recordRead(int bytes) {
+    mBytesIn.add(bytes);
+  }
+
+  void recordFrameIn() {
+    mFramesIn.increment();
+  }
+
+  void recordDecode(long nanos) {
+    mDecodeNanos.add(nanos);
+  }
+
+  void recordFrameOut(int bytes) {
+    mFramesOut.increment();
+    mBytesOut.add(bytes);
+  }
+
+  void recordEncode(long nanos) {
+    mEncodes.increment();
+    mEncodeNanos.add(nanos);
+  }
+
+  void recordWriteQueueSize(int size) {
+    long highWater;
+    while (size > (highWater = mWriteQueueHighWater.get())) {
+      if (mWriteQueueHighWater.compareAndSet(highWater, size)) {
+        return;
+      }
+    }
+  }
+
+  void recordCollectorDrop() {
+    mCollectorDrops.increment();
+  }
+
+  void recordCoalesced() {
+    mCoalesced.increment();
+  }
+
+  void recordThrottled() {
+    mThrottles.increment();
+    mThrottled = true;
+  }
+
+  void recordUnthrottled(long nanos) {
+    mThrottleNanos.add(nanos);
+    mThrottled = false;
+  }
+
+  void recordHeartbeat() {
+    mHeartbeats.increment();
+  }
+
+  void recordReconnect() {
+    mReconnects.increment();
+  }
+
+  void recordEscapeError() {
+    mEscapeErrors.increment();
+  }
+
+  void recordFrameError() {
+    mFrameErrors.increment();
+  }
+
+  void recordLogin(long nanos) {
+    mLogins.increment();
+    mLoginNanos.add(nanos);
+  }
+
+  /** The values of the counters of a connection at a point in time. */
+  public static class Snapshot {
+
+    private final long    mBytesIn;
+    private final long    mBytesOut;
+    private final long    mFramesIn;
+    private final long    mFramesOut;
+    private final long    mDecodeNanos;
+    private final long    mEncodes;
+    private final long    mEncodeNanos;
+    private final long    mCollectorDrops;
+    private final long    mCoalesced;
+    private final long    mThrottles;
+    private final long    mThrottleNanos;
+    private final long    mHeartbeats;
+    private final long    mReconnects;
+    private final long    mEscapeErrors;
+    private final long    mFrameErrors;
+    private final long    mLogins;
+    private final long    mLoginNanos;
+    private final long    mWriteQueueHighWater;
+    private final long    mNonceUnderruns;
+    private final int     mWriteQueueSize;
+    private final int     mListenerQueueSize;
+    private final boolean mThrottled;
+
+    Snapshot(ConnectionMetrics metrics, int writeQueueSize, int listenerQueueSize,
+             long nonceUnderruns) {
+      mBytesIn = metrics.mBytesIn.sum();
+      mBytesOut = metrics.mBytesOut.sum();
+      mFramesIn = metrics.mFramesIn.sum();
+      mFramesOut = metrics.mFramesOut.sum();
+      mDecodeNanos = metrics.mDecodeNanos.sum();
+      mEncodes = metrics.mEncodes.sum();
+      mEncodeNanos = metrics.mEncodeNanos.sum();
+      mCollectorDrops = metrics.mCollectorDrops.sum();
+      mCoalesced = metrics.mCoalesced.sum();
+      mThrottles = metrics.mThrottles.sum();
+      mThrottleNanos = metrics.mThrottleNanos.sum();
+      mThrottled = metrics.mThrottled;
+      mHeartbeats = metrics.mHeartbeats.sum();
+      mReconnects = metrics.mReconnects.sum();
+      mEscapeErrors = metrics.mEscapeErrors.sum();
+      mFrameErrors = metrics.mFrameErrors.sum();
+      mLogins = metrics.mLogins.sum();
+      mLoginNanos = metrics.mLoginNanos.sum();
+      mWriteQueueHighWater = metrics.mWriteQueueHighWater.get();
+      mWriteQueueSize = writeQueueSize;
+      mListenerQueueSize = listenerQueueSize;
+      mNonceUnderruns = nonceUnderruns;
+    }
+
+    /**
+     * Returns the number of bytes read from the server, including flags and escape bytes.
+     *
+     * @return the number of bytes read
+     */
+    public long getBytesIn() {
+      return mBytesIn;
+    }
+
+    /**
+     * Returns the number of bytes written to the server, including flags and escape bytes.
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesOut() {
+      return mBytesOut;
+    }
+
+    public long getFramesIn() {
+      return mFramesIn;
+    }
+
+    public long getFramesOut() {
+      return mFramesOut;
+    }
+
+    /**
+     * Returns the time spent unescaping, checking and decoding the frames read, view listeners
+     * excluded.
+     *
+     * @return the decoding time, in nanoseconds
+     */
+    public long getDecodeNanos() {
+      return mDecodeNanos;
+    }
+
+    /**
+     * Returns the number of messages encoded into frames to send.
+     *
+     * @return the number of messages encoded
+     */
+    public long getEncodes() {
+      return mEncodes;
+    }
+
+    /**
+     * Returns the time spent encrypting and encoding the messages to send into frames, on the
+     * calling threads.
+     *
+     * @return the encoding time, in nanoseconds
+     */
+    public long getEncodeNanos() {
+      return mEncodeNanos;
+    }
+
+    /**
+     * Returns the number of frames waiting to be written when the snapshot was taken.
+     *
+     * @return the size of the write queue
+     */
+    public int getWriteQueueSize() {
+      return mWriteQueueSize;
+    }
+
+    /**
+     * Returns the largest number of frames ever waiting to be written.
+     *
+     * @return the high-water mark of the write queue
+     */
+    public long getWriteQueueHighWater() {
+      return mWriteQueueHighWater;
+    }
+
+    /**
+     * Returns the number of queued messages replaced by a newer one before being written, see
+     * {@link ConnectionConfiguration#setCoalescing(short, CoalescingKey)}.
+     *
+     * @return the number of messages coalesced
+     */
+    public long getCoalesced() {
+      return mCoalesced;
+    }
+
+    /**
+     * Returns if the rate limits were holding a frame back when the snapshot was taken, see {@link
+     * ConnectionConfiguration#setMessageRate(double, int)}.
+     *
+     * @return {@code true} if the writer was throttled
+     */
+    public boolean isThrottled() {
+      return mThrottled;
+    }
+
+    /**
+     * Returns the number of times the rate limits held a frame back.
+     *
+     * @return the number of throttles
+     */
+    public long getThrottles() {
+      return mThrottles;
+    }
+
+    /**
+     * Returns the total time the rate limits held frames back, excluding the current throttle.
+     *
+     * @return the throttled time, in nanoseconds
+     */
+    public long getThrottleNanos() {
+      return mThrottleNanos;
+    }
+
+    /**
+     * Returns the number of messages dropped by collectors because their result queue was full.
+     *
+     * @return the number of messages dropped by collectors
+     */
+    public long getCollectorDrops() {
+      return mCollectorDrops;
+    }
+
+    /**
+     * Returns the number of received messages waiting to be delivered to the listeners when the
+     * snapshot was taken.
+     *
+     * @return the size of the listener queue
+     */
+    public int getListenerQueueSize() {
+      return mListenerQueueSize;
+    }
+
+    public long getHeartbeats() {
+      return mHeartbeats;
+    }
+
+    /**
+     * Returns the number of times the connection was connected again after its first connection.
+     *
+     * @return the number of reconnections
+     */
+    public long getReconnects() {
+      return mReconnects;
+    }
+
+    /**
+     * Returns the number of logins completed, successful or not.
+     *
+     * @return the number of logins
+     */
+    public long getLogins() {
+      return mLogins;
+    }
+
+    /**
+     * Returns the total time taken by the completed logins.
+     *
+     * @return the login time, in nanoseconds
+     */
+    public long getLoginNanos() {
+      return mLoginNanos;
+    }
+
+    /**
+     * Returns the number of login nonces generated on the authenticating thread because the pool
+     * of nonces was empty, see {@link RandomPool#getUnderruns()}. The pool is shared by all
+     * connections, and so is the count.
+     *
+     * @return the number of nonce underruns
+     */
+    public long getNonceUnderruns() {
+      return mNonceUnderruns;
+    }
+
+    /**
+     * Returns the number of frames dropped because of an illegal escape sequence.
+     *
+     * @return the number of escape errors
+     */
+    public long getEscapeErrors() {
+      return mEscapeErrors;
+    }
+
+    /**
+     * Returns the number of frames dropped because they were too long, or their length, cipher
+     * mode or XOR check was wrong.
+     *
+     * @return the number of malformed frames
+     */
+    public long getFrameErrors() {
+      return mFrameErrors;
+    }
+
+    /**
+     * Returns the values of the snapshot by name, in a stable order. The names are suitable for
+     * registering the values as gauges or counters of an external metrics registry.
+     *
+     * @return an unmodifiable map of the values by name
+     */
+    public Map<String, Long> toMap() {
+      Map<String, Long> map = new LinkedHashMap<>();
+      map.put("bytes.in", mBytesIn);
+      map.put("bytes.out", mBytesOut);
+      map.put("frames.in", mFramesIn);
+      map.put("frames.out", mFramesOut);
+      map.put("decode.nanos", mDecodeNanos);
+      map.put("encodes", mEncodes);
+      map.put("encode.nanos", mEncodeNanos);
+      map.put("write.queue.size", (long) mWriteQueueSize);
+      map.put("write.queue.high.water", mWriteQueueHighWater);
+      map.put("write.coalesced", mCoalesced);
+      map.put("write.throttled", mThrottled ? 1L : 0L);
+      map.put("write.throttles", mThrottles);
+      map.put("write.throttle.nanos", mThrottleNanos);
+      map.put("collector.drops", mCollectorDrops);
+      map.put("listener.queue.size", (long) mListenerQueueSize);
+      map.put("heartbeats", mHeartbeats);
+      map.put("reconnects", mReconnects);
+      map.put("logins", mLogins);
+      map.put("login.nanos", mLoginNanos);
+      map.put("nonce.underruns", mNonceUnderruns);
+      map.put("errors.escape", mEscapeErrors);
+      map.put("errors.frame", mFrameErrors);
+      return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public String toString() {
+      return toMap().toString();
+    }
+
+  }
+
+}
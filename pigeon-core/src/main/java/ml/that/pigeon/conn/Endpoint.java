@@ -0,0 +1,117 @@
+package ml.that.pigeon.conn;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A front-end of the platform a connection may connect to, along with what the connection learnt
+ * about it: the time its last connect took, and the connects which failed since the last success.
+ * <p>
+ * The health is used to order the endpoints when connecting, see {@link
+ * ConnectionConfiguration#addEndpoint(String, int)}. It is kept by the configuration, so it is
+ * shared by the connections using the same configuration.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class Endpoint {
+
+  private final String mHost;
+  private final int    mPort;
+
+  // Time the last successful connect took, in nanoseconds, -1 if never connected. Written holding
+  // the lock
+  private volatile long mRtt      = -1;
+  private volatile int  mFailures = 0;
+  // Time of the last failed connect, in nanoseconds
+  private volatile long mFailedAt;
+
+  // Addresses of the host resolved last, and when, reused by the reconnections, guarded by this
+  private InetAddress[] mAddresses;
+  private long          mResolvedAt;
+
+  Endpoint(String host, int port) {
+    if (host == null) {
+      throw new NullPointerException("Host is null.");
+    }
+    if (port <= 0 || port > 0xffff) {
+      throw new IllegalArgumentException("Illegal port - " + port);
+    }
+
+    mHost = host;
+    mPort = port;
+  }
+
+  public String getHost() {
+    return mHost;
+  }
+
+  public int getPort() {
+    return mPort;
+  }
+
+  /**
+   * Returns the time the last successful connect to this endpoint took, which is about a round
+   * trip.
+   *
+   * @return the connect time in nanoseconds, or {@code -1} if never connected
+   */
+  public long getRtt() {
+    return mRtt;
+  }
+
+  /**
+   * Returns the number of connects to this endpoint which failed since the last successful one.
+   *
+   * @return the number of consecutive failures
+   */
+  public int getFailures() {
+    return mFailures;
+  }
+
+  /**
+   * Returns if a connect to this endpoint failed recently.
+   *
+   * @param now     the current time, in nanoseconds
+   * @param penalty the time a failed endpoint stays failed, in milliseconds
+   * @return true if the last connect failed less than <tt>penalty</tt> ago
+   */
+  boolean isFailing(long now, long penalty) {
+    return mFailures > 0 && now - mFailedAt < TimeUnit.MILLISECONDS.toNanos(penalty);
+  }
+
+  synchronized void recordSuccess(long rtt) {
+    mRtt = rtt;
+    mFailures = 0;
+  }
+
+  synchronized void recordFailure(long now) {
+    mFailedAt = now;
+    mFailures++;
+    // The host may have moved
+    mAddresses = null;
+  }
+
+  /**
+   * Returns the addresses of the host, resolved again once their time to live has elapsed.
+   *
+   * @param ttl the time to live of the resolved addresses, in milliseconds
+   * @return the addresses of the host
+   * @throws UnknownHostException if the host could not be resolved
+   */
+  synchronized InetAddress[] resolve(long ttl) throws UnknownHostException {
+    long now = System.nanoTime();
+    if (mAddresses == null || ttl == 0
+        || now - mResolvedAt >= TimeUnit.MILLISECONDS.toNanos(ttl)) {
+      mAddresses = InetAddress.getAllByName(mHost);
+      mResolvedAt = now;
+    }
+    return mAddresses;
+  }
+
+  @Override
+  public String toString() {
+    return mHost + ":" + mPort;
+  }
+
+}
@@ -0,0 +1,337 @@
+package ml.that.pigeon.conn;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import ml.that.pigeon.msg.AuthenticateRequest;
+import ml.that.pigeon.msg.ChallengeResponse;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.HeartbeatMessage;
+import ml.that.pigeon.msg.LoginResponse;
+import ml.that.pigeon.msg.RegisterRequest;
+import ml.that.pigeon.util.TokenBucket;
+
+/**
+ * The queue of the frames waiting to be written, split into a lane per priority.
+ * <p>
+ * Control frames are always written first, so a heartbeat or a step of the authentication never
+ * waits behind data. Realtime and bulk frames share the rest of the connection by weight: when
+ * both are waiting, one bulk frame is written after every {@link
+ * ConnectionConfiguration#getRealtimeWeight()} realtime frames, so a long upload keeps progressing
+ * without holding up the realtime messages.
+ * <p>
+ * The frames other than control ones may be held back by token buckets, which limit the rate of
+ * the frames and the bytes written, see {@link ConnectionConfiguration#setMessageRate(double,
+ * int)}. The frames held back stay in the queue in order, so a control frame still goes first.
+ * <p>
+ * A frame queued with a coalescing key replaces the frame with the same key still waiting, if any,
+ * so it takes its place instead of being queued after it.
+ * <p>
+ * Frames are queued by any thread, but taken by the writer thread only.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see Connection#PRIORITY_CONTROL
+ */
+class FrameScheduler {
+
+  // The terminal generic reply, answering the commands of the server
+  private static final short TERMINAL_GENERIC_REPLY_ID = 0x0001;
+
+  private static final int LANE_CAPACITY = 500;
+
+  private final BlockingQueue<Frame> mControl  = new ArrayBlockingQueue<>(LANE_CAPACITY, true);
+  private final BlockingQueue<Frame> mRealtime = new ArrayBlockingQueue<>(LANE_CAPACITY, true);
+  private final BlockingQueue<Frame> mBulk     = new ArrayBlockingQueue<>(LANE_CAPACITY, true);
+
+  private final ConnectionConfiguration mConfig;
+  private final ConnectionMetrics       mMetrics;
+
+  // Rate limits of the frames and the bytes written, null if unlimited
+  private final TokenBucket mMessages;
+  private final TokenBucket mBytes;
+
+  // Time the rate limits started holding the frames back, 0 if they do not, and the time until
+  // they let the next frame through, only used by the writer thread
+  private long mThrottledSince = 0;
+  private long mDelay          = 0;
+
+  // Waiting frames queued with a coalescing key, by key and the other way round, guarded by
+  // mCoalesced
+  private final Map<Key, Frame>    mCoalesced = new HashMap<>();
+  private final Map<Frame, Key>    mKeys      = new IdentityHashMap<>();
+
+  // Number of the waiting frames queued with a coalescing key, so the writer only takes the lock
+  // when there are some
+  private volatile int mCoalescedCount = 0;
+
+  // Realtime frames taken since the last bulk frame, only used by the writer thread
+  private int mRealtimeRun = 0;
+
+  FrameScheduler(ConnectionConfiguration cfg, ConnectionMetrics metrics) {
+    mConfig = cfg;
+    mMetrics = metrics;
+    mMessages = cfg.getMessageRate() > 0
+                ? new TokenBucket(cfg.getMessageRate(), cfg.getMessageBurst()) : null;
+    mBytes = cfg.getByteRate() > 0 ? new TokenBucket(cfg.getByteRate(), cfg.getByteBurst()) : null;
+  }
+
+  /**
+   * Returns the default priority of a message: control for the heartbeat, the registration, the
+   * authentication and the replies to commands, bulk for long messages, realtime otherwise.
+   *
+   * @param id     the message ID
+   * @param isLong if the message is split into several packets
+   * @return the priority of the message
+   */
+  static int priorityOf(short id, boolean isLong) {
+    switch (id) {
+      case HeartbeatMessage.ID:
+      case RegisterRequest.ID:
+      case AuthenticateRequest.ID:
+      case ChallengeResponse.ID:
+      case LoginResponse.ID:
+      case TERMINAL_GENERIC_REPLY_ID:
+        return Connection.PRIORITY_CONTROL;
+      default:
+        return isLong ? Connection.PRIORITY_BULK : Connection.PRIORITY_REALTIME;
+    }
+  }
+
+  /**
+   * Queues a frame in the lane of the specified priority, waiting if the lane is full.
+   *
+   * @param frame    the frame to queue
+   * @param priority the priority of the frame
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void put(Frame frame, int priority) throws InterruptedException {
+    laneOf(priority).put(frame);
+  }
+
+  /**
+   * Replaces the waiting frame queued with the same key by a copy of the specified frame, or queues
+   * the frame in the lane of the specified priority if there is none. The specified frame is
+   * recycled if it replaced another one.
+   *
+   * @param frame    the frame to queue
+   * @param priority the priority of the frame
+   * @param id       the message ID
+   * @param key      the coalescing key of the message
+   * @return {@code true} if the frame replaced a waiting one, {@code false} if it was queued
+   * @throws InterruptedException if interrupted while waiting
+   */
+  boolean put(Frame frame, int priority, short id, Object key) throws InterruptedException {
+    BlockingQueue<Frame> lane = laneOf(priority);
+    Key k = new Key(id, key);
+    synchronized (mCoalesced) {
+      Frame waiting = mCoalesced.get(k);
+      if (waiting != null) {
+        // The writer has not taken the waiting frame yet, it removes the key before writing it
+        Object superseded = waiting.getAttachment();
+        waiting.copyFrom(frame);
+        if (superseded instanceof SendFuture && frame.getAttachment() instanceof SendFuture) {
+          ((SendFuture) frame.getAttachment()).supersede((SendFuture) superseded);
+        }
+        frame.recycle();
+        return true;
+      }
+      mCoalesced.put(k, frame);
+      mKeys.put(frame, k);
+      mCoalescedCount++;
+    }
+
+    // Queued out of the lock, which is taken by the writer to write the frames
+    try {
+      lane.put(frame);
+    } catch (InterruptedException ie) {
+      release(frame);
+      throw ie;
+    }
+    return false;
+  }
+
+  /**
+   * Takes the next frame to write, or returns {@code null} if no frame is waiting or the rate
+   * limits hold the next one back, see {@link #getDelay()}.
+   *
+   * @return the next frame to write
+   */
+  Frame poll() {
+    BlockingQueue<Frame> lane = nextLane();
+    if (lane == null) {
+      return null;
+    }
+
+    if (mMessages != null || mBytes != null) {
+      long now = System.nanoTime();
+      Frame next = lane.peek();
+      if (lane != mControl) {
+        mDelay = delayOf(next, now);
+        if (mDelay > 0) {
+          if (mThrottledSince == 0) {
+            mThrottledSince = now;
+            mMetrics.recordThrottled();
+          }
+          return null;
+        }
+        // The throttle only ends once a data frame gets through, not a control frame meanwhile
+        if (mThrottledSince != 0) {
+          mMetrics.recordUnthrottled(now - mThrottledSince);
+          mThrottledSince = 0;
+        }
+      }
+      // Control frames are never held back, but they count against the limits
+      if (mMessages != null) {
+        mMessages.take(1, now);
+      }
+      if (mBytes != null) {
+        mBytes.take(next.length(), now);
+      }
+    }
+    return take(lane);
+  }
+
+  /**
+   * Takes the next frame to write whatever the rate limits, or returns {@code null} if no frame is
+   * waiting. Used to flush the queue when the writer is shut down.
+   *
+   * @return the next frame to write
+   */
+  Frame drain() {
+    BlockingQueue<Frame> lane = nextLane();
+    return lane != null ? take(lane) : null;
+  }
+
+  /**
+   * Returns the time until the rate limits let the next frame through, once {@link #poll()} has
+   * returned {@code null} with frames waiting.
+   *
+   * @return the time to wait in nanoseconds, or {@code 0} to wait for a frame to be queued
+   */
+  long getDelay() {
+    return mThrottledSince != 0 ? mDelay : 0;
+  }
+
+  /** Returns the lane of the next frame to write, or {@code null} if no frame is waiting. */
+  private BlockingQueue<Frame> nextLane() {
+    if (!mControl.isEmpty()) {
+      return mControl;
+    }
+    if (mRealtimeRun < mConfig.getRealtimeWeight() && !mRealtime.isEmpty()) {
+      return mRealtime;
+    }
+    if (!mBulk.isEmpty()) {
+      return mBulk;
+    }
+    // No bulk frame is waiting for its turn
+    return mRealtime.isEmpty() ? null : mRealtime;
+  }
+
+  /** Takes the head of a lane which is not empty, only the writer thread takes frames. */
+  private Frame take(BlockingQueue<Frame> lane) {
+    Frame frame = lane.poll();
+    if (lane == mRealtime) {
+      mRealtimeRun = mRealtimeRun < mConfig.getRealtimeWeight() ? mRealtimeRun + 1 : 1;
+    } else if (lane == mBulk) {
+      mRealtimeRun = 0;
+    }
+    if (mCoalescedCount > 0) {
+      release(frame);
+    }
+    return frame;
+  }
+
+  private long delayOf(Frame frame, long now) {
+    long delay = 0;
+    if (mMessages != null) {
+      delay = mMessages.delay(1, now);
+    }
+    if (mBytes != null) {
+      delay = Math.max(delay, mBytes.delay(frame.length(), now));
+    }
+    return delay;
+  }
+
+  int size() {
+    return mControl.size() + mRealtime.size() + mBulk.size();
+  }
+
+  void clear() {
+    mControl.clear();
+    mRealtime.clear();
+    mBulk.clear();
+    mRealtimeRun = 0;
+    if (mThrottledSince != 0) {
+      mMetrics.recordUnthrottled(System.nanoTime() - mThrottledSince);
+      mThrottledSince = 0;
+    }
+    synchronized (mCoalesced) {
+      mCoalesced.clear();
+      mKeys.clear();
+      mCoalescedCount = 0;
+    }
+  }
+
+  /**
+   * Forgets the coalescing key of a frame, if any, so it is no longer replaced.
+   *
+   * @param frame the frame taken off the queue
+   */
+  private void release(Frame frame) {
+    synchronized (mCoalesced) {
+      Key key = mKeys.remove(frame);
+      if (key != null) {
+        mCoalesced.remove(key);
+        mCoalescedCount--;
+      }
+    }
+  }
+
+  private BlockingQueue<Frame> laneOf(int priority) {
+    switch (priority) {
+      case Connection.PRIORITY_CONTROL:
+        return mControl;
+      case Connection.PRIORITY_REALTIME:
+        return mRealtime;
+      case Connection.PRIORITY_BULK:
+        return mBulk;
+      default:
+        throw new IllegalArgumentException("No such priority - " + priority);
+    }
+  }
+
+  /** The coalescing key of a message, qualified by its ID. */
+  private static final class Key {
+
+    private final short  mId;
+    private final Object mValue;
+
+    Key(short id, Object value) {
+      mId = id;
+      mValue = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key) o;
+      return mId == key.mId && mValue.equals(key.mValue);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * mId + mValue.hashCode();
+    }
+
+  }
+
+}
@@ -0,0 +1,50 @@
+package ml.that.pigeon.conn;
+
+/**
+ * Persists the heartbeat interval learnt for each endpoint, see {@link
+ * ConnectionConfiguration#setKeepAliveStore(KeepAliveStore)}, so that a new connection starts
+ * from it instead of probing again. Since the idle timeout is set by the NATs on the way, the
+ * values are also keyed by the network the device is on, as told by {@link #getNetwork()}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface KeepAliveStore {
+
+  /**
+   * Returns the network the device is on. The connection learns an interval for each network and
+   * endpoint, and starts over from the stored one when the network changes.
+   *
+   * @return a key of the network, or {@code null} if the networks are not told apart
+   */
+  String getNetwork();
+
+  /**
+   * Returns the longest heartbeat interval confirmed with the specified endpoint.
+   *
+   * @param network  the network, as returned by {@link #getNetwork()}
+   * @param endpoint the endpoint, as <tt>host:port</tt>
+   * @return the interval in milliseconds, or {@code -1} if none
+   */
+  long getInterval(String network, String endpoint);
+
+  /**
+   * Returns the shortest heartbeat interval known to fail with the specified endpoint.
+   *
+   * @param network  the network, as returned by {@link #getNetwork()}
+   * @param endpoint the endpoint, as <tt>host:port</tt>
+   * @return the interval in milliseconds, or {@code -1} if none
+   */
+  long getLimit(String network, String endpoint);
+
+  /**
+   * Stores what was learnt about the specified endpoint. Invoked by the keep-alive thread each
+   * time it changes, which is seldom.
+   *
+   * @param network  the network, as returned by {@link #getNetwork()}
+   * @param endpoint the endpoint, as <tt>host:port</tt>
+   * @param interval the longest interval confirmed, in milliseconds
+   * @param limit    the shortest interval known to fail, in milliseconds, or {@code -1} if none
+   */
+  void put(String network, String endpoint, long interval, long limit);
+
+}
@@ -6,6 +6,8 @@ import java.util.concurrent.TimeUnit;
 
 import ml.that.pigeon.filter.MessageFilter;
 import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.util.EventSink;
+import ml.that.pigeon.util.EventUtils;
 
 /**
  * Provides a mechanism to collect messages into a result queue that pass a specified filter. The
@@ -53,7 +55,14 @@ public class MessageCollector {
     if (mFilter == null || mFilter.accept(msg)) {
       while (!mQueue.offer(msg)) {
         // Since we know the queue is full, this poll should never actually block
-        mQueue.poll();
+        Message dropped = mQueue.poll();
+        if (dropped != null) {
+          mConnection.getMetrics().recordCollectorDrop();
+          EventSink events = EventUtils.getSink();
+          if (events.isEnabled()) {
+            events.onCollectorDrop(dropped.getId());
+          }
+        }
       }
     }
   }
@@ -0,0 +1,166 @@
+package ml.that.pigeon.conn;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+
+/**
+ * Sends the same messages to several connections, e.g. a terminal reporting to several platforms
+ * at once.
+ * <p>
+ * A message is encoded into frames once. Each connection is then given a copy of the frames with
+ * its own serial number, where only the serial number and the checksum are encoded again, and the
+ * last one is given the frames themselves. The body is only encoded per connection when it is
+ * encrypted by the body cipher of the connection, since the cipher sessions differ.
+ * <pre>
+ *   MessagePublisher publisher = new MessagePublisher();
+ *   publisher.addConnection(conn1);
+ *   publisher.addConnection(conn2);
+ *   MessageEncoder encoder = MessageEncoder.obtain(id);
+ *   encoder.putInt(alarm).putInt(status).putInt(lat).putInt(lng);
+ *   // The publisher recycles the encoder once the frames are queued
+ *   publisher.publish(encoder);
+ * </pre>
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class MessagePublisher {
+
+  private final List<Connection> mConnections = new CopyOnWriteArrayList<>();
+
+  /**
+   * Adds a connection the messages are published to.
+   *
+   * @param conn the connection
+   */
+  public void addConnection(Connection conn) {
+    if (conn == null) {
+      throw new NullPointerException("Connection is null.");
+    }
+
+    mConnections.add(conn);
+  }
+
+  /**
+   * Removes a connection the messages are published to.
+   *
+   * @param conn the connection
+   */
+  public void removeConnection(Connection conn) {
+    mConnections.remove(conn);
+  }
+
+  /**
+   * Returns the connections the messages are published to, in order.
+   *
+   * @return an unmodifiable list of the connections
+   */
+  public List<Connection> getConnections() {
+    return Collections.unmodifiableList(mConnections);
+  }
+
+  /**
+   * Publishes the message held by the specified encoder with its default priority, see {@link
+   * Connection#sendMessage(MessageEncoder)}.
+   *
+   * @param encoder the encoder holding the message to publish
+   * @return the futures of the message on each connection, in order
+   */
+  public List<SendFuture> publish(MessageEncoder encoder) {
+    if (encoder == null) {
+      throw new NullPointerException("Message encoder is null.");
+    }
+
+    return publish(encoder,
+                   FrameScheduler.priorityOf(encoder.getId(), encoder.getFrameCount() > 1));
+  }
+
+  /**
+   * Publishes the message held by the specified encoder with the specified priority, see {@link
+   * Connection#sendMessage(MessageEncoder, int)}. The encoder is recycled once the message is
+   * queued on every connection, and must not be used afterwards.
+   * <p>
+   * A connection which is not connected does not fail the others, its future fails instead.
+   *
+   * @param encoder  the encoder holding the message to publish
+   * @param priority the priority, e.g. {@link Connection#PRIORITY_REALTIME}
+   * @return the futures of the message on each connection, in order
+   */
+  public List<SendFuture> publish(MessageEncoder encoder, int priority) {
+    if (encoder == null) {
+      throw new NullPointerException("Message encoder is null.");
+    }
+    try {
+      Connection.checkPriority(priority);
+    } catch (IllegalArgumentException iae) {
+      encoder.recycle();
+      throw iae;
+    }
+
+    List<Connection> conns = new ArrayList<>(mConnections);
+    // The last connection sharing the frames is given them, the others copies
+    int last = -1;
+    for (int i = 0; i < conns.size(); i++) {
+      if (!encrypts(conns.get(i), encoder)) {
+        last = i;
+      }
+    }
+
+    List<SendFuture> futures = new ArrayList<>(conns.size());
+    Frame[] frames = null;
+    Message msg = null;
+    try {
+      for (int i = 0; i < conns.size(); i++) {
+        Connection conn = conns.get(i);
+        if (i != last && encrypts(conn, encoder)) {
+          futures.add(sendEncrypted(conn, encoder, priority));
+          continue;
+        }
+
+        if (frames == null) {
+          frames = new Frame[encoder.getFrameCount()];
+          for (int j = 0; j < frames.length; j++) {
+            frames[j] = encoder.encodeFrame(j);
+          }
+        }
+        // The send listeners of every connection are given the same message
+        if (msg == null && !conn.getSndListeners().isEmpty()) {
+          msg = encoder.toMessage();
+        }
+        boolean copy = i != last;
+        futures.add(conn.sendFrames(encoder, frames, copy, msg, priority));
+        if (!copy) {
+          frames = null;
+        }
+      }
+    } finally {
+      if (frames != null) {
+        for (Frame frame : frames) {
+          frame.recycle();
+        }
+      }
+      encoder.recycle();
+    }
+    return futures;
+  }
+
+  /** Returns if the body of the message is encrypted by the body cipher of the connection. */
+  private static boolean encrypts(Connection conn, MessageEncoder encoder) {
+    return encoder.getCipher() == Message.CIPHER_RSA && conn.getConfig().getBodyCipher() != null;
+  }
+
+  /** Sends a copy of the message to a connection encrypting it with its own cipher session. */
+  private static SendFuture sendEncrypted(Connection conn, MessageEncoder encoder, int priority) {
+    try {
+      return conn.sendMessage(encoder.copy(), priority);
+    } catch (IllegalStateException ise) {
+      return SendFuture.failed(ise);
+    }
+  }
+
+}
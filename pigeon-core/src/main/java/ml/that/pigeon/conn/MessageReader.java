@@ -0,0 +1,444 @@
+package ml.that.pigeon.conn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ml.that.pigeon.conn.Connection.ListenerWrapper;
+import ml.that.pigeon.conn.Connection.ViewListenerWrapper;
+import ml.that.pigeon.crypto.BodyCipher;
+import ml.that.pigeon.crypto.CryptoExecutor;
+import ml.that.pigeon.journal.FrameJournal;
+import ml.that.pigeon.msg.FrameBuffer;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageView;
+import ml.that.pigeon.msg.Packet;
+import ml.that.pigeon.msg.ServerGenericReply;
+import ml.that.pigeon.util.EventSink;
+import ml.that.pigeon.util.EventUtils;
+import ml.that.pigeon.util.LogUtils;
+
+/**
+ * Listens for packet traffic from the JT/T808 server and parse it into message objects.
+ * <p>
+ * The message reader also invokes all message listeners and collectors.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+class MessageReader {
+
+  private static final String TAG = LogUtils.makeTag(MessageReader.class);
+
+  private static final int  READ_BUFFER_SIZE = 1024;
+  private static final byte FLAG             = 0x7e;
+
+  // Waits for the rest of a frame shorter than this are not reported as stalls, in nanoseconds
+  private static final long STALL_THRESHOLD = 1000000L;
+
+  private Connection         mConnection;
+  private InputStream        mInput;
+  private Thread             mReadThread;
+  private ThreadPoolExecutor mExecutor;
+
+  private volatile boolean mDone;
+
+  // Timestamp when the last bytes were read from the server, used by the keep alive process to
+  // only count a heartbeat as a probe when the connection has been idle both ways
+  private volatile long mLastActive;
+
+  /**
+   * Creates a new message reader with the specified connection.
+   *
+   * @param conn the connection
+   */
+  MessageReader(Connection conn) {
+    mConnection = conn;
+    init();
+  }
+
+  /**
+   * Initializes the reader in order to be used. The reader is initialized during the first
+   * connection and when reconnecting due to an abruptly disconnection.
+   */
+  void init() {
+    mDone = false;
+    mInput = mConnection.getInput();
+    mLastActive = System.currentTimeMillis();
+
+    mReadThread = new ReadThread();
+    // TODO: 10/24/2016 add connection count to the name
+    mReadThread.setName("Pigeon Message Reader ( )");
+    mReadThread.setDaemon(true);
+
+    // Create an executor to deliver incoming messages to listeners. We'll use a single thread with
+    // an unbounded queue, whose size is reported by the metrics
+    mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                       new LinkedBlockingQueue<Runnable>());
+  }
+
+  /** Starts the packet read thread. */
+  public synchronized void startup() {
+    mReadThread.start();
+  }
+
+  /** Shuts the message reader down. */
+  public void shutdown() {
+    mDone = true;
+    // Messages already read are still delivered
+    mExecutor.shutdown();
+  }
+
+  /**
+   * Returns the number of received messages waiting to be delivered to the listeners.
+   *
+   * @return the size of the delivery queue
+   */
+  int getQueueSize() {
+    return mExecutor.getQueue().size();
+  }
+
+  /**
+   * Returns the time the last bytes were read from the server.
+   *
+   * @return the timestamp, in milliseconds
+   */
+  long getLastActive() {
+    return mLastActive;
+  }
+
+  /** Splits the stream into frames in order to process them further. */
+  private void readPackets() {
+    try {
+      byte[] buf = new byte[READ_BUFFER_SIZE];
+      // The frame being read as on the wire, from its opening flag to its closing one. Every byte
+      // of a frame may be escaped to two
+      byte[] frame = new byte[FrameBuffer.CAPACITY * 2 + 2];
+      // Length of the frame being read, its opening flag included, or -1 if no frame has started
+      // or it is being skipped
+      int frameLen = -1;
+      int len;
+      while (!mDone) {
+        // Only a wait in the middle of a frame is a stall, the server may be silent between frames
+        EventSink events = EventUtils.getSink();
+        boolean timed = frameLen > 1 && events.isEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        if ((len = mInput.read(buf)) == -1) {
+          break;
+        }
+        if (timed) {
+          long stall = System.nanoTime() - start;
+          if (stall >= STALL_THRESHOLD) {
+            events.onReadStall(frameLen, stall);
+          }
+        }
+
+        if (len > 0) {
+          mLastActive = System.currentTimeMillis();
+          mConnection.getMetrics().recordRead(len);
+        }
+        for (int i = 0; i < len; i++) {
+          if (buf[i] == FLAG) {
+            // A flag ends the current frame, and starts the next one
+            if (frameLen > 1) {
+              frame[frameLen++] = FLAG;
+              processFrame(frame, frameLen);
+            }
+            frame[0] = FLAG;
+            frameLen = 1;
+          } else if (frameLen >= frame.length - 1) {
+            LogUtils.w(TAG, "readPackets: Frame too long, skip to the next flag.");
+            mConnection.getMetrics().recordFrameError();
+            frameLen = -1;
+          } else if (frameLen >= 0) {
+            frame[frameLen++] = buf[i];
+          }
+        }
+      }
+      if (!mDone) {
+        LogUtils.w(TAG, "readPackets: Connection closed by server.");
+        mConnection.notifySocketClosed();
+      }
+    } catch (IOException ioe) {
+      // The exception can be ignored if the connection is done
+      if (!mDone) {
+        LogUtils.w(TAG, "readPackets: Read from server failed.", ioe);
+        mConnection.notifySocketClosed();
+      }
+    }
+  }
+
+  /**
+   * Unescapes a frame into a pooled buffer and dispatches it. View listeners are notified
+   * directly from the pooled buffer, the message is only copied out of it if there are collectors
+   * or listeners to process it. Encrypted bodies are decrypted on the crypto pool, so view listeners
+   * see them encrypted.
+   *
+   * @param frame the buffer holding the escaped frame, flags included
+   * @param len   the length of the escaped frame
+   */
+  private void processFrame(byte[] frame, int len) {
+    capture(frame, len);
+    ConnectionMetrics metrics = mConnection.getMetrics();
+    long start = System.nanoTime();
+    FrameBuffer buf = FrameBuffer.obtain();
+    try {
+      if (!buf.unescape(frame, 1, len - 2)) {
+        LogUtils.w(TAG, "processFrame: Illegal escape sequence, frame dropped.");
+        metrics.recordEscapeError();
+        return;
+      }
+
+      MessageView view;
+      try {
+        view = MessageView.wrap(buf);
+      } catch (IllegalArgumentException iae) {
+        LogUtils.w(TAG, "processFrame: Illegal frame dropped.", iae);
+        metrics.recordFrameError();
+        return;
+      }
+      long decodeNanos = System.nanoTime() - start;
+      metrics.recordFrameIn();
+      metrics.recordDecode(decodeNanos);
+      LogUtils.d(TAG, "readPackets: {}", view);
+      EventSink events = EventUtils.getSink();
+      if (events.isEnabled()) {
+        events.onDecode(view.getId(), buf.length(), decodeNanos);
+      }
+
+      // Time the frame arrived if it is traced, or 0
+      long arrival = 0;
+      MessageTracer tracer = mConnection.getConfig().getTracer();
+      if (tracer != null) {
+        if (view.getId() == ServerGenericReply.ID && view.getBodyLength() >= 4) {
+          tracer.acknowledged(view.getBodyShort(0), view.getBodyShort(2), start);
+        }
+        if (tracer.sampleInbound()) {
+          arrival = start;
+        }
+      }
+
+      for (ViewListenerWrapper wrapper : mConnection.getViewListeners().values()) {
+        wrapper.notifyListener(view);
+      }
+
+      if (mConnection.getCollectors().isEmpty() && mConnection.getRcvListeners().isEmpty()) {
+        if (arrival != 0) {
+          tracer.decoded(arrival, start + decodeNanos);
+        }
+        return;
+      }
+
+      BodyCipher cipher = mConnection.getConfig().getBodyCipher();
+      if (cipher != null && view.getCipher() == Message.CIPHER_RSA) {
+        // Hand the decryption over to the crypto pool, the delivery keeps the order of the
+        // encrypted messages
+        Future<Message> decrypted =
+            CryptoExecutor.get().submit(new DecryptTask(view.toPacket(), cipher));
+        deliver(new DecryptedDelivery(decrypted, arrival));
+        return;
+      }
+
+      start = System.nanoTime();
+      Message msg;
+      try {
+        msg = new Message.Builder(view.toPacket()).build();
+      } catch (IllegalArgumentException iae) {
+        LogUtils.w(TAG, "processFrame: Illegal message dropped.", iae);
+        return;
+      }
+      msg = mConnection.getConfig().getMessageRegistry().decode(msg);
+      long decoded = System.nanoTime();
+      metrics.recordDecode(decoded - start);
+      if (arrival != 0) {
+        tracer.decoded(arrival, decoded);
+        processMessage(msg, decoded);
+      } else {
+        processMessage(msg, 0);
+      }
+    } finally {
+      buf.release();
+    }
+  }
+
+  /**
+   * Captures a frame read from the server into the journal, if configured. Like the frames
+   * written, it is captured whole and as on the wire, before it is unescaped, so that the frames
+   * which can not be parsed are captured too.
+   *
+   * @param frame the buffer holding the escaped frame, flags included
+   * @param len   the length of the escaped frame
+   */
+  private void capture(byte[] frame, int len) {
+    FrameJournal journal = mConnection.getConfig().getJournal();
+    if (journal != null) {
+      try {
+        journal.append(FrameJournal.INBOUND, frame, 0, len);
+      } catch (IOException ioe) {
+        LogUtils.w(TAG, "capture: Append to journal failed.", ioe);
+      } catch (RuntimeException re) {
+        // The journal is for diagnostics, its failure must not take the connection down
+        LogUtils.w(TAG, "capture: Append to journal failed.", re);
+      }
+    }
+  }
+
+  /**
+   * Processes a message after it's been fully parsed by looping through the installed message
+   * collectors and listeners and letting them examine the message to see if they are a match with
+   * the filter.
+   *
+   * @param msg     the message to process
+   * @param decoded the time the message was decoded if it is traced, or {@code 0}
+   */
+  private void processMessage(Message msg, long decoded) {
+    if (msg == null) {
+      return;
+    }
+
+    // Loop through all collectors and notify the appropriate ones.
+    for (MessageCollector collector : mConnection.getCollectors()) {
+      collector.processMessage(msg);
+    }
+
+    // Deliver the incoming message to listeners
+    deliver(new ListenerNotification(msg, decoded));
+  }
+
+  /**
+   * Submits a delivery to the listeners, the delivery is dropped if the reader has been shut down
+   * meanwhile.
+   *
+   * @param delivery the delivery to run in order
+   */
+  private void deliver(Runnable delivery) {
+    if (!submit(delivery)) {
+      LogUtils.d(TAG, "deliver: Reader shut down, message dropped.");
+    }
+  }
+
+  /**
+   * Runs the specified task on the thread delivering the messages to the listeners, after the
+   * deliveries already submitted.
+   *
+   * @param task the task to run
+   * @return false if the reader has been shut down and the task was not submitted
+   */
+  boolean submit(Runnable task) {
+    try {
+      mExecutor.submit(task);
+      return true;
+    } catch (RejectedExecutionException ree) {
+      return false;
+    }
+  }
+
+  /** A thread to read packets from the connection. */
+  private class ReadThread extends Thread {
+
+    @Override
+    public void run() {
+      super.run();
+      readPackets();
+    }
+
+  }
+
+  /** A task to decrypt the body of a packet and decode the resulting message. */
+  private class DecryptTask implements Callable<Message> {
+
+    private final Packet     packet;
+    private final BodyCipher cipher;
+
+    DecryptTask(Packet packet, BodyCipher cipher) {
+      this.packet = packet;
+      this.cipher = cipher;
+    }
+
+    @Override
+    public Message call() throws GeneralSecurityException {
+      Message msg = new Message.Builder(this.packet.getMsgId())
+          .body(this.cipher.decrypt(this.packet.getPayload()))
+          .cipher(this.packet.getCipher())
+          .phone(this.packet.getPhone())
+          .build();
+      return mConnection.getConfig().getMessageRegistry().decode(msg);
+    }
+
+  }
+
+  /** A runnable to process a message once its body has been decrypted. */
+  private class DecryptedDelivery implements Runnable {
+
+    private final Future<Message> decrypted;
+    private final long            arrival;
+
+    DecryptedDelivery(Future<Message> decrypted, long arrival) {
+      this.decrypted = decrypted;
+      this.arrival = arrival;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Message msg = this.decrypted.get();
+        MessageTracer tracer = mConnection.getConfig().getTracer();
+        if (this.arrival != 0 && tracer != null) {
+          long decoded = System.nanoTime();
+          tracer.decoded(this.arrival, decoded);
+          processMessage(msg, decoded);
+        } else {
+          processMessage(msg, 0);
+        }
+      } catch (ExecutionException ee) {
+        LogUtils.w(TAG, "processFrame: Decrypt message body failed, message dropped.", ee.getCause());
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+  }
+
+  /** A runnable to notify all listeners of a message. */
+  private class ListenerNotification implements Runnable {
+
+    private Message message;
+    private long    decoded;
+
+    public ListenerNotification(Message msg, long decoded) {
+      this.message = msg;
+      this.decoded = decoded;
+    }
+
+    @Override
+    public void run() {
+      EventSink events = EventUtils.getSink();
+      for (ListenerWrapper wrapper : mConnection.getRcvListeners().values()) {
+        if (!events.isEnabled()) {
+          wrapper.notifyListener(this.message);
+          continue;
+        }
+
+        long start = System.nanoTime();
+        if (wrapper.notifyListener(this.message)) {
+          events.onListenerDispatch(wrapper.getListener().getClass(),
+                                    this.message.getId(),
+                                    System.nanoTime() - start);
+        }
+      }
+
+      MessageTracer tracer = mConnection.getConfig().getTracer();
+      if (this.decoded != 0 && tracer != null) {
+        tracer.delivered(this.decoded, System.nanoTime());
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,201 @@
+package ml.that.pigeon.conn;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.util.LatencyHistogram;
+
+/**
+ * Traces a sample of the messages through the stages of their lifecycle, and keeps a histogram of
+ * the time spent in each stage.
+ * <p>
+ * An outbound message is stamped when it is sent, when the writer takes its last frame off the
+ * queue, when that frame has been written and flushed, and when the server generic reply to its
+ * serial number is read. An inbound frame is stamped when it is read, once decoded and once all
+ * the listeners have processed the message. The stages of a tail latency then tell if it comes from
+ * the queueing, the network and the server, or the listeners.
+ * <p>
+ * One message in {@link #getInterval()} is traced in each direction, the other ones only cost a
+ * counter increment. A tracer is installed with {@link ConnectionConfiguration#setTracer(
+ * MessageTracer)}, and may be shared by several connections.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class MessageTracer {
+
+  /** From sending a message to the writer taking its last frame off the queue. */
+  public static final int STAGE_QUEUE    = 0;
+  /** From the writer taking the last frame off the queue to the frame being flushed. */
+  public static final int STAGE_WRITE    = 1;
+  /** From the last frame being flushed to the server generic reply being read. */
+  public static final int STAGE_ACK      = 2;
+  /** From sending a message to the server generic reply being read. */
+  public static final int STAGE_SEND     = 3;
+  /** From reading an inbound frame to the message being decoded. */
+  public static final int STAGE_DECODE   = 4;
+  /** From decoding an inbound message to all the listeners having processed it. */
+  public static final int STAGE_DELIVERY = 5;
+
+  private static final int STAGE_COUNT = 6;
+
+  // Messages waiting for a reply beyond this number are not traced further, the server may not
+  // reply to every message
+  private static final int MAX_PENDING = 256;
+
+  private final int           mInterval;
+  private final AtomicInteger mOutbound = new AtomicInteger();
+  private final AtomicInteger mInbound  = new AtomicInteger();
+
+  // Guarded by this
+  private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+  private final Map<Short, Trace>  mPending;
+
+  // Checked without the lock, most replies are not to a traced message
+  private volatile boolean mAwaiting = false;
+
+  /**
+   * Creates a tracer sampling one message in the specified number, in each direction.
+   *
+   * @param interval the sampling interval, {@code 1} to trace every message
+   */
+  public MessageTracer(int interval) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Interval must be positive.");
+    }
+
+    mInterval = interval;
+    for (int i = 0; i < STAGE_COUNT; i++) {
+      mHistograms[i] = new LatencyHistogram();
+    }
+    mPending = new LinkedHashMap<Short, Trace>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Short, Trace> eldest) {
+        return size() > MAX_PENDING;
+      }
+    };
+  }
+
+  public int getInterval() {
+    return mInterval;
+  }
+
+  /**
+   * Returns a copy of the histogram of the time spent in the specified stage.
+   *
+   * @param stage the stage, e.g. {@link #STAGE_QUEUE}
+   * @return the histogram of the stage, in microseconds
+   */
+  public synchronized LatencyHistogram getHistogram(int stage) {
+    if (stage < 0 || stage >= STAGE_COUNT) {
+      throw new IllegalArgumentException("No such stage - " + stage);
+    }
+
+    LatencyHistogram copy = new LatencyHistogram();
+    copy.add(mHistograms[stage]);
+    return copy;
+  }
+
+  /** Clears the histograms, and forgets the messages waiting for a reply. */
+  public synchronized void reset() {
+    for (LatencyHistogram histogram : mHistograms) {
+      histogram.reset();
+    }
+    mPending.clear();
+    mAwaiting = false;
+  }
+
+  boolean sampleOutbound() {
+    return (mOutbound.getAndIncrement() & Integer.MAX_VALUE) % mInterval == 0;
+  }
+
+  boolean sampleInbound() {
+    return (mInbound.getAndIncrement() & Integer.MAX_VALUE) % mInterval == 0;
+  }
+
+  /**
+   * Notes that the writer took a traced frame off the queue.
+   *
+   * @param frame    the traced frame
+   * @param dequeued the time it was taken off the queue
+   * @return the trace to complete once the frame is flushed
+   */
+  Trace dequeued(Frame frame, long dequeued) {
+    return new Trace(frame.getMsgId(), frame.getSn(), frame.getTraceStart(), dequeued);
+  }
+
+  /**
+   * Notes that the frame of a trace has been written and flushed, the trace then waits for the
+   * reply of the server.
+   *
+   * @param trace   the trace of the frame
+   * @param written the time it was flushed
+   */
+  synchronized void written(Trace trace, long written) {
+    record(STAGE_QUEUE, trace.dequeued - trace.start);
+    record(STAGE_WRITE, written - trace.dequeued);
+    trace.written = written;
+    mPending.put(trace.sn, trace);
+    mAwaiting = true;
+  }
+
+  /**
+   * Notes that a server generic reply has been read, which completes the trace of the message it
+   * replies to, if any.
+   *
+   * @param reqSn the serial number of the message replied to
+   * @param reqId the ID of the message replied to
+   * @param now   the time the reply was read
+   */
+  void acknowledged(short reqSn, short reqId, long now) {
+    if (!mAwaiting) {
+      return;
+    }
+
+    synchronized (this) {
+      Trace trace = mPending.get(reqSn);
+      if (trace == null || trace.id != reqId) {
+        return;
+      }
+      mPending.remove(reqSn);
+      mAwaiting = !mPending.isEmpty();
+      record(STAGE_ACK, now - trace.written);
+      record(STAGE_SEND, now - trace.start);
+    }
+  }
+
+  synchronized void decoded(long arrival, long decoded) {
+    record(STAGE_DECODE, decoded - arrival);
+  }
+
+  synchronized void delivered(long decoded, long delivered) {
+    record(STAGE_DELIVERY, delivered - decoded);
+  }
+
+  /** Records a duration in microseconds, must hold the lock. */
+  private void record(int stage, long nanos) {
+    mHistograms[stage].recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+  }
+
+  /** The stamps of a traced outbound message. */
+  static class Trace {
+
+    final short id;
+    final short sn;
+    final long  start;
+    final long  dequeued;
+
+    long written;
+
+    Trace(short id, short sn, long start, long dequeued) {
+      this.id = id;
+      this.sn = sn;
+      this.start = start;
+      this.dequeued = dequeued;
+    }
+
+  }
+
+}
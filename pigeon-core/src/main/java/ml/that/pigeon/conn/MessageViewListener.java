@@ -0,0 +1,26 @@
+package ml.that.pigeon.conn;
+
+import ml.that.pigeon.msg.MessageView;
+
+/**
+ * Provides a mechanism to listen for received messages without copying them out of the pooled
+ * frame buffer they were read into. Unlike a {@link MessageListener}, a view listener is invoked
+ * directly by the thread reading from the server, before the message is decoded.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see MessageView
+ */
+public interface MessageViewListener {
+
+  /**
+   * Process the next message view sent to this listener.
+   * <p>
+   * The view is only valid until this method returns, unless it is retained. Since this method is
+   * invoked by the thread reading from the server, it must not block. A runtime exception thrown
+   * by it is logged, the other listeners are notified and the reading goes on.
+   *
+   * @param view the message view to process
+   */
+  void processView(MessageView view);
+
+}
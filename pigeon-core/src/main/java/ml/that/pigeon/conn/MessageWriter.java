@@ -0,0 +1,786 @@
+package ml.that.pigeon.conn;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import ml.that.pigeon.crypto.BodyCipher;
+import ml.that.pigeon.filter.MessageIdFilter;
+import ml.that.pigeon.journal.FrameJournal;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.HeartbeatMessage;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+import ml.that.pigeon.msg.Packet;
+import ml.that.pigeon.msg.ServerGenericReply;
+import ml.that.pigeon.util.AdaptiveInterval;
+import ml.that.pigeon.util.EventSink;
+import ml.that.pigeon.util.EventUtils;
+import ml.that.pigeon.util.LogUtils;
+
+/**
+ * Writes messages to a JT/T808 server.
+ * <p>
+ * Messages are sent using a dedicated thread. Message interceptors can be registered to dynamically
+ * modify message before they're actually sent. Message listeners can be registered to listen for
+ * all outgoing messages.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+class MessageWriter {
+
+  private static final String TAG = LogUtils.makeTag(MessageWriter.class);
+
+  // Frames waiting to be written, also the monitor the writer thread waits on
+  private final FrameScheduler mScheduler;
+
+  // Traces of the frames of the batch being written, only used by the writer thread
+  private final List<MessageTracer.Trace> mTraces = new ArrayList<>();
+  // Futures of the messages ending in the batch being written, only used by the writer thread
+  private final List<SendFuture>          mSent   = new ArrayList<>();
+
+  private Connection   mConnection;
+  private OutputStream mOutput;
+  private Thread       mWriteThread;
+
+  private volatile Thread mKeepAliveThread;
+
+  // Heartbeat interval learnt, kept across the reconnections to the same endpoint on the same
+  // network, which make up the key
+  private volatile AdaptiveInterval mInterval;
+  private String                    mIntervalKey;
+
+  private volatile boolean mDone;
+
+  // Timestamp when the last packet was sent to the server. This information is used by the keep
+  // alive process to only send heartbeats when the connection has been idle
+  private volatile long mLastActive = System.currentTimeMillis();
+
+  /**
+   * Creates a new message writer with the specified connection.
+   *
+   * @param conn the connection
+   */
+  MessageWriter(Connection conn) {
+    mScheduler = new FrameScheduler(conn.getConfig(), conn.getMetrics());
+    mConnection = conn;
+    init();
+  }
+
+  /**
+   * Initializes the writer in order to be used. It is called at the first connection and also is
+   * invoked if the connection is disconnected by an error.
+   */
+  void init() {
+    mDone = false;
+    mOutput = mConnection.getOutput();
+    mLastActive = System.currentTimeMillis();
+    // Frames of the previous connection failed to be written
+    mTraces.clear();
+    mSent.clear();
+
+    mWriteThread = new WriteThread();
+    // TODO: 10/24/2016 add connection count to the name
+    mWriteThread.setName("Pigeon Message Writer ( )");
+    mWriteThread.setDaemon(true);
+  }
+
+  /**
+   * Starts the packet write thread. The message writer will continue writing packets until {@link
+   * #shutdown} or an error occurs.
+   */
+  public void startup() {
+    mWriteThread.start();
+  }
+
+  /**
+   * Shuts down the message writer. Once this method has been called, no further packets will be
+   * written to the server.
+   */
+  public void shutdown() {
+    mDone = true;
+    synchronized (mScheduler) {
+      mScheduler.notifyAll();
+    }
+    Thread keepAliveThread = mKeepAliveThread;
+    if (keepAliveThread != null) {
+      // Wakes the keep-alive task up, so it sees it is done
+      mKeepAliveThread = null;
+      keepAliveThread.interrupt();
+    }
+  }
+
+  /**
+   * Waits for the write thread to flush the frames queued and stop, once shut down. Returns at
+   * once if called by the write thread itself, e.g. from a send callback.
+   *
+   * @param timeout the time to wait, in milliseconds
+   * @return true if the write thread stopped
+   */
+  boolean awaitTermination(long timeout) {
+    Thread thread = mWriteThread;
+    if (thread == Thread.currentThread()) {
+      return false;
+    }
+
+    try {
+      thread.join(timeout);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    return !thread.isAlive();
+  }
+
+  /**
+   * Returns the number of frames waiting to be written.
+   *
+   * @return the size of the queue
+   */
+  int getQueueSize() {
+    return mScheduler.size();
+  }
+
+  /**
+   * Starts the keep alive process. An empty message (aka heartbeat) is going to be sent to the
+   * server each time the connection has been idle for the heartbeat interval.
+   * <p>
+   * The interval adapts to the idle timeout of the NATs on the way: longer intervals are probed as
+   * long as their heartbeats are answered, and a heartbeat missed or resetting the connection
+   * falls back to the last interval confirmed. What is learnt is kept across the reconnections to
+   * the same endpoint on the same network, and persisted by the keep-alive store of the
+   * configuration if any. The store tells the network, without one the network is not known.
+   */
+  void keepAlive() {
+    ConnectionConfiguration cfg = mConnection.getConfig();
+    KeepAliveStore store = cfg.getKeepAliveStore();
+    Endpoint endpoint = mConnection.getEndpoint();
+    String address = endpoint != null ? endpoint.toString() : cfg.getHost() + ":" + cfg.getPort();
+    String network = store != null ? store.getNetwork() : null;
+    String key = network + "/" + address;
+    if (mInterval == null || !key.equals(mIntervalKey)) {
+      mInterval = new AdaptiveInterval(cfg.getMinHeartbeatInterval(),
+                                       cfg.getMaxHeartbeatInterval(),
+                                       store != null ? store.getInterval(network, address) : -1,
+                                       store != null ? store.getLimit(network, address) : -1,
+                                       cfg.getHeartbeatLimitTtl());
+      mIntervalKey = key;
+    }
+
+    // Schedule a keep-alive task to run, will write out a empty message each time the connection
+    // is idle to keep the TCP/IP connection open
+    KeepAliveTask task = new KeepAliveTask(mInterval, network, address);
+    Thread thread = new Thread(task);
+    thread.setDaemon(true);
+    // TODO: 2016/11/1 replace with connection counter value
+    thread.setName("Pigeon Keep Alive ( )");
+    mKeepAliveThread = thread;
+    thread.start();
+  }
+
+  /**
+   * Returns the heartbeat interval in use.
+   *
+   * @return the interval in milliseconds, or {@code -1} if the keep alive process never started
+   */
+  long getHeartbeatInterval() {
+    AdaptiveInterval interval = mInterval;
+    if (interval == null) {
+      return -1;
+    }
+    synchronized (interval) {
+      return interval.get();
+    }
+  }
+
+  /**
+   * Sends the specified message to the server.
+   *
+   * @param msg      the message to send
+   * @param priority the priority of the message
+   * @return the future completed once the message is written
+   */
+  public SendFuture sendMessage(Message msg, int priority) {
+    if (mDone) {
+      return SendFuture.failed(new IOException("Writer shut down."));
+    }
+
+    long start = System.nanoTime();
+    long traceStart = traceStart(start);
+    SendFuture future = new SendFuture(mConnection.getSndListeners().isEmpty() ? null : msg);
+    short id = msg.getId();
+    byte[] body = msg.getBody();
+    // Keyed before the body is encrypted
+    Object key = msg.isLong() ? null : coalescingKey(id, body, 0, body.length);
+    try {
+      msg = encrypt(msg);
+    } catch (GeneralSecurityException gse) {
+      LogUtils.e(TAG, "sendMessage: Encrypt message body failed, message dropped.", gse);
+      future.complete(0, gse);
+      return future;
+    }
+    long encodeNanos = 0;
+    Packet[] packets = msg.getPackets();
+    int frames = packets.length;
+    try {
+      for (int i = 0; i < frames; i++) {
+        Frame frame = packets[i].toFrame();
+        if (i == frames - 1) {
+          frame.setTraceStart(traceStart);
+          frame.setAttachment(future);
+        }
+        encodeNanos += System.nanoTime() - start;
+        put(frame, priority, id, key);
+        start = System.nanoTime();
+      }
+    } catch (InterruptedException ie) {
+      future.complete(0, ie);
+      return future;
+    }
+    queued(id, frames, encodeNanos);
+    return future;
+  }
+
+  /**
+   * Sends the message encoded by the specified encoder to the server. The frames are encoded
+   * straight from the encoder's buffer, which is recycled once they are queued.
+   *
+   * @param encoder  the encoder holding the message to send
+   * @param priority the priority of the message
+   * @return the future completed once the message is written
+   */
+  public SendFuture sendMessage(MessageEncoder encoder, int priority) {
+    if (mDone) {
+      encoder.recycle();
+      return SendFuture.failed(new IOException("Writer shut down."));
+    }
+
+    SendFuture future = null;
+    try {
+      long start = System.nanoTime();
+      long traceStart = traceStart(start);
+      short id = encoder.getId();
+      // The send listeners are given a message, only built for them
+      future = new SendFuture(mConnection.getSndListeners().isEmpty() ? null : encoder.toMessage());
+      // Keyed before the body is encrypted
+      Object key = encoder.getFrameCount() > 1
+                   ? null : coalescingKey(id, encoder.array(), 0, encoder.length());
+      BodyCipher cipher = mConnection.getConfig().getBodyCipher();
+      if (cipher != null && encoder.getCipher() == Message.CIPHER_RSA) {
+        encoder.encryptBody(cipher);
+      }
+      int count = encoder.getFrameCount();
+      long encodeNanos = 0;
+      for (int i = 0; i < count; i++) {
+        Frame frame = encoder.encodeFrame(i);
+        if (i == count - 1) {
+          frame.setTraceStart(traceStart);
+          frame.setAttachment(future);
+        }
+        encodeNanos += System.nanoTime() - start;
+        put(frame, priority, id, key);
+        start = System.nanoTime();
+      }
+      queued(id, count, encodeNanos);
+    } catch (GeneralSecurityException gse) {
+      LogUtils.e(TAG, "sendMessage: Encrypt message body failed, message dropped.", gse);
+      future.complete(0, gse);
+    } catch (InterruptedException ie) {
+      future.complete(0, ie);
+    } finally {
+      encoder.recycle();
+    }
+    return future;
+  }
+
+  /**
+   * Sends the frames of a message encoded once for several connections, see {@link
+   * Connection#sendFrames(MessageEncoder, Frame[], boolean, Message, int)}.
+   *
+   * @param encoder  the encoder holding the message, which is only read
+   * @param frames   the frames encoded by the encoder
+   * @param copy     true to send copies of the frames under new serial numbers
+   * @param msg      the message to notify the send listeners with, or {@code null} if none
+   * @param priority the priority of the message
+   * @return the future completed once the message is written
+   */
+  SendFuture sendFrames(MessageEncoder encoder,
+                        Frame[] frames,
+                        boolean copy,
+                        Message msg,
+                        int priority) {
+    if (mDone) {
+      if (!copy) {
+        for (Frame frame : frames) {
+          frame.recycle();
+        }
+      }
+      return SendFuture.failed(new IOException("Writer shut down."));
+    }
+
+    long start = System.nanoTime();
+    long traceStart = traceStart(start);
+    SendFuture future = new SendFuture(mConnection.getSndListeners().isEmpty() ? null : msg);
+    short id = encoder.getId();
+    Object key = frames.length > 1
+                 ? null : coalescingKey(id, encoder.array(), 0, encoder.length());
+    long encodeNanos = 0;
+    // Index of the frame being queued
+    int queued = 0;
+    try {
+      for (; queued < frames.length; queued++) {
+        // Only the serial number and the checksum are encoded again
+        Frame frame = copy ? MessageEncoder.copyFrame(frames[queued]) : frames[queued];
+        if (queued == frames.length - 1) {
+          frame.setTraceStart(traceStart);
+          frame.setAttachment(future);
+        }
+        encodeNanos += System.nanoTime() - start;
+        put(frame, priority, id, key);
+        start = System.nanoTime();
+      }
+    } catch (InterruptedException ie) {
+      if (!copy) {
+        // The frames left are not queued, the one being queued is recycled already
+        for (int i = queued + 1; i < frames.length; i++) {
+          frames[i].recycle();
+        }
+      }
+      future.complete(0, ie);
+      return future;
+    }
+    queued(id, frames.length, encodeNanos);
+    return future;
+  }
+
+  /**
+   * Queues the specified frame, replacing the waiting frame with the same coalescing key if any.
+   * The frame is recycled if it is not queued because of an interrupt.
+   *
+   * @param frame    the frame to queue
+   * @param priority the priority of the frame
+   * @param id       the message ID
+   * @param key      the coalescing key of the message, or {@code null} if not coalesced
+   * @throws InterruptedException if interrupted while waiting for room in the queue
+   */
+  private void put(Frame frame, int priority, short id, Object key) throws InterruptedException {
+    try {
+      if (key == null) {
+        mScheduler.put(frame, priority);
+      } else if (mScheduler.put(frame, priority, id, key)) {
+        mConnection.getMetrics().recordCoalesced();
+      }
+    } catch (InterruptedException ie) {
+      frame.recycle();
+      throw ie;
+    }
+  }
+
+  /**
+   * Records the encoding of a message whose frames are all queued, and wakes the writer up.
+   *
+   * @param id          the message ID
+   * @param frames      the number of frames of the message
+   * @param encodeNanos the time spent encoding the frames
+   */
+  private void queued(short id, int frames, long encodeNanos) {
+    mConnection.getMetrics().recordEncode(encodeNanos);
+    mConnection.getMetrics().recordWriteQueueSize(mScheduler.size());
+    EventSink events = EventUtils.getSink();
+    if (events.isEnabled()) {
+      events.onEncode(id, frames, encodeNanos);
+    }
+    synchronized (mScheduler) {
+      mScheduler.notifyAll();
+    }
+  }
+
+  /**
+   * Returns the coalescing key of a message, if messages with its ID are coalesced.
+   *
+   * @param id   the message ID
+   * @param body the buffer holding the body, before it is encrypted
+   * @param off  the start offset of the body in <tt>body</tt>
+   * @param len  the length of the body
+   * @return the coalescing key, or {@code null} if the message is not coalesced
+   */
+  private Object coalescingKey(short id, byte[] body, int off, int len) {
+    CoalescingKey extractor = mConnection.getConfig().getCoalescing(id);
+    return extractor != null ? extractor.keyOf(id, body, off, len) : null;
+  }
+
+  /**
+   * Returns the time a message sent at the specified time is traced from, if it is sampled.
+   *
+   * @param now the time the message is sent, in nanoseconds
+   * @return the time to stamp the last frame of the message with, or {@code 0} if not traced
+   */
+  private long traceStart(long now) {
+    MessageTracer tracer = mConnection.getConfig().getTracer();
+    return tracer != null && tracer.sampleOutbound() ? now : 0;
+  }
+
+  /**
+   * Encrypts the body of the specified message on the calling thread if its RSA cipher bit is set
+   * and a body cipher is configured, so the writer thread only writes frames.
+   *
+   * @param msg the message to encrypt
+   * @return the message to send
+   * @throws GeneralSecurityException if the encryption failed
+   */
+  private Message encrypt(Message msg) throws GeneralSecurityException {
+    BodyCipher cipher = mConnection.getConfig().getBodyCipher();
+    if (cipher == null || msg.getCipher() != Message.CIPHER_RSA) {
+      return msg;
+    }
+
+    byte[] body = msg.getBody();
+    return new Message.Builder(msg.getId())
+        .body(cipher.encrypt(body, 0, body.length))
+        .cipher(msg.getCipher())
+        .phone(msg.getPhone())
+        .build();
+  }
+
+  private void writePackets() {
+    // Frame being written, failed and recycled if the write fails
+    Frame writing = null;
+    try {
+      // Write out frames from the queue
+      while (!mDone) {
+        Frame frame = nextFrame();
+        if (frame != null) {
+          EventSink events = EventUtils.getSink();
+          boolean timed = events.isEnabled();
+          long start = timed ? System.nanoTime() : 0;
+          int frames = 0;
+          int bytes = 0;
+          synchronized (mOutput) {
+            // Write the frames queued meanwhile back to back, and flush them at once. Control
+            // frames queued during the batch still go before the data frames left, and the batch
+            // ends when the rate limits hold the next frame back
+            do {
+              LogUtils.d(TAG, "writePackets: {}", frame);
+              if (frame.getTraceStart() != 0) {
+                trace(frame);
+              }
+              int len = frame.length();
+              // Completed with the batch, or failed if the write fails
+              if (frame.getAttachment() != null) {
+                mSent.add((SendFuture) frame.getAttachment());
+              }
+              writing = frame;
+              mOutput.write(frame.array(), 0, len);
+              mConnection.getMetrics().recordFrameOut(len);
+              capture(frame);
+              writing = null;
+              frame.recycle();
+              frames++;
+              bytes += len;
+            } while ((frame = mScheduler.poll()) != null);
+            mOutput.flush();
+            // Keep track of the last time a packet was sent to the server
+            mLastActive = System.currentTimeMillis();
+          }
+          if (!mTraces.isEmpty()) {
+            written();
+          }
+          if (!mSent.isEmpty()) {
+            complete(System.nanoTime(), null);
+          }
+          if (timed) {
+            events.onWriteBatch(frames, bytes, System.nanoTime() - start);
+          }
+        }
+      }
+
+      // Flush out the rest of the queue. If the queue is extremely large, it's possible we won't
+      // have time to entirely flush it before the socket is forced closed by the shutdown process.
+      synchronized (mOutput) {
+        Frame frame;
+        while ((frame = mScheduler.drain()) != null) {
+          if (frame.getAttachment() != null) {
+            mSent.add((SendFuture) frame.getAttachment());
+          }
+          writing = frame;
+          mOutput.write(frame.array(), 0, frame.length());
+          mConnection.getMetrics().recordFrameOut(frame.length());
+          capture(frame);
+          writing = null;
+          frame.recycle();
+        }
+        mOutput.flush();
+        mOutput.close();
+      }
+      complete(System.nanoTime(), null);
+
+      // Delete the queue contents (hopefully nothing is left)
+      mScheduler.clear();
+    } catch (IOException ioe) {
+      // The frames of the batch may not have reached the server. The frames still queued are
+      // written after a reconnection, unless the connection is done
+      if (writing != null) {
+        writing.recycle();
+      }
+      complete(0, ioe);
+      if (mDone) {
+        Frame frame;
+        while ((frame = mScheduler.drain()) != null) {
+          if (frame.getAttachment() != null) {
+            mSent.add((SendFuture) frame.getAttachment());
+          }
+          frame.recycle();
+        }
+        complete(0, ioe);
+      }
+      // The exception can be ignored if the connection is done
+      if (!mDone) {
+        LogUtils.w(TAG, "writePackets: Write to server failed.", ioe);
+        mConnection.notifySocketClosed();
+      }
+    }
+  }
+
+  /**
+   * Completes the futures of the messages ending in the batch, and notifies their callbacks and
+   * the send listeners off the writer thread.
+   *
+   * @param sentTime the time the batch was flushed
+   * @param failure  the cause of the failure, or {@code null} if the batch was flushed
+   */
+  private void complete(long sentTime, Throwable failure) {
+    for (SendFuture future : mSent) {
+      if (future.complete(sentTime, failure)
+          && (future.hasCallbacks() || (failure == null && future.getMessage() != null))) {
+        mConnection.deliver(new SendNotification(future, sentTime, failure));
+      }
+    }
+    mSent.clear();
+  }
+
+  /**
+   * Starts the trace of a sampled frame taken off the queue.
+   *
+   * @param frame the sampled frame
+   */
+  private void trace(Frame frame) {
+    MessageTracer tracer = mConnection.getConfig().getTracer();
+    if (tracer != null) {
+      mTraces.add(tracer.dequeued(frame, System.nanoTime()));
+    }
+  }
+
+  /** Notes that the traced frames of the batch have been flushed. */
+  private void written() {
+    MessageTracer tracer = mConnection.getConfig().getTracer();
+    if (tracer != null) {
+      long now = System.nanoTime();
+      for (MessageTracer.Trace trace : mTraces) {
+        tracer.written(trace, now);
+      }
+    }
+    mTraces.clear();
+  }
+
+  /**
+   * Captures the frame written to the server into the journal, if configured.
+   *
+   * @param frame the frame written
+   */
+  private void capture(Frame frame) {
+    FrameJournal journal = mConnection.getConfig().getJournal();
+    if (journal != null) {
+      try {
+        journal.append(FrameJournal.OUTBOUND, frame.array(), 0, frame.length());
+      } catch (IOException ioe) {
+        LogUtils.w(TAG, "capture: Append to journal failed.", ioe);
+      } catch (RuntimeException re) {
+        // The journal is for diagnostics, its failure must not take the connection down
+        LogUtils.w(TAG, "capture: Append to journal failed.", re);
+      }
+    }
+  }
+
+  /**
+   * Returns the next available frame from the queue for writing.
+   *
+   * @return the next available for writing
+   */
+  private Frame nextFrame() {
+    Frame frame = null;
+
+    // Wait until there's a frame or we're done. The queue is polled holding the monitor, so a
+    // frame queued between the poll and the wait still wakes the writer up. While the rate limits
+    // hold the frames back, wait until they let the next one through or a control frame comes
+    synchronized (mScheduler) {
+      while (!mDone && (frame = mScheduler.poll()) == null) {
+        try {
+          long delay = mScheduler.getDelay();
+          if (delay > 0) {
+            TimeUnit.NANOSECONDS.timedWait(mScheduler, delay);
+          } else {
+            mScheduler.wait();
+          }
+        } catch (InterruptedException ie) {
+          // Do nothing
+        }
+      }
+    }
+
+    return frame;
+  }
+
+  /** A runnable to notify the callbacks of a message and the send listeners. */
+  private class SendNotification implements Runnable {
+
+    private SendFuture future;
+    private long       sentTime;
+    private Throwable  failure;
+
+    public SendNotification(SendFuture future, long sentTime, Throwable failure) {
+      this.future = future;
+      this.sentTime = sentTime;
+      this.failure = failure;
+    }
+
+    @Override
+    public void run() {
+      this.future.notifyCallbacks();
+
+      Message msg = this.future.getMessage();
+      if (this.failure == null && msg != null) {
+        for (Connection.ListenerWrapper wrapper : mConnection.getSndListeners().values()) {
+          wrapper.notifySent(msg, this.sentTime);
+        }
+      }
+    }
+
+  }
+
+  private class WriteThread extends Thread {
+
+    @Override
+    public void run() {
+      super.run();
+      writePackets();
+    }
+
+  }
+
+  /**
+   * A task that keeps connections to the server alive by sending a empty message each time the
+   * connection has been idle for the heartbeat interval, and learns the interval from the replies.
+   */
+  private class KeepAliveTask implements Runnable, MessageListener {
+
+    private final AdaptiveInterval interval;
+    private final String           network;
+    private final String           endpoint;
+
+    // Released by the reader for each reply to a heartbeat
+    private final Semaphore replies = new Semaphore(0);
+
+    public KeepAliveTask(AdaptiveInterval interval, String network, String endpoint) {
+      this.interval = interval;
+      this.network = network;
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public void processMessage(Message msg) {
+      try {
+        ServerGenericReply reply = msg instanceof ServerGenericReply
+                                   ? (ServerGenericReply) msg
+                                   : new ServerGenericReply.Builder(msg).build();
+        if (reply.getReqId() == HeartbeatMessage.ID) {
+          this.replies.release();
+        }
+      } catch (IllegalArgumentException iae) {
+        // Not a reply to a heartbeat
+      }
+    }
+
+    @Override
+    public void run() {
+      ConnectionConfiguration cfg = mConnection.getConfig();
+      // Time the last bytes read were, once the reply to the last heartbeat was read
+      long replied = -1;
+      mConnection.addRcvListener(this, new MessageIdFilter(ServerGenericReply.ID));
+      try {
+        while (isRunning() && !mConnection.isSocketClosed()) {
+          long delay;
+          synchronized (this.interval) {
+            delay = this.interval.get();
+          }
+          // Send heartbeat if no packet has been sent to the server for a given time
+          long idle = System.currentTimeMillis() - mLastActive;
+          if (idle < delay) {
+            // Sleep until we should write the next keep-alive
+            Thread.sleep(delay - idle);
+            continue;
+          }
+
+          // Only a connection idle both ways for the whole interval tells about the NAT timeout,
+          // the reply to the last heartbeat aside
+          long received = mConnection.getLastReceived();
+          boolean probe = received == replied || System.currentTimeMillis() - received >= delay;
+          this.replies.drainPermits();
+          sendMessage(new HeartbeatMessage.Builder().build(), Connection.PRIORITY_CONTROL);
+          mConnection.getMetrics().recordHeartbeat();
+          boolean answered = this.replies.tryAcquire(cfg.getHeartbeatTimeout(),
+                                                     TimeUnit.MILLISECONDS);
+          if (!isRunning()) {
+            // Disconnected meanwhile, which tells nothing
+            break;
+          }
+          if (answered) {
+            replied = mConnection.getLastReceived();
+          } else {
+            LogUtils.w(TAG, "run: Heartbeat after {} ms idle missed.", delay);
+          }
+          if (probe) {
+            learn(answered, cfg.getKeepAliveStore());
+          }
+        }
+      } catch (InterruptedException ie) {
+        // Shut down
+      } finally {
+        mConnection.removeRcvListener(this);
+      }
+    }
+
+    /** Returns if this task is still the keep alive process of the writer. */
+    private boolean isRunning() {
+      return !mDone && mKeepAliveThread == Thread.currentThread();
+    }
+
+    /** Records the outcome of a heartbeat sent after the interval, and persists what changed. */
+    private void learn(boolean answered, KeepAliveStore store) {
+      String network = store != null ? store.getNetwork() : null;
+      if (network == null ? this.network != null : !network.equals(this.network)) {
+        // The network changed under the connection, the outcome is not about the one learnt for
+        return;
+      }
+
+      long safe;
+      long limit;
+      boolean changed;
+      synchronized (this.interval) {
+        changed = answered ? this.interval.succeeded() : this.interval.failed();
+        safe = this.interval.getSafe();
+        limit = this.interval.getLimit();
+      }
+      if (changed) {
+        LogUtils.i(TAG, "learn: Heartbeat interval of {} is {} ms.", this.endpoint, safe);
+        if (store != null) {
+          store.put(this.network, this.endpoint, safe, limit);
+        }
+      }
+    }
+
+  }
+
+}
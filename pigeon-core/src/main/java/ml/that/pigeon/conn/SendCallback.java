@@ -0,0 +1,19 @@
+package ml.that.pigeon.conn;
+
+/**
+ * A callback notified once a message sent has been written to the server, or failed to be.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see SendFuture#addCallback(SendCallback)
+ */
+public interface SendCallback {
+
+  /**
+   * Called once the message completes, on the thread delivering the messages to the listeners.
+   * Implementations must not block.
+   *
+   * @param future the completed future of the message
+   */
+  void onComplete(SendFuture future);
+
+}
@@ -0,0 +1,214 @@
+package ml.that.pigeon.conn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ml.that.pigeon.msg.Message;
+
+/**
+ * The pending outcome of a message sent, which completes once all the packets of the message have
+ * been written and flushed to the server. Its value is the time the last packet was flushed, in
+ * {@link System#nanoTime()} units, so the write latency can be measured. Callbacks can be added to
+ * be notified without parking a thread, or the result can be waited for with {@link #get()}.
+ * <p>
+ * The future fails if the body of the message cannot be encrypted, or if the write fails or the
+ * writer is shut down before the message is flushed. Messages still queued when the connection
+ * fails are written after the reconnection, their futures complete then. A coalesced message
+ * completes along with the message which replaced it in the queue. A message cannot be cancelled
+ * once sent.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see Connection#sendMessage(Message, int)
+ */
+public class SendFuture implements Future<Long> {
+
+  private final CountDownLatch mDone = new CountDownLatch(1);
+
+  // The message to notify the send listeners of, or null if there are none
+  private final Message mMessage;
+
+  // Callbacks to notify on completion, null once completed
+  private List<SendCallback> mCallbacks = new ArrayList<>();
+  // Callbacks left to notify once completed
+  private List<SendCallback> mPending;
+  // Futures of the coalesced messages this one replaced, completed along with it
+  private List<SendFuture>   mSuperseded;
+
+  private long      mSentTime;
+  private Throwable mFailure;
+
+  SendFuture(Message msg) {
+    mMessage = msg;
+  }
+
+  /**
+   * Returns a future which already failed with the specified cause.
+   *
+   * @param cause the cause of the failure
+   * @return a failed future
+   */
+  static SendFuture failed(Throwable cause) {
+    SendFuture future = new SendFuture(null);
+    future.complete(0, cause);
+    future.mPending = null;
+    return future;
+  }
+
+  /**
+   * Adds a callback to notify once the message completes. If already completed, the callback is
+   * notified right away on the calling thread.
+   *
+   * @param callback the callback to notify
+   * @return this future
+   */
+  public SendFuture addCallback(SendCallback callback) {
+    if (callback == null) {
+      throw new NullPointerException("Send callback is null.");
+    }
+
+    synchronized (this) {
+      if (mCallbacks != null) {
+        mCallbacks.add(callback);
+        return this;
+      }
+    }
+    callback.onComplete(this);
+    return this;
+  }
+
+  /**
+   * Returns the cause of the failure of the message.
+   *
+   * @return the cause, or {@code null} if the message is not completed or has been written
+   */
+  public synchronized Throwable getFailure() {
+    return mFailure;
+  }
+
+  Message getMessage() {
+    return mMessage;
+  }
+
+  /**
+   * Completes the future and the futures it superseded, unless already completed. The callbacks are
+   * then notified with {@link #notifyCallbacks()}.
+   *
+   * @param sentTime the time the message was flushed
+   * @param failure  the cause of the failure, or {@code null} if the message was written
+   * @return true if this call completed the future
+   */
+  boolean complete(long sentTime, Throwable failure) {
+    List<SendFuture> superseded;
+    synchronized (this) {
+      if (mCallbacks == null) {
+        return false;
+      }
+      mPending = mCallbacks;
+      mCallbacks = null;
+      mSentTime = sentTime;
+      mFailure = failure;
+      superseded = mSuperseded;
+    }
+    mDone.countDown();
+
+    if (superseded != null) {
+      for (SendFuture future : superseded) {
+        future.complete(sentTime, failure);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns if the completion has to be notified to anyone, i.e. callbacks or send listeners.
+   *
+   * @return true if {@link #notifyCallbacks()} has anything to do
+   */
+  synchronized boolean hasCallbacks() {
+    return (mPending != null && !mPending.isEmpty()) || mSuperseded != null;
+  }
+
+  /** Notifies the callbacks added before the completion, and those of the superseded futures. */
+  void notifyCallbacks() {
+    List<SendCallback> callbacks;
+    List<SendFuture> superseded;
+    synchronized (this) {
+      callbacks = mPending;
+      mPending = null;
+      superseded = mSuperseded;
+    }
+
+    if (callbacks != null) {
+      for (SendCallback callback : callbacks) {
+        callback.onComplete(this);
+      }
+    }
+    if (superseded != null) {
+      for (SendFuture future : superseded) {
+        future.notifyCallbacks();
+      }
+    }
+  }
+
+  /**
+   * Makes the specified future complete along with this one, once the message of this future has
+   * replaced its message in the queue.
+   *
+   * @param older the future of the replaced message
+   */
+  synchronized void supersede(SendFuture older) {
+    if (mSuperseded == null) {
+      mSuperseded = new ArrayList<>(1);
+    }
+    mSuperseded.add(older);
+  }
+
+  /**
+   * Returns false, a message cannot be cancelled once sent.
+   *
+   * @param mayInterruptIfRunning ignored
+   * @return false
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return mCallbacks == null;
+  }
+
+  @Override
+  public Long get() throws InterruptedException, ExecutionException {
+    mDone.await();
+    return getNow();
+  }
+
+  @Override
+  public Long get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!mDone.await(timeout, unit)) {
+      throw new TimeoutException("Message not written.");
+    }
+    return getNow();
+  }
+
+  private synchronized Long getNow() throws ExecutionException {
+    if (mFailure != null) {
+      throw new ExecutionException(mFailure);
+    }
+    return mSentTime;
+  }
+
+}
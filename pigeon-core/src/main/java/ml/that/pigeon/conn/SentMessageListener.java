@@ -0,0 +1,24 @@
+package ml.that.pigeon.conn;
+
+import ml.that.pigeon.filter.MessageFilter;
+import ml.that.pigeon.msg.Message;
+
+/**
+ * A listener for sent messages, which is also told when each message was written to the server.
+ * When registered with {@link Connection#addSndListener(MessageListener, MessageFilter)}, it is
+ * notified through {@link #processSent(Message, long)} instead of {@link
+ * #processMessage(Message)}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface SentMessageListener extends MessageListener {
+
+  /**
+   * Process the next message written to the server.
+   *
+   * @param msg      the message written
+   * @param sentTime the time the message was flushed, in {@link System#nanoTime()} units
+   */
+  void processSent(Message msg, long sentTime);
+
+}
@@ -0,0 +1,42 @@
+package ml.that.pigeon.crypto;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * A cipher stage which encrypts the bodies of outbound messages and decrypts the bodies of inbound
+ * messages with the {@link ml.that.pigeon.msg.Message#CIPHER_RSA RSA} cipher bit set.
+ * <p>
+ * Implementations must be thread-safe: outbound bodies are encrypted on the threads sending the
+ * messages, and inbound bodies are decrypted on the threads of the {@link CryptoExecutor}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface BodyCipher {
+
+  /**
+   * Encrypts a range of a plain message body.
+   *
+   * @param body the buffer holding the plain body
+   * @param off  the start offset of the body in <tt>body</tt>
+   * @param len  the length of the body
+   * @return the encrypted body
+   * @throws GeneralSecurityException if the body could not be encrypted
+   */
+  byte[] encrypt(byte[] body, int off, int len) throws GeneralSecurityException;
+
+  /**
+   * Decrypts an encrypted message body.
+   *
+   * @param body the encrypted body
+   * @return the plain body
+   * @throws GeneralSecurityException if the body could not be decrypted
+   */
+  byte[] decrypt(byte[] body) throws GeneralSecurityException;
+
+  /**
+   * Resets the session state shared with the server, called whenever the connection is
+   * (re)established since the server does not remember the state of a previous connection.
+   */
+  void reset();
+
+}
@@ -0,0 +1,78 @@
+package ml.that.pigeon.crypto;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the bounded thread pool shared by all connections to decrypt inbound message bodies off
+ * the reader threads.
+ * <p>
+ * The pool has at most one thread per processor (and no more than {@value #MAX_THREADS}) and a
+ * queue of {@value #QUEUE_CAPACITY} tasks. Once the queue is full, tasks run on the submitting
+ * thread, which slows the readers down instead of buffering without bound.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public final class CryptoExecutor {
+
+  private static final int MAX_THREADS    = 4;
+  private static final int QUEUE_CAPACITY = 256;
+
+  // Idle threads are stopped, the pool is only busy while encrypted links are active
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static volatile ExecutorService sExecutor;
+
+  private CryptoExecutor() {
+  }
+
+  /**
+   * Returns the shared crypto pool, creating it on the first call.
+   *
+   * @return the shared crypto pool
+   */
+  public static ExecutorService get() {
+    ExecutorService executor = sExecutor;
+    if (executor == null) {
+      synchronized (CryptoExecutor.class) {
+        executor = sExecutor;
+        if (executor == null) {
+          executor = sExecutor = create();
+        }
+      }
+    }
+    return executor;
+  }
+
+  private static ExecutorService create() {
+    int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(threads,
+                               threads,
+                               KEEP_ALIVE_SECONDS,
+                               TimeUnit.SECONDS,
+                               new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                               new CryptoThreadFactory(),
+                               new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static class CryptoThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "Pigeon Crypto #" + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
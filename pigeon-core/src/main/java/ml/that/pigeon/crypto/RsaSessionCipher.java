@@ -0,0 +1,243 @@
+package ml.that.pigeon.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * A body cipher which establishes an AES session key with RSA, and encrypts the bodies with the
+ * session key afterwards.
+ * <p>
+ * The session key is generated and wrapped with the public key of the server once, on the first
+ * encryption. The bodies are encrypted with AES-GCM, so a body altered on the way fails to decrypt
+ * rather than decrypting to something else, and the keys are wrapped with RSA-OAEP. An encrypted
+ * body is laid out as follows:
+ * <pre>
+ *   +-------+----------------+-------------+----+------------+-----+
+ *   | flags | key length     | wrapped key | iv | ciphertext | tag |
+ *   | 1     | 2, if FLAG_KEY | key length  | 12 | ...        | 16  |
+ *   +-------+----------------+-------------+----+------------+-----+
+ * </pre>
+ * The wrapped key is sent along with every outbound body until a body encrypted with the session
+ * key is received, proving that the server holds it. It is sent again after {@link #reset()}.
+ * <p>
+ * The server may also establish a key of its own by sending the key wrapped with the public key of
+ * the client, in which case the private key of the client is required. Unwrapped keys are cached,
+ * so the RSA operation is done once per key.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class RsaSessionCipher implements BodyCipher {
+
+  /** Flag set if the wrapped session key precedes the IV. */
+  public static final byte FLAG_KEY = 0x01;
+
+  private static final String KEY_TRANSFORMATION  = "RSA/ECB/OAEPWithSHA-1AndMGF1Padding";
+  private static final String BODY_TRANSFORMATION = "AES/GCM/NoPadding";
+
+  private static final int SESSION_KEY_SIZE = 128;
+  private static final int IV_LENGTH        = 12;
+  private static final int TAG_LENGTH       = 16;
+
+  // GCMParameterSpec is only there from API level 19, the providers before it take the IV alone
+  // and a tag of 128 bits
+  private static final boolean HAS_GCM_SPEC = hasGcmSpec();
+
+  // The maximum number of keys established by the server to keep unwrapped
+  private static final int MAX_PEER_KEYS = 4;
+
+  // A Cipher is not thread-safe, each thread keeps its own body cipher and only initializes it
+  // with the key and IV of each body
+  private static final ThreadLocal<Cipher> sBodyCiphers = new ThreadLocal<>();
+
+  private final PublicKey    mServerKey;
+  private final PrivateKey   mClientKey;
+  private final SecureRandom mRandom = new SecureRandom();
+
+  private final Map<ByteBuffer, SecretKey> mPeerKeys =
+      new LinkedHashMap<ByteBuffer, SecretKey>(MAX_PEER_KEYS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKey> eldest) {
+          return size() > MAX_PEER_KEYS;
+        }
+      };
+
+  private SecretKey mSessionKey;
+  private byte[]    mWrappedKey;
+
+  // Set once the server is known to hold the session key
+  private volatile boolean mEstablished;
+
+  /**
+   * Creates a cipher establishing session keys with the specified public key of the server.
+   *
+   * @param serverKey the RSA public key of the server
+   * @param clientKey the RSA private key of the client, or {@code null} if the server never
+   *                  establishes keys of its own
+   */
+  public RsaSessionCipher(PublicKey serverKey, PrivateKey clientKey) {
+    if (serverKey == null) {
+      throw new NullPointerException("Server key is null.");
+    }
+
+    mServerKey = serverKey;
+    mClientKey = clientKey;
+  }
+
+  @Override
+  public byte[] encrypt(byte[] body, int off, int len) throws GeneralSecurityException {
+    SecretKey key;
+    byte[] wrapped;
+    synchronized (this) {
+      establish();
+      key = mSessionKey;
+      wrapped = mEstablished ? null : mWrappedKey;
+    }
+
+    byte[] iv = new byte[IV_LENGTH];
+    mRandom.nextBytes(iv);
+
+    Cipher cipher = bodyCipher();
+    cipher.init(Cipher.ENCRYPT_MODE, key, gcmSpec(iv, 0));
+
+    int head = wrapped == null ? 1 : 3 + wrapped.length;
+    byte[] out = new byte[head + IV_LENGTH + cipher.getOutputSize(len)];
+    int pos = 0;
+    if (wrapped == null) {
+      out[pos++] = 0;
+    } else {
+      out[pos++] = FLAG_KEY;
+      out[pos++] = (byte) (wrapped.length >> 8);
+      out[pos++] = (byte) wrapped.length;
+      System.arraycopy(wrapped, 0, out, pos, wrapped.length);
+      pos += wrapped.length;
+    }
+    System.arraycopy(iv, 0, out, pos, IV_LENGTH);
+    pos += IV_LENGTH;
+
+    int written = cipher.doFinal(body, off, len, out, pos);
+    return pos + written == out.length ? out : Arrays.copyOf(out, pos + written);
+  }
+
+  @Override
+  public byte[] decrypt(byte[] body) throws GeneralSecurityException {
+    if (body == null || body.length < 1 + IV_LENGTH + TAG_LENGTH) {
+      throw new GeneralSecurityException("Encrypted body too short.");
+    }
+
+    int pos = 1;
+    Key key;
+    boolean isSessionKey = false;
+    if ((body[0] & FLAG_KEY) == FLAG_KEY) {
+      int keyLen = (body[1] & 0xff) << 8 | (body[2] & 0xff);
+      pos = 3 + keyLen;
+      if (body.length < pos + IV_LENGTH + TAG_LENGTH) {
+        throw new GeneralSecurityException("Encrypted body too short.");
+      }
+      key = unwrap(ByteBuffer.wrap(body, 3, keyLen).slice());
+    } else {
+      synchronized (this) {
+        key = mSessionKey;
+      }
+      isSessionKey = true;
+      if (key == null) {
+        throw new GeneralSecurityException("Session not established.");
+      }
+    }
+
+    Cipher cipher = bodyCipher();
+    cipher.init(Cipher.DECRYPT_MODE, key, gcmSpec(body, pos));
+    byte[] plain = cipher.doFinal(body, pos + IV_LENGTH, body.length - pos - IV_LENGTH);
+
+    if (isSessionKey) {
+      // The server encrypted with our session key, so it no longer needs to be sent
+      mEstablished = true;
+    }
+    return plain;
+  }
+
+  @Override
+  public void reset() {
+    // The session key is kept, only its wrapped form needs to be sent to the new connection
+    mEstablished = false;
+  }
+
+  /** Generates and wraps the session key, if not yet done. */
+  private void establish() throws GeneralSecurityException {
+    if (mSessionKey != null) {
+      return;
+    }
+
+    KeyGenerator generator = KeyGenerator.getInstance("AES");
+    generator.init(SESSION_KEY_SIZE, mRandom);
+    SecretKey key = generator.generateKey();
+
+    Cipher rsa = Cipher.getInstance(KEY_TRANSFORMATION);
+    rsa.init(Cipher.WRAP_MODE, mServerKey, mRandom);
+    mWrappedKey = rsa.wrap(key);
+    mSessionKey = key;
+  }
+
+  /** Returns the key wrapped by the server, unwrapping it on the first use. */
+  private SecretKey unwrap(ByteBuffer wrapped) throws GeneralSecurityException {
+    if (mClientKey == null) {
+      throw new GeneralSecurityException("Client key not configured.");
+    }
+
+    synchronized (mPeerKeys) {
+      SecretKey key = mPeerKeys.get(wrapped);
+      if (key != null) {
+        return key;
+      }
+    }
+
+    byte[] bytes = new byte[wrapped.remaining()];
+    wrapped.duplicate().get(bytes);
+    Cipher rsa = Cipher.getInstance(KEY_TRANSFORMATION);
+    rsa.init(Cipher.UNWRAP_MODE, mClientKey);
+    SecretKey key = (SecretKey) rsa.unwrap(bytes, "AES", Cipher.SECRET_KEY);
+
+    synchronized (mPeerKeys) {
+      mPeerKeys.put(ByteBuffer.wrap(bytes), key);
+    }
+    return key;
+  }
+
+  /** Returns the parameters of the body cipher, with the IV at the specified offset. */
+  private static AlgorithmParameterSpec gcmSpec(byte[] iv, int off) {
+    return HAS_GCM_SPEC ? new GCMParameterSpec(TAG_LENGTH * 8, iv, off, IV_LENGTH)
+                        : new IvParameterSpec(iv, off, IV_LENGTH);
+  }
+
+  private static boolean hasGcmSpec() {
+    try {
+      Class.forName("javax.crypto.spec.GCMParameterSpec");
+      return true;
+    } catch (ClassNotFoundException cnfe) {
+      return false;
+    }
+  }
+
+  private static Cipher bodyCipher() throws GeneralSecurityException {
+    Cipher cipher = sBodyCiphers.get();
+    if (cipher == null) {
+      cipher = Cipher.getInstance(BODY_TRANSFORMATION);
+      sBodyCiphers.set(cipher);
+    }
+    return cipher;
+  }
+
+}
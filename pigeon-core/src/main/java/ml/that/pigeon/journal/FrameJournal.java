@@ -0,0 +1,502 @@
+package ml.that.pigeon.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import ml.that.pigeon.msg.FrameBuffer;
+
+/**
+ * An append-only journal of raw frames, stored in fixed-size memory-mapped segment files.
+ * <p>
+ * A connection captures each frame it writes or reads as a record of its own, whatever the
+ * reads were split into: the frame as on the wire, escaped and from flag to flag.
+ * <p>
+ * Every record is assigned a sequential index. A record is laid out as follows, the checksum
+ * covers everything after itself:
+ * <pre>
+ *   +--------+-------+-----------+-----------+---------+
+ *   | length | crc32 | direction | timestamp | data    |
+ *   | 4      | 4     | 1         | 8         | length  |
+ *   +--------+-------+-----------+-----------+---------+
+ * </pre>
+ * A segment is named after the index of its first record and a new segment is started whenever
+ * the next record does not fit in the current one. A zero length marks the end of the written part
+ * of a segment, so a journal can be reopened after a crash and continues after the last intact
+ * record.
+ * <p>
+ * Records are read back with a {@link Cursor}, which is meant for replay and upload. Once records
+ * are no longer needed, the segments holding them can be dropped with {@link #truncate(long)}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class FrameJournal {
+
+  /** Direction of a frame received from the server. */
+  public static final byte INBOUND  = 0;
+  /** Direction of a frame sent to the server. */
+  public static final byte OUTBOUND = 1;
+
+  /** The default size of a segment file. */
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final int HEADER_LENGTH = 17;
+
+  /** The smallest size of a segment file, which holds the longest frame escaped with its flags. */
+  public static final int MIN_SEGMENT_SIZE = HEADER_LENGTH + FrameBuffer.CAPACITY * 2 + 2;
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private final File mDir;
+  private final int  mSegmentSize;
+
+  // Segments ordered by the index of their first record, the last one is written to
+  private final List<Segment> mSegments = new ArrayList<>();
+
+  private final CRC32 mCrc = new CRC32();
+
+  // The maximum number of segments to keep, older segments are dropped while rotating
+  private int mMaxSegments = 0;
+
+  private boolean mClosed = false;
+
+  /**
+   * Opens the journal in the specified directory, using the default segment size.
+   *
+   * @param dir the directory to keep the segment files in, will be created if not exists
+   * @throws IOException if the segment files can not be opened
+   */
+  public FrameJournal(File dir) throws IOException {
+    this(dir, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens the journal in the specified directory. Existing segment files are scanned to rebuild
+   * the index, appending continues after the last intact record.
+   *
+   * @param dir         the directory to keep the segment files in, will be created if not exists
+   * @param segmentSize the size of a segment file in bytes, at least {@link #MIN_SEGMENT_SIZE}
+   * @throws IOException if the segment files can not be opened
+   */
+  public FrameJournal(File dir, int segmentSize) throws IOException {
+    if (segmentSize < MIN_SEGMENT_SIZE) {
+      throw new IllegalArgumentException("Segment size too small.");
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Can not create journal directory " + dir + ".");
+    }
+
+    mDir = dir;
+    mSegmentSize = segmentSize;
+
+    File[] files = dir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (files != null) {
+      Arrays.sort(files, new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+          return lhs.getName().compareTo(rhs.getName());
+        }
+      });
+      for (File file : files) {
+        long base = Long.parseLong(file.getName().substring(0, file.getName().length()
+                                                                - SEGMENT_SUFFIX.length()));
+        mSegments.add(new Segment(file, base, (int) Math.max(file.length(), segmentSize)));
+      }
+    }
+
+    if (mSegments.isEmpty()) {
+      mSegments.add(createSegment(0));
+    }
+  }
+
+  /**
+   * Sets the maximum number of segment files to keep. When a new segment is started and the limit
+   * is exceeded, the oldest segments are dropped. By default, no segment is dropped.
+   *
+   * @param max the maximum number of segments, {@code 0} for unlimited
+   */
+  public synchronized void setMaxSegments(int max) {
+    mMaxSegments = Math.max(0, max);
+  }
+
+  /**
+   * Appends a frame to the journal.
+   *
+   * @param direction the direction of the frame, {@link #INBOUND} or {@link #OUTBOUND}
+   * @param data      the buffer holding the frame
+   * @param off       the start offset of the frame in <tt>data</tt>
+   * @param len       the length of the frame
+   * @return the index of the appended record
+   * @throws IOException if a new segment file can not be created
+   */
+  public synchronized long append(byte direction, byte[] data, int off, int len)
+      throws IOException {
+    ensureOpen();
+    if (len <= 0) {
+      throw new IllegalArgumentException("Frame is empty.");
+    }
+    if (HEADER_LENGTH + len > mSegmentSize) {
+      throw new IllegalArgumentException("Frame larger than a segment.");
+    }
+
+    Segment segment = mSegments.get(mSegments.size() - 1);
+    if (!segment.hasRoom(HEADER_LENGTH + len)) {
+      segment = rotate();
+    }
+
+    long timestamp = System.currentTimeMillis();
+
+    mCrc.reset();
+    mCrc.update(direction);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      mCrc.update((int) (timestamp >> shift));
+    }
+    mCrc.update(data, off, len);
+
+    return segment.append(len, (int) mCrc.getValue(), direction, timestamp, data, off);
+  }
+
+  /**
+   * Appends a frame to the journal.
+   *
+   * @param direction the direction of the frame, {@link #INBOUND} or {@link #OUTBOUND}
+   * @param data      the frame
+   * @return the index of the appended record
+   * @throws IOException if a new segment file can not be created
+   */
+  public long append(byte direction, byte[] data) throws IOException {
+    return append(direction, data, 0, data.length);
+  }
+
+  /**
+   * Returns the index of the oldest record still in the journal.
+   *
+   * @return the index of the oldest record
+   */
+  public synchronized long getFirstIndex() {
+    return mSegments.get(0).mBase;
+  }
+
+  /**
+   * Returns the index the next appended record will get.
+   *
+   * @return the index of the next record
+   */
+  public synchronized long getNextIndex() {
+    Segment last = mSegments.get(mSegments.size() - 1);
+    return last.mBase + last.mCount;
+  }
+
+  /**
+   * Opens a cursor reading records starting at the specified index. Records appended after the
+   * cursor was opened will also be returned.
+   *
+   * @param index the index of the first record to read, clamped to the oldest record
+   * @return a new cursor
+   */
+  public Cursor openCursor(long index) {
+    return new Cursor(Math.max(index, getFirstIndex()));
+  }
+
+  /**
+   * Drops all segments whose records are all older than the specified index, e.g. once they have
+   * been uploaded. The segment being written to is never dropped.
+   *
+   * @param index the index of the oldest record to keep
+   */
+  public synchronized void truncate(long index) {
+    while (mSegments.size() > 1 && mSegments.get(1).mBase <= index) {
+      mSegments.remove(0).delete();
+    }
+  }
+
+  /**
+   * Forces the written records of the current segment to the storage device.
+   */
+  public synchronized void flush() {
+    if (!mClosed) {
+      mSegments.get(mSegments.size() - 1).mBuffer.force();
+    }
+  }
+
+  /**
+   * Flushes and closes the journal. Further appends will fail, the segment files are kept.
+   */
+  public synchronized void close() {
+    if (!mClosed) {
+      flush();
+      for (Segment segment : mSegments) {
+        segment.close();
+      }
+      mClosed = true;
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (mClosed) {
+      throw new IOException("Journal closed.");
+    }
+  }
+
+  /** Starts a new segment, and drops old segments when exceeding the limit. */
+  private Segment rotate() throws IOException {
+    Segment last = mSegments.get(mSegments.size() - 1);
+    last.mBuffer.force();
+
+    Segment segment = createSegment(last.mBase + last.mCount);
+    mSegments.add(segment);
+
+    while (mMaxSegments > 0 && mSegments.size() > mMaxSegments) {
+      mSegments.remove(0).delete();
+    }
+
+    return segment;
+  }
+
+  private Segment createSegment(long base) throws IOException {
+    String name = String.format(Locale.US, "%020d%s", base, SEGMENT_SUFFIX);
+    return new Segment(new File(mDir, name), base, mSegmentSize);
+  }
+
+  /**
+   * Returns the segment holding the record of the specified index, or {@code null} if the record
+   * has been dropped or not yet written.
+   */
+  private Segment findSegment(long index) {
+    int low = 0;
+    int high = mSegments.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      Segment segment = mSegments.get(mid);
+      if (index < segment.mBase) {
+        high = mid - 1;
+      } else if (index >= segment.mBase + segment.mCount) {
+        low = mid + 1;
+      } else {
+        return segment;
+      }
+    }
+    return null;
+  }
+
+  /** A record read from the journal. */
+  public static class Record {
+
+    private final long   mIndex;
+    private final byte   mDirection;
+    private final long   mTimestamp;
+    private final byte[] mData;
+
+    Record(long index, byte direction, long timestamp, byte[] data) {
+      mIndex = index;
+      mDirection = direction;
+      mTimestamp = timestamp;
+      mData = data;
+    }
+
+    public long getIndex() {
+      return mIndex;
+    }
+
+    public byte getDirection() {
+      return mDirection;
+    }
+
+    /**
+     * Returns the time the frame was appended to the journal.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    public byte[] getData() {
+      return mData;
+    }
+
+  }
+
+  /**
+   * Reads records from the journal in order. A cursor is not thread-safe, but any number of
+   * cursors may be used concurrently with appending.
+   */
+  public class Cursor {
+
+    private long mNext;
+
+    private Cursor(long index) {
+      mNext = index;
+    }
+
+    /**
+     * Returns the index of the record {@link #next()} will return.
+     *
+     * @return the index of the next record
+     */
+    public long getNextIndex() {
+      return mNext;
+    }
+
+    /**
+     * Returns the next record, or {@code null} if all appended records have been read. If the
+     * record the cursor points at has been dropped in the meantime, the cursor skips ahead to the
+     * oldest record still in the journal.
+     *
+     * @return the next record
+     * @throws IOException if the record is corrupted or the journal is closed
+     */
+    public Record next() throws IOException {
+      synchronized (FrameJournal.this) {
+        ensureOpen();
+
+        mNext = Math.max(mNext, getFirstIndex());
+        Segment segment = findSegment(mNext);
+        if (segment == null) {
+          return null;
+        }
+
+        Record record = segment.read(mNext);
+        mNext++;
+        return record;
+      }
+    }
+
+  }
+
+  /** A memory-mapped segment file along with the offsets of its records. */
+  private class Segment {
+
+    private final File             mFile;
+    private final long             mBase;
+    private final RandomAccessFile mRaf;
+    private final MappedByteBuffer mBuffer;
+
+    // In-memory index of the position of each record within the segment
+    private int[] mPositions = new int[256];
+    private int   mCount     = 0;
+
+    Segment(File file, long base, int size) throws IOException {
+      mFile = file;
+      mBase = base;
+      mRaf = new RandomAccessFile(file, "rw");
+      mBuffer = mRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+      recover();
+    }
+
+    /** Scans the segment for intact records and positions the buffer after the last one. */
+    private void recover() {
+      int pos = 0;
+      while (pos + HEADER_LENGTH <= mBuffer.capacity()) {
+        int len = mBuffer.getInt(pos);
+        if (len <= 0 || pos + HEADER_LENGTH + len > mBuffer.capacity()) {
+          break;
+        }
+
+        mCrc.reset();
+        for (int i = pos + 8; i < pos + HEADER_LENGTH + len; i++) {
+          mCrc.update(mBuffer.get(i));
+        }
+        if ((int) mCrc.getValue() != mBuffer.getInt(pos + 4)) {
+          break;
+        }
+
+        addPosition(pos);
+        pos += HEADER_LENGTH + len;
+      }
+
+      // Clear the length of a torn record, so it won't be mistaken as intact once overwritten
+      if (pos + 4 <= mBuffer.capacity()) {
+        mBuffer.putInt(pos, 0);
+      }
+      mBuffer.position(pos);
+    }
+
+    boolean hasRoom(int len) {
+      return mBuffer.remaining() >= len;
+    }
+
+    long append(int len, int crc, byte direction, long timestamp, byte[] data, int off) {
+      int pos = mBuffer.position();
+
+      // Write the length last, so a torn write is never taken as a record
+      mBuffer.position(pos + 4);
+      mBuffer.putInt(crc);
+      mBuffer.put(direction);
+      mBuffer.putLong(timestamp);
+      mBuffer.put(data, off, len);
+      if (mBuffer.remaining() >= 4) {
+        mBuffer.putInt(mBuffer.position(), 0);
+      }
+      mBuffer.putInt(pos, len);
+
+      addPosition(pos);
+      return mBase + mCount - 1;
+    }
+
+    Record read(long index) throws IOException {
+      int pos = mPositions[(int) (index - mBase)];
+
+      ByteBuffer buf = mBuffer.duplicate();
+      buf.position(pos);
+      int len = buf.getInt();
+      int crc = buf.getInt();
+      byte direction = buf.get();
+      long timestamp = buf.getLong();
+      byte[] data = new byte[len];
+      buf.get(data);
+
+      mCrc.reset();
+      mCrc.update(direction);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        mCrc.update((int) (timestamp >> shift));
+      }
+      mCrc.update(data);
+      if ((int) mCrc.getValue() != crc) {
+        throw new IOException("Record " + index + " corrupted.");
+      }
+
+      return new Record(index, direction, timestamp, data);
+    }
+
+    void close() {
+      try {
+        mRaf.close();
+      } catch (IOException ioe) {
+        // Ignore
+      }
+    }
+
+    void delete() {
+      close();
+      if (!mFile.delete()) {
+        mFile.deleteOnExit();
+      }
+    }
+
+    private void addPosition(int pos) {
+      if (mCount == mPositions.length) {
+        mPositions = Arrays.copyOf(mPositions, mCount * 2);
+      }
+      mPositions[mCount++] = pos;
+    }
+
+  }
+
+}
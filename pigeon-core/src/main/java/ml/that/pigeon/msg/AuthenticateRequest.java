@@ -1,7 +1,5 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import java.io.UnsupportedEncodingException;
 
 import ml.that.pigeon.util.LogUtils;
@@ -50,7 +48,7 @@ public class AuthenticateRequest extends Message {
       try {
         this.body = this.authCode.getBytes("ascii");
       } catch (UnsupportedEncodingException uee) {
-        Log.e(TAG, "build: Encode message body failed.", uee);
+        LogUtils.e(TAG, "build: Encode message body failed.", uee);
       }
 
       return new AuthenticateRequest(this);
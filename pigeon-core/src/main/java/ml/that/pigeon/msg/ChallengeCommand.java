@@ -10,7 +10,7 @@ import ml.that.pigeon.util.LogUtils;
  *
  * @author That Mr.L (thatmr.l@gmail.com)
  */
-public class ChallengeCommand extends Message {
+public class ChallengeCommand extends LazyMessage {
 
   private static final String TAG = LogUtils.makeTag(ChallengeCommand.class);
 
@@ -18,13 +18,13 @@ public class ChallengeCommand extends Message {
 
   public static final byte ALGORITHM_AES128 = 0;
 
-  private final byte   mAlgorithm;
-  private final short  mSvrKeyIndex;
-  private final short  mCltKeyIndex;
-  private final byte[] mEncryptedRdmA;
+  private byte   mAlgorithm;
+  private short  mSvrKeyIndex;
+  private short  mCltKeyIndex;
+  private byte[] mEncryptedRdmA;
 
   private ChallengeCommand(Builder builder) {
-    super(ID, builder.cipher, builder.phone, builder.body);
+    super(ID, builder.cipher, builder.phone, builder.body, true);
 
     mAlgorithm = builder.algorithm;
     mSvrKeyIndex = builder.svrKeyIndex;
@@ -32,30 +32,100 @@ public class ChallengeCommand extends Message {
     mEncryptedRdmA = builder.encryptedRdmA;
   }
 
+  /**
+   * Creates a command whose fields are decoded from the body of the specified message on the first
+   * access.
+   *
+   * @param msg the message to decode, the message ID is expected to be {@link #ID}
+   */
+  ChallengeCommand(Message msg) {
+    super(ID, msg.getCipher(), msg.getPhone(), msg.getBody(), false);
+  }
+
   public byte getAlgorithm() {
+    decode();
     return mAlgorithm;
   }
 
   public short getSvrKeyIndex() {
+    decode();
     return mSvrKeyIndex;
   }
 
   public short getCltKeyIndex() {
+    decode();
     return mCltKeyIndex;
   }
 
   public byte[] getEncryptedRdmA() {
+    decode();
     return mEncryptedRdmA;
   }
 
   @Override
-  public String toString() {
-    return new StringBuilder("{ id=9001")
+  protected void onDecode() {
+    Builder builder = new Builder(this);
+    mAlgorithm = builder.algorithm;
+    mSvrKeyIndex = builder.svrKeyIndex;
+    mCltKeyIndex = builder.cltKeyIndex;
+    mEncryptedRdmA = builder.encryptedRdmA;
+  }
+
+  @Override
+  public void formatTo(StringBuilder sb) {
+    if (!tryDecode()) {
+      super.formatTo(sb);
+      return;
+    }
+
+    sb.append("{ id=9001")
         .append(", alg=").append(mAlgorithm)
         .append(", sKey=").append(mSvrKeyIndex)
         .append(", cKey=").append(mCltKeyIndex)
-        .append(", rdmA=").append(mEncryptedRdmA)
-        .append(" }").toString();
+        .append(", rdmA=");
+    LogUtils.appendHex(sb, mEncryptedRdmA, 0, mEncryptedRdmA.length)
+        .append(" }");
+  }
+
+  /**
+   * A flyweight view of a challenge command.
+   *
+   * @see MessageView
+   */
+  public static class View extends MessageView {
+
+    public View(MessageView view) {
+      super(view);
+
+      if (ID != getId()) {
+        throw new IllegalArgumentException("Wrong message ID.");
+      }
+      if (getBodyLength() != 22) {
+        throw new IllegalArgumentException("Message body incorrect.");
+      }
+    }
+
+    public byte getAlgorithm() {
+      return getBodyByte(0);
+    }
+
+    public short getSvrKeyIndex() {
+      return getBodyShort(1);
+    }
+
+    public short getCltKeyIndex() {
+      return getBodyShort(3);
+    }
+
+    /**
+     * Returns a copy of the encrypted random number A, including its length prefix.
+     *
+     * @return the encrypted random number A
+     */
+    public byte[] copyEncryptedRdmA() {
+      return copyBody(5, getBodyLength());
+    }
+
   }
 
   public static class Builder extends MessageBuilder {
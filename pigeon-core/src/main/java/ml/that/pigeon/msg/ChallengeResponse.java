@@ -1,7 +1,5 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 
@@ -31,6 +29,8 @@ public class ChallengeResponse extends Message {
   private static final byte[] EMPTY_SCHOOL_NO  = new byte[6];
   private static final byte[] RESERVED_FIELD   = new byte[16];
 
+  private static final int CRYPTO_BLOCK_LENGTH = 16;
+
   private final byte[] mMfrsId;
   private final byte[] mCltId;
   private final short  mHardwareVer;
@@ -129,7 +129,7 @@ public class ChallengeResponse extends Message {
       if (id != null && id.length == 5) {
         this.mfrsId = id;
       } else {
-        Log.w(TAG, "mfrsId: Illegal manufacturer ID, use default.");
+        LogUtils.w(TAG, "mfrsId: Illegal manufacturer ID, use default.");
       }
 
       return this;
@@ -139,7 +139,7 @@ public class ChallengeResponse extends Message {
       if (id != null && id.length == 7) {
         this.cltId = id;
       } else {
-        Log.w(TAG, "cltId: Illegal client ID, use default.");
+        LogUtils.w(TAG, "cltId: Illegal client ID, use default.");
       }
 
       return this;
@@ -149,7 +149,7 @@ public class ChallengeResponse extends Message {
       if (ver >= 0 && ver <= 9999) {
         this.hardwareVer = ver;
       } else {
-        Log.w(TAG, "hardwareVer: Illegal hardware version, use default.");
+        LogUtils.w(TAG, "hardwareVer: Illegal hardware version, use default.");
       }
 
       return this;
@@ -159,7 +159,7 @@ public class ChallengeResponse extends Message {
       if (ver >= 0 && ver <= 9999) {
         this.softwareVer = ver;
       } else {
-        Log.w(TAG, "softwareVer: Illegal software version, use default.");
+        LogUtils.w(TAG, "softwareVer: Illegal software version, use default.");
       }
 
       return this;
@@ -169,7 +169,7 @@ public class ChallengeResponse extends Message {
       if (ver >= 0 && ver <= 9999) {
         this.protocolVer = ver;
       } else {
-        Log.w(TAG, "protocolVer: Illegal protocol version, use default.");
+        LogUtils.w(TAG, "protocolVer: Illegal protocol version, use default.");
       }
 
       return this;
@@ -179,7 +179,7 @@ public class ChallengeResponse extends Message {
       if (ver >= 0 && ver <= 99) {
         this.customVer = ver;
       } else {
-        Log.w(TAG, "customVer: Illegal custom version, use default.");
+        LogUtils.w(TAG, "customVer: Illegal custom version, use default.");
       }
 
       return this;
@@ -196,7 +196,7 @@ public class ChallengeResponse extends Message {
           this.plateColor = color;
           break;
         default:
-          Log.w(TAG, "plateColor: Unknown plate color, use default.");
+          LogUtils.w(TAG, "plateColor: Unknown plate color, use default.");
       }
 
       return this;
@@ -206,7 +206,7 @@ public class ChallengeResponse extends Message {
       if (text != null) {
         this.plateText = text;
       } else {
-        Log.w(TAG, "plateText: Plate text is null, use default.");
+        LogUtils.w(TAG, "plateText: Plate text is null, use default.");
       }
 
       return this;
@@ -216,7 +216,7 @@ public class ChallengeResponse extends Message {
       if (school != null && school.length == 6) {
         this.schoolNo = school;
       } else {
-        Log.w(TAG, "schoolNo: Illegal school number, use default.");
+        LogUtils.w(TAG, "schoolNo: Illegal school number, use default.");
       }
 
       return this;
@@ -226,7 +226,7 @@ public class ChallengeResponse extends Message {
       if (sn != null && sn.length == 16) {
         this.deviceSn = sn;
       } else {
-        Log.w(TAG, "deviceSn: Illegal device SN, use default.");
+        LogUtils.w(TAG, "deviceSn: Illegal device SN, use default.");
       }
 
       return this;
@@ -236,7 +236,7 @@ public class ChallengeResponse extends Message {
       if (addr != null && addr.length == 16) {
         this.svrAddress = addr;
       } else {
-        Log.w(TAG, "svrAddress: Illegal server address, use default.");
+        LogUtils.w(TAG, "svrAddress: Illegal server address, use default.");
       }
 
       return this;
@@ -245,6 +245,14 @@ public class ChallengeResponse extends Message {
     @Override
     public ChallengeResponse build() {
       try {
+        // Encrypt the four blocks with a single cached cipher, straight into one buffer
+        byte[] crypto = new byte[4 * (CRYPTO_BLOCK_LENGTH + 1)];
+        int pos = 0;
+        pos += encryptXor(this.randomB, this.cltId, crypto, pos);
+        pos += encryptXor(this.randomB, this.randomA, crypto, pos);
+        pos += encryptXor(this.deviceSn, this.randomA, crypto, pos);
+        encryptXor(this.svrAddress, this.randomA, crypto, pos);
+
         this.body =
             ArrayUtils.concatenate(
                 this.mfrsId,
@@ -259,21 +267,24 @@ public class ChallengeResponse extends Message {
                 this.schoolNo,
                 RESERVED_FIELD,
                 IntegerUtils.asBytes(this.cltKeyIndex),
-                CryptoUtils.encrypt(ArrayUtils.leftXor(this.randomB, this.cltId), this.cltKey),
-                CryptoUtils.encrypt(ArrayUtils.leftXor(this.randomB, this.randomA), this.cltKey),
-                CryptoUtils.encrypt(ArrayUtils.leftXor(this.deviceSn, this.randomA), this.cltKey),
-                CryptoUtils.encrypt(ArrayUtils.leftXor(this.svrAddress, this.randomA), this.cltKey)
+                crypto
             );
       } catch (UnsupportedEncodingException uee) {
-        Log.e(TAG, "build: Encode message body failed.", uee);
+        LogUtils.e(TAG, "build: Encode message body failed.", uee);
       } catch (BadPaddingException | IllegalBlockSizeException | InvalidKeyException e) {
-        Log.e(TAG, "build: Encode message body failed.", e);
+        LogUtils.e(TAG, "build: Encode message body failed.", e);
         return null;
       }
 
       return new ChallengeResponse(this);
     }
 
+    private int encryptXor(byte[] a, byte[] b, byte[] out, int outOff)
+        throws BadPaddingException, IllegalBlockSizeException, InvalidKeyException {
+      byte[] raw = ArrayUtils.leftXor(a, b);
+      return CryptoUtils.encrypt(raw, 0, raw.length, this.cltKey, out, outOff);
+    }
+
   }
 
 }
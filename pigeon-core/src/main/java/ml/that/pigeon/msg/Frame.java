@@ -0,0 +1,292 @@
+package ml.that.pigeon.msg;
+
+import ml.that.pigeon.util.Loggable;
+
+/**
+ * A pooled buffer holding one fully encoded packet, ready to be written to the server: flags,
+ * escaped header, escaped body and escaped checksum.
+ * <p>
+ * A frame is obtained with {@link #obtain()}, and must be handed back with {@link #recycle()} once
+ * it has been written. It must not be accessed after being recycled.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public final class Frame implements Loggable {
+
+  // Every byte between the flags may be escaped to two
+  private static final int CAPACITY = FrameBuffer.CAPACITY * 2 + 2;
+
+  private static final byte FLAG = 0x7e;
+
+  private static final int MAX_POOL_SIZE = 64;
+
+  private static final Object sPoolSync = new Object();
+
+  private static Frame sPool;
+  private static int   sPoolSize = 0;
+
+  private final byte[] mData = new byte[CAPACITY];
+
+  private int    mLength;
+  private short  mMsgId;
+  private short  mSn;
+  private byte   mChecksum;
+  // Offsets of the escaped serial number and checksum in the data, so they can be patched
+  private int    mSnStart;
+  private int    mSnEnd;
+  private int    mChecksumStart;
+  // Time the message of the frame was sent, if it is traced
+  private long   mTraceStart;
+  // Object notified once the frame is written, if any
+  private Object mAttachment;
+
+  // Next frame in the pool
+  private Frame mNext;
+
+  private Frame() {
+  }
+
+  /**
+   * Returns an empty frame from the pool, or a new one if the pool is empty.
+   *
+   * @return an empty frame
+   */
+  public static Frame obtain() {
+    synchronized (sPoolSync) {
+      if (sPool != null) {
+        Frame frame = sPool;
+        sPool = frame.mNext;
+        frame.mNext = null;
+        sPoolSize--;
+        return frame;
+      }
+    }
+    return new Frame();
+  }
+
+  /** Hands the frame back to the pool. */
+  public void recycle() {
+    mLength = 0;
+    mTraceStart = 0;
+    mAttachment = null;
+    synchronized (sPoolSync) {
+      if (sPoolSize < MAX_POOL_SIZE) {
+        mNext = sPool;
+        sPool = this;
+        sPoolSize++;
+      }
+    }
+  }
+
+  /**
+   * Encodes a packet into this frame, escaping the bytes as they are written.
+   *
+   * @param id      the message ID
+   * @param isLong  if the packet is a fragment of a long message
+   * @param cipher  the cipher mode
+   * @param phone   the phone number in BCD, 6 bytes
+   * @param sn      the serial number
+   * @param total   the total number of fragments, ignored if not a long message
+   * @param index   the index of the fragment starting at 1, ignored if not a long message
+   * @param payload the buffer holding the payload
+   * @param off     the start offset of the payload in <tt>payload</tt>
+   * @param len     the length of the payload, at most {@link Packet#MAX_LENGTH}
+   * @return this frame
+   */
+  public Frame encode(short id,
+                      boolean isLong,
+                      byte cipher,
+                      byte[] phone,
+                      short sn,
+                      short total,
+                      short index,
+                      byte[] payload,
+                      int off,
+                      int len) {
+    if (len > Packet.MAX_LENGTH) {
+      throw new IllegalArgumentException("Payload too long.");
+    }
+
+    mMsgId = id;
+    mSn = sn;
+    mLength = 0;
+    mChecksum = 0;
+
+    mData[mLength++] = FLAG;
+    putShort(id);
+    putShort((short) ((isLong ? 1 << 13 : 0) | (cipher << 8) | len));
+    for (byte b : phone) {
+      put(b);
+    }
+    mSnStart = mLength;
+    putShort(sn);
+    mSnEnd = mLength;
+    if (isLong) {
+      putShort(total);
+      putShort(index);
+    }
+    for (int i = off; i < off + len; i++) {
+      put(payload[i]);
+    }
+    putChecksum();
+
+    return this;
+  }
+
+  /**
+   * Replaces the content of this frame with the packet of the specified frame under another serial
+   * number. Only the serial number and the checksum are escaped again, the rest of the escaped
+   * bytes is copied as is, so it is much cheaper than encoding the packet again. The trace stamp
+   * and the attachment are not copied.
+   *
+   * @param frame the frame to copy
+   * @param sn    the serial number
+   * @return this frame
+   */
+  public Frame copyFrom(Frame frame, short sn) {
+    byte[] data = frame.mData;
+    System.arraycopy(data, 0, mData, 0, frame.mSnStart);
+    mLength = frame.mSnStart;
+    mMsgId = frame.mMsgId;
+    mSn = sn;
+    // Takes the old serial number out of the checksum, putting the new one adds it in
+    mChecksum = (byte) (frame.mChecksum ^ (frame.mSn >> 8) ^ frame.mSn);
+    mSnStart = mLength;
+    putShort(sn);
+    mSnEnd = mLength;
+    int len = frame.mChecksumStart - frame.mSnEnd;
+    System.arraycopy(data, frame.mSnEnd, mData, mLength, len);
+    mLength += len;
+    putChecksum();
+
+    return this;
+  }
+
+  /**
+   * Replaces the content of this frame with a copy of the specified frame, including its trace
+   * stamp and its attachment.
+   *
+   * @param frame the frame to copy
+   * @return this frame
+   */
+  public Frame copyFrom(Frame frame) {
+    System.arraycopy(frame.mData, 0, mData, 0, frame.mLength);
+    mLength = frame.mLength;
+    mMsgId = frame.mMsgId;
+    mSn = frame.mSn;
+    mChecksum = frame.mChecksum;
+    mSnStart = frame.mSnStart;
+    mSnEnd = frame.mSnEnd;
+    mChecksumStart = frame.mChecksumStart;
+    mTraceStart = frame.mTraceStart;
+    mAttachment = frame.mAttachment;
+    return this;
+  }
+
+  /**
+   * Returns the buffer holding the frame, which is valid from index {@code 0} to {@link
+   * #length()}.
+   *
+   * @return the buffer
+   */
+  public byte[] array() {
+    return mData;
+  }
+
+  public int length() {
+    return mLength;
+  }
+
+  public short getMsgId() {
+    return mMsgId;
+  }
+
+  public short getSn() {
+    return mSn;
+  }
+
+  /**
+   * Returns the time the message of this frame was sent, if it has been sampled for tracing.
+   *
+   * @return the time in nanoseconds, or {@code 0} if not traced
+   */
+  public long getTraceStart() {
+    return mTraceStart;
+  }
+
+  /**
+   * Marks this frame as traced from the specified time on, see {@link #getTraceStart()}.
+   *
+   * @param start the time the message was sent, in nanoseconds
+   */
+  public void setTraceStart(long start) {
+    mTraceStart = start;
+  }
+
+  /**
+   * Returns the object attached to this frame by its sender, e.g. to be notified once the frame is
+   * written.
+   *
+   * @return the attached object, or {@code null} if none
+   */
+  public Object getAttachment() {
+    return mAttachment;
+  }
+
+  /**
+   * Attaches the specified object to this frame until it is recycled, see {@link
+   * #getAttachment()}.
+   *
+   * @param attachment the object to attach, or {@code null} to detach
+   */
+  public void setAttachment(Object attachment) {
+    mAttachment = attachment;
+  }
+
+  @Override
+  public void formatTo(StringBuilder sb) {
+    sb.append("{ id=").append(mMsgId)
+        .append(", sn=").append(mSn)
+        .append(", len=").append(mLength)
+        .append(" }");
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    formatTo(sb);
+    return sb.toString();
+  }
+
+  /** Writes the checksum and the closing flag. */
+  private void putChecksum() {
+    byte checksum = mChecksum;
+    mChecksumStart = mLength;
+    put(checksum);
+    mChecksum = checksum;
+    mData[mLength++] = FLAG;
+  }
+
+  private void putShort(short s) {
+    put((byte) ((s >> 8) & 0xff));
+    put((byte) (s & 0xff));
+  }
+
+  /** Writes an unescaped byte, adding it to the checksum. */
+  private void put(byte b) {
+    mChecksum ^= b;
+    switch (b) {
+      case 0x7d:
+        mData[mLength++] = 0x7d;
+        mData[mLength++] = 0x01;
+        break;
+      case 0x7e:
+        mData[mLength++] = 0x7d;
+        mData[mLength++] = 0x02;
+        break;
+      default:
+        mData[mLength++] = b;
+    }
+  }
+
+}
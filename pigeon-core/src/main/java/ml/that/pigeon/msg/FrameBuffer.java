@@ -0,0 +1,199 @@
+package ml.that.pigeon.msg;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pooled, reference-counted buffer holding one unescaped JT/T808 frame, i.e. the header, body
+ * and checksum of a packet without the surrounding flags.
+ * <p>
+ * A buffer is obtained with {@link #obtain()} holding a single reference. Every {@link #retain()}
+ * must be paired with a {@link #release()}, once the last reference is released the buffer returns
+ * to the pool and must not be accessed anymore.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public final class FrameBuffer {
+
+  /** The capacity of a buffer: the header of a long message, the maximum body and the checksum. */
+  public static final int CAPACITY = 16 + Packet.MAX_LENGTH + 1;
+
+  private static final int MAX_POOL_SIZE = 32;
+
+  private static final Object sPoolSync = new Object();
+
+  private static FrameBuffer sPool;
+  private static int         sPoolSize = 0;
+
+  private final byte[]        mData     = new byte[CAPACITY];
+  private final AtomicInteger mRefCount = new AtomicInteger();
+
+  private int mLength;
+
+  // Next buffer in the pool
+  private FrameBuffer mNext;
+
+  private FrameBuffer() {
+  }
+
+  /**
+   * Returns an empty buffer from the pool, or a new one if the pool is empty. The buffer holds a
+   * single reference.
+   *
+   * @return an empty buffer
+   */
+  public static FrameBuffer obtain() {
+    FrameBuffer buf = null;
+    synchronized (sPoolSync) {
+      if (sPool != null) {
+        buf = sPool;
+        sPool = buf.mNext;
+        buf.mNext = null;
+        sPoolSize--;
+      }
+    }
+    if (buf == null) {
+      buf = new FrameBuffer();
+    }
+
+    buf.mLength = 0;
+    buf.mRefCount.set(1);
+    return buf;
+  }
+
+  /**
+   * Adds a reference to this buffer.
+   *
+   * @return this buffer
+   */
+  public FrameBuffer retain() {
+    if (mRefCount.getAndIncrement() <= 0) {
+      mRefCount.decrementAndGet();
+      throw new IllegalStateException("Frame buffer already released.");
+    }
+
+    return this;
+  }
+
+  /**
+   * Releases a reference to this buffer. The buffer returns to the pool once the last reference
+   * is released.
+   */
+  public void release() {
+    int count = mRefCount.decrementAndGet();
+    if (count > 0) {
+      return;
+    }
+    if (count < 0) {
+      mRefCount.incrementAndGet();
+      throw new IllegalStateException("Frame buffer already released.");
+    }
+
+    synchronized (sPoolSync) {
+      if (sPoolSize < MAX_POOL_SIZE) {
+        mNext = sPool;
+        sPool = this;
+        sPoolSize++;
+      }
+    }
+  }
+
+  /**
+   * Fills the buffer by unescaping the bytes of a frame using JT/T808 rules. The bytes must not
+   * include the surrounding flags.
+   *
+   * @param src the buffer holding the escaped frame
+   * @param off the start offset of the frame in <tt>src</tt>
+   * @param len the length of the escaped frame
+   * @return false if the frame is too long or contains an illegal escape sequence
+   */
+  public boolean unescape(byte[] src, int off, int len) {
+    int pos = 0;
+    int end = off + len;
+
+    for (int i = off; i < end; i++) {
+      if (pos >= CAPACITY) {
+        return false;
+      }
+
+      byte b = src[i];
+      if (b == 0x7d) {
+        if (++i >= end) {
+          return false;
+        }
+        switch (src[i]) {
+          case 0x01:
+            b = 0x7d;
+            break;
+          case 0x02:
+            b = 0x7e;
+            break;
+          default:
+            return false;
+        }
+      }
+      mData[pos++] = b;
+    }
+
+    mLength = pos;
+    return true;
+  }
+
+  public int length() {
+    return mLength;
+  }
+
+  public byte getByte(int index) {
+    return mData[index];
+  }
+
+  public short getShort(int index) {
+    return (short) ((mData[index] & 0xff) << 8 | (mData[index + 1] & 0xff));
+  }
+
+  public int getInt(int index) {
+    return (mData[index] & 0xff) << 24
+           | (mData[index + 1] & 0xff) << 16
+           | (mData[index + 2] & 0xff) << 8
+           | (mData[index + 3] & 0xff);
+  }
+
+  /**
+   * Copies a range of the buffer into the destination array.
+   *
+   * @param index  the index of the first byte to copy
+   * @param dst    the destination array
+   * @param dstOff the start offset in <tt>dst</tt>
+   * @param len    the number of bytes to copy
+   */
+  public void getBytes(int index, byte[] dst, int dstOff, int len) {
+    System.arraycopy(mData, index, dst, dstOff, len);
+  }
+
+  /**
+   * Returns a copy of a range of the buffer.
+   *
+   * @param from the index of the first byte to copy, inclusive
+   * @param to   the index of the last byte to copy, exclusive
+   * @return a new byte array
+   */
+  public byte[] copyOfRange(int from, int to) {
+    return Arrays.copyOfRange(mData, from, to);
+  }
+
+  /**
+   * Returns the XOR checksum of a range of the buffer.
+   *
+   * @param from the index of the first byte, inclusive
+   * @param to   the index of the last byte, exclusive
+   * @return the checksum
+   */
+  byte xorCheck(int from, int to) {
+    byte checksum = 0;
+    for (int i = from; i < to; i++) {
+      checksum ^= mData[i];
+    }
+    return checksum;
+  }
+
+}
@@ -0,0 +1,71 @@
+package ml.that.pigeon.msg;
+
+/**
+ * Base class for the typed messages received, whose fields are decoded from the message body on
+ * the first access rather than when the message is read, see {@link MessageRegistry}. The body is
+ * decoded once, however many listeners access the fields and from whichever threads.
+ * <p>
+ * Subclasses decode their fields in {@link #onDecode()}, and call {@link #decode()} from each
+ * getter of a field.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public abstract class LazyMessage extends Message {
+
+  // Flag that indicates if the fields have been decoded from the message body
+  private volatile boolean mDecoded;
+
+  /**
+   * Creates a message.
+   *
+   * @param id      the message ID
+   * @param cipher  the cipher mode of the message body
+   * @param phone   the phone number
+   * @param body    the message body
+   * @param decoded whether the fields are set already, as when the message is built
+   */
+  protected LazyMessage(short id, byte cipher, byte[] phone, byte[] body, boolean decoded) {
+    super(id, cipher, phone, body);
+
+    mDecoded = decoded;
+  }
+
+  /**
+   * Decodes the fields from the message body, if not decoded yet.
+   *
+   * @throws IllegalArgumentException if the message body is malformed
+   */
+  protected final void decode() {
+    if (!mDecoded) {
+      synchronized (this) {
+        if (!mDecoded) {
+          onDecode();
+          mDecoded = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the fields from the message body, if not decoded yet, for the log representation.
+   *
+   * @return {@code false} if the message body is malformed, so only the generic fields can be
+   * appended
+   */
+  protected final boolean tryDecode() {
+    try {
+      decode();
+      return true;
+    } catch (IllegalArgumentException iae) {
+      return false;
+    }
+  }
+
+  /**
+   * Decodes the fields from the message body. Invoked once, unless the body is malformed.
+   *
+   * @throws IllegalArgumentException if the message body is malformed
+   */
+  protected abstract void onDecode();
+
+}
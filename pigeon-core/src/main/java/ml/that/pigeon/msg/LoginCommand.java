@@ -1,7 +1,5 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 
@@ -12,7 +10,7 @@ import ml.that.pigeon.util.LogUtils;
  *
  * @author That Mr.L (thatmr.l@gmail.com)
  */
-public class LoginCommand extends Message {
+public class LoginCommand extends LazyMessage {
 
   private static final String TAG = LogUtils.makeTag(LoginCommand.class);
 
@@ -31,37 +29,115 @@ public class LoginCommand extends Message {
   public static final byte RESULT_TEST                = (byte) 254;
   public static final byte RESULT_OTHER_ERROR         = (byte) 255;
 
-  private final byte   mResult;
-  private final String mSvrTime;
-  private final byte[] mEncryptedSvrChk;
+  private byte   mResult;
+  private String mSvrTime;
+  private byte[] mEncryptedSvrChk;
 
   private LoginCommand(Builder builder) {
-    super(ID, builder.cipher, builder.phone, builder.body);
+    super(ID, builder.cipher, builder.phone, builder.body, true);
 
     mResult = builder.result;
     mSvrTime = builder.svrTime;
     mEncryptedSvrChk = builder.encryptedSvrChk;
   }
 
+  /**
+   * Creates a command whose fields are decoded from the body of the specified message on the first
+   * access.
+   *
+   * @param msg the message to decode, the message ID is expected to be {@link #ID}
+   */
+  LoginCommand(Message msg) {
+    super(ID, msg.getCipher(), msg.getPhone(), msg.getBody(), false);
+  }
+
   public byte getResult() {
+    decode();
     return mResult;
   }
 
   public String getSvrTime() {
+    decode();
     return mSvrTime;
   }
 
   public byte[] getEncryptedSvrChk() {
+    decode();
     return mEncryptedSvrChk;
   }
 
   @Override
-  public String toString() {
-    return new StringBuilder("{ id=9002")
+  protected void onDecode() {
+    Builder builder = new Builder(this);
+    mResult = builder.result;
+    mSvrTime = builder.svrTime;
+    mEncryptedSvrChk = builder.encryptedSvrChk;
+  }
+
+  @Override
+  public void formatTo(StringBuilder sb) {
+    if (!tryDecode()) {
+      super.formatTo(sb);
+      return;
+    }
+
+    sb.append("{ id=9002")
         .append(", result=").append(mResult)
         .append(", sTime=").append(mSvrTime)
-        .append(", sChk=").append(mEncryptedSvrChk)
-        .append(" }").toString();
+        .append(", sChk=");
+    LogUtils.appendHex(sb, mEncryptedSvrChk, 0, mEncryptedSvrChk.length)
+        .append(" }");
+  }
+
+  /**
+   * A flyweight view of a login command.
+   *
+   * @see MessageView
+   */
+  public static class View extends MessageView {
+
+    public View(MessageView view) {
+      super(view);
+
+      if (ID != getId()) {
+        throw new IllegalArgumentException("Wrong message ID.");
+      }
+      if (getBodyLength() < 18) {
+        throw new IllegalArgumentException("Message body incomplete.");
+      }
+    }
+
+    public byte getResult() {
+      return getBodyByte(0);
+    }
+
+    public String getSvrTime() {
+      return getBodyAscii(1, 17);
+    }
+
+    public int getEncryptedSvrChkLength() {
+      return getBodyLength() - 17;
+    }
+
+    /**
+     * Copies the encrypted server check code into the destination array.
+     *
+     * @param dst    the destination array
+     * @param dstOff the start offset in <tt>dst</tt>
+     */
+    public void getEncryptedSvrChk(byte[] dst, int dstOff) {
+      getBody(17, dst, dstOff, getEncryptedSvrChkLength());
+    }
+
+    /**
+     * Returns a copy of the encrypted server check code.
+     *
+     * @return the encrypted server check code
+     */
+    public byte[] copyEncryptedSvrChk() {
+      return copyBody(17, getBodyLength());
+    }
+
   }
 
   public static class Builder extends MessageBuilder {
@@ -110,7 +186,7 @@ public class LoginCommand extends Message {
       try {
         this.svrTime = new String(Arrays.copyOfRange(this.body, 1, 17), "ascii");
       } catch (UnsupportedEncodingException uee) {
-        Log.e(TAG, "Builder: Parse server time failed.", uee);
+        LogUtils.e(TAG, "Builder: Parse server time failed.", uee);
       }
 
       this.encryptedSvrChk = Arrays.copyOfRange(this.body, 17, this.body.length);
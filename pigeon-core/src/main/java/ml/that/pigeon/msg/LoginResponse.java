@@ -1,7 +1,5 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import ml.that.pigeon.util.ArrayUtils;
 import ml.that.pigeon.util.IntegerUtils;
 import ml.that.pigeon.util.LogUtils;
@@ -61,7 +59,7 @@ public class LoginResponse extends Message {
           this.result = result;
           break;
         default:
-          Log.w(TAG, "result: Unknown result, use default.");
+          LogUtils.w(TAG, "result: Unknown result, use default.");
       }
 
       return this;
@@ -71,7 +69,7 @@ public class LoginResponse extends Message {
       if (time != null && time.length == 6) {
         this.lastCfgTime = time;
       } else {
-        Log.w(TAG, "lastCfgTime: Illeage configure time, use default.");
+        LogUtils.w(TAG, "lastCfgTime: Illeage configure time, use default.");
       }
 
       return this;
@@ -84,7 +82,7 @@ public class LoginResponse extends Message {
           this.cltStatus = status;
           break;
         default:
-          Log.w(TAG, "cltStatus: Unknown client status, use default.");
+          LogUtils.w(TAG, "cltStatus: Unknown client status, use default.");
       }
 
       return this;
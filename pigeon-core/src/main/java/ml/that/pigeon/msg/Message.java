@@ -1,13 +1,11 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import ml.that.pigeon.util.ArrayUtils;
 import ml.that.pigeon.util.LogUtils;
+import ml.that.pigeon.util.Loggable;
 
 /**
  * Base class for JT/T808 messages.
@@ -16,7 +14,7 @@ import ml.that.pigeon.util.LogUtils;
  *
  * @author That Mr.L (thatmr.l@gmail.com)
  */
-public class Message {// TODO: 10/23/2016 make this class abstract
+public class Message implements Loggable {// TODO: 10/23/2016 make this class abstract
 
   private static final String TAG = LogUtils.makeTag(Message.class);
 
@@ -41,21 +39,21 @@ public class Message {// TODO: 10/23/2016 make this class abstract
         mCipher = cipher;
         break;
       default:
-        Log.w(TAG, "Message: Unknown cipher mode, set to none.");
+        LogUtils.w(TAG, "Message: Unknown cipher mode, set to none.");
         mCipher = CIPHER_NONE;
     }
 
     if (phone != null && phone.length == 6) {
       mPhone = phone;
     } else {
-      Log.w(TAG, "Message: Illegal phone number, set to empty.");
+      LogUtils.w(TAG, "Message: Illegal phone number, set to empty.");
       mPhone = EMPTY_PHONE;
     }
 
     if (body != null) {
       mBody = body;
     } else {
-      Log.w(TAG, "Message: Message body not specified, set to empty.");
+      LogUtils.w(TAG, "Message: Message body not specified, set to empty.");
       mBody = EMPTY_BODY;
     }
 
@@ -113,15 +111,30 @@ public class Message {// TODO: 10/23/2016 make this class abstract
     return mBody;
   }
 
+  /**
+   * Appends the log representation of the message. Subclasses overriding {@link #toString()}
+   * should override this method as well, the default appends the generic fields.
+   *
+   * @param sb the builder to append to
+   */
   @Override
-  public String toString() {
-    return new StringBuilder("{ ")
+  public void formatTo(StringBuilder sb) {
+    sb.append("{ ")
         .append("id=").append(mId)
         .append(", lng=").append(mIsLong)
         .append(", cph=").append(mCipher)
-        .append(", phn=").append(Arrays.toString(mPhone))
-        .append(", bdy=").append(Arrays.toString(mBody))
-        .append(" }").toString();
+        .append(", phn=");
+    LogUtils.appendHex(sb, mPhone, 0, mPhone.length)
+        .append(", bdy=");
+    LogUtils.appendHex(sb, mBody, 0, mBody.length)
+        .append(" }");
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    formatTo(sb);
+    return sb.toString();
   }
 
   public static class Builder extends MessageBuilder {
@@ -139,7 +152,7 @@ public class Message {// TODO: 10/23/2016 make this class abstract
           head = i;
           break;
         }
-        Log.w(TAG, "Builder: Packet not specified, ignore and continue.");
+        LogUtils.w(TAG, "Builder: Packet not specified, ignore and continue.");
       }
 
       if (!found) {
@@ -162,23 +175,23 @@ public class Message {// TODO: 10/23/2016 make this class abstract
 
       for (int i = head + 1; i < packets.length; i++) {
         if (packets[i] == null) {
-          Log.w(TAG, "Builder: Packet not specified, ignore and continue.");
+          LogUtils.w(TAG, "Builder: Packet not specified, ignore and continue.");
           continue;
         }
         if (this.id != packets[i].getMsgId()) {
-          Log.w(TAG, "Builder: Packet with different ID, ignore and continue.");
+          LogUtils.w(TAG, "Builder: Packet with different ID, ignore and continue.");
           continue;
         }
         if (!packets[i].isLongMsg()) {
-          Log.w(TAG, "Builder: Packet not a long message, ignore and continue.");
+          LogUtils.w(TAG, "Builder: Packet not a long message, ignore and continue.");
           continue;
         }
         if (this.cipher != packets[i].getCipher()) {
-          Log.w(TAG, "Builder: Packet with different cipher mode, ignore and continue.");
+          LogUtils.w(TAG, "Builder: Packet with different cipher mode, ignore and continue.");
           continue;
         }
         if (this.phone != packets[i].getPhone()) {
-          Log.w(TAG, "Builder: Packet with different phone number, ignore and continue.");
+          LogUtils.w(TAG, "Builder: Packet with different phone number, ignore and continue.");
           continue;
         }
         payloads.add(packets[i].getPayload());
@@ -199,7 +212,7 @@ public class Message {// TODO: 10/23/2016 make this class abstract
       if (body != null) {
         this.body = body;
       } else {
-        Log.w(TAG, "body: Message body not specified, use default.");
+        LogUtils.w(TAG, "body: Message body not specified, use default.");
       }
 
       return this;
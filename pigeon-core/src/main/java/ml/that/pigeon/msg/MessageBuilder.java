@@ -1,7 +1,5 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import ml.that.pigeon.util.LogUtils;
 
 public abstract class MessageBuilder {
@@ -20,7 +18,7 @@ public abstract class MessageBuilder {
         this.cipher = cipher;
         break;
       default:
-        Log.w(TAG, "cipher: Unknown cipher mode, use default.");
+        LogUtils.w(TAG, "cipher: Unknown cipher mode, use default.");
     }
 
     return this;
@@ -30,7 +28,7 @@ public abstract class MessageBuilder {
     if (phone != null && phone.length == 6) {
       this.phone = phone;
     } else {
-      Log.w(TAG, "phone: Illegal phone number, use default.");
+      LogUtils.w(TAG, "phone: Illegal phone number, use default.");
     }
 
     return this;
@@ -0,0 +1,301 @@
+package ml.that.pigeon.msg;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import ml.that.pigeon.crypto.BodyCipher;
+
+/**
+ * A pooled, reusable builder which encodes the body of a message directly into a recycled buffer,
+ * for messages sent at a high rate (e.g. periodic reports). Unlike the message builders, it does
+ * not allocate a body array nor a message, the body is encoded straight into pooled {@link Frame}s.
+ * <p>
+ * A simple usage might looks like the following:
+ * <pre>
+ *   MessageEncoder encoder = MessageEncoder.obtain(id);
+ *   encoder.putInt(alarm).putInt(status).putInt(lat).putInt(lng);
+ *   // The connection recycles the encoder once its frames are queued
+ *   conn.sendMessage(encoder);
+ * </pre>
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public final class MessageEncoder {
+
+  private static final int INITIAL_CAPACITY = 256;
+  // Buffers grown beyond this size for an unusual message are not kept in the pool
+  private static final int MAX_POOLED_CAPACITY = 4 * Packet.MAX_LENGTH;
+
+  private static final int MAX_POOL_SIZE = 8;
+
+  private static final Object sPoolSync = new Object();
+
+  private static MessageEncoder sPool;
+  private static int            sPoolSize = 0;
+
+  private byte[] mBody = new byte[INITIAL_CAPACITY];
+  private int    mLength;
+
+  private short  mId;
+  private byte   mCipher;
+  private byte[] mPhone;
+
+  // Next encoder in the pool
+  private MessageEncoder mNext;
+
+  private MessageEncoder() {
+  }
+
+  /**
+   * Returns an empty encoder for the specified message ID from the pool, or a new one if the pool
+   * is empty.
+   *
+   * @param id the message ID
+   * @return an empty encoder
+   */
+  public static MessageEncoder obtain(short id) {
+    MessageEncoder encoder = null;
+    synchronized (sPoolSync) {
+      if (sPool != null) {
+        encoder = sPool;
+        sPool = encoder.mNext;
+        encoder.mNext = null;
+        sPoolSize--;
+      }
+    }
+    if (encoder == null) {
+      encoder = new MessageEncoder();
+    }
+
+    encoder.mId = id;
+    encoder.mCipher = Message.CIPHER_NONE;
+    encoder.mPhone = Message.EMPTY_PHONE;
+    encoder.mLength = 0;
+    return encoder;
+  }
+
+  /** Hands the encoder back to the pool. It must not be used after being recycled. */
+  public void recycle() {
+    if (mBody.length > MAX_POOLED_CAPACITY) {
+      return;
+    }
+
+    synchronized (sPoolSync) {
+      if (sPoolSize < MAX_POOL_SIZE) {
+        mNext = sPool;
+        sPool = this;
+        sPoolSize++;
+      }
+    }
+  }
+
+  public MessageEncoder cipher(byte cipher) {
+    switch (cipher) {
+      case Message.CIPHER_NONE:
+      case Message.CIPHER_RSA:
+        mCipher = cipher;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown cipher mode.");
+    }
+
+    return this;
+  }
+
+  public MessageEncoder phone(byte[] phone) {
+    if (phone == null || phone.length != 6) {
+      throw new IllegalArgumentException("Illegal phone number.");
+    }
+
+    mPhone = phone;
+    return this;
+  }
+
+  public MessageEncoder putByte(byte b) {
+    ensureCapacity(1);
+    mBody[mLength++] = b;
+    return this;
+  }
+
+  public MessageEncoder putShort(short s) {
+    ensureCapacity(2);
+    mBody[mLength++] = (byte) ((s >> 8) & 0xff);
+    mBody[mLength++] = (byte) (s & 0xff);
+    return this;
+  }
+
+  public MessageEncoder putInt(int i) {
+    ensureCapacity(4);
+    mBody[mLength++] = (byte) ((i >> 24) & 0xff);
+    mBody[mLength++] = (byte) ((i >> 16) & 0xff);
+    mBody[mLength++] = (byte) ((i >> 8) & 0xff);
+    mBody[mLength++] = (byte) (i & 0xff);
+    return this;
+  }
+
+  public MessageEncoder putBytes(byte[] src) {
+    return putBytes(src, 0, src.length);
+  }
+
+  public MessageEncoder putBytes(byte[] src, int off, int len) {
+    ensureCapacity(len);
+    System.arraycopy(src, off, mBody, mLength, len);
+    mLength += len;
+    return this;
+  }
+
+  /**
+   * Writes a number in BCD, left-padded with zeros to the specified length.
+   *
+   * @param num the non-negative number to write
+   * @param len the number of bytes to write
+   * @return this encoder
+   */
+  public MessageEncoder putBcd(long num, int len) {
+    ensureCapacity(len);
+    for (int i = mLength + len - 1; i >= mLength; i--) {
+      int low = (int) (num % 10);
+      num /= 10;
+      int high = (int) (num % 10);
+      num /= 10;
+      mBody[i] = (byte) (high << 4 | low);
+    }
+    mLength += len;
+    return this;
+  }
+
+  /**
+   * Writes the ASCII characters of a string, right-padded with zeros or truncated to the
+   * specified length.
+   *
+   * @param str the string to write
+   * @param len the number of bytes to write
+   * @return this encoder
+   */
+  public MessageEncoder putAscii(String str, int len) {
+    ensureCapacity(len);
+    int count = Math.min(str.length(), len);
+    for (int i = 0; i < count; i++) {
+      mBody[mLength + i] = (byte) str.charAt(i);
+    }
+    Arrays.fill(mBody, mLength + count, mLength + len, (byte) 0);
+    mLength += len;
+    return this;
+  }
+
+  /**
+   * Returns a pooled copy of this encoder, holding the same message.
+   *
+   * @return the copy, which must be recycled as well
+   */
+  public MessageEncoder copy() {
+    return obtain(mId).cipher(mCipher).phone(mPhone).putBytes(mBody, 0, mLength);
+  }
+
+  /**
+   * Replaces the body written so far with its encryption by the specified cipher. Nothing must be
+   * written to the body afterwards.
+   *
+   * @param cipher the body cipher
+   * @return this encoder
+   * @throws GeneralSecurityException if the body could not be encrypted
+   */
+  public MessageEncoder encryptBody(BodyCipher cipher) throws GeneralSecurityException {
+    byte[] encrypted = cipher.encrypt(mBody, 0, mLength);
+    mLength = 0;
+    ensureCapacity(encrypted.length);
+    System.arraycopy(encrypted, 0, mBody, 0, encrypted.length);
+    mLength = encrypted.length;
+    return this;
+  }
+
+  public byte getCipher() {
+    return mCipher;
+  }
+
+  public short getId() {
+    return mId;
+  }
+
+  /**
+   * Returns the buffer holding the body, which is valid from index {@code 0} to {@link #length()}.
+   *
+   * @return the buffer
+   */
+  public byte[] array() {
+    return mBody;
+  }
+
+  public int length() {
+    return mLength;
+  }
+
+  /**
+   * Copies the message encoded so far into a new message, e.g. to hand it over to listeners.
+   *
+   * @return a new message
+   */
+  public Message toMessage() {
+    return new Message.Builder(mId)
+        .body(Arrays.copyOf(mBody, mLength))
+        .cipher(mCipher)
+        .phone(mPhone)
+        .build();
+  }
+
+  /**
+   * Returns the number of frames the body will be divided into.
+   *
+   * @return the number of frames
+   */
+  public int getFrameCount() {
+    return mLength <= Packet.MAX_LENGTH ? 1 : (mLength + Packet.MAX_LENGTH - 1) / Packet.MAX_LENGTH;
+  }
+
+  /**
+   * Encodes the specified fragment of the body into a pooled frame, which must be recycled once
+   * written. A new serial number is assigned to each frame.
+   *
+   * @param index the index of the fragment, starting at 0
+   * @return the encoded frame
+   */
+  public Frame encodeFrame(int index) {
+    int total = getFrameCount();
+    if (index < 0 || index >= total) {
+      throw new IndexOutOfBoundsException("Frame index " + index + " out of bounds.");
+    }
+
+    int off = index * Packet.MAX_LENGTH;
+    int len = Math.min(Packet.MAX_LENGTH, mLength - off);
+    boolean isLong = mLength > Packet.MAX_LENGTH;
+
+    return Frame.obtain().encode(mId,
+                                 isLong,
+                                 mCipher,
+                                 mPhone,
+                                 PacketManager.getSn(),
+                                 (short) (isLong ? total : 0),
+                                 (short) (isLong ? index + 1 : 0),
+                                 mBody,
+                                 off,
+                                 len);
+  }
+
+  /**
+   * Copies the specified frame encoded by {@link #encodeFrame(int)} into a pooled frame under a new
+   * serial number, e.g. to send the same message on another connection without encoding it again.
+   *
+   * @param frame the frame to copy
+   * @return the copied frame
+   */
+  public static Frame copyFrame(Frame frame) {
+    return Frame.obtain().copyFrom(frame, PacketManager.getSn());
+  }
+
+  private void ensureCapacity(int len) {
+    if (mLength + len > mBody.length) {
+      mBody = Arrays.copyOf(mBody, Math.max(mBody.length * 2, mLength + len));
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+package ml.that.pigeon.msg;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps message IDs to decoders, which turn a generic {@link Message} into its typed form.
+ * <p>
+ * The message reader runs every received message through the registry of its connection, so the
+ * listeners and collectors receive typed messages (e.g. a {@link LoginCommand}) and can simply
+ * cast them. The typed messages created by the default decoders decode their fields lazily on the
+ * first access, so a message nobody reads is never decoded, and a message read by several
+ * listeners is decoded only once, see {@link LazyMessage}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class MessageRegistry {
+
+  private static final MessageRegistry sDefault = new MessageRegistry();
+
+  static {
+    sDefault.register(ServerGenericReply.ID, new Decoder() {
+      @Override
+      public Message decode(Message msg) {
+        return new ServerGenericReply(msg);
+      }
+    });
+    sDefault.register(RegisterReply.ID, new Decoder() {
+      @Override
+      public Message decode(Message msg) {
+        return new RegisterReply(msg);
+      }
+    });
+    sDefault.register(ChallengeCommand.ID, new Decoder() {
+      @Override
+      public Message decode(Message msg) {
+        return new ChallengeCommand(msg);
+      }
+    });
+    sDefault.register(LoginCommand.ID, new Decoder() {
+      @Override
+      public Message decode(Message msg) {
+        return new LoginCommand(msg);
+      }
+    });
+  }
+
+  // Registrations are rare and lookups happen for every message, so the map is copied on write
+  private volatile Map<Short, Decoder> mDecoders = new HashMap<>();
+
+  /**
+   * Returns the registry holding the decoders of all typed messages of this library.
+   *
+   * @return the default registry
+   */
+  public static MessageRegistry getDefault() {
+    return sDefault;
+  }
+
+  /**
+   * Registers a decoder for the specified message ID. A decoder registered for the same ID before
+   * will be replaced.
+   *
+   * @param id      the message ID
+   * @param decoder the decoder
+   */
+  public synchronized void register(short id, Decoder decoder) {
+    if (decoder == null) {
+      throw new NullPointerException("Decoder is null.");
+    }
+
+    Map<Short, Decoder> decoders = new HashMap<>(mDecoders);
+    decoders.put(id, decoder);
+    mDecoders = decoders;
+  }
+
+  /**
+   * Removes the decoder of the specified message ID.
+   *
+   * @param id the message ID
+   */
+  public synchronized void unregister(short id) {
+    Map<Short, Decoder> decoders = new HashMap<>(mDecoders);
+    decoders.remove(id);
+    mDecoders = decoders;
+  }
+
+  /**
+   * Returns the typed form of the specified message, or the message itself if no decoder is
+   * registered for its ID.
+   *
+   * @param msg the message to decode
+   * @return the typed message
+   */
+  public Message decode(Message msg) {
+    Decoder decoder = mDecoders.get(msg.getId());
+    return decoder != null ? decoder.decode(msg) : msg;
+  }
+
+  /** Creates a typed message from a generic message of a particular ID. */
+  public interface Decoder {
+
+    /**
+     * Returns the typed form of the specified message. Decoders should not validate or parse the
+     * message body eagerly, this is better done on the first access of a field.
+     *
+     * @param msg the message to decode
+     * @return the typed message
+     */
+    Message decode(Message msg);
+
+  }
+
+}
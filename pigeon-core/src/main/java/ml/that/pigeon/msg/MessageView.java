@@ -0,0 +1,237 @@
+package ml.that.pigeon.msg;
+
+import ml.that.pigeon.util.Loggable;
+
+/**
+ * A flyweight view of a received message, reading the fields at fixed offsets from a pooled
+ * {@link FrameBuffer} instead of copying them out.
+ * <p>
+ * A view is only valid while its buffer is referenced. Views passed to a listener are valid until
+ * the listener returns, a listener which keeps a view must {@link #retain()} it and {@link
+ * #release()} it when done, or copy what it needs (e.g. with {@link #toPacket()}).
+ * <p>
+ * Typed views (e.g. {@link LoginCommand.View}) are created from a generic view and share its
+ * buffer, they decode the fields of a particular message body on each access.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class MessageView implements Loggable {
+
+  private static final int OFFSET_ID     = 0;
+  private static final int OFFSET_ATTR   = 2;
+  private static final int OFFSET_PHONE  = 4;
+  private static final int OFFSET_SN     = 10;
+  private static final int OFFSET_TOTAL  = 12;
+  private static final int OFFSET_INDEX  = 14;
+  private static final int HEADER_LENGTH = 12;
+  private static final int LONG_HEADER   = 16;
+
+  private final FrameBuffer mBuffer;
+  private final int         mBodyOffset;
+  private final int         mBodyLength;
+
+  private MessageView(FrameBuffer buf, int bodyOffset, int bodyLength) {
+    mBuffer = buf;
+    mBodyOffset = bodyOffset;
+    mBodyLength = bodyLength;
+  }
+
+  /**
+   * Creates a view sharing the buffer of another view, used by typed views.
+   *
+   * @param view the generic view
+   */
+  protected MessageView(MessageView view) {
+    if (view == null) {
+      throw new NullPointerException("Message view is null.");
+    }
+
+    mBuffer = view.mBuffer;
+    mBodyOffset = view.mBodyOffset;
+    mBodyLength = view.mBodyLength;
+  }
+
+  /**
+   * Creates a view of the frame held by the specified buffer, after validating its length, cipher
+   * mode and checksum. The view does not take a reference of the buffer.
+   *
+   * @param buf the buffer holding an unescaped frame
+   * @return a view of the frame
+   * @throws IllegalArgumentException if the frame is malformed
+   */
+  public static MessageView wrap(FrameBuffer buf) {
+    int len = buf.length();
+    if (len < HEADER_LENGTH + 1) {
+      throw new IllegalArgumentException("Insufficient packet length.");
+    }
+
+    short attr = buf.getShort(OFFSET_ATTR);
+    byte cipher = (byte) ((attr >> 8) & 0x1c);
+    if (cipher != Message.CIPHER_NONE && cipher != Message.CIPHER_RSA) {
+      throw new IllegalArgumentException("Unknown cipher mode.");
+    }
+
+    int bodyOffset = (attr & 0x2000) == 0x2000 ? LONG_HEADER : HEADER_LENGTH;
+    int bodyLength = attr & Packet.MAX_LENGTH;
+    if (bodyOffset + bodyLength + 1 != len) {
+      throw new IllegalArgumentException("Incorrect packet length.");
+    }
+
+    if (buf.getByte(len - 1) != buf.xorCheck(0, len - 1)) {
+      throw new IllegalArgumentException("XOR check failed.");
+    }
+
+    return new MessageView(buf, bodyOffset, bodyLength);
+  }
+
+  /**
+   * Adds a reference to the underlying buffer, so the view stays valid after the listener it was
+   * passed to returns.
+   *
+   * @return this view
+   */
+  public MessageView retain() {
+    mBuffer.retain();
+    return this;
+  }
+
+  /** Releases a reference to the underlying buffer, taken by {@link #retain()}. */
+  public void release() {
+    mBuffer.release();
+  }
+
+  public short getId() {
+    return mBuffer.getShort(OFFSET_ID);
+  }
+
+  public boolean isLong() {
+    return mBodyOffset == LONG_HEADER;
+  }
+
+  public byte getCipher() {
+    return (byte) ((mBuffer.getShort(OFFSET_ATTR) >> 8) & 0x1c);
+  }
+
+  /**
+   * Returns a copy of the phone number.
+   *
+   * @return the phone number in BCD
+   */
+  public byte[] getPhone() {
+    return mBuffer.copyOfRange(OFFSET_PHONE, OFFSET_SN);
+  }
+
+  public short getSn() {
+    return mBuffer.getShort(OFFSET_SN);
+  }
+
+  public short getTotal() {
+    return isLong() ? mBuffer.getShort(OFFSET_TOTAL) : 0;
+  }
+
+  public short getIndex() {
+    return isLong() ? mBuffer.getShort(OFFSET_INDEX) : 0;
+  }
+
+  public int getBodyLength() {
+    return mBodyLength;
+  }
+
+  public byte getBodyByte(int index) {
+    return mBuffer.getByte(mBodyOffset + checkBodyIndex(index, 1));
+  }
+
+  public short getBodyShort(int index) {
+    return mBuffer.getShort(mBodyOffset + checkBodyIndex(index, 2));
+  }
+
+  public int getBodyInt(int index) {
+    return mBuffer.getInt(mBodyOffset + checkBodyIndex(index, 4));
+  }
+
+  /**
+   * Copies a range of the body into the destination array.
+   *
+   * @param index  the index of the first byte to copy
+   * @param dst    the destination array
+   * @param dstOff the start offset in <tt>dst</tt>
+   * @param len    the number of bytes to copy
+   */
+  public void getBody(int index, byte[] dst, int dstOff, int len) {
+    mBuffer.getBytes(mBodyOffset + checkBodyIndex(index, len), dst, dstOff, len);
+  }
+
+  /**
+   * Returns a copy of a range of the body.
+   *
+   * @param from the index of the first byte to copy, inclusive
+   * @param to   the index of the last byte to copy, exclusive
+   * @return a new byte array
+   */
+  public byte[] copyBody(int from, int to) {
+    checkBodyIndex(from, to - from);
+    return mBuffer.copyOfRange(mBodyOffset + from, mBodyOffset + to);
+  }
+
+  /**
+   * Decodes a range of the body as an ASCII string.
+   *
+   * @param from the index of the first byte, inclusive
+   * @param to   the index of the last byte, exclusive
+   * @return the decoded string
+   */
+  public String getBodyAscii(int from, int to) {
+    checkBodyIndex(from, to - from);
+
+    char[] chars = new char[to - from];
+    for (int i = 0; i < chars.length; i++) {
+      byte b = mBuffer.getByte(mBodyOffset + from + i);
+      chars[i] = b >= 0 ? (char) b : '\ufffd';
+    }
+
+    return new String(chars);
+  }
+
+  /**
+   * Copies the frame out of the pooled buffer into a packet, which stays valid after the buffer is
+   * released.
+   *
+   * @return a new packet
+   */
+  public Packet toPacket() {
+    return new Packet(getId(),
+                      isLong(),
+                      getCipher(),
+                      getPhone(),
+                      getSn(),
+                      getTotal(),
+                      getIndex(),
+                      copyBody(0, mBodyLength));
+  }
+
+  private int checkBodyIndex(int index, int len) {
+    if (index < 0 || len < 0 || index + len > mBodyLength) {
+      throw new IndexOutOfBoundsException("Body index " + index + " out of bounds.");
+    }
+    return index;
+  }
+
+  @Override
+  public void formatTo(StringBuilder sb) {
+    sb.append("{ ")
+        .append("id=").append(getId())
+        .append(", lng=").append(isLong())
+        .append(", cph=").append(getCipher())
+        .append(", sn=").append(getSn())
+        .append(", len=").append(mBodyLength)
+        .append(" }");
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    formatTo(sb);
+    return sb.toString();
+  }
+
+}
@@ -1,23 +1,22 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import java.util.Arrays;
 
 import ml.that.pigeon.util.ArrayUtils;
 import ml.that.pigeon.util.IntegerUtils;
 import ml.that.pigeon.util.LogUtils;
+import ml.that.pigeon.util.Loggable;
 
 /**
  * Represents JT/T808 message packets.
  *
  * @author That Mr.L (thatmr.l@gmail.com)
  */
-public class Packet {
+public class Packet implements Loggable {
 
   private static final String TAG = LogUtils.makeTag(Packet.class);
 
-  static final short MAX_LENGTH = 0x03ff;
+  public static final short MAX_LENGTH = 0x03ff;
 
   private static final byte PREFIX = 0x7e;
   private static final byte SUFFIX = 0x7e;
@@ -46,21 +45,21 @@ public class Packet {
         break;
       default:
         mCipher = Message.CIPHER_NONE;
-        Log.w(TAG, "Packet: Unknown cipher mode, set to none.");
+        LogUtils.w(TAG, "Packet: Unknown cipher mode, set to none.");
     }
 
     if (phone != null && phone.length == 6) {
       mPhone = phone;
     } else {
       mPhone = Message.EMPTY_PHONE;
-      Log.w(TAG, "Packet: Illegal phone number, set to empty.");
+      LogUtils.w(TAG, "Packet: Illegal phone number, set to empty.");
     }
 
     if (payload != null) {
       mPayload = payload;
     } else {
       mPayload = ArrayUtils.EMPTY_BYTE_ARRAY;
-      Log.w(TAG, "Packet: Payload not specified, set to empty");
+      LogUtils.w(TAG, "Packet: Payload not specified, set to empty");
     }
 
     mMsgId = id;
@@ -107,25 +106,28 @@ public class Packet {
   }
 
   public byte[] getBytes() {
-    short attr = (short) ((mIsLongMsg ? 1 << 13 : 0) | (mCipher << 8) | (mPayload.length));
-
-    byte[] header = ArrayUtils.concatenate(IntegerUtils.asBytes(mMsgId),
-                                           IntegerUtils.asBytes(attr),
-                                           mPhone,
-                                           IntegerUtils.asBytes(mSn));
-    if (mIsLongMsg) {
-      header = ArrayUtils.concatenate(header,
-                                      IntegerUtils.asBytes(mTotal),
-                                      IntegerUtils.asBytes(mIndex));
-    }
-
-    byte checksum = ArrayUtils.xorCheck(ArrayUtils.concatenate(header, mPayload));
-
-    byte[] main = ArrayUtils.concatenate(header, mPayload, IntegerUtils.asBytes(checksum));
+    Frame frame = toFrame();
+    byte[] bytes = Arrays.copyOf(frame.array(), frame.length());
+    frame.recycle();
+    return bytes;
+  }
 
-    return ArrayUtils.concatenate(IntegerUtils.asBytes(PREFIX),
-                                  ArrayUtils.escape(main),
-                                  IntegerUtils.asBytes(SUFFIX));
+  /**
+   * Encodes the packet into a pooled frame, which must be recycled once written.
+   *
+   * @return the encoded frame
+   */
+  public Frame toFrame() {
+    return Frame.obtain().encode(mMsgId,
+                                 mIsLongMsg,
+                                 mCipher,
+                                 mPhone,
+                                 mSn,
+                                 mTotal,
+                                 mIndex,
+                                 mPayload,
+                                 0,
+                                 mPayload.length);
   }
 
   public int length() {
@@ -165,17 +167,25 @@ public class Packet {
   }
 
   @Override
-  public String toString() {
-    return new StringBuilder()
-        .append("{ id=").append(mMsgId)
+  public void formatTo(StringBuilder sb) {
+    sb.append("{ id=").append(mMsgId)
         .append(", lng=").append(mIsLongMsg)
         .append(", ciph=").append(mCipher)
-        .append(", phn=").append(mPhone)
+        .append(", phn=");
+    LogUtils.appendHex(sb, mPhone, 0, mPhone.length)
         .append(", sn=").append(mSn)
         .append(", ttl=").append(mTotal)
         .append(", idx=").append(mIndex)
-        .append(", pld=").append(Arrays.toString(mPayload))
-        .append(" }").toString();
+        .append(", pld=");
+    LogUtils.appendHex(sb, mPayload, 0, mPayload.length)
+        .append(" }");
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    formatTo(sb);
+    return sb.toString();
   }
 
 }
@@ -1,14 +1,12 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 
 import ml.that.pigeon.util.IntegerUtils;
 import ml.that.pigeon.util.LogUtils;
 
-public class RegisterReply extends Message {
+public class RegisterReply extends LazyMessage {
 
   private static final String TAG = LogUtils.makeTag(RegisterReply.class);
 
@@ -20,37 +18,104 @@ public class RegisterReply extends Message {
   public static final byte RESULT_CLT_REGISTERED = 3;
   public static final byte RESULT_CLT_NOT_FOUND  = 4;
 
-  private final short  mReqSn;
-  private final byte   mResult;
-  private final String mAuthCode;
+  private short  mReqSn;
+  private byte   mResult;
+  private String mAuthCode;
 
   private RegisterReply(Builder builder) {
-    super(ID, builder.cipher, builder.phone, builder.body);
+    super(ID, builder.cipher, builder.phone, builder.body, true);
 
     mReqSn = builder.reqSn;
     mResult = builder.result;
     mAuthCode = builder.authCode;
   }
 
+  /**
+   * Creates a reply whose fields are decoded from the body of the specified message on the first
+   * access.
+   *
+   * @param msg the message to decode, the message ID is expected to be {@link #ID}
+   */
+  RegisterReply(Message msg) {
+    super(ID, msg.getCipher(), msg.getPhone(), msg.getBody(), false);
+  }
+
   public short getReqSn() {
+    decode();
     return mReqSn;
   }
 
   public byte getResult() {
+    decode();
     return mResult;
   }
 
   public String getAuthCode() {
+    decode();
     return mAuthCode;
   }
 
   @Override
-  public String toString() {
-    return new StringBuilder("{ id=8100")
+  protected void onDecode() {
+    Builder builder = new Builder(this);
+    mReqSn = builder.reqSn;
+    mResult = builder.result;
+    mAuthCode = builder.authCode;
+  }
+
+  @Override
+  public void formatTo(StringBuilder sb) {
+    if (!tryDecode()) {
+      super.formatTo(sb);
+      return;
+    }
+
+    sb.append("{ id=8100")
         .append(", reqSn=").append(mReqSn)
         .append(", result=").append(mResult)
         .append(", auth=").append(mAuthCode)
-        .append(" }").toString();
+        .append(" }");
+  }
+
+  /**
+   * A flyweight view of a register reply.
+   *
+   * @see MessageView
+   */
+  public static class View extends MessageView {
+
+    public View(MessageView view) {
+      super(view);
+
+      if (ID != getId()) {
+        throw new IllegalArgumentException("Wrong message ID.");
+      }
+      if (getBodyLength() < 3) {
+        throw new IllegalArgumentException("Message body incomplete.");
+      }
+    }
+
+    public short getReqSn() {
+      return getBodyShort(0);
+    }
+
+    public byte getResult() {
+      return getBodyByte(2);
+    }
+
+    /**
+     * Returns the authentication code, which is only present if the registration succeeded.
+     *
+     * @return the authentication code, or {@code null} if not present
+     */
+    public String getAuthCode() {
+      if (getResult() != RESULT_OK || getBodyLength() < 4) {
+        return null;
+      }
+
+      return getBodyAscii(3, getBodyLength());
+    }
+
   }
 
   public static class Builder extends MessageBuilder {
@@ -87,7 +152,7 @@ public class RegisterReply extends Message {
           try {
             this.authCode = new String(Arrays.copyOfRange(this.body, 3, this.body.length), "ascii");
           } catch (UnsupportedEncodingException uee) {
-            Log.e(TAG, "Builder: Encode authentication code failed.", uee);
+            LogUtils.e(TAG, "Builder: Encode authentication code failed.", uee);
           }
         case RESULT_VEH_REGISTERED:
         case RESULT_VEH_NOT_FOUND:
@@ -1,7 +1,5 @@
 package ml.that.pigeon.msg;
 
-import android.util.Log;
-
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 
@@ -85,7 +83,7 @@ public class RegisterRequest extends Message {
       if (id != null && id.length == 5) {
         this.mfrsId = id;
       } else {
-        Log.w(TAG, "mfrsId: Illegal manufacturer ID, use default.");
+        LogUtils.w(TAG, "mfrsId: Illegal manufacturer ID, use default.");
       }
 
       return this;
@@ -95,7 +93,7 @@ public class RegisterRequest extends Message {
       if (model != null && model.length == 20) {
         this.cltModel = model;
       } else {
-        Log.w(TAG, "cltModel: Illegal client model, use default.");
+        LogUtils.w(TAG, "cltModel: Illegal client model, use default.");
       }
 
       return this;
@@ -105,7 +103,7 @@ public class RegisterRequest extends Message {
       if (id != null && id.length == 7) {
         this.cltId = id;
       } else {
-        Log.w(TAG, "cltId: Illegal client ID, use default.");
+        LogUtils.w(TAG, "cltId: Illegal client ID, use default.");
       }
 
       return this;
@@ -122,7 +120,7 @@ public class RegisterRequest extends Message {
           this.plateColor = color;
           break;
         default:
-          Log.w(TAG, "plateColor: Unknown plate color, use default.");
+          LogUtils.w(TAG, "plateColor: Unknown plate color, use default.");
       }
 
       return this;
@@ -132,7 +130,7 @@ public class RegisterRequest extends Message {
       if (text != null) {
         this.plateText = text;
       } else {
-        Log.w(TAG, "plateText: Plate text is null, use default.");
+        LogUtils.w(TAG, "plateText: Plate text is null, use default.");
       }
 
       return this;
@@ -149,7 +147,7 @@ public class RegisterRequest extends Message {
                                            IntegerUtils.asBytes(this.plateColor),
                                            this.plateText.getBytes("gbk"));
       } catch (UnsupportedEncodingException uee) {
-        Log.e(TAG, "build: Encode message body failed.", uee);
+        LogUtils.e(TAG, "build: Encode message body failed.", uee);
       }
 
       return new RegisterRequest(this);
@@ -5,7 +5,7 @@ import java.util.Arrays;
 import ml.that.pigeon.util.IntegerUtils;
 import ml.that.pigeon.util.LogUtils;
 
-public class ServerGenericReply extends Message {
+public class ServerGenericReply extends LazyMessage {
 
   private static final String TAG = LogUtils.makeTag(ServerGenericReply.class);
 
@@ -17,37 +17,95 @@ public class ServerGenericReply extends Message {
   public static final byte RESULT_UNSUPPORTED = 3;
   public static final byte RESULT_CONFIRM     = 4;
 
-  private final short mReqSn;
-  private final short mReqId;
-  private final byte  mResult;
+  private short mReqSn;
+  private short mReqId;
+  private byte  mResult;
 
   private ServerGenericReply(Builder builder) {
-    super(ID, builder.cipher, builder.phone, builder.body);
+    super(ID, builder.cipher, builder.phone, builder.body, true);
 
     mReqSn = builder.reqSn;
     mReqId = builder.reqId;
     mResult = builder.result;
   }
 
+  /**
+   * Creates a reply whose fields are decoded from the body of the specified message on the first
+   * access.
+   *
+   * @param msg the message to decode, the message ID is expected to be {@link #ID}
+   */
+  ServerGenericReply(Message msg) {
+    super(ID, msg.getCipher(), msg.getPhone(), msg.getBody(), false);
+  }
+
   public short getReqSn() {
+    decode();
     return mReqSn;
   }
 
   public short getReqId() {
+    decode();
     return mReqId;
   }
 
   public byte getResult() {
+    decode();
     return mResult;
   }
 
   @Override
-  public String toString() {
-    return new StringBuilder("{ id=8001")
+  protected void onDecode() {
+    Builder builder = new Builder(this);
+    mReqSn = builder.reqSn;
+    mReqId = builder.reqId;
+    mResult = builder.result;
+  }
+
+  @Override
+  public void formatTo(StringBuilder sb) {
+    if (!tryDecode()) {
+      super.formatTo(sb);
+      return;
+    }
+
+    sb.append("{ id=8001")
         .append(", reqSn=").append(mReqSn)
         .append(", reqId=").append(mReqId)
         .append(", result=").append(mResult)
-        .append(" }").toString();
+        .append(" }");
+  }
+
+  /**
+   * A flyweight view of a server generic reply.
+   *
+   * @see MessageView
+   */
+  public static class View extends MessageView {
+
+    public View(MessageView view) {
+      super(view);
+
+      if (ID != getId()) {
+        throw new IllegalArgumentException("Wrong message ID.");
+      }
+      if (getBodyLength() != 5) {
+        throw new IllegalArgumentException("Message body incorrect.");
+      }
+    }
+
+    public short getReqSn() {
+      return getBodyShort(0);
+    }
+
+    public short getReqId() {
+      return getBodyShort(2);
+    }
+
+    public byte getResult() {
+      return getBodyByte(4);
+    }
+
   }
 
   public static class Builder extends MessageBuilder {
@@ -0,0 +1,167 @@
+package ml.that.pigeon.util;
+
+/**
+ * An interval which probes longer values until one fails, e.g. the idle time a NAT keeps a mapping
+ * for, then settles on the longest value which did not.
+ * <p>
+ * The interval keeps a safe value, the longest confirmed, and a limit, the shortest known to fail.
+ * Once the current value is confirmed the next one is probed: twice as long while no limit is
+ * known, half way to the limit after that, until the two are closer than the minimum. A probe is
+ * confirmed after a few successes in a row; a failed probe sets the limit and falls back to the
+ * safe value, and a failure of the safe value itself halves it. The limit may be given a time to
+ * live, past which it is forgotten and longer values are probed again. It is not thread-safe.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class AdaptiveInterval {
+
+  // Successes in a row which confirm a probed value
+  private static final int CONFIRMATIONS = 3;
+
+  private final long mMin;
+  private final long mMax;
+  private final long mLimitTtl;
+
+  private long mSafe;
+  private long mLimit;
+  private long mLimitTime;
+  private long mCurrent;
+  private int  mSuccesses = 0;
+
+  /**
+   * Creates an interval starting from what was learnt before, whose limit is never forgotten.
+   *
+   * @param min   the shortest value, also the precision of the search
+   * @param max   the longest value
+   * @param safe  the safe value learnt, or {@code -1} to start from the minimum
+   * @param limit the shortest value known to fail, or {@code -1} if none
+   */
+  public AdaptiveInterval(long min, long max, long safe, long limit) {
+    this(min, max, safe, limit, -1);
+  }
+
+  /**
+   * Creates an interval starting from what was learnt before.
+   *
+   * @param min      the shortest value, also the precision of the search
+   * @param max      the longest value
+   * @param safe     the safe value learnt, or {@code -1} to start from the minimum
+   * @param limit    the shortest value known to fail, or {@code -1} if none
+   * @param limitTtl the time to live of a limit in milliseconds, counted from when it is set or
+   *                 given here, or {@code -1} to never forget it
+   */
+  public AdaptiveInterval(long min, long max, long safe, long limit, long limitTtl) {
+    if (min <= 0 || max < min) {
+      throw new IllegalArgumentException("Illegal interval range.");
+    }
+
+    mMin = min;
+    mMax = max;
+    mLimitTtl = limitTtl;
+    mSafe = Math.max(min, Math.min(max, safe));
+    mCurrent = mSafe;
+    setLimit(limit > mSafe ? limit : Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns the value to use next, which is being probed if it is longer than the safe one.
+   *
+   * @return the current value
+   */
+  public long get() {
+    return mCurrent;
+  }
+
+  /**
+   * Returns the longest value confirmed.
+   *
+   * @return the safe value
+   */
+  public long getSafe() {
+    return mSafe;
+  }
+
+  /**
+   * Returns the shortest value known to fail.
+   *
+   * @return the limit, or {@code -1} if none
+   */
+  public long getLimit() {
+    return mLimit == Long.MAX_VALUE ? -1 : mLimit;
+  }
+
+  /**
+   * Returns if the current value is longer than the safe one.
+   *
+   * @return true if probing
+   */
+  public boolean isProbing() {
+    return mCurrent > mSafe;
+  }
+
+  /**
+   * Records the current value succeeded.
+   *
+   * @return true if the safe value or the limit changed
+   */
+  public boolean succeeded() {
+    boolean changed = false;
+    if (mCurrent > mSafe) {
+      if (++mSuccesses < CONFIRMATIONS) {
+        return false;
+      }
+      mSafe = mCurrent;
+      changed = true;
+    }
+
+    // What failed then may hold now
+    if (mLimit != Long.MAX_VALUE && mLimitTtl >= 0
+        && System.currentTimeMillis() - mLimitTime >= mLimitTtl) {
+      setLimit(Long.MAX_VALUE);
+      changed = true;
+    }
+
+    // Probe the next value, if there is one far enough from the limit
+    long next = mLimit == Long.MAX_VALUE ? mSafe * 2 : mSafe + (mLimit - mSafe) / 2;
+    next = Math.min(next, mMax);
+    if (next - mSafe >= mMin && next < mLimit) {
+      mCurrent = next;
+    }
+    mSuccesses = 0;
+    return changed;
+  }
+
+  /**
+   * Records the current value failed.
+   *
+   * @return true if the safe value or the limit changed
+   */
+  public boolean failed() {
+    mSuccesses = 0;
+    if (mCurrent > mSafe) {
+      setLimit(mCurrent);
+      mCurrent = mSafe;
+      return true;
+    }
+
+    // The safe value does not hold anymore, e.g. the network changed
+    if (mSafe == mMin) {
+      return false;
+    }
+    setLimit(mSafe);
+    mSafe = Math.max(mMin, mSafe / 2);
+    mCurrent = mSafe;
+    return true;
+  }
+
+  private void setLimit(long limit) {
+    mLimit = limit;
+    mLimitTime = System.currentTimeMillis();
+  }
+
+  @Override
+  public String toString() {
+    return "{ current=" + mCurrent + ", safe=" + mSafe + ", limit=" + getLimit() + " }";
+  }
+
+}
@@ -96,33 +96,29 @@ public class ArrayUtils {
   }
 
   public static byte[] concatenate(byte[]... parts) {
-    List<Byte> result = new LinkedList<>();
-
+    int len = 0;
     for (byte[] part : parts) {
-      if (isEmpty(part)) {
-        continue;
-      }
-      for (byte b : part) {
-        result.add(b);
+      if (!isEmpty(part)) {
+        len += part.length;
       }
     }
 
-    return ListUtils.toPrimitives(result);
-  }
-
-  public static byte[] concatenate(List<byte[]> parts) {
-    List<Byte> result = new LinkedList<>();
+    byte[] result = new byte[len];
 
+    int head = 0;
     for (byte[] part : parts) {
       if (isEmpty(part)) {
         continue;
       }
-      for (byte b : part) {
-        result.add(b);
-      }
+      System.arraycopy(part, 0, result, head, part.length);
+      head += part.length;
     }
 
-    return ListUtils.toPrimitives(result);
+    return result;
+  }
+
+  public static byte[] concatenate(List<byte[]> parts) {
+    return concatenate(parts.toArray(new byte[parts.size()][]));
   }
 
   public static List<byte[]> divide(byte[] entire, int len) {
@@ -238,24 +234,32 @@ public class ArrayUtils {
       return EMPTY_BYTE_ARRAY;
     }
 
-    List<Byte> out = new LinkedList<>();
+    int len = in.length;
+    for (byte b : in) {
+      if (b == 0x7d || b == 0x7e) {
+        len++;
+      }
+    }
+
+    byte[] out = new byte[len];
 
+    int i = 0;
     for (byte b : in) {
       switch (b) {
         case 0x7d:
-          out.add((byte) 0x7d);
-          out.add((byte) 0x01);
+          out[i++] = 0x7d;
+          out[i++] = 0x01;
           break;
         case 0x7e:
-          out.add((byte) 0x7d);
-          out.add((byte) 0x02);
+          out[i++] = 0x7d;
+          out[i++] = 0x02;
           break;
         default:
-          out.add(b);
+          out[i++] = b;
       }
     }
 
-    return ListUtils.toPrimitives(out);
+    return out;
   }
 
   /**
@@ -272,21 +276,22 @@ public class ArrayUtils {
       return EMPTY_BYTE_ARRAY;
     }
 
-    List<Byte> out = new LinkedList<>();
+    byte[] out = new byte[in.length];
 
+    int len = 0;
     for (int i = 0; i < in.length; i++) {
       if (in[i] != 0x7d) {
-        out.add(in[i]);
+        out[len++] = in[i];
         continue;
       }
       if (in[++i] == 0x01) {
-        out.add((byte) 0x7d);
+        out[len++] = 0x7d;
       } else {
-        out.add((byte) 0x7e);
+        out[len++] = 0x7e;
       }
     }
 
-    return ListUtils.toPrimitives(out);
+    return len == out.length ? out : Arrays.copyOf(out, len);
   }
 
   /**
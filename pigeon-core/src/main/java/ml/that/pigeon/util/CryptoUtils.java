@@ -0,0 +1,243 @@
+package ml.that.pigeon.util;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+public class CryptoUtils {
+
+  private static final String TAG = LogUtils.makeTag(CryptoUtils.class);
+
+  private static final String TRANSFORMATION = "aes/ecb/nopadding";
+
+  // The maximum number of keys each thread keeps initialized ciphers for
+  private static final int MAX_CACHED_KEYS = 16;
+
+  // Looking up the provider and expanding the key are far more expensive than the encryption of a
+  // few blocks, so initialized ciphers are cached by key. A Cipher is not thread-safe, hence each
+  // thread keeps its own cache.
+  private static final ThreadLocal<CipherCache> sCiphers = new ThreadLocal<CipherCache>() {
+    @Override
+    protected CipherCache initialValue() {
+      return new CipherCache();
+    }
+  };
+
+  /**
+   * Returns the cryptography byte array of the specified raw byte array using the given key.
+   *
+   * @param in  the raw byte array whose cryptography byte array to return
+   * @param key the key to encrypt <tt>in</tt>
+   * @return a cryptography byte array of <tt>in</tt>
+   */
+  public static byte[] encrypt(byte[] in, String key)
+      throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+    if (in == null || in.length <= 0) {
+      return ArrayUtils.EMPTY_BYTE_ARRAY;
+    }
+
+    Cipher cipher = getCipher(Cipher.ENCRYPT_MODE, key);
+    if (cipher == null) {
+      return null;
+    }
+    return prefixLength(cipher.doFinal(in));
+  }
+
+  /**
+   * Returns the cryptography byte array of the specified raw byte array using the given key.
+   *
+   * @param in  the raw byte array whose cryptography byte array to return
+   * @param key the key to encrypt <tt>in</tt>
+   * @return a cryptography byte array of <tt>in</tt>
+   */
+  public static byte[] encrypt(byte[] in, byte[] key)
+      throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+    if (in == null || in.length <= 0) {
+      return ArrayUtils.EMPTY_BYTE_ARRAY;
+    }
+
+    Cipher cipher = getCipher(Cipher.ENCRYPT_MODE, key);
+    if (cipher == null) {
+      return null;
+    }
+    return prefixLength(cipher.doFinal(in));
+  }
+
+  /**
+   * Encrypts a range of the specified raw byte array using the given key, and writes the length
+   * prefixed cryptography bytes into the output buffer.
+   *
+   * @param in     the buffer holding the raw bytes
+   * @param off    the start offset in <tt>in</tt>
+   * @param len    the number of raw bytes, a multiple of the block size
+   * @param key    the key to encrypt with
+   * @param out    the output buffer, must hold <tt>len + 1</tt> bytes from <tt>outOff</tt>
+   * @param outOff the start offset in <tt>out</tt>
+   * @return the number of bytes written into <tt>out</tt>
+   */
+  public static int encrypt(byte[] in, int off, int len, String key, byte[] out, int outOff)
+      throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+    return encrypt(getCipher(Cipher.ENCRYPT_MODE, key), in, off, len, out, outOff);
+  }
+
+  /**
+   * Encrypts a range of the specified raw byte array using the given key, and writes the length
+   * prefixed cryptography bytes into the output buffer.
+   *
+   * @param in     the buffer holding the raw bytes
+   * @param off    the start offset in <tt>in</tt>
+   * @param len    the number of raw bytes, a multiple of the block size
+   * @param key    the key to encrypt with
+   * @param out    the output buffer, must hold <tt>len + 1</tt> bytes from <tt>outOff</tt>
+   * @param outOff the start offset in <tt>out</tt>
+   * @return the number of bytes written into <tt>out</tt>
+   */
+  public static int encrypt(byte[] in, int off, int len, byte[] key, byte[] out, int outOff)
+      throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+    return encrypt(getCipher(Cipher.ENCRYPT_MODE, key), in, off, len, out, outOff);
+  }
+
+  /**
+   * Returns the raw byte array of the specified cryptography byte array using the given key.
+   *
+   * @param in  the encrypted byte array whose raw byte array to return
+   * @param key the key to decrypt <tt>in</tt>
+   * @return a raw byte array of <tt>in</tt>
+   */
+  public static byte[] decrypt(byte[] in, String key)
+      throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+    if (in == null || in.length <= 0) {
+      return ArrayUtils.EMPTY_BYTE_ARRAY;
+    }
+    if (in[0] != in.length - 1) {
+      throw new IllegalArgumentException("Crypto length incorrect.");
+    }
+
+    Cipher cipher = getCipher(Cipher.DECRYPT_MODE, key);
+    if (cipher == null) {
+      return null;
+    }
+    return cipher.doFinal(in, 1, in.length - 1);
+  }
+
+  /**
+   * Returns the raw byte array of the specified cryptography byte array using the given key.
+   *
+   * @param in  the encrypted byte array whose raw byte array to return
+   * @param key the key to decrypt <tt>in</tt>
+   * @return a raw byte array of <tt>in</tt>
+   */
+  public static byte[] decrypt(byte[] in, byte[] key)
+      throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+    if (in == null || in.length <= 0) {
+      return ArrayUtils.EMPTY_BYTE_ARRAY;
+    }
+    if (in[0] != in.length - 1) {
+      throw new IllegalArgumentException("Crypto length incorrect.");
+    }
+
+    Cipher cipher = getCipher(Cipher.DECRYPT_MODE, key);
+    if (cipher == null) {
+      return null;
+    }
+    return cipher.doFinal(in, 1, in.length - 1);
+  }
+
+  private static int encrypt(Cipher cipher, byte[] in, int off, int len, byte[] out, int outOff)
+      throws BadPaddingException, IllegalBlockSizeException {
+    if (cipher == null) {
+      throw new IllegalStateException("Cipher not available.");
+    }
+
+    try {
+      int written = cipher.doFinal(in, off, len, out, outOff + 1);
+      out[outOff] = (byte) written;
+      return written + 1;
+    } catch (ShortBufferException sbe) {
+      throw new IllegalArgumentException("Output buffer too short.", sbe);
+    }
+  }
+
+  private static byte[] prefixLength(byte[] crypto) {
+    byte[] result = new byte[crypto.length + 1];
+    result[0] = (byte) crypto.length;
+    System.arraycopy(crypto, 0, result, 1, crypto.length);
+    return result;
+  }
+
+  private static Cipher getCipher(int mode, String key) throws InvalidKeyException {
+    CipherCache cache = sCiphers.get();
+    Cipher cipher = cache.get(mode, key);
+    if (cipher == null) {
+      try {
+        cipher = cache.put(mode, key, key.getBytes("ascii"));
+      } catch (UnsupportedEncodingException uee) {
+        LogUtils.w(TAG, "getCipher: Encode key failed.", uee);
+      }
+    }
+    return cipher;
+  }
+
+  private static Cipher getCipher(int mode, byte[] key) throws InvalidKeyException {
+    CipherCache cache = sCiphers.get();
+    ByteBuffer cacheKey = ByteBuffer.wrap(key);
+    Cipher cipher = cache.get(mode, cacheKey);
+    if (cipher == null) {
+      // Copy the key, the caller might reuse the array
+      byte[] copy = key.clone();
+      cipher = cache.put(mode, ByteBuffer.wrap(copy), copy);
+    }
+    return cipher;
+  }
+
+  /** A per thread cache of initialized ciphers, evicting the least recently used keys. */
+  private static class CipherCache {
+
+    private final Map<Object, Cipher> mEncryptors = new LruMap();
+    private final Map<Object, Cipher> mDecryptors = new LruMap();
+
+    Cipher get(int mode, Object key) {
+      return (mode == Cipher.ENCRYPT_MODE ? mEncryptors : mDecryptors).get(key);
+    }
+
+    Cipher put(int mode, Object key, byte[] keyBytes) throws InvalidKeyException {
+      try {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(mode, new SecretKeySpec(keyBytes, "aes"));
+        (mode == Cipher.ENCRYPT_MODE ? mEncryptors : mDecryptors).put(key, cipher);
+        return cipher;
+      } catch (InvalidKeyException ike) {
+        throw ike;
+      } catch (GeneralSecurityException gse) {
+        LogUtils.w(TAG, "put: Create cipher failed.", gse);
+        return null;
+      }
+    }
+
+  }
+
+  private static class LruMap extends LinkedHashMap<Object, Cipher> {
+
+    private static final long serialVersionUID = 1L;
+
+    LruMap() {
+      super(MAX_CACHED_KEYS, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Cipher> eldest) {
+      return size() > MAX_CACHED_KEYS;
+    }
+
+  }
+
+}
@@ -0,0 +1,87 @@
+package ml.that.pigeon.util;
+
+/**
+ * The destination of the timed events of the library, such as the decoding of a frame or a step
+ * of the authentication, see {@link EventUtils#setSink(EventSink)}.
+ * <p>
+ * Events are only reported while {@link #isEnabled()} returns true, so a disabled sink costs a
+ * single check on the hot paths. Durations are measured by the library with {@link
+ * System#nanoTime()} and reported once the event is over.
+ * <p>
+ * Implementations must be thread-safe, and should return quickly as they are called from the
+ * reader and writer threads.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface EventSink {
+
+  /**
+   * Returns if events should be reported. Called before each event is measured, so it must be
+   * cheap.
+   *
+   * @return true if events should be reported
+   */
+  boolean isEnabled();
+
+  /**
+   * Reports a frame read from the server, unescaped, checked and decoded.
+   *
+   * @param id       the message ID of the frame
+   * @param length   the length of the frame, unescaped
+   * @param duration the decoding time, in nanoseconds
+   */
+  void onDecode(short id, int length, long duration);
+
+  /**
+   * Reports a message encoded into frames to send.
+   *
+   * @param id       the message ID
+   * @param frames   the number of frames
+   * @param duration the encoding time, in nanoseconds
+   */
+  void onEncode(short id, int frames, long duration);
+
+  /**
+   * Reports frames written to the server back to back, followed by a single flush.
+   *
+   * @param frames   the number of frames written
+   * @param bytes    the number of bytes written
+   * @param duration the writing time, in nanoseconds
+   */
+  void onWriteBatch(int frames, int bytes, long duration);
+
+  /**
+   * Reports the reader waiting for the rest of a frame it started to read.
+   *
+   * @param pending  the number of bytes of the frame read so far
+   * @param duration the waiting time, in nanoseconds
+   */
+  void onReadStall(int pending, long duration);
+
+  /**
+   * Reports a message dropped by a collector because its result queue was full.
+   *
+   * @param id the ID of the dropped message
+   */
+  void onCollectorDrop(short id);
+
+  /**
+   * Reports a received message delivered to a listener.
+   *
+   * @param listener the class of the listener
+   * @param id       the message ID
+   * @param duration the time taken by the listener, in nanoseconds
+   */
+  void onListenerDispatch(Class<?> listener, short id, long duration);
+
+  /**
+   * Reports a step of the authentication, from sending its message to its end.
+   *
+   * @param step     the name of the step, e.g. {@code "challenge"}
+   * @param attempts the number of times the message of the step was sent
+   * @param replied  true if the server replied to the step, false if it timed out or failed
+   * @param duration the time taken by the step, in nanoseconds
+   */
+  void onAuthStep(String step, int attempts, boolean replied, long duration);
+
+}
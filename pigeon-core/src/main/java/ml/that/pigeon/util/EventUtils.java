@@ -0,0 +1,88 @@
+package ml.that.pigeon.util;
+
+/**
+ * Event facade of the library, reporting to a pluggable {@link EventSink}.
+ * <p>
+ * No sink is installed by default, and events are not even measured: instrumented code checks
+ * {@link #isEnabled()} before reading the clock. A sink recording the events for a profiler, such
+ * as the Java Flight Recorder sink of the {@code pigeon-jfr} module, can be installed at any time.
+ * A simple usage might look like the following:
+ * <pre>
+ *   EventSink events = EventUtils.getSink();
+ *   boolean timed = events.isEnabled();
+ *   long start = timed ? System.nanoTime() : 0;
+ *   // ...
+ *   if (timed) {
+ *     events.onEncode(id, frames, System.nanoTime() - start);
+ *   }
+ * </pre>
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class EventUtils {
+
+  private static final EventSink NONE = new NoEventSink();
+
+  private static volatile EventSink sSink = NONE;
+
+  /**
+   * Sets the sink which the events are reported to.
+   *
+   * @param sink the event sink, or {@code null} to stop reporting events
+   */
+  public static void setSink(EventSink sink) {
+    sSink = sink != null ? sink : NONE;
+  }
+
+  public static EventSink getSink() {
+    return sSink;
+  }
+
+  /**
+   * Returns if events are reported.
+   *
+   * @return true if events should be measured and reported
+   */
+  public static boolean isEnabled() {
+    return sSink.isEnabled();
+  }
+
+  /** The sink in place when none is installed, it never asks for events. */
+  private static class NoEventSink implements EventSink {
+
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+
+    @Override
+    public void onDecode(short id, int length, long duration) {
+    }
+
+    @Override
+    public void onEncode(short id, int frames, long duration) {
+    }
+
+    @Override
+    public void onWriteBatch(int frames, int bytes, long duration) {
+    }
+
+    @Override
+    public void onReadStall(int pending, long duration) {
+    }
+
+    @Override
+    public void onCollectorDrop(short id) {
+    }
+
+    @Override
+    public void onListenerDispatch(Class<?> listener, short id, long duration) {
+    }
+
+    @Override
+    public void onAuthStep(String step, int attempts, boolean replied, long duration) {
+    }
+
+  }
+
+}
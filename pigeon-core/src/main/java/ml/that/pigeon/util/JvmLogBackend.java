@@ -0,0 +1,55 @@
+package ml.that.pigeon.util;
+
+import java.io.PrintStream;
+
+/**
+ * A log backend writing to a print stream, to run the library on a plain JVM. Each message is
+ * printed on a line in the LogCat brief format, e.g. {@code D/Pigeon_MessageReader: ...}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class JvmLogBackend implements LogBackend {
+
+  private static final char[] LEVELS = new char[]{ '?', '?', 'V', 'D', 'I', 'W', 'E', 'A' };
+
+  private final PrintStream mOut;
+
+  /** Creates a backend writing to the standard error stream. */
+  public JvmLogBackend() {
+    this(System.err);
+  }
+
+  /**
+   * Creates a backend writing to the specified stream.
+   *
+   * @param out the stream to write to
+   */
+  public JvmLogBackend(PrintStream out) {
+    if (out == null) {
+      throw new NullPointerException("Print stream is null.");
+    }
+
+    mOut = out;
+  }
+
+  @Override
+  public boolean isLoggable(String tag, int level) {
+    return true;
+  }
+
+  @Override
+  public void log(int level, String tag, String msg, Throwable tr) {
+    char letter = level >= 0 && level < LEVELS.length ? LEVELS[level] : '?';
+    synchronized (mOut) {
+      mOut.print(letter);
+      mOut.print('/');
+      mOut.print(tag);
+      mOut.print(": ");
+      mOut.println(msg);
+      if (tr != null) {
+        tr.printStackTrace(mOut);
+      }
+    }
+  }
+
+}
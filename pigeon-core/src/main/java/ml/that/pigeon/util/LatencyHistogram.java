@@ -0,0 +1,142 @@
+package ml.that.pigeon.util;
+
+/**
+ * A histogram of latencies in the style of HdrHistogram: values are counted in log-linear buckets,
+ * so any recorded value is reported within 2% of its actual value, over the whole range, with a
+ * fixed footprint and no allocation when recording.
+ * <p>
+ * Each power of two range is split into {@value #SUB_BUCKET_HALF} linear sub-buckets, the first
+ * range holding the values below {@value #SUB_BUCKET_COUNT} exactly. Values above {@link
+ * #MAX_VALUE} are counted as {@link #MAX_VALUE}.
+ * <p>
+ * The histogram is not thread-safe.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS  = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF  = SUB_BUCKET_COUNT / 2;
+
+  /** The highest value tracked with full precision, above an hour in microseconds. */
+  public static final long MAX_VALUE = (1L << 32) - 1;
+
+  private final long[] mCounts = new long[indexOf(MAX_VALUE) + 1];
+
+  private long mTotalCount;
+  private long mMin = Long.MAX_VALUE;
+  private long mMax;
+  private long mSum;
+
+  /**
+   * Records a value.
+   *
+   * @param value the value to record, must not be negative
+   */
+  public void recordValue(long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Value is less than 0.");
+    }
+    if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+
+    mCounts[indexOf(value)]++;
+    mTotalCount++;
+    mSum += value;
+    if (value < mMin) {
+      mMin = value;
+    }
+    if (value > mMax) {
+      mMax = value;
+    }
+  }
+
+  /**
+   * Adds the counts of the specified histogram to this one.
+   *
+   * @param other the histogram to add
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < mCounts.length; i++) {
+      mCounts[i] += other.mCounts[i];
+    }
+    mTotalCount += other.mTotalCount;
+    mSum += other.mSum;
+    mMin = Math.min(mMin, other.mMin);
+    mMax = Math.max(mMax, other.mMax);
+  }
+
+  /** Clears all the recorded values. */
+  public void reset() {
+    for (int i = 0; i < mCounts.length; i++) {
+      mCounts[i] = 0;
+    }
+    mTotalCount = 0;
+    mSum = 0;
+    mMin = Long.MAX_VALUE;
+    mMax = 0;
+  }
+
+  public long getTotalCount() {
+    return mTotalCount;
+  }
+
+  public long getMinValue() {
+    return mTotalCount > 0 ? mMin : 0;
+  }
+
+  public long getMaxValue() {
+    return mMax;
+  }
+
+  public double getMean() {
+    return mTotalCount > 0 ? (double) mSum / mTotalCount : 0;
+  }
+
+  /**
+   * Returns the value which the specified percentage of the recorded values are less than or equal
+   * to. The value is the highest one counted in the same bucket, but never above the maximum.
+   *
+   * @param percentile the percentile, from 0 to 100
+   * @return the value at the percentile, or {@code 0} if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile out of range.");
+    }
+    if (mTotalCount == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+    long seen = 0;
+    for (int i = 0; i < mCounts.length; i++) {
+      seen += mCounts[i];
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), mMax);
+      }
+    }
+    return mMax;
+  }
+
+  /** Returns the index of the bucket counting the specified value. */
+  private static int indexOf(long value) {
+    // The power of two range of the value, the first one spanning two ranges
+    int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    int sub = (int) (value >>> bucket);
+    return bucket == 0 ? sub : (bucket + 1) * SUB_BUCKET_HALF + (sub - SUB_BUCKET_HALF);
+  }
+
+  /** Returns the highest value counted by the bucket at the specified index. */
+  private static long highestValueOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int bucket = index / SUB_BUCKET_HALF - 1;
+    long sub = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((sub + 1) << bucket) - 1;
+  }
+
+}
@@ -0,0 +1,32 @@
+package ml.that.pigeon.util;
+
+/**
+ * The destination of the log messages of the library, see {@link LogUtils#setBackend(LogBackend)}.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface LogBackend {
+
+  /**
+   * Returns if messages of the specified level should be logged for the tag. Called after the
+   * level of {@link LogUtils} has been checked.
+   *
+   * @param tag   the tag of the message
+   * @param level the level of the message, e.g. {@link LogUtils#DEBUG}
+   * @return true if the message should be logged
+   */
+  boolean isLoggable(String tag, int level);
+
+  /**
+   * Logs a formatted message.
+   *
+   * @param level the level of the message
+   * @param tag   the tag of the message
+   * @param msg   the formatted message
+   * @param tr    the throwable to log along with the message, or {@code null}
+   */
+  void log(int level, String tag, String msg, Throwable tr);
+
+}
@@ -0,0 +1,251 @@
+package ml.that.pigeon.util;
+
+/**
+ * Logging facade of the library, writing to a pluggable {@link LogBackend}.
+ * <p>
+ * Messages are formatted lazily: the message is a pattern where each {@code {}} is replaced by the
+ * next argument, and it is only formatted if its level is enabled. Arguments are appended into a
+ * reused, per-thread builder; {@link Loggable} arguments append themselves and byte arrays are
+ * dumped in hex, so logging a frame does not build intermediate strings. A simple usage might look
+ * like the following:
+ * <pre>
+ *   LogUtils.d(TAG, "readPackets: {}", view);
+ * </pre>
+ * Arguments of primitive types are boxed by the call, hot paths should pass a {@link Loggable} or
+ * check {@link #isLoggable(String, int)} first.
+ * <p>
+ * The messages go to the standard error stream by default, the Android module installs a backend
+ * writing to LogCat when its service is created.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class LogUtils {
+
+  public static final int VERBOSE = 2;
+  public static final int DEBUG   = 3;
+  public static final int INFO    = 4;
+  public static final int WARN    = 5;
+  public static final int ERROR   = 6;
+
+  private static final String PLACEHOLDER = "{}";
+
+  // Byte arrays longer than this are truncated in hex dumps
+  private static final int MAX_HEX_BYTES = 256;
+  // Builders grown beyond this capacity by a large message are not kept
+  private static final int MAX_BUILDER_CAPACITY = 4096;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final ThreadLocal<StringBuilder> sBuilders = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder(256);
+    }
+  };
+
+  private static volatile LogBackend sBackend = new JvmLogBackend();
+  private static volatile int        sLevel   = INFO;
+
+  @SuppressWarnings("unchecked")
+  public static String makeTag(Class cls) {
+    return "Pigeon_" + cls.getSimpleName();
+  }
+
+  /**
+   * Sets the backend which the messages are written to.
+   *
+   * @param backend the log backend
+   */
+  public static void setBackend(LogBackend backend) {
+    if (backend == null) {
+      throw new NullPointerException("Log backend is null.");
+    }
+
+    sBackend = backend;
+  }
+
+  public static LogBackend getBackend() {
+    return sBackend;
+  }
+
+  /**
+   * Sets the lowest level of the messages to log. The default is {@link #INFO}.
+   *
+   * @param level the lowest level to log, e.g. {@link #DEBUG}
+   */
+  public static void setLevel(int level) {
+    sLevel = level;
+  }
+
+  public static int getLevel() {
+    return sLevel;
+  }
+
+  /**
+   * Returns if messages of the specified level are logged for the tag.
+   *
+   * @param tag   the tag of the message
+   * @param level the level of the message
+   * @return true if the message would be logged
+   */
+  public static boolean isLoggable(String tag, int level) {
+    return level >= sLevel && sBackend.isLoggable(tag, level);
+  }
+
+  public static void v(String tag, String msg) {
+    log(VERBOSE, tag, msg, 0, null, null, null, null);
+  }
+
+  public static void v(String tag, String pattern, Object arg) {
+    log(VERBOSE, tag, pattern, 1, arg, null, null, null);
+  }
+
+  public static void v(String tag, String pattern, Object arg1, Object arg2) {
+    log(VERBOSE, tag, pattern, 2, arg1, arg2, null, null);
+  }
+
+  public static void v(String tag, String pattern, Object arg1, Object arg2, Object arg3) {
+    log(VERBOSE, tag, pattern, 3, arg1, arg2, arg3, null);
+  }
+
+  public static void d(String tag, String msg) {
+    log(DEBUG, tag, msg, 0, null, null, null, null);
+  }
+
+  public static void d(String tag, String pattern, Object arg) {
+    log(DEBUG, tag, pattern, 1, arg, null, null, null);
+  }
+
+  public static void d(String tag, String pattern, Object arg1, Object arg2) {
+    log(DEBUG, tag, pattern, 2, arg1, arg2, null, null);
+  }
+
+  public static void d(String tag, String pattern, Object arg1, Object arg2, Object arg3) {
+    log(DEBUG, tag, pattern, 3, arg1, arg2, arg3, null);
+  }
+
+  public static void i(String tag, String msg) {
+    log(INFO, tag, msg, 0, null, null, null, null);
+  }
+
+  public static void i(String tag, String pattern, Object arg) {
+    log(INFO, tag, pattern, 1, arg, null, null, null);
+  }
+
+  public static void i(String tag, String pattern, Object arg1, Object arg2) {
+    log(INFO, tag, pattern, 2, arg1, arg2, null, null);
+  }
+
+  public static void w(String tag, String msg) {
+    log(WARN, tag, msg, 0, null, null, null, null);
+  }
+
+  public static void w(String tag, String msg, Throwable tr) {
+    log(WARN, tag, msg, 0, null, null, null, tr);
+  }
+
+  public static void w(String tag, String pattern, Object arg) {
+    log(WARN, tag, pattern, 1, arg, null, null, null);
+  }
+
+  public static void w(String tag, String pattern, Object arg1, Object arg2) {
+    log(WARN, tag, pattern, 2, arg1, arg2, null, null);
+  }
+
+  public static void e(String tag, String msg) {
+    log(ERROR, tag, msg, 0, null, null, null, null);
+  }
+
+  public static void e(String tag, String msg, Throwable tr) {
+    log(ERROR, tag, msg, 0, null, null, null, tr);
+  }
+
+  public static void e(String tag, String pattern, Object arg) {
+    log(ERROR, tag, pattern, 1, arg, null, null, null);
+  }
+
+  /**
+   * Appends the log representation of an argument: {@link Loggable}s append themselves, byte
+   * arrays are dumped in hex and other objects are appended with their string representation.
+   *
+   * @param sb  the builder to append to
+   * @param arg the argument to append
+   * @return the builder
+   */
+  public static StringBuilder appendArg(StringBuilder sb, Object arg) {
+    if (arg instanceof Loggable) {
+      ((Loggable) arg).formatTo(sb);
+    } else if (arg instanceof byte[]) {
+      byte[] bytes = (byte[]) arg;
+      appendHex(sb, bytes, 0, bytes.length);
+    } else {
+      sb.append(arg);
+    }
+    return sb;
+  }
+
+  /**
+   * Appends a hex dump of a range of bytes, e.g. {@code [7e 01 02]}. Ranges longer than 256 bytes
+   * are truncated.
+   *
+   * @param sb  the builder to append to
+   * @param b   the buffer holding the bytes
+   * @param off the start offset in <tt>b</tt>
+   * @param len the number of bytes to dump
+   * @return the builder
+   */
+  public static StringBuilder appendHex(StringBuilder sb, byte[] b, int off, int len) {
+    int count = Math.min(len, MAX_HEX_BYTES);
+    sb.append('[');
+    for (int i = off; i < off + count; i++) {
+      if (i > off) {
+        sb.append(' ');
+      }
+      sb.append(HEX_DIGITS[(b[i] >> 4) & 0x0f]).append(HEX_DIGITS[b[i] & 0x0f]);
+    }
+    if (count < len) {
+      sb.append(" ...(").append(len).append(" bytes)");
+    }
+    return sb.append(']');
+  }
+
+  private static void log(int level,
+                          String tag,
+                          String pattern,
+                          int argc,
+                          Object arg1,
+                          Object arg2,
+                          Object arg3,
+                          Throwable tr) {
+    if (!isLoggable(tag, level)) {
+      return;
+    }
+
+    String msg = argc == 0 ? pattern : format(pattern, argc, arg1, arg2, arg3);
+    sBackend.log(level, tag, msg, tr);
+  }
+
+  private static String format(String pattern, int argc, Object arg1, Object arg2, Object arg3) {
+    StringBuilder sb = sBuilders.get();
+    sb.setLength(0);
+
+    int start = 0;
+    for (int i = 0; i < argc; i++) {
+      int end = pattern.indexOf(PLACEHOLDER, start);
+      if (end < 0) {
+        break;
+      }
+      sb.append(pattern, start, end);
+      appendArg(sb, i == 0 ? arg1 : i == 1 ? arg2 : arg3);
+      start = end + PLACEHOLDER.length();
+    }
+    sb.append(pattern, start, pattern.length());
+
+    String msg = sb.toString();
+    if (sb.capacity() > MAX_BUILDER_CAPACITY) {
+      sBuilders.remove();
+    }
+    return msg;
+  }
+
+}
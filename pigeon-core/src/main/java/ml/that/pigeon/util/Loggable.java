@@ -0,0 +1,18 @@
+package ml.that.pigeon.util;
+
+/**
+ * An object which appends its log representation straight into a builder, so that logging it does
+ * not create an intermediate string.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public interface Loggable {
+
+  /**
+   * Appends the log representation of this object to the builder.
+   *
+   * @param sb the builder to append to
+   */
+  void formatTo(StringBuilder sb);
+
+}
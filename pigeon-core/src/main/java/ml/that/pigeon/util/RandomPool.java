@@ -0,0 +1,162 @@
+package ml.that.pigeon.util;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of random nonces generated ahead of time by a background thread, so that the
+ * authentication path does not wait for the entropy source while the pool holds nonces.
+ * <p>
+ * Seeding a {@link SecureRandom} may block for a long time on devices short of entropy. The pool
+ * seeds its generator on its own thread and keeps up to a given number of nonces ready. When the
+ * pool runs dry, {@link #next()} generates the nonce on the calling thread and counts an underrun,
+ * see {@link #getUnderruns()}. It does so with a generator of its own: the one of the filler is
+ * locked for as long as it is being seeded. The first underrun may still wait for its own
+ * generator to be seeded.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class RandomPool {
+
+  /** The length of a nonce. */
+  public static final int NONCE_LENGTH = 16;
+
+  /** The default number of nonces kept ready. */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private static volatile RandomPool sDefault;
+
+  private final BlockingQueue<byte[]> mNonces;
+  private final SecureRandom          mRandom;
+  private final AtomicLong            mUnderruns = new AtomicLong();
+
+  // Generates the nonces of the underruns, created on the first one
+  private volatile SecureRandom mUnderrunRandom;
+
+  /**
+   * Creates a pool keeping the specified number of nonces ready, and starts filling it.
+   *
+   * @param capacity the number of nonces to keep ready
+   */
+  public RandomPool(int capacity) {
+    this(capacity, new SecureRandom());
+  }
+
+  /**
+   * Creates a pool keeping the specified number of nonces ready, and starts filling it with the
+   * specified generator. The generator must not be used elsewhere.
+   *
+   * @param capacity the number of nonces to keep ready
+   * @param random   the generator filling the pool
+   */
+  public RandomPool(int capacity, SecureRandom random) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive.");
+    }
+    if (random == null) {
+      throw new NullPointerException("Random is null.");
+    }
+
+    mNonces = new ArrayBlockingQueue<>(capacity);
+    mRandom = random;
+
+    Thread filler = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        fill();
+      }
+    }, "Pigeon Random Pool");
+    filler.setDaemon(true);
+    filler.setPriority(Thread.MIN_PRIORITY);
+    filler.start();
+  }
+
+  /**
+   * Creates the pool shared by all connections if not yet, so that its generator is seeded and
+   * the pool filled ahead of the first login, rather than the first login generating its nonce.
+   * Invoked when connecting, and best invoked as soon as the process starts.
+   */
+  public static void start() {
+    getDefault();
+  }
+
+  /**
+   * Returns the pool shared by all connections, creating it on the first call.
+   *
+   * @return the shared pool
+   */
+  public static RandomPool getDefault() {
+    RandomPool pool = sDefault;
+    if (pool == null) {
+      synchronized (RandomPool.class) {
+        pool = sDefault;
+        if (pool == null) {
+          pool = sDefault = new RandomPool(DEFAULT_CAPACITY);
+        }
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Returns a fresh random nonce of {@link #NONCE_LENGTH} bytes. Each nonce is returned only once.
+   *
+   * @return a random nonce
+   */
+  public byte[] next() {
+    byte[] nonce = mNonces.poll();
+    if (nonce == null) {
+      mUnderruns.incrementAndGet();
+      nonce = new byte[NONCE_LENGTH];
+      getUnderrunRandom().nextBytes(nonce);
+    }
+    return nonce;
+  }
+
+  /**
+   * Returns the number of nonces ready.
+   *
+   * @return the number of nonces ready
+   */
+  public int size() {
+    return mNonces.size();
+  }
+
+  /**
+   * Returns the number of times a nonce was requested while the pool was empty, and had to be
+   * generated on the requesting thread.
+   *
+   * @return the number of underruns
+   */
+  public long getUnderruns() {
+    return mUnderruns.get();
+  }
+
+  private SecureRandom getUnderrunRandom() {
+    SecureRandom random = mUnderrunRandom;
+    if (random == null) {
+      // Racing underruns may each create one, only the one kept matters
+      random = mUnderrunRandom = new SecureRandom();
+    }
+    return random;
+  }
+
+  private void fill() {
+    // The first call seeds the generator, which is what may block
+    byte[] nonce = new byte[NONCE_LENGTH];
+    mRandom.nextBytes(nonce);
+
+    try {
+      while (true) {
+        mNonces.put(nonce);
+        nonce = new byte[NONCE_LENGTH];
+        mRandom.nextBytes(nonce);
+      }
+    } catch (InterruptedException ie) {
+      // Stop filling
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+package ml.that.pigeon.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter cheap to update from several threads, in the manner of {@code LongAdder} which is not
+ * available before Java 8.
+ * <p>
+ * Updates go to a single atomic value as long as they do not contend. Once two threads race on it,
+ * the counter spreads its updates over cells on separate cache lines, picked by the updating
+ * thread. The sum is only read on demand, so it is not an atomic snapshot while updates are going
+ * on.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class StripedCounter {
+
+  // Number of cells, a power of 2
+  private static final int CELLS = cells();
+  // Longs per cell, so cells do not share a cache line of 64 bytes
+  private static final int PAD   = 8;
+
+  private final AtomicLong mBase = new AtomicLong();
+
+  // Created on the first contention
+  private volatile AtomicLongArray mCells;
+
+  /** Adds one to the count. */
+  public void increment() {
+    add(1L);
+  }
+
+  /**
+   * Adds the specified value to the count.
+   *
+   * @param x the value to add, may be negative
+   */
+  public void add(long x) {
+    AtomicLongArray cells = mCells;
+    if (cells == null) {
+      long base = mBase.get();
+      if (mBase.compareAndSet(base, base + x)) {
+        return;
+      }
+      cells = inflate();
+    }
+    cells.getAndAdd(indexOf(Thread.currentThread()), x);
+  }
+
+  /**
+   * Returns the current count.
+   *
+   * @return the sum of all the values added
+   */
+  public long sum() {
+    long sum = mBase.get();
+    AtomicLongArray cells = mCells;
+    if (cells != null) {
+      for (int i = 0; i < CELLS; i++) {
+        sum += cells.get(i * PAD);
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+
+  private synchronized AtomicLongArray inflate() {
+    if (mCells == null) {
+      mCells = new AtomicLongArray(CELLS * PAD);
+    }
+    return mCells;
+  }
+
+  private static int indexOf(Thread thread) {
+    // Spreads consecutive thread IDs over the cells
+    long h = thread.getId() * 0x9e3779b97f4a7c15L;
+    return ((int) (h >>> 32) & (CELLS - 1)) * PAD;
+  }
+
+  private static int cells() {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int cells = 2;
+    while (cells < cpus && cells < 64) {
+      cells <<= 1;
+    }
+    return cells;
+  }
+
+}
@@ -0,0 +1,89 @@
+package ml.that.pigeon.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket, which lets through a sustained rate of units with bursts up to its capacity.
+ * <p>
+ * The bucket starts full, and refills at the rate until it holds its capacity. Taking tokens may
+ * leave the bucket in debt, e.g. for a unit larger than the capacity, which is paid back before
+ * anything else goes through. The time is passed by the caller in nanoseconds, so the bucket is
+ * cheap and deterministic. It is not thread-safe.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class TokenBucket {
+
+  private final double mRate;
+  private final double mCapacity;
+
+  private double  mTokens;
+  private long    mLast;
+  private boolean mStarted = false;
+
+  /**
+   * Creates a full bucket.
+   *
+   * @param ratePerSecond the tokens added per second
+   * @param capacity      the largest number of tokens held, i.e. the burst
+   */
+  public TokenBucket(double ratePerSecond, int capacity) {
+    if (!(ratePerSecond > 0)) {
+      throw new IllegalArgumentException("Rate must be positive.");
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive.");
+    }
+
+    mRate = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+    mCapacity = capacity;
+    mTokens = capacity;
+  }
+
+  /**
+   * Returns the time to wait until the specified number of tokens can be taken. A number beyond
+   * the capacity only waits for a full bucket.
+   *
+   * @param tokens the number of tokens to take
+   * @param now    the current time, in nanoseconds
+   * @return the time to wait in nanoseconds, {@code 0} if the tokens can be taken now
+   */
+  public long delay(int tokens, long now) {
+    refill(now);
+    double missing = Math.min(tokens, mCapacity) - mTokens;
+    return missing <= 0 ? 0 : (long) Math.ceil(missing / mRate);
+  }
+
+  /**
+   * Takes the specified number of tokens, going into debt if there are not enough.
+   *
+   * @param tokens the number of tokens to take
+   * @param now    the current time, in nanoseconds
+   */
+  public void take(int tokens, long now) {
+    refill(now);
+    mTokens -= tokens;
+  }
+
+  /**
+   * Returns the number of tokens held at the specified time, negative if in debt.
+   *
+   * @param now the current time, in nanoseconds
+   * @return the number of tokens
+   */
+  public double getTokens(long now) {
+    refill(now);
+    return mTokens;
+  }
+
+  private void refill(long now) {
+    if (mStarted && now > mLast) {
+      mTokens = Math.min(mCapacity, mTokens + (now - mLast) * mRate);
+    }
+    if (!mStarted || now > mLast) {
+      mLast = now;
+      mStarted = true;
+    }
+  }
+
+}
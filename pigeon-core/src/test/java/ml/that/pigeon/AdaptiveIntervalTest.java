@@ -0,0 +1,162 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.KeepAliveStore;
+import ml.that.pigeon.msg.HeartbeatMessage;
+import ml.that.pigeon.msg.ServerGenericReply;
+import ml.that.pigeon.util.AdaptiveInterval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link AdaptiveInterval}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class AdaptiveIntervalTest {
+
+  @Test
+  public void testProbesUntilFailure() {
+    AdaptiveInterval interval = new AdaptiveInterval(30, 600, -1, -1);
+    assertEquals(30, interval.get());
+
+    // The safe value is not confirmed again, the next one is probed right away
+    assertFalse(interval.succeeded());
+    assertEquals(60, interval.get());
+    assertTrue(interval.isProbing());
+    assertFalse(interval.succeeded());
+    assertFalse(interval.succeeded());
+    assertTrue(interval.succeeded());
+    assertEquals(60, interval.getSafe());
+    assertEquals(120, interval.get());
+
+    // A failed probe falls back, then the search narrows down below it
+    assertTrue(interval.failed());
+    assertEquals(60, interval.get());
+    assertEquals(120, interval.getLimit());
+    interval.succeeded();
+    assertEquals(90, interval.get());
+    interval.succeeded();
+    interval.succeeded();
+    interval.succeeded();
+    assertEquals(90, interval.getSafe());
+    // Closer to the limit than the minimum, so settled
+    assertEquals(90, interval.get());
+    assertFalse(interval.isProbing());
+  }
+
+  @Test
+  public void testSafeFailureHalves() {
+    AdaptiveInterval interval = new AdaptiveInterval(30, 600, 240, -1);
+    assertTrue(interval.failed());
+
+    assertEquals(120, interval.get());
+    assertEquals(240, interval.getLimit());
+    assertTrue(interval.failed());
+    assertTrue(interval.failed());
+    assertEquals(30, interval.get());
+    assertFalse(interval.failed());
+  }
+
+  @Test
+  public void testBoundedByMax() {
+    AdaptiveInterval interval = new AdaptiveInterval(30, 100, 500, -1);
+    assertEquals(100, interval.get());
+
+    interval.succeeded();
+    assertFalse(interval.isProbing());
+  }
+
+  @Test
+  public void testLimitExpires() throws Exception {
+    AdaptiveInterval interval = new AdaptiveInterval(30, 600, 60, 120, 50);
+    assertEquals(60, interval.get());
+    assertFalse(interval.succeeded());
+    assertEquals(90, interval.get());
+    assertTrue(interval.failed());
+    assertEquals(90, interval.getLimit());
+
+    // Settled below the limit until it expires
+    assertFalse(interval.succeeded());
+    assertFalse(interval.isProbing());
+    Thread.sleep(60L);
+    assertTrue(interval.succeeded());
+    assertEquals(-1, interval.getLimit());
+    assertEquals(120, interval.get());
+  }
+
+  @Test
+  public void testLearntFromReplies() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    cfg.setHeartbeatInterval(100, 400);
+    final Map<String, Long> learnt = new ConcurrentHashMap<>();
+    final String[] network = { "wifi" };
+    cfg.setKeepAliveStore(new KeepAliveStore() {
+      @Override
+      public String getNetwork() {
+        return network[0];
+      }
+
+      @Override
+      public long getInterval(String network, String endpoint) {
+        Long interval = learnt.get(network + "/" + endpoint);
+        return interval != null ? interval : -1;
+      }
+
+      @Override
+      public long getLimit(String network, String endpoint) {
+        return -1;
+      }
+
+      @Override
+      public void put(String network, String endpoint, long interval, long limit) {
+        learnt.put(network + "/" + endpoint, interval);
+      }
+    });
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      server.accept();
+      assertEquals(100, conn.getHeartbeatInterval());
+
+      // Answers the heartbeats
+      String key = "wifi/127.0.0.1:" + server.getPort();
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!learnt.containsKey(key) && System.currentTimeMillis() < deadline) {
+        byte[] packet = server.readPacket();
+        assertEquals(HeartbeatMessage.ID, LoopbackServer.getId(packet));
+        server.writeReply(LoopbackServer.getSn(packet), HeartbeatMessage.ID,
+                          ServerGenericReply.RESULT_OK);
+      }
+
+      assertEquals(200L, (long) learnt.get(key));
+      assertEquals(400, conn.getHeartbeatInterval());
+
+      // Starts over on another network, and from what was learnt when back
+      network[0] = "mobile";
+      conn.disconnect();
+      conn.connect();
+      server.accept();
+      assertEquals(100, conn.getHeartbeatInterval());
+      network[0] = "wifi";
+      conn.disconnect();
+      conn.connect();
+      server.accept();
+      assertEquals(200, conn.getHeartbeatInterval());
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+}
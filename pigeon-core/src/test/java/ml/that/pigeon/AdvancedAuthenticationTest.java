@@ -0,0 +1,309 @@
+package ml.that.pigeon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ml.that.pigeon.auth.AdvancedAuthentication;
+import ml.that.pigeon.auth.AuthCallback;
+import ml.that.pigeon.auth.AuthFuture;
+import ml.that.pigeon.auth.AuthResult;
+import ml.that.pigeon.auth.SessionCache;
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.MessageListener;
+import ml.that.pigeon.filter.MessageIdFilter;
+import ml.that.pigeon.msg.AuthenticateRequest;
+import ml.that.pigeon.msg.ChallengeCommand;
+import ml.that.pigeon.msg.ChallengeResponse;
+import ml.that.pigeon.msg.LoginCommand;
+import ml.that.pigeon.msg.LoginResponse;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.util.CryptoUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link AdvancedAuthentication}, will execute on the development machine
+ * (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class AdvancedAuthenticationTest {
+
+  private static final String AUTH    = "0123456789";
+  private static final String SVR_KEY = "0123456789ABCDEF";
+
+  // Time to wait for the reply to each step, short to exercise the timeouts
+  private static final int AUTH_TIMEOUT = 300;
+
+  // A message the server sends to know the deliveries before it are over
+  private static final short MARKER_ID = (short) 0x8900;
+
+  private final Semaphore mMarkers = new Semaphore(0);
+
+  private LoopbackServer         mServer;
+  private Connection             mConn;
+  private AdvancedAuthentication mAuth;
+
+  @Before
+  public void setUp() throws IOException {
+    mServer = new LoopbackServer();
+    ConnectionConfiguration cfg = mServer.newConfiguration();
+    cfg.setAuthTimeout(AUTH_TIMEOUT);
+    cfg.setSessionCache(new SessionCache());
+    mConn = new Connection(cfg);
+    mConn.addRcvListener(new MessageListener() {
+      @Override
+      public void processMessage(Message msg) {
+        mMarkers.release();
+      }
+    }, new MessageIdFilter(MARKER_ID));
+    mConn.connect();
+    mServer.accept();
+    mAuth = new AdvancedAuthentication(mConn);
+  }
+
+  @After
+  public void tearDown() {
+    mConn.disconnect();
+    mServer.close();
+  }
+
+  @Test
+  public void testHandshake() throws Exception {
+    final AtomicReference<AuthResult> notified = new AtomicReference<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    AuthFuture future = mAuth.authenticateAsync(AUTH).addCallback(new AuthCallback() {
+      @Override
+      public void onComplete(AuthResult result) {
+        notified.set(result);
+        done.countDown();
+      }
+    });
+    expect(AuthenticateRequest.ID);
+    assertFalse(future.isDone());
+    answerChallenge();
+
+    AuthResult result = future.get(1, TimeUnit.SECONDS);
+    assertTrue(result.isSuccess());
+    // The callbacks are notified after the waiters are released
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertSame(result, notified.get());
+    assertFalse(future.isCancelled());
+  }
+
+  @Test
+  public void testStepRetriedOnTimeout() throws Exception {
+    mConn.getConfig().setAuthRetries(1);
+
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    // Sent again once the step times out
+    expect(AuthenticateRequest.ID);
+    answerChallenge();
+
+    assertTrue(future.get(1, TimeUnit.SECONDS).isSuccess());
+  }
+
+  @Test
+  public void testRetriesExhausted() throws Exception {
+    mConn.getConfig().setAuthRetries(1);
+
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    expect(AuthenticateRequest.ID);
+
+    AuthResult result = future.get(1, TimeUnit.SECONDS);
+    assertEquals(AuthResult.REASON_TIMEOUT, result.getReason());
+    assertNull(mServer.readPacket(AUTH_TIMEOUT * 2));
+  }
+
+  @Test
+  public void testRejected() throws Exception {
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    writeChallenge();
+    expect(ChallengeResponse.ID);
+    writeLogin(LoginCommand.RESULT_AUTH_CODE_NOT_MATCH);
+
+    AuthResult result = future.get(1, TimeUnit.SECONDS);
+    assertEquals(AuthResult.REASON_REJECTED, result.getReason());
+    assertEquals(LoginCommand.RESULT_AUTH_CODE_NOT_MATCH, result.getServerResult());
+    assertNull(mServer.readPacket(AUTH_TIMEOUT / 2));
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+
+    assertTrue(future.cancel(true));
+    assertTrue(future.isCancelled());
+    assertEquals(AuthResult.REASON_CANCELLED, future.get().getReason());
+    assertFalse(future.cancel(true));
+    // Stopped, neither answers nor times out
+    writeChallenge();
+    assertNull(mServer.readPacket(AUTH_TIMEOUT * 2));
+  }
+
+  @Test
+  public void testCallbackAddedAfterCompletion() throws Exception {
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    answerChallenge();
+    final AuthResult result = future.get(1, TimeUnit.SECONDS);
+
+    // Notified right away, on the calling thread
+    final AtomicReference<Thread> notified = new AtomicReference<>();
+    future.addCallback(new AuthCallback() {
+      @Override
+      public void onComplete(AuthResult r) {
+        assertSame(result, r);
+        notified.set(Thread.currentThread());
+      }
+    });
+    assertSame(Thread.currentThread(), notified.get());
+  }
+
+  @Test
+  public void testCachedSessionLogsInAtOnce() throws Exception {
+    assertTrue(authenticateFully().isSuccess());
+
+    // The challenge response follows the request, without waiting for a challenge
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    expect(ChallengeResponse.ID);
+    writeLogin(LoginCommand.RESULT_OK);
+    expect(LoginResponse.ID);
+
+    assertTrue(future.get(1, TimeUnit.SECONDS).isSuccess());
+  }
+
+  @Test
+  public void testExpiredSessionNotTried() throws Exception {
+    mConn.getConfig().setSessionCache(new SessionCache(4, 100));
+    assertTrue(authenticateFully().isSuccess());
+    Thread.sleep(150L);
+
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    assertNull(mServer.readPacket(AUTH_TIMEOUT / 2));
+    answerChallenge();
+
+    assertTrue(future.get(1, TimeUnit.SECONDS).isSuccess());
+  }
+
+  @Test
+  public void testFastLoginChallenged() throws Exception {
+    assertTrue(authenticateFully().isSuccess());
+
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    expect(ChallengeResponse.ID);
+    // The server wants a fresh handshake, and rejects the stale response
+    writeChallenge();
+    writeLogin(LoginCommand.RESULT_WRONG_CLT_CHK);
+    expect(ChallengeResponse.ID);
+    writeLogin(LoginCommand.RESULT_OK);
+    expect(LoginResponse.ID);
+
+    assertTrue(future.get(1, TimeUnit.SECONDS).isSuccess());
+  }
+
+  @Test
+  public void testFastLoginRejected() throws Exception {
+    assertTrue(authenticateFully().isSuccess());
+
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    expect(ChallengeResponse.ID);
+    writeLogin(LoginCommand.RESULT_WRONG_CLT_CHK);
+    // Starts over with the full handshake
+    expect(AuthenticateRequest.ID);
+    answerChallenge();
+
+    assertTrue(future.get(1, TimeUnit.SECONDS).isSuccess());
+  }
+
+  @Test
+  public void testFastLoginUnanswered() throws Exception {
+    assertTrue(authenticateFully().isSuccess());
+
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    expect(ChallengeResponse.ID);
+    // Not retried, the full handshake follows the timeout
+    expect(AuthenticateRequest.ID);
+    answerChallenge();
+
+    assertTrue(future.get(1, TimeUnit.SECONDS).isSuccess());
+  }
+
+  @Test
+  public void testFastLoginNotSent() throws Exception {
+    assertTrue(authenticateFully().isSuccess());
+    mConn.disconnect();
+
+    AuthResult result = mAuth.authenticateAsync(AUTH).get(1, TimeUnit.SECONDS);
+    assertNotNull(result);
+    assertEquals(AuthResult.REASON_ERROR, result.getReason());
+  }
+
+  /**
+   * Runs the full handshake, the server side of it included. Returns once the login command is
+   * delivered to every listener, so that a handshake started next does not see it.
+   */
+  private AuthResult authenticateFully() throws Exception {
+    AuthFuture future = mAuth.authenticateAsync(AUTH);
+    expect(AuthenticateRequest.ID);
+    answerChallenge();
+    AuthResult result = future.get(1, TimeUnit.SECONDS);
+    mServer.writeMessage(MARKER_ID, new byte[0]);
+    assertTrue(mMarkers.tryAcquire(1, TimeUnit.SECONDS));
+    return result;
+  }
+
+  /** Challenges the client, and logs it in once it responds. */
+  private void answerChallenge() throws Exception {
+    writeChallenge();
+    expect(ChallengeResponse.ID);
+    writeLogin(LoginCommand.RESULT_OK);
+    expect(LoginResponse.ID);
+  }
+
+  private void expect(short id) throws IOException {
+    byte[] packet = mServer.readPacket(1000);
+    assertNotNull(packet);
+    assertEquals(id, LoopbackServer.getId(packet));
+  }
+
+  private void writeChallenge() throws Exception {
+    byte[] rdmA = new byte[16];
+    byte[] body = new byte[22];
+    body[0] = ChallengeCommand.ALGORITHM_AES128;
+    // Server and client key indexes are both 0
+    System.arraycopy(CryptoUtils.encrypt(rdmA, SVR_KEY), 0, body, 5, 17);
+    mServer.writeMessage(ChallengeCommand.ID, body);
+  }
+
+  private void writeLogin(byte result) throws Exception {
+    byte[] body = new byte[18];
+    body[0] = result;
+    System.arraycopy("2026101912000000".getBytes("ascii"), 0, body, 1, 16);
+    mServer.writeMessage(LoginCommand.ID, body);
+  }
+
+}
@@ -0,0 +1,76 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.conn.CoalescingKey;
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.msg.MessageEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link CoalescingKey}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class CoalescingKeyTest {
+
+  private static final short DATA_ID   = 0x0900;
+  private static final short STATUS_ID = 0x0901;
+
+  @Test
+  public void testWaitingStatusReplaced() throws Exception {
+    // A small window, so the writer blocks while the server does not read
+    LoopbackServer server = new LoopbackServer(4096);
+    ConnectionConfiguration cfg = server.newConfiguration();
+    // Coalesced by channel, the first byte of the body
+    cfg.setCoalescing(STATUS_ID, new CoalescingKey() {
+      @Override
+      public Object keyOf(short id, byte[] body, int off, int len) {
+        return body[off];
+      }
+    });
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      server.accept();
+
+      // Sends data until the socket buffers are full and the writer blocks
+      byte[] data = new byte[1000];
+      int sent = 0;
+      do {
+        for (int i = 0; i < 100; i++) {
+          conn.sendMessage(MessageEncoder.obtain(DATA_ID).putBytes(data),
+                           Connection.PRIORITY_BULK);
+        }
+        sent += 100;
+        Thread.sleep(20L);
+      } while (conn.getMetrics().snapshot().getWriteQueueSize() == 0 && sent < 100000);
+      assertTrue("Writer not blocked.", conn.getMetrics().snapshot().getWriteQueueSize() > 0);
+
+      for (byte value = 1; value <= 5; value++) {
+        conn.sendMessage(MessageEncoder.obtain(STATUS_ID).putByte((byte) 1).putByte(value));
+        conn.sendMessage(MessageEncoder.obtain(STATUS_ID).putByte((byte) 2).putByte(value));
+      }
+      assertEquals(8, conn.getMetrics().snapshot().getCoalesced());
+
+      // Only the newest status of each channel is written, the data keeps flowing behind them
+      int statuses = 0;
+      for (int frames = 0; frames < sent + 2; frames++) {
+        byte[] packet = server.readPacket();
+        if (LoopbackServer.getId(packet) == STATUS_ID) {
+          assertEquals(5, LoopbackServer.getBody(packet)[1]);
+          statuses++;
+        }
+      }
+      assertEquals(2, statuses);
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.util.ArrayUtils;
+import ml.that.pigeon.util.CompressionUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link CompressionUtils}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class CompressionUtilsTest {
+
+  private static final byte[] POSITION_REPORT = new byte[]{
+      0x00, 0x00, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x03, 0x01, (byte) 0xcc, 0x1d, 0x6b,
+      0x06, (byte) 0xc9, 0x2a, 0x0e, 0x00, 0x12, 0x00, 0x00, 0x00, 0x00, 0x16, 0x11,
+      0x01, 0x10, 0x23, 0x59, 0x01, 0x04, 0x00, 0x00, 0x00, 0x00, 0x30, 0x01, 0x1f,
+      0x31, 0x01, 0x0a
+  };
+
+  @Test
+  public void testDeflateEmpty() {
+    assertEquals(0, CompressionUtils.deflate(null).length);
+    assertEquals(0, CompressionUtils.deflate(ArrayUtils.EMPTY_BYTE_ARRAY).length);
+  }
+
+  @Test
+  public void testDeflateShrinks() {
+    assertTrue(CompressionUtils.deflate(POSITION_REPORT).length < POSITION_REPORT.length);
+  }
+
+  @Test
+  public void testInflate() {
+    assertArrayEquals(POSITION_REPORT,
+                      CompressionUtils.inflate(CompressionUtils.deflate(POSITION_REPORT)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInflateCorrupted() {
+    CompressionUtils.inflate(new byte[]{ 0x30, 0x7e, 0x08, 0x7d, 0x55 });
+  }
+
+}
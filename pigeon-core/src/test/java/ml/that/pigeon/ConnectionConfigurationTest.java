@@ -0,0 +1,87 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.msg.MessageEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for {@link ConnectionConfiguration}, will execute on the development machine
+ * (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class ConnectionConfigurationTest {
+
+  @Test
+  public void testDefaults() {
+    ConnectionConfiguration cfg = new ConnectionConfiguration("127.0.0.1", 8080);
+
+    assertTrue(cfg.isTcpNoDelay());
+    assertTrue(cfg.getConnectTimeout() > 0);
+    assertEquals(-1, cfg.getSendBufferSize());
+    assertEquals(-1, cfg.getReceiveBufferSize());
+    assertEquals(-1, cfg.getLinger());
+  }
+
+  @Test
+  public void testConnectWithSocketOptions() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    cfg.setConnectTimeout(1000);
+    cfg.setKeepAlive(true);
+    cfg.setSendBufferSize(8192);
+    cfg.setReceiveBufferSize(8192);
+    cfg.setLinger(1);
+    Connection conn = new Connection(cfg);
+    try {
+      // Connects twice, the second time to the cached address
+      conn.connect();
+      server.accept().close();
+      conn.disconnect();
+      conn.connect();
+      server.accept();
+
+      conn.sendMessage(MessageEncoder.obtain((short) 0x0900).putInt(42));
+      assertEquals(0x0900, LoopbackServer.getId(server.readPacket()));
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testConnectRefused() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    int port = server.getPort();
+    server.close();
+    ConnectionConfiguration cfg = new ConnectionConfiguration("127.0.0.1", port);
+    cfg.setConnectTimeout(1000);
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      fail("Connected to a closed port.");
+    } catch (IOException ioe) {
+      assertTrue(!conn.isConnected());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalConnectTimeout() {
+    new ConnectionConfiguration("127.0.0.1", 8080).setConnectTimeout(-1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalBufferSize() {
+    new ConnectionConfiguration("127.0.0.1", 8080).setReceiveBufferSize(0);
+  }
+
+}
@@ -0,0 +1,142 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.ConnectionMetrics;
+import ml.that.pigeon.msg.MessageEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link ConnectionMetrics}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class ConnectionMetricsTest {
+
+  @Test
+  public void testTrafficCounted() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    Connection conn = new Connection(server.newConfiguration());
+    try {
+      conn.connect();
+      server.accept();
+
+      conn.sendMessage(MessageEncoder.obtain((short) 0x0900).putInt(42));
+      // Header of 12 bytes, body of 4 bytes and check code
+      byte[] packet = server.readPacket();
+      assertEquals(17, packet.length);
+
+      // A frame with an illegal escape sequence, then a frame too short to hold a header
+      server.write(new byte[]{ 0x7e, 0x7d, 0x05, 0x7e, 0x01, 0x02, 0x7e });
+      ConnectionMetrics.Snapshot snapshot = conn.getMetrics().snapshot();
+      for (int i = 0; i < 100 && snapshot.getFrameErrors() < 1; i++) {
+        Thread.sleep(10L);
+        snapshot = conn.getMetrics().snapshot();
+      }
+
+      assertEquals(1, snapshot.getEncodes());
+      assertEquals(1, snapshot.getFramesOut());
+      assertEquals(19, snapshot.getBytesOut());
+      assertTrue(snapshot.getWriteQueueHighWater() >= 1);
+      assertEquals(7, snapshot.getBytesIn());
+      assertEquals(0, snapshot.getFramesIn());
+      assertEquals(1, snapshot.getEscapeErrors());
+      assertEquals(1, snapshot.getFrameErrors());
+      assertEquals(Long.valueOf(19), snapshot.toMap().get("bytes.out"));
+      assertTrue(snapshot.toMap().containsKey("nonce.underruns"));
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testThrottleCounted() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    // A frame every 50 ms
+    cfg.setMessageRate(20, 1);
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      server.accept();
+
+      long start = System.nanoTime();
+      for (int i = 0; i < 4; i++) {
+        conn.sendMessage(MessageEncoder.obtain((short) 0x0900).putInt(i));
+      }
+      for (int i = 0; i < 4; i++) {
+        server.readPacket();
+      }
+      long elapsed = System.nanoTime() - start;
+
+      ConnectionMetrics.Snapshot snapshot = conn.getMetrics().snapshot();
+      assertTrue("Not shaped.", elapsed >= 140000000L);
+      assertTrue(snapshot.getThrottles() >= 1);
+      assertTrue(snapshot.getThrottleNanos() > 0);
+      assertFalse(snapshot.isThrottled());
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testControlFramesKeepThrottle() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    // A frame every 50 ms
+    cfg.setMessageRate(20, 1);
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      server.accept();
+
+      for (int i = 0; i < 3; i++) {
+        conn.sendMessage(MessageEncoder.obtain((short) 0x0900).putInt(i),
+                         Connection.PRIORITY_REALTIME);
+      }
+      // Written while the second frame is held back
+      for (int i = 0; i < 3; i++) {
+        Thread.sleep(10L);
+        conn.sendMessage(MessageEncoder.obtain((short) 0x0901).putInt(i),
+                         Connection.PRIORITY_CONTROL);
+        assertTrue(conn.getMetrics().snapshot().isThrottled());
+      }
+      for (int i = 0; i < 6; i++) {
+        server.readPacket();
+      }
+
+      // The second and the third frames were each held back once
+      ConnectionMetrics.Snapshot snapshot = conn.getMetrics().snapshot();
+      assertEquals(2, snapshot.getThrottles());
+      assertFalse(snapshot.isThrottled());
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testReconnectCounted() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    Connection conn = new Connection(server.newConfiguration());
+    try {
+      conn.connect();
+      conn.disconnect();
+      conn.connect();
+
+      assertEquals(1, conn.getMetrics().snapshot().getReconnects());
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.msg.MessageEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the priorities of {@link Connection}, will execute on the development machine
+ * (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class ConnectionPriorityTest {
+
+  private static final short CONTROL_ID  = 0x0900;
+  private static final short REALTIME_ID = 0x0901;
+  private static final short BULK_ID     = 0x0902;
+
+  @Test
+  public void testControlFirstBulkWeighted() throws Exception {
+    // A small window, so the writer blocks while the server does not read
+    LoopbackServer server = new LoopbackServer(4096);
+    ConnectionConfiguration cfg = server.newConfiguration();
+    cfg.setRealtimeWeight(2);
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      server.accept();
+
+      // Sends bulk data until the socket buffers are full and the writer blocks
+      byte[] data = new byte[1000];
+      int sent = 0;
+      do {
+        for (int i = 0; i < 100; i++) {
+          conn.sendMessage(MessageEncoder.obtain(BULK_ID).putBytes(data),
+                           Connection.PRIORITY_BULK);
+        }
+        sent += 100;
+        Thread.sleep(20L);
+      } while (conn.getMetrics().snapshot().getWriteQueueSize() == 0 && sent < 100000);
+      assertTrue("Writer not blocked.", conn.getMetrics().snapshot().getWriteQueueSize() > 0);
+
+      conn.sendMessage(MessageEncoder.obtain(CONTROL_ID).putInt(0), Connection.PRIORITY_CONTROL);
+      // The bulk frames still queued, the writer taking none while blocked
+      int queued = conn.getMetrics().snapshot().getWriteQueueSize() - 1;
+      for (int i = 0; i < 3; i++) {
+        conn.sendMessage(MessageEncoder.obtain(REALTIME_ID).putInt(i),
+                         Connection.PRIORITY_REALTIME);
+        // Default priority
+        conn.sendMessage(MessageEncoder.obtain(REALTIME_ID).putInt(i));
+      }
+
+      // Written as soon as the frame in flight is, ahead of the bulk frames queued before it
+      int written = 0;
+      short id;
+      while ((id = LoopbackServer.getId(server.readPacket())) != CONTROL_ID) {
+        assertEquals(BULK_ID, id);
+        written++;
+      }
+      assertTrue(written + " frames written first.", written <= sent - queued);
+
+      // Then a bulk frame after every two realtime frames, the bulk ones keep progressing
+      StringBuilder order = new StringBuilder();
+      for (int i = 0; i < 9; i++) {
+        order.append(LoopbackServer.getId(server.readPacket()) == BULK_ID ? 'B' : 'R');
+      }
+      assertEquals("RRBRRBRRB", order.toString());
+      for (int i = written + 3; i < sent; i++) {
+        assertEquals(BULK_ID, LoopbackServer.getId(server.readPacket()));
+      }
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalPriority() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    Connection conn = new Connection(server.newConfiguration());
+    try {
+      conn.connect();
+      conn.sendMessage(MessageEncoder.obtain((short) 0x0900), Connection.PRIORITY_BULK + 1);
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalRealtimeWeight() {
+    new ConnectionConfiguration("127.0.0.1", 8080).setRealtimeWeight(0);
+  }
+
+}
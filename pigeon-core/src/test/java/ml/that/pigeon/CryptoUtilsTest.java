@@ -0,0 +1,74 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.util.CryptoUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for {@link CryptoUtils}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class CryptoUtilsTest {
+
+  private static final String KEY       = "0123456789ABCDEF";
+  private static final byte[] KEY_BYTES = KEY.getBytes();
+
+  private static final byte[] RAW = new byte[]{
+      0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+      0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f
+  };
+
+  @Test
+  public void testEncryptPrefixesLength() throws Exception {
+    byte[] crypto = CryptoUtils.encrypt(RAW, KEY);
+
+    assertEquals(RAW.length + 1, crypto.length);
+    assertEquals(RAW.length, crypto[0]);
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    assertArrayEquals(RAW, CryptoUtils.decrypt(CryptoUtils.encrypt(RAW, KEY), KEY));
+    assertArrayEquals(RAW, CryptoUtils.decrypt(CryptoUtils.encrypt(RAW, KEY_BYTES), KEY_BYTES));
+  }
+
+  @Test
+  public void testKeyOverloadsAgree() throws Exception {
+    byte[] expected = CryptoUtils.encrypt(RAW, KEY);
+
+    assertArrayEquals(expected, CryptoUtils.encrypt(RAW, KEY_BYTES));
+    // Repeated calls must reuse a cipher left in a usable state
+    assertArrayEquals(expected, CryptoUtils.encrypt(RAW, KEY));
+  }
+
+  @Test
+  public void testEncryptIntoBuffer() throws Exception {
+    byte[] expected = CryptoUtils.encrypt(RAW, KEY);
+    byte[] out = new byte[2 + expected.length];
+
+    int written = CryptoUtils.encrypt(RAW, 0, RAW.length, KEY, out, 2);
+
+    assertEquals(expected.length, written);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], out[i + 2]);
+    }
+  }
+
+  @Test
+  public void testCallerMayReuseKeyArray() throws Exception {
+    byte[] key = KEY_BYTES.clone();
+    byte[] expected = CryptoUtils.encrypt(RAW, key);
+
+    key[0] ^= 0x01;
+    CryptoUtils.encrypt(RAW, key);
+    key[0] ^= 0x01;
+
+    assertArrayEquals(expected, CryptoUtils.encrypt(RAW, key));
+  }
+
+}
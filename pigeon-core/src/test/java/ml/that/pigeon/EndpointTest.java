@@ -0,0 +1,99 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.Endpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link Endpoint}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class EndpointTest {
+
+  @Test
+  public void testFailoverToNextEndpoint() throws Exception {
+    LoopbackServer closed = new LoopbackServer();
+    closed.close();
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = closed.newConfiguration();
+    Endpoint backup = cfg.addEndpoint("127.0.0.1", server.getPort());
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      server.accept();
+
+      Endpoint failed = cfg.getEndpoints().get(0);
+      assertSame(backup, conn.getEndpoint());
+      assertEquals(1, failed.getFailures());
+      assertEquals(-1, failed.getRtt());
+      assertEquals(0, backup.getFailures());
+      assertTrue(backup.getRtt() >= 0);
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testStaggeredRace() throws Exception {
+    // A server which does not accept, once its backlog is full the connects hang
+    ServerSocket stalled = new ServerSocket(0, 1, InetAddress.getByName(null));
+    List<Socket> backlog = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Socket socket = new Socket();
+      try {
+        socket.connect(new InetSocketAddress(InetAddress.getByName(null), stalled.getLocalPort()),
+                       200);
+        backlog.add(socket);
+      } catch (IOException ioe) {
+        socket.close();
+        break;
+      }
+    }
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = new ConnectionConfiguration("127.0.0.1",
+                                                              stalled.getLocalPort());
+    Endpoint fast = cfg.addEndpoint("127.0.0.1", server.getPort());
+    cfg.setConnectStagger(100);
+    cfg.setConnectTimeout(5000);
+    Connection conn = new Connection(cfg);
+    try {
+      long start = System.nanoTime();
+      conn.connect();
+      long elapsed = System.nanoTime() - start;
+      server.accept();
+
+      assertSame(fast, conn.getEndpoint());
+      assertTrue("Not raced.", elapsed < 2000000000L);
+    } finally {
+      conn.disconnect();
+      server.close();
+      stalled.close();
+      for (Socket socket : backlog) {
+        socket.close();
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalPort() {
+    new ConnectionConfiguration("127.0.0.1", 8080).addEndpoint("127.0.0.1", 0);
+  }
+
+}
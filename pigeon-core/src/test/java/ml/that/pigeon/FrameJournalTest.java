@@ -0,0 +1,231 @@
+package ml.that.pigeon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.MessageViewListener;
+import ml.that.pigeon.journal.FrameJournal;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.FrameBuffer;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+import ml.that.pigeon.msg.MessageView;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link FrameJournal}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class FrameJournalTest {
+
+  private static final byte[] FRAME = new byte[]{ 0x7e, 0x00, 0x02, 0x00, 0x00, 0x7d, 0x01, 0x7e };
+
+  // Holds 84 records of the frame above
+  private static final int SEGMENT_SIZE = 84 * 25;
+
+  private static final short MSG_ID = 0x0900;
+
+  private File mDir;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = File.createTempFile("journal", "");
+    mDir.delete();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = mDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    mDir.delete();
+  }
+
+  @Test
+  public void testAppendAndRead() throws IOException {
+    FrameJournal journal = new FrameJournal(mDir, FrameJournal.MIN_SEGMENT_SIZE);
+    assertEquals(0, journal.append(FrameJournal.OUTBOUND, FRAME));
+    assertEquals(1, journal.append(FrameJournal.INBOUND, FRAME, 1, 3));
+
+    FrameJournal.Cursor cursor = journal.openCursor(0);
+    FrameJournal.Record record = cursor.next();
+    assertEquals(FrameJournal.OUTBOUND, record.getDirection());
+    assertArrayEquals(FRAME, record.getData());
+    record = cursor.next();
+    assertEquals(FrameJournal.INBOUND, record.getDirection());
+    assertArrayEquals(new byte[]{ 0x00, 0x02, 0x00 }, record.getData());
+    assertNull(cursor.next());
+    journal.close();
+  }
+
+  @Test
+  public void testRotateAndTruncate() throws IOException {
+    // Each record takes 25 bytes, so a segment holds 84 records
+    FrameJournal journal = new FrameJournal(mDir, SEGMENT_SIZE);
+    for (int i = 0; i < 200; i++) {
+      journal.append(FrameJournal.OUTBOUND, FRAME);
+    }
+    assertEquals(3, mDir.listFiles().length);
+
+    journal.truncate(90);
+    assertEquals(84, journal.getFirstIndex());
+    assertEquals(2, mDir.listFiles().length);
+
+    FrameJournal.Cursor cursor = journal.openCursor(0);
+    assertEquals(84, cursor.next().getIndex());
+    journal.close();
+  }
+
+  @Test
+  public void testRecover() throws IOException {
+    FrameJournal journal = new FrameJournal(mDir, SEGMENT_SIZE);
+    for (int i = 0; i < 90; i++) {
+      journal.append(FrameJournal.OUTBOUND, FRAME);
+    }
+    journal.close();
+
+    journal = new FrameJournal(mDir, SEGMENT_SIZE);
+    assertEquals(0, journal.getFirstIndex());
+    assertEquals(90, journal.getNextIndex());
+    assertEquals(90, journal.append(FrameJournal.INBOUND, FRAME));
+    assertArrayEquals(FRAME, journal.openCursor(89).next().getData());
+    journal.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSegmentTooSmall() throws IOException {
+    // The longest frame would not fit
+    new FrameJournal(mDir, FrameJournal.MIN_SEGMENT_SIZE - 1);
+  }
+
+  @Test
+  public void testLongestFrameFits() throws IOException {
+    FrameJournal journal = new FrameJournal(mDir, FrameJournal.MIN_SEGMENT_SIZE);
+    byte[] frame = new byte[FrameBuffer.CAPACITY * 2 + 2];
+    assertEquals(0, journal.append(FrameJournal.INBOUND, frame));
+    assertEquals(1, journal.append(FrameJournal.INBOUND, frame));
+    assertEquals(2, mDir.listFiles().length);
+    journal.close();
+  }
+
+  @Test
+  public void testFailingJournalKeepsConnection() throws Exception {
+    FrameJournal journal = new FrameJournal(mDir) {
+      @Override
+      public synchronized long append(byte direction, byte[] data, int off, int len) {
+        throw new IllegalStateException("Failed on purpose.");
+      }
+    };
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    cfg.setJournal(journal);
+    Connection conn = new Connection(cfg);
+    final CountDownLatch views = new CountDownLatch(1);
+    conn.addViewListener(new MessageViewListener() {
+      @Override
+      public void processView(MessageView view) {
+        views.countDown();
+      }
+    }, MSG_ID);
+    try {
+      conn.connect();
+      server.accept();
+
+      // Neither the writer nor the reader dies of the failing journal
+      conn.sendMessage(MessageEncoder.obtain(MSG_ID).putByte((byte) 1));
+      assertEquals(MSG_ID, LoopbackServer.getId(server.readPacket(1000)));
+      server.write(encode(1));
+      assertTrue(views.await(1, TimeUnit.SECONDS));
+      conn.sendMessage(MessageEncoder.obtain(MSG_ID).putByte((byte) 2));
+      assertEquals(MSG_ID, LoopbackServer.getId(server.readPacket(1000)));
+    } finally {
+      conn.disconnect();
+      server.close();
+      journal.close();
+    }
+  }
+
+  @Test
+  public void testCapturesWholeFrames() throws Exception {
+    FrameJournal journal = new FrameJournal(mDir, 4096);
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    cfg.setJournal(journal);
+    Connection conn = new Connection(cfg);
+    final CountDownLatch views = new CountDownLatch(3);
+    conn.addViewListener(new MessageViewListener() {
+      @Override
+      public void processView(MessageView view) {
+        views.countDown();
+      }
+    }, MSG_ID);
+    byte[] frame1 = encode(1);
+    byte[] frame2 = encode(2);
+    byte[] frame3 = encode(3);
+    try {
+      conn.connect();
+      server.accept();
+      conn.sendMessage(MessageEncoder.obtain(MSG_ID).putByte((byte) 0x7e));
+      server.readPacket();
+
+      // Two frames in a read, and a frame split across reads
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(frame1);
+      out.write(frame2);
+      server.write(out.toByteArray());
+      server.write(Arrays.copyOf(frame3, 5));
+      Thread.sleep(50L);
+      server.write(Arrays.copyOfRange(frame3, 5, frame3.length));
+      assertTrue(views.await(1, TimeUnit.SECONDS));
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+
+    FrameJournal.Cursor cursor = journal.openCursor(0);
+    FrameJournal.Record record = cursor.next();
+    assertEquals(FrameJournal.OUTBOUND, record.getDirection());
+    byte[] data = record.getData();
+    assertEquals(0x7e, data[0]);
+    assertEquals(0x7e, data[data.length - 1]);
+    for (byte[] frame : new byte[][]{ frame1, frame2, frame3 }) {
+      record = cursor.next();
+      assertEquals(FrameJournal.INBOUND, record.getDirection());
+      assertArrayEquals(frame, record.getData());
+    }
+    assertNull(cursor.next());
+    journal.close();
+  }
+
+  /** Encodes a frame whose body needs escaping, and carries the specified number. */
+  private static byte[] encode(int n) {
+    byte[] body = { 0x7e, 0x7d, (byte) n };
+    Frame frame = Frame.obtain().encode(MSG_ID, false, Message.CIPHER_NONE, Message.EMPTY_PHONE,
+                                        (short) n, (short) 0, (short) 0, body, 0, body.length);
+    try {
+      return Arrays.copyOf(frame.array(), frame.length());
+    } finally {
+      frame.recycle();
+    }
+  }
+
+}
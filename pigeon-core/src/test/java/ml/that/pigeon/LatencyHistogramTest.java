@@ -0,0 +1,79 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.util.LatencyHistogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link LatencyHistogram}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testSmallValuesExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.recordValue(i);
+    }
+
+    assertEquals(100, histogram.getTotalCount());
+    assertEquals(1, histogram.getMinValue());
+    assertEquals(100, histogram.getMaxValue());
+    assertEquals(50, histogram.getValueAtPercentile(50));
+    assertEquals(99, histogram.getValueAtPercentile(99));
+    assertEquals(100, histogram.getValueAtPercentile(100));
+    assertEquals(50.5, histogram.getMean(), 1e-9);
+  }
+
+  @Test
+  public void testLargeValuesWithinPrecision() {
+    long[] values = new long[]{ 1000, 12345, 999999, 123456789, LatencyHistogram.MAX_VALUE };
+    for (long value : values) {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.recordValue(value);
+      histogram.recordValue(value + 1);
+
+      long reported = histogram.getValueAtPercentile(50);
+      assertTrue(value + " reported as " + reported,
+                 reported >= value && reported <= value + value / 50);
+    }
+  }
+
+  @Test
+  public void testValuesAboveMaxClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordValue(Long.MAX_VALUE);
+
+    assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMaxValue());
+    assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testAddAndReset() {
+    LatencyHistogram fir = new LatencyHistogram();
+    LatencyHistogram sec = new LatencyHistogram();
+    fir.recordValue(10);
+    sec.recordValue(20000);
+    fir.add(sec);
+
+    assertEquals(2, fir.getTotalCount());
+    assertEquals(10, fir.getMinValue());
+    assertEquals(20000, fir.getMaxValue());
+
+    fir.reset();
+    assertEquals(0, fir.getTotalCount());
+    assertEquals(0, fir.getValueAtPercentile(99));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeValue() {
+    new LatencyHistogram().recordValue(-1);
+  }
+
+}
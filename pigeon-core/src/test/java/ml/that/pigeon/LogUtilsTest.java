@@ -0,0 +1,112 @@
+package ml.that.pigeon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ml.that.pigeon.util.LogBackend;
+import ml.that.pigeon.util.LogUtils;
+import ml.that.pigeon.util.Loggable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link LogUtils}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class LogUtilsTest {
+
+  private static final String TAG = "Pigeon_Test";
+
+  private LogBackend mPrevBackend;
+  private int        mPrevLevel;
+
+  private String mLastMsg;
+
+  @Before
+  public void setUp() {
+    mPrevBackend = LogUtils.getBackend();
+    mPrevLevel = LogUtils.getLevel();
+
+    LogUtils.setBackend(new LogBackend() {
+      @Override
+      public boolean isLoggable(String tag, int level) {
+        return true;
+      }
+
+      @Override
+      public void log(int level, String tag, String msg, Throwable tr) {
+        mLastMsg = msg;
+      }
+    });
+    LogUtils.setLevel(LogUtils.DEBUG);
+  }
+
+  @After
+  public void tearDown() {
+    LogUtils.setBackend(mPrevBackend);
+    LogUtils.setLevel(mPrevLevel);
+  }
+
+  @Test
+  public void testFormat() {
+    LogUtils.i(TAG, "a={}, b={}", 1, "two");
+    assertEquals("a=1, b=two", mLastMsg);
+  }
+
+  @Test
+  public void testFormatMissingPlaceholders() {
+    LogUtils.d(TAG, "only {}", 1, 2, 3);
+    assertEquals("only 1", mLastMsg);
+
+    LogUtils.d(TAG, "{} and {}", "one");
+    assertEquals("one and {}", mLastMsg);
+  }
+
+  @Test
+  public void testHexDump() {
+    LogUtils.d(TAG, "pld={}", new byte[]{ 0x7e, 0x01, (byte) 0xff });
+    assertEquals("pld=[7e 01 ff]", mLastMsg);
+  }
+
+  @Test
+  public void testHexDumpTruncated() {
+    StringBuilder sb = new StringBuilder();
+    LogUtils.appendHex(sb, new byte[300], 0, 300);
+
+    assertTrue(sb.toString().endsWith(" ...(300 bytes)]"));
+  }
+
+  @Test
+  public void testDisabledLevelNotFormatted() {
+    final boolean[] formatted = new boolean[1];
+    Loggable arg = new Loggable() {
+      @Override
+      public void formatTo(StringBuilder sb) {
+        formatted[0] = true;
+      }
+    };
+
+    LogUtils.v(TAG, "arg={}", arg);
+
+    assertFalse(formatted[0]);
+    assertNull(mLastMsg);
+  }
+
+  @Test
+  public void testLoggableFormatsItself() {
+    LogUtils.d(TAG, "arg={}", new Loggable() {
+      @Override
+      public void formatTo(StringBuilder sb) {
+        sb.append("self");
+      }
+    });
+    assertEquals("arg=self", mLastMsg);
+  }
+
+}
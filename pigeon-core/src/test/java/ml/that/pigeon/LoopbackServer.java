@@ -0,0 +1,174 @@
+package ml.that.pigeon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.ServerGenericReply;
+
+/**
+ * A JT/T808 server on the loopback interface for the local unit tests. It accepts the connection
+ * of the client under test, reads the frames the client writes and writes frames to it.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+class LoopbackServer {
+
+  private static final int FLAG = 0x7e;
+
+  private final ServerSocket mServer;
+
+  private Socket mSocket;
+
+  /** Creates a server listening on an ephemeral port. */
+  LoopbackServer() throws IOException {
+    this(-1);
+  }
+
+  /**
+   * Creates a server listening on an ephemeral port, whose accepted socket has the specified
+   * receive buffer. A small buffer lets a test block the writer of the client by not reading.
+   *
+   * @param receiveBufferSize the receive buffer size, or {@code -1} for the system default
+   */
+  LoopbackServer(int receiveBufferSize) throws IOException {
+    mServer = new ServerSocket();
+    if (receiveBufferSize > 0) {
+      mServer.setReceiveBufferSize(receiveBufferSize);
+    }
+    mServer.bind(new InetSocketAddress(InetAddress.getByName(null), 0), 2);
+  }
+
+  int getPort() {
+    return mServer.getLocalPort();
+  }
+
+  /** Returns a new configuration connecting to this server. */
+  ConnectionConfiguration newConfiguration() {
+    return new ConnectionConfiguration("127.0.0.1", getPort());
+  }
+
+  /** Accepts the next connection, which the reads and writes then go to. */
+  Socket accept() throws IOException {
+    mSocket = mServer.accept();
+    return mSocket;
+  }
+
+  Socket getSocket() {
+    return mSocket;
+  }
+
+  /**
+   * Reads the next frame written by the client.
+   *
+   * @return the packet between the flags unescaped: header, body and check code, or {@code null}
+   * if the client closed the connection
+   */
+  byte[] readPacket() throws IOException {
+    InputStream input = mSocket.getInputStream();
+    ByteArrayOutputStream packet = new ByteArrayOutputStream();
+    int b;
+    // Skips to the opening flag, and over empty frames
+    while ((b = input.read()) != FLAG) {
+      if (b == -1) {
+        return null;
+      }
+    }
+    while (true) {
+      b = input.read();
+      if (b == -1) {
+        return null;
+      }
+      if (b == FLAG) {
+        if (packet.size() > 0) {
+          return packet.toByteArray();
+        }
+        continue;
+      }
+      if (b == 0x7d) {
+        b = input.read() == 0x01 ? 0x7d : 0x7e;
+      }
+      packet.write(b);
+    }
+  }
+
+  /**
+   * Reads the next frame written by the client within the specified time.
+   *
+   * @param timeout the time to wait for the frame to start, in milliseconds
+   * @return the packet, or {@code null} if none was written in time or the client closed the
+   * connection
+   */
+  byte[] readPacket(int timeout) throws IOException {
+    mSocket.setSoTimeout(timeout);
+    try {
+      return readPacket();
+    } catch (SocketTimeoutException ste) {
+      return null;
+    } finally {
+      mSocket.setSoTimeout(0);
+    }
+  }
+
+  static short getId(byte[] packet) {
+    return (short) (((packet[0] & 0xff) << 8) | (packet[1] & 0xff));
+  }
+
+  static short getSn(byte[] packet) {
+    return (short) (((packet[10] & 0xff) << 8) | (packet[11] & 0xff));
+  }
+
+  /** Returns the body of a packet which is not a fragment of a long message. */
+  static byte[] getBody(byte[] packet) {
+    return Arrays.copyOfRange(packet, 12, packet.length - 1);
+  }
+
+  /** Writes the specified bytes to the client as they are. */
+  void write(byte[] data) throws IOException {
+    OutputStream output = mSocket.getOutputStream();
+    output.write(data);
+    output.flush();
+  }
+
+  /** Writes a message to the client. */
+  void writeMessage(short id, byte[] body) throws IOException {
+    Frame frame = Frame.obtain().encode(id, false, Message.CIPHER_NONE, Message.EMPTY_PHONE,
+                                        (short) 1, (short) 0, (short) 0, body, 0, body.length);
+    try {
+      OutputStream output = mSocket.getOutputStream();
+      output.write(frame.array(), 0, frame.length());
+      output.flush();
+    } finally {
+      frame.recycle();
+    }
+  }
+
+  /** Writes a server generic reply to the client. */
+  void writeReply(short reqSn, short reqId, byte result) throws IOException {
+    writeMessage(ServerGenericReply.ID, new byte[]{
+        (byte) (reqSn >> 8), (byte) reqSn, (byte) (reqId >> 8), (byte) reqId, result });
+  }
+
+  /** Closes the accepted connection, if any, and stops listening. */
+  void close() {
+    try {
+      if (mSocket != null) {
+        mSocket.close();
+      }
+      mServer.close();
+    } catch (IOException ioe) {
+      // Ignore
+    }
+  }
+
+}
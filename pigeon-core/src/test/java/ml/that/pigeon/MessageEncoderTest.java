@@ -0,0 +1,86 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.FrameBuffer;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+import ml.that.pigeon.msg.Packet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link MessageEncoder}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class MessageEncoderTest {
+
+  @Test
+  public void testPutFields() {
+    MessageEncoder encoder = MessageEncoder.obtain((short) 0x0200);
+    encoder.putByte((byte) 0x30)
+           .putShort((short) 0x7e08)
+           .putInt(0x7d550000)
+           .putBcd(161101L, 3)
+           .putAscii("AB", 3);
+    assertEquals(13, encoder.length());
+
+    Frame frame = encoder.encodeFrame(0);
+    byte[] bytes = Arrays.copyOf(frame.array(), frame.length());
+    assertArrayEquals(new byte[]{ 0x7e,
+                                  0x02, 0x00, 0x00, 0x0d,
+                                  0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                                  bytes[11], bytes[12],
+                                  0x30, 0x7d, 0x02, 0x08, 0x7d, 0x01, 0x55, 0x00, 0x00,
+                                  0x16, 0x11, 0x01, 0x41, 0x42, 0x00,
+                                  bytes[28],
+                                  0x7e },
+                      bytes);
+    frame.recycle();
+    encoder.recycle();
+  }
+
+  @Test
+  public void testEncodeLongMessage() {
+    byte[] body = new byte[Packet.MAX_LENGTH * 2 + 1];
+    Arrays.fill(body, (byte) 0x7e);
+
+    MessageEncoder encoder = MessageEncoder.obtain((short) 0x0801);
+    encoder.putBytes(body);
+    assertEquals(3, encoder.getFrameCount());
+
+    Packet[] packets = new Message.Builder((short) 0x0801).body(body).build().getPackets();
+    for (int i = 0; i < packets.length; i++) {
+      Frame frame = encoder.encodeFrame(i);
+      byte[] expected = unescape(packets[i].getBytes());
+      byte[] actual = unescape(Arrays.copyOf(frame.array(), frame.length()));
+      // Serial numbers and so check codes differ, and may or may not need escaping: compare
+      // everything else once unescaped
+      assertEquals(expected.length, actual.length);
+      assertArrayEquals(Arrays.copyOf(expected, 10), Arrays.copyOf(actual, 10));
+      assertArrayEquals(Arrays.copyOfRange(expected, 12, expected.length - 1),
+                        Arrays.copyOfRange(actual, 12, actual.length - 1));
+      frame.recycle();
+    }
+    encoder.recycle();
+  }
+
+  /** Returns the packet of an escaped frame, without its flags. */
+  private static byte[] unescape(byte[] frame) {
+    FrameBuffer buf = FrameBuffer.obtain();
+    try {
+      assertTrue(buf.unescape(frame, 1, frame.length - 2));
+      return buf.copyOfRange(0, buf.length());
+    } finally {
+      buf.release();
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.MessagePublisher;
+import ml.that.pigeon.conn.SendFuture;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link MessagePublisher}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class MessagePublisherTest {
+
+  private static final short MSG_ID = 0x0900;
+
+  @Test
+  public void testCopiedFrameEqualsEncoded() {
+    byte[] body = {0x7e, 0x01, 0x7d, 0x02, 0x30};
+    Frame template = Frame.obtain().encode(MSG_ID, false, Message.CIPHER_NONE,
+                                           Message.EMPTY_PHONE, (short) 0x0102, (short) 0,
+                                           (short) 0, body, 0, body.length);
+    // The serial numbers escaped and the checksum changed, in both directions
+    short[] sns = {0x7d7e, 0x0010, 0x007d, 0x0102};
+    Frame from = template;
+    for (short sn : sns) {
+      Frame copy = Frame.obtain().copyFrom(from, sn);
+      Frame encoded = Frame.obtain().encode(MSG_ID, false, Message.CIPHER_NONE,
+                                            Message.EMPTY_PHONE, sn, (short) 0, (short) 0,
+                                            body, 0, body.length);
+
+      assertEquals(sn, copy.getSn());
+      assertEquals(encoded.length(), copy.length());
+      assertTrue(Arrays.equals(Arrays.copyOf(encoded.array(), encoded.length()),
+                               Arrays.copyOf(copy.array(), copy.length())));
+      encoded.recycle();
+      from = copy;
+    }
+  }
+
+  @Test
+  public void testPublishedToEveryConnection() throws Exception {
+    LoopbackServer server1 = new LoopbackServer();
+    LoopbackServer server2 = new LoopbackServer();
+    Connection conn1 = new Connection(server1.newConfiguration());
+    Connection conn2 = new Connection(server2.newConfiguration());
+    Connection idle = new Connection(new ConnectionConfiguration("127.0.0.1", 8080));
+    MessagePublisher publisher = new MessagePublisher();
+    publisher.addConnection(conn1);
+    publisher.addConnection(idle);
+    publisher.addConnection(conn2);
+    try {
+      conn1.connect();
+      conn2.connect();
+      server1.accept();
+      server2.accept();
+
+      List<SendFuture> futures = publisher.publish(MessageEncoder.obtain(MSG_ID).putInt(42));
+      assertEquals(3, futures.size());
+      assertTrue(futures.get(0).get(1, TimeUnit.SECONDS) > 0);
+      assertNotNull(futures.get(1).getFailure());
+      assertTrue(futures.get(2).get(1, TimeUnit.SECONDS) > 0);
+
+      // Header of 12 bytes, body of 4 bytes and check code
+      byte[] packet1 = server1.readPacket();
+      byte[] packet2 = server2.readPacket();
+      assertEquals(17, packet1.length);
+      assertEquals(17, packet2.length);
+      // Identical but for the serial number and the checksum
+      assertTrue(Arrays.equals(Arrays.copyOf(packet1, 10), Arrays.copyOf(packet2, 10)));
+      assertTrue(Arrays.equals(Arrays.copyOfRange(packet1, 12, 16),
+                               Arrays.copyOfRange(packet2, 12, 16)));
+      assertTrue(packet1[10] != packet2[10] || packet1[11] != packet2[11]);
+      for (byte[] packet : new byte[][] {packet1, packet2}) {
+        byte checksum = 0;
+        for (int i = 0; i < 16; i++) {
+          checksum ^= packet[i];
+        }
+        assertEquals(checksum, packet[16]);
+      }
+    } finally {
+      conn1.disconnect();
+      conn2.disconnect();
+      server1.close();
+      server2.close();
+    }
+  }
+
+}
@@ -0,0 +1,173 @@
+package ml.that.pigeon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.MessageViewListener;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.FrameBuffer;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Local unit test for the parsing of the frames read by a {@link Connection}, will execute on the
+ * development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class MessageReaderTest {
+
+  private static final short MSG_ID = 0x0900;
+
+  private final BlockingQueue<Integer> mViews = new LinkedBlockingQueue<>();
+
+  private LoopbackServer mServer;
+  private Connection     mConn;
+
+  @Before
+  public void setUp() throws IOException {
+    mServer = new LoopbackServer();
+    mConn = new Connection(mServer.newConfiguration());
+    // Collects the number carried by the last byte of each body
+    mConn.addViewListener(new MessageViewListener() {
+      @Override
+      public void processView(MessageView view) {
+        assertEquals(0x7e, view.getBodyByte(0));
+        assertEquals(0x7d, view.getBodyByte(1));
+        mViews.add((int) view.getBodyByte(2));
+      }
+    }, MSG_ID);
+    mConn.connect();
+    mServer.accept();
+  }
+
+  @After
+  public void tearDown() {
+    mConn.disconnect();
+    mServer.close();
+  }
+
+  @Test
+  public void testFrameSplitAcrossReads() throws Exception {
+    byte[] frame = encode(1);
+    // Split in the middle of an escape sequence
+    int split = indexOf(frame, (byte) 0x7d) + 1;
+    mServer.write(Arrays.copyOf(frame, split));
+    Thread.sleep(50L);
+    assertNull(mViews.poll());
+    mServer.write(Arrays.copyOfRange(frame, split, frame.length));
+
+    assertEquals(1, next());
+  }
+
+  @Test
+  public void testFramesInOneRead() throws Exception {
+    mServer.write(concat(encode(1), encode(2), encode(3)));
+
+    assertEquals(1, next());
+    assertEquals(2, next());
+    assertEquals(3, next());
+  }
+
+  @Test
+  public void testBackToBackFlags() throws Exception {
+    byte[] frame1 = encode(1);
+    byte[] frame2 = encode(2);
+    // Empty frames, and two frames sharing a flag
+    mServer.write(concat(new byte[]{ 0x7e, 0x7e },
+                         Arrays.copyOf(frame1, frame1.length - 1),
+                         frame2,
+                         new byte[]{ 0x7e }));
+
+    assertEquals(1, next());
+    assertEquals(2, next());
+    assertEquals(0, frameErrors());
+  }
+
+  @Test
+  public void testFrameTooLongSkipped() throws Exception {
+    byte[] junk = new byte[FrameBuffer.CAPACITY * 2 + 16];
+    Arrays.fill(junk, (byte) 0x01);
+    junk[0] = 0x7e;
+    mServer.write(concat(junk, encode(1)));
+
+    assertEquals(1, next());
+    assertEquals(1, frameErrors());
+  }
+
+  @Test
+  public void testIllegalEscapeDropped() throws Exception {
+    mServer.write(concat(new byte[]{ 0x7e, 0x7d, 0x05, 0x7e }, encode(1)));
+
+    assertEquals(1, next());
+    assertEquals(1, mConn.getMetrics().snapshot().getEscapeErrors());
+  }
+
+  @Test
+  public void testFailingViewListener() throws Exception {
+    mConn.addViewListener(new MessageViewListener() {
+      @Override
+      public void processView(MessageView view) {
+        throw new IllegalStateException("Failed on purpose.");
+      }
+    }, MSG_ID);
+    mServer.write(encode(1));
+    mServer.write(encode(2));
+
+    // The other listener is notified, and the reader goes on
+    assertEquals(1, next());
+    assertEquals(2, next());
+  }
+
+  private int next() throws InterruptedException {
+    Integer n = mViews.poll(1, TimeUnit.SECONDS);
+    return n == null ? -1 : n;
+  }
+
+  private long frameErrors() {
+    return mConn.getMetrics().snapshot().getFrameErrors();
+  }
+
+  /** Encodes a frame whose body needs escaping, and carries the specified number. */
+  private static byte[] encode(int n) {
+    byte[] body = { 0x7e, 0x7d, (byte) n };
+    Frame frame = Frame.obtain().encode(MSG_ID, false, Message.CIPHER_NONE, Message.EMPTY_PHONE,
+                                        (short) n, (short) 0, (short) 0, body, 0, body.length);
+    try {
+      return Arrays.copyOf(frame.array(), frame.length());
+    } finally {
+      frame.recycle();
+    }
+  }
+
+  private static byte[] concat(byte[]... arrays) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] array : arrays) {
+      out.write(array);
+    }
+    return out.toByteArray();
+  }
+
+  private static int indexOf(byte[] array, byte b) {
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
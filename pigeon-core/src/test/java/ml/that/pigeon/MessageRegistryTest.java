@@ -0,0 +1,159 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.MessageListener;
+import ml.that.pigeon.filter.MessageIdFilter;
+import ml.that.pigeon.msg.LazyMessage;
+import ml.that.pigeon.msg.LoginCommand;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageRegistry;
+import ml.that.pigeon.msg.ServerGenericReply;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link MessageRegistry} and the lazy decoding of the typed messages, will
+ * execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class MessageRegistryTest {
+
+  private static final short MSG_ID = 0x0900;
+
+  @Test
+  public void testMappedIdTyped() {
+    byte[] body = { 0x00, 0x05, (byte) 0x81, 0x00, ServerGenericReply.RESULT_FAIL };
+    Message msg = MessageRegistry.getDefault().decode(generic(ServerGenericReply.ID, body));
+
+    assertTrue(msg instanceof ServerGenericReply);
+    ServerGenericReply reply = (ServerGenericReply) msg;
+    assertEquals(5, reply.getReqSn());
+    assertEquals((short) 0x8100, reply.getReqId());
+    assertEquals(ServerGenericReply.RESULT_FAIL, reply.getResult());
+  }
+
+  @Test
+  public void testUnmappedIdGeneric() {
+    Message msg = generic(MSG_ID, new byte[]{ 0x01 });
+
+    assertSame(msg, MessageRegistry.getDefault().decode(msg));
+  }
+
+  @Test
+  public void testDecodeDeferred() {
+    MessageRegistry registry = new MessageRegistry();
+    AtomicInteger decodes = new AtomicInteger();
+    registry.register(MSG_ID, new CountingDecoder(decodes));
+
+    CountingMessage msg = (CountingMessage) registry.decode(generic(MSG_ID, new byte[]{ 0x2a }));
+    assertEquals(0, decodes.get());
+    assertEquals(0x2a, msg.getValue());
+    assertEquals(0x2a, msg.getValue());
+    assertEquals(1, decodes.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedBodyThrowsFromGetter() {
+    // Too short, but only found out once a field is read
+    Message msg = MessageRegistry.getDefault().decode(generic(LoginCommand.ID, new byte[3]));
+    assertTrue(msg instanceof LoginCommand);
+    // The log representation falls back to the generic fields
+    assertTrue(msg.toString().contains("bdy="));
+
+    ((LoginCommand) msg).getResult();
+  }
+
+  @Test
+  public void testDecodeSharedAcrossListeners() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    MessageRegistry registry = new MessageRegistry();
+    AtomicInteger decodes = new AtomicInteger();
+    registry.register(MSG_ID, new CountingDecoder(decodes));
+    cfg.setMessageRegistry(registry);
+    Connection conn = new Connection(cfg);
+
+    final AtomicReferenceArray<Message> received = new AtomicReferenceArray<>(2);
+    final CountDownLatch done = new CountDownLatch(2);
+    for (int i = 0; i < 2; i++) {
+      final int index = i;
+      conn.addRcvListener(new MessageListener() {
+        @Override
+        public void processMessage(Message msg) {
+          assertEquals(0x2a, ((CountingMessage) msg).getValue());
+          received.set(index, msg);
+          done.countDown();
+        }
+      }, new MessageIdFilter(MSG_ID));
+    }
+    try {
+      conn.connect();
+      server.accept();
+      server.writeMessage(MSG_ID, new byte[]{ 0x2a });
+
+      assertTrue(done.await(1, TimeUnit.SECONDS));
+      assertSame(received.get(0), received.get(1));
+      assertEquals(1, decodes.get());
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  private static Message generic(short id, byte[] body) {
+    return new Message.Builder(id).body(body).build();
+  }
+
+  /** A typed message counting the times its body is decoded. */
+  private static class CountingMessage extends LazyMessage {
+
+    private final AtomicInteger mDecodes;
+
+    private int mValue;
+
+    CountingMessage(Message msg, AtomicInteger decodes) {
+      super(msg.getId(), msg.getCipher(), msg.getPhone(), msg.getBody(), false);
+      mDecodes = decodes;
+    }
+
+    int getValue() {
+      decode();
+      return mValue;
+    }
+
+    @Override
+    protected void onDecode() {
+      mDecodes.incrementAndGet();
+      mValue = getBody()[0];
+    }
+
+  }
+
+  private static class CountingDecoder implements MessageRegistry.Decoder {
+
+    private final AtomicInteger mDecodes;
+
+    CountingDecoder(AtomicInteger decodes) {
+      mDecodes = decodes;
+    }
+
+    @Override
+    public Message decode(Message msg) {
+      return new CountingMessage(msg, mDecodes);
+    }
+
+  }
+
+}
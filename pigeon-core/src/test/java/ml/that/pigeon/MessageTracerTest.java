@@ -0,0 +1,77 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.MessageListener;
+import ml.that.pigeon.conn.MessageTracer;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+import ml.that.pigeon.msg.ServerGenericReply;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for {@link MessageTracer}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class MessageTracerTest {
+
+  private static final short MSG_ID = 0x0900;
+
+  @Test
+  public void testStagesOfAcknowledgedMessage() throws Exception {
+    MessageTracer tracer = new MessageTracer(1);
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    cfg.setTracer(tracer);
+    Connection conn = new Connection(cfg);
+    conn.addRcvListener(new MessageListener() {
+      @Override
+      public void processMessage(Message msg) {
+      }
+    }, null);
+    try {
+      conn.connect();
+      server.accept();
+
+      conn.sendMessage(MessageEncoder.obtain(MSG_ID).putInt(42));
+      short sn = LoopbackServer.getSn(server.readPacket());
+      // The trace waits for the reply only once the writer is done with the flush
+      for (int i = 0; i < 100; i++) {
+        if (tracer.getHistogram(MessageTracer.STAGE_WRITE).getTotalCount() > 0) {
+          break;
+        }
+        Thread.sleep(10L);
+      }
+      server.writeReply(sn, MSG_ID, ServerGenericReply.RESULT_OK);
+
+      for (int i = 0; i < 100; i++) {
+        if (tracer.getHistogram(MessageTracer.STAGE_SEND).getTotalCount() > 0
+            && tracer.getHistogram(MessageTracer.STAGE_DELIVERY).getTotalCount() > 0) {
+          break;
+        }
+        Thread.sleep(10L);
+      }
+
+      assertEquals(1, tracer.getHistogram(MessageTracer.STAGE_QUEUE).getTotalCount());
+      assertEquals(1, tracer.getHistogram(MessageTracer.STAGE_WRITE).getTotalCount());
+      assertEquals(1, tracer.getHistogram(MessageTracer.STAGE_ACK).getTotalCount());
+      assertEquals(1, tracer.getHistogram(MessageTracer.STAGE_SEND).getTotalCount());
+      assertEquals(1, tracer.getHistogram(MessageTracer.STAGE_DECODE).getTotalCount());
+      assertEquals(1, tracer.getHistogram(MessageTracer.STAGE_DELIVERY).getTotalCount());
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalInterval() {
+    new MessageTracer(0);
+  }
+
+}
@@ -0,0 +1,94 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import ml.that.pigeon.util.RandomPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link RandomPool}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class RandomPoolTest {
+
+  @Test
+  public void testNonceLength() {
+    assertEquals(RandomPool.NONCE_LENGTH, new RandomPool(4).next().length);
+  }
+
+  @Test
+  public void testNoncesDiffer() {
+    RandomPool pool = new RandomPool(4);
+    byte[] previous = pool.next();
+    for (int i = 0; i < 16; i++) {
+      byte[] nonce = pool.next();
+      assertFalse(Arrays.equals(previous, nonce));
+      previous = nonce;
+    }
+  }
+
+  @Test
+  public void testNeverExceedsCapacity() throws Exception {
+    RandomPool pool = new RandomPool(2);
+    Thread.sleep(100L);
+
+    assertTrue(pool.size() <= 2);
+  }
+
+  @Test
+  public void testStartFillsShared() throws Exception {
+    RandomPool.start();
+
+    // Filled ahead of the first nonce requested
+    RandomPool pool = RandomPool.getDefault();
+    for (int i = 0; i < 100 && pool.size() == 0; i++) {
+      Thread.sleep(10L);
+    }
+    long underruns = pool.getUnderruns();
+    assertEquals(RandomPool.NONCE_LENGTH, pool.next().length);
+    assertEquals(underruns, pool.getUnderruns());
+  }
+
+  @Test
+  public void testUnderrunNotBlockedBySeeding() throws Exception {
+    final CountDownLatch seeded = new CountDownLatch(1);
+    // A generator which takes its time to seed, and holds its lock meanwhile
+    SecureRandom slow = new SecureRandom() {
+      @Override
+      public synchronized void nextBytes(byte[] bytes) {
+        try {
+          seeded.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        super.nextBytes(bytes);
+      }
+    };
+    final RandomPool pool = new RandomPool(2, slow);
+    final byte[][] nonce = new byte[1][];
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        nonce[0] = pool.next();
+      }
+    });
+    thread.start();
+    thread.join(1000L);
+    boolean blocked = thread.isAlive();
+    seeded.countDown();
+
+    assertFalse(blocked);
+    assertEquals(RandomPool.NONCE_LENGTH, nonce[0].length);
+    assertEquals(1, pool.getUnderruns());
+  }
+
+}
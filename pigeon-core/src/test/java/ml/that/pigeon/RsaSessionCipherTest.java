@@ -0,0 +1,104 @@
+package ml.that.pigeon;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import ml.that.pigeon.crypto.RsaSessionCipher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for {@link RsaSessionCipher}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class RsaSessionCipherTest {
+
+  private static final byte[] BODY = "position report".getBytes();
+
+  private RsaSessionCipher mClient;
+  private RsaSessionCipher mServer;
+
+  @Before
+  public void setUp() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    KeyPair server = generator.generateKeyPair();
+    KeyPair client = generator.generateKeyPair();
+
+    mClient = new RsaSessionCipher(server.getPublic(), client.getPrivate());
+    mServer = new RsaSessionCipher(client.getPublic(), server.getPrivate());
+  }
+
+  @Test
+  public void testWrappedKeySentUntilEstablished() throws Exception {
+    byte[] encrypted = mClient.encrypt(BODY, 0, BODY.length);
+
+    assertEquals(RsaSessionCipher.FLAG_KEY, encrypted[0]);
+    assertArrayEquals(BODY, mServer.decrypt(encrypted));
+  }
+
+  @Test
+  public void testSessionKeyReused() throws Exception {
+    byte[] first = mClient.encrypt(BODY, 0, BODY.length);
+    byte[] second = mClient.encrypt(BODY, 0, BODY.length);
+
+    // Same wrapped key, fresh IV
+    assertEquals(first.length, second.length);
+    assertArrayEquals(BODY, mServer.decrypt(first));
+    assertArrayEquals(BODY, mServer.decrypt(second));
+  }
+
+  @Test
+  public void testEncryptRange() throws Exception {
+    byte[] buf = new byte[BODY.length + 4];
+    System.arraycopy(BODY, 0, buf, 2, BODY.length);
+
+    assertArrayEquals(BODY, mServer.decrypt(mClient.encrypt(buf, 2, BODY.length)));
+  }
+
+  @Test
+  public void testLayout() throws Exception {
+    byte[] encrypted = mClient.encrypt(BODY, 0, BODY.length);
+    int keyLen = (encrypted[1] & 0xff) << 8 | (encrypted[2] & 0xff);
+
+    // OAEP wraps into the size of the modulus, the IV has 12 bytes and the tag 16
+    assertEquals(128, keyLen);
+    assertEquals(3 + keyLen + 12 + BODY.length + 16, encrypted.length);
+  }
+
+  @Test
+  public void testTamperedBodyRejected() throws Exception {
+    byte[] encrypted = mClient.encrypt(BODY, 0, BODY.length);
+    // Flips a bit of the ciphertext, which CBC would have decrypted to a different body
+    encrypted[encrypted.length - 16 - 1] ^= 0x01;
+
+    try {
+      mServer.decrypt(encrypted);
+      fail("Decrypted a tampered body.");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testDecryptWithoutSession() throws Exception {
+    // No wrapped key, but the server never established a session: flags, IV and tag
+    byte[] encrypted = new byte[1 + 12 + 16];
+
+    try {
+      mServer.decrypt(encrypted);
+      fail("Decrypted without session.");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+  }
+
+}
@@ -0,0 +1,179 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.SendCallback;
+import ml.that.pigeon.conn.SendFuture;
+import ml.that.pigeon.conn.SentMessageListener;
+import ml.that.pigeon.crypto.BodyCipher;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for {@link SendFuture}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class SendFutureTest {
+
+  private static final short MSG_ID = 0x0900;
+
+  @Test
+  public void testCompletedOnceWritten() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    Connection conn = new Connection(server.newConfiguration());
+    final CountDownLatch notified = new CountDownLatch(2);
+    final AtomicLong listened = new AtomicLong();
+    final AtomicReference<String> callbackThread = new AtomicReference<>();
+    conn.addSndListener(new SentMessageListener() {
+      @Override
+      public void processSent(Message msg, long sentTime) {
+        assertEquals(MSG_ID, msg.getId());
+        listened.set(sentTime);
+        notified.countDown();
+      }
+
+      @Override
+      public void processMessage(Message msg) {
+        fail("Not told the sent time.");
+      }
+    }, null);
+    try {
+      conn.connect();
+      server.accept();
+
+      long start = System.nanoTime();
+      SendFuture future = conn.sendMessage(MessageEncoder.obtain(MSG_ID).putInt(42));
+      future.addCallback(new SendCallback() {
+        @Override
+        public void onComplete(SendFuture future) {
+          callbackThread.set(Thread.currentThread().getName());
+          notified.countDown();
+        }
+      });
+      long sent = future.get(1, TimeUnit.SECONDS);
+      assertTrue(notified.await(1, TimeUnit.SECONDS));
+
+      assertTrue(sent >= start);
+      assertEquals(sent, listened.get());
+      assertTrue(future.isDone());
+      assertTrue(!callbackThread.get().startsWith("Pigeon Message Writer"));
+      assertEquals(MSG_ID, LoopbackServer.getId(server.readPacket()));
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testFlushedOnDisconnect() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    Connection conn = new Connection(server.newConfiguration());
+    try {
+      conn.connect();
+      server.accept();
+
+      SendFuture[] futures = new SendFuture[200];
+      for (int i = 0; i < futures.length; i++) {
+        futures[i] = conn.sendMessage(MessageEncoder.obtain(MSG_ID).putInt(i));
+      }
+      conn.disconnect();
+
+      for (SendFuture future : futures) {
+        assertTrue(future.get(1, TimeUnit.SECONDS) > 0);
+      }
+      for (int i = 0; i < futures.length; i++) {
+        assertNotNull(server.readPacket());
+      }
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testFailedOnceReset() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    Connection conn = new Connection(server.newConfiguration());
+    try {
+      conn.connect();
+      Socket socket = server.accept();
+      // Resets the connection, the writes fail once the reset is seen
+      socket.setSoLinger(true, 0);
+      socket.close();
+
+      Throwable failure = null;
+      for (int i = 0; i < 100 && failure == null; i++) {
+        SendFuture future = conn.sendMessage(MessageEncoder.obtain(MSG_ID).putInt(i));
+        try {
+          future.get(1, TimeUnit.SECONDS);
+          Thread.sleep(10);
+        } catch (ExecutionException ee) {
+          failure = ee.getCause();
+        }
+      }
+
+      assertTrue(failure instanceof IOException);
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testFailedEncryption() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    ConnectionConfiguration cfg = server.newConfiguration();
+    cfg.setBodyCipher(new BodyCipher() {
+      @Override
+      public byte[] encrypt(byte[] body, int off, int len) throws GeneralSecurityException {
+        throw new GeneralSecurityException("No key.");
+      }
+
+      @Override
+      public byte[] decrypt(byte[] body) throws GeneralSecurityException {
+        throw new GeneralSecurityException("No key.");
+      }
+
+      @Override
+      public void reset() {
+      }
+    });
+    Connection conn = new Connection(cfg);
+    try {
+      conn.connect();
+      SendFuture future = conn.sendMessage(
+          MessageEncoder.obtain(MSG_ID).cipher(Message.CIPHER_RSA).putInt(42));
+
+      assertTrue(future.isDone());
+      assertNotNull(future.getFailure());
+      try {
+        future.get();
+        fail("Not failed.");
+      } catch (ExecutionException ee) {
+        assertTrue(ee.getCause() instanceof GeneralSecurityException);
+      }
+    } finally {
+      conn.disconnect();
+      server.close();
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.util.StripedCounter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for {@link StripedCounter}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class StripedCounterTest {
+
+  @Test
+  public void testAdd() {
+    StripedCounter counter = new StripedCounter();
+    counter.increment();
+    counter.add(41);
+    counter.add(-2);
+
+    assertEquals(40, counter.sum());
+  }
+
+  @Test
+  public void testConcurrentAdds() throws Exception {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100000; j++) {
+            counter.increment();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(800000, counter.sum());
+  }
+
+}
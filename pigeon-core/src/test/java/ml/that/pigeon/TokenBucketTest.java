@@ -0,0 +1,58 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.util.TokenBucket;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for {@link TokenBucket}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class TokenBucketTest {
+
+  private static final long MS = 1000000L;
+
+  @Test
+  public void testBurstThenRate() {
+    // 10 tokens per second, so one every 100 ms
+    TokenBucket bucket = new TokenBucket(10, 3);
+    long now = 1000 * MS;
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, bucket.delay(1, now));
+      bucket.take(1, now);
+    }
+
+    assertEquals(100 * MS, bucket.delay(1, now));
+    assertEquals(40 * MS, bucket.delay(1, now + 60 * MS));
+    assertEquals(0, bucket.delay(1, now + 100 * MS));
+  }
+
+  @Test
+  public void testRefillCappedAtCapacity() {
+    TokenBucket bucket = new TokenBucket(10, 3);
+    bucket.take(3, 0);
+
+    assertEquals(3, bucket.getTokens(60000 * MS), 1e-9);
+  }
+
+  @Test
+  public void testDebtPaidBack() {
+    TokenBucket bucket = new TokenBucket(1000, 100);
+    // Larger than the capacity, only waits for a full bucket
+    assertEquals(0, bucket.delay(300, 0));
+    bucket.take(300, 0);
+
+    assertEquals(-200, bucket.getTokens(0), 1e-9);
+    assertEquals(201 * MS, bucket.delay(1, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalRate() {
+    new TokenBucket(0, 1);
+  }
+
+}
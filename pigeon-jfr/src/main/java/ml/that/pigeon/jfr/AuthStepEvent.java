@@ -0,0 +1,32 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A step of the authentication, from sending its message to its reply, failure or time out.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@Name("ml.that.pigeon.AuthStep")
+@Label("Authentication Step")
+@Category({ "Pigeon", "Authentication" })
+class AuthStepEvent extends Event {
+
+  @Label("Step")
+  String step;
+
+  @Label("Attempts")
+  int attempts;
+
+  @Label("Replied")
+  boolean replied;
+
+  @Label("Step Time")
+  @Timespan
+  long stepTime;
+
+}
@@ -0,0 +1,23 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Unsigned;
+
+/**
+ * A message dropped by a collector because its result queue was full.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@Name("ml.that.pigeon.CollectorDrop")
+@Label("Collector Drop")
+@Category({ "Pigeon", "Dispatch" })
+class CollectorDropEvent extends Event {
+
+  @Label("Message ID")
+  @Unsigned
+  short id;
+
+}
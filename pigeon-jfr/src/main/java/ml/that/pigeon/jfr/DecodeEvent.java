@@ -0,0 +1,33 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import jdk.jfr.Unsigned;
+
+/**
+ * A frame read from the server, unescaped, checked and decoded.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@Name("ml.that.pigeon.Decode")
+@Label("Frame Decode")
+@Category({ "Pigeon", "Codec" })
+class DecodeEvent extends Event {
+
+  @Label("Message ID")
+  @Unsigned
+  short id;
+
+  @Label("Length")
+  @DataAmount
+  int length;
+
+  @Label("Decode Time")
+  @Timespan
+  long decodeTime;
+
+}
@@ -0,0 +1,31 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import jdk.jfr.Unsigned;
+
+/**
+ * A message encrypted if needed and encoded into frames to send.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@Name("ml.that.pigeon.Encode")
+@Label("Message Encode")
+@Category({ "Pigeon", "Codec" })
+class EncodeEvent extends Event {
+
+  @Label("Message ID")
+  @Unsigned
+  short id;
+
+  @Label("Frames")
+  int frames;
+
+  @Label("Encode Time")
+  @Timespan
+  long encodeTime;
+
+}
@@ -0,0 +1,149 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import ml.that.pigeon.util.EventSink;
+import ml.that.pigeon.util.EventUtils;
+
+/**
+ * Reports the events of the library to the Java Flight Recorder, so the protocol activity shows
+ * up next to the pauses and the I/O of a recording.
+ * <p>
+ * Events are only measured by the library while a recording is running. They are committed when
+ * over, with their time as a field such as {@code decodeTime}: the thresholds of a recording do
+ * not apply to them, the time field should be filtered on instead. The events are in the "Pigeon"
+ * category, e.g. {@code ml.that.pigeon.Decode} and {@code ml.that.pigeon.AuthStep}. A simple usage
+ * might look like the following:
+ * <pre>
+ *   // Once, when the application starts
+ *   JfrEventSink.install();
+ * </pre>
+ * and then {@code jcmd <pid> JFR.start duration=60s filename=pigeon.jfr} on a running gateway.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class JfrEventSink implements EventSink {
+
+  private volatile boolean mEnabled = false;
+
+  /** Creates a sink following the state of the recordings. */
+  public JfrEventSink() {
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recordingStateChanged(Recording recording) {
+        update();
+      }
+    });
+    update();
+  }
+
+  /**
+   * Creates a sink and installs it as the sink of the library.
+   *
+   * @return the installed sink
+   */
+  public static JfrEventSink install() {
+    JfrEventSink sink = new JfrEventSink();
+    EventUtils.setSink(sink);
+    return sink;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return mEnabled;
+  }
+
+  @Override
+  public void onDecode(short id, int length, long duration) {
+    DecodeEvent event = new DecodeEvent();
+    if (event.isEnabled()) {
+      event.id = id;
+      event.length = length;
+      event.decodeTime = duration;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void onEncode(short id, int frames, long duration) {
+    EncodeEvent event = new EncodeEvent();
+    if (event.isEnabled()) {
+      event.id = id;
+      event.frames = frames;
+      event.encodeTime = duration;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void onWriteBatch(int frames, int bytes, long duration) {
+    WriteBatchEvent event = new WriteBatchEvent();
+    if (event.isEnabled()) {
+      event.frames = frames;
+      event.bytes = bytes;
+      event.writeTime = duration;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void onReadStall(int pending, long duration) {
+    ReadStallEvent event = new ReadStallEvent();
+    if (event.isEnabled()) {
+      event.pending = pending;
+      event.stallTime = duration;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void onCollectorDrop(short id) {
+    CollectorDropEvent event = new CollectorDropEvent();
+    if (event.isEnabled()) {
+      event.id = id;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void onListenerDispatch(Class<?> listener, short id, long duration) {
+    ListenerDispatchEvent event = new ListenerDispatchEvent();
+    if (event.isEnabled()) {
+      event.listener = listener;
+      event.id = id;
+      event.listenerTime = duration;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void onAuthStep(String step, int attempts, boolean replied, long duration) {
+    AuthStepEvent event = new AuthStepEvent();
+    if (event.isEnabled()) {
+      event.step = step;
+      event.attempts = attempts;
+      event.replied = replied;
+      event.stepTime = duration;
+      event.commit();
+    }
+  }
+
+  /** Enables the sink while a recording is running. */
+  private void update() {
+    boolean running = false;
+    // Asking for the recordings would start the recorder, which is only done by a recording
+    if (FlightRecorder.isInitialized()) {
+      for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+        if (recording.getState() == RecordingState.RUNNING) {
+          running = true;
+          break;
+        }
+      }
+    }
+    mEnabled = running;
+  }
+
+}
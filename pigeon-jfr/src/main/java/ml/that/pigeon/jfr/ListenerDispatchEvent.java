@@ -0,0 +1,31 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import jdk.jfr.Unsigned;
+
+/**
+ * A received message delivered to a listener.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@Name("ml.that.pigeon.ListenerDispatch")
+@Label("Listener Dispatch")
+@Category({ "Pigeon", "Dispatch" })
+class ListenerDispatchEvent extends Event {
+
+  @Label("Listener")
+  Class<?> listener;
+
+  @Label("Message ID")
+  @Unsigned
+  short id;
+
+  @Label("Listener Time")
+  @Timespan
+  long listenerTime;
+
+}
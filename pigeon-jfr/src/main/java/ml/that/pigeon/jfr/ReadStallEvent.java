@@ -0,0 +1,28 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The reader waiting for the rest of a frame it started to read.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@Name("ml.that.pigeon.ReadStall")
+@Label("Read Stall")
+@Category({ "Pigeon", "Transport" })
+class ReadStallEvent extends Event {
+
+  @Label("Pending Bytes")
+  @DataAmount
+  int pending;
+
+  @Label("Stall Time")
+  @Timespan
+  long stallTime;
+
+}
@@ -0,0 +1,31 @@
+package ml.that.pigeon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Frames written to the server back to back, followed by a single flush.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@Name("ml.that.pigeon.WriteBatch")
+@Label("Write Batch")
+@Category({ "Pigeon", "Transport" })
+class WriteBatchEvent extends Event {
+
+  @Label("Frames")
+  int frames;
+
+  @Label("Bytes")
+  @DataAmount
+  int bytes;
+
+  @Label("Write Time")
+  @Timespan
+  long writeTime;
+
+}
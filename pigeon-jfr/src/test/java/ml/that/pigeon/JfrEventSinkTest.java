@@ -0,0 +1,67 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import ml.that.pigeon.jfr.JfrEventSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link JfrEventSink}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class JfrEventSinkTest {
+
+  @Test
+  public void testEnabledWhileRecording() throws Exception {
+    JfrEventSink sink = new JfrEventSink();
+    assertFalse(sink.isEnabled());
+
+    Recording recording = new Recording();
+    recording.enable("ml.that.pigeon.Decode");
+    recording.enable("ml.that.pigeon.AuthStep");
+    recording.start();
+    try {
+      assertTrue(sink.isEnabled());
+      sink.onDecode((short) 0x8001, 17, 1234L);
+      sink.onAuthStep("challenge", 2, true, 5678L);
+    } finally {
+      recording.stop();
+    }
+    assertFalse(sink.isEnabled());
+
+    File file = File.createTempFile("pigeon", ".jfr");
+    try {
+      recording.dump(file.toPath());
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+
+      assertEquals(2, events.size());
+      for (RecordedEvent event : events) {
+        if ("ml.that.pigeon.Decode".equals(event.getEventType().getName())) {
+          assertEquals(0x8001, event.getInt("id"));
+          assertEquals(17, event.getInt("length"));
+          assertEquals(1234L, event.getLong("decodeTime"));
+        } else {
+          assertEquals("challenge", event.getString("step"));
+          assertEquals(2, event.getInt("attempts"));
+          assertTrue(event.getBoolean("replied"));
+        }
+      }
+    } finally {
+      recording.close();
+      file.delete();
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package ml.that.pigeon.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+import ml.that.pigeon.msg.Packet;
+import ml.that.pigeon.util.ArrayUtils;
+
+/**
+ * Benchmarks of {@link ArrayUtils} methods on the encoding and decoding paths.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@State(Scope.Thread)
+public class ArrayUtilsBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int size;
+
+  @Param({"0", "0.05", "0.5"})
+  public double escapeDensity;
+
+  private byte[] mPlain;
+  private byte[] mEscaped;
+  private byte[] mHead;
+  private byte[] mTail;
+
+  @Setup
+  public void setUp() {
+    mPlain = BenchmarkData.payload(size, escapeDensity);
+    mEscaped = ArrayUtils.escape(mPlain);
+    mHead = BenchmarkData.random(13);
+    mTail = new byte[]{0x7e};
+  }
+
+  @Benchmark
+  public byte[] escape() {
+    return ArrayUtils.escape(mPlain);
+  }
+
+  @Benchmark
+  public byte[] unescape() {
+    return ArrayUtils.unescape(mEscaped);
+  }
+
+  @Benchmark
+  public byte xorCheck() {
+    return ArrayUtils.xorCheck(mPlain);
+  }
+
+  @Benchmark
+  public byte[] concatenate() {
+    return ArrayUtils.concatenate(mHead, mPlain, mTail);
+  }
+
+  @Benchmark
+  public List<byte[]> divide() {
+    return ArrayUtils.divide(mPlain, Packet.MAX_LENGTH);
+  }
+
+}
@@ -0,0 +1,50 @@
+package ml.that.pigeon.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible inputs for the benchmarks.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+final class BenchmarkData {
+
+  static final byte[] PHONE = new byte[]{0x01, 0x38, 0x00, 0x13, (byte) 0x80, 0x00};
+
+  private static final long SEED = 0x5eedL;
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Creates a payload where roughly the specified fraction of bytes are flags or escape bytes,
+   * which are escaped to two bytes on the wire.
+   *
+   * @param len     the length of the payload
+   * @param density the fraction of bytes to be escaped, from 0 to 1
+   * @return the payload
+   */
+  static byte[] payload(int len, double density) {
+    Random random = new Random(SEED);
+    byte[] payload = new byte[len];
+    for (int i = 0; i < len; i++) {
+      if (random.nextDouble() < density) {
+        payload[i] = random.nextBoolean() ? (byte) 0x7e : (byte) 0x7d;
+      } else {
+        byte b;
+        do {
+          b = (byte) random.nextInt();
+        } while (b == 0x7e || b == 0x7d);
+        payload[i] = b;
+      }
+    }
+    return payload;
+  }
+
+  static byte[] random(int len) {
+    byte[] bytes = new byte[len];
+    new Random(SEED).nextBytes(bytes);
+    return bytes;
+  }
+
+}
@@ -0,0 +1,49 @@
+package ml.that.pigeon.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import ml.that.pigeon.util.IntegerUtils;
+
+/**
+ * Benchmarks of {@link IntegerUtils} conversions used by the message builders and parsers.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@State(Scope.Thread)
+public class IntegerUtilsBenchmark {
+
+  // Fields rather than constants, so the conversions are not folded by the compiler
+  private long   mPhone   = 13800138000L;
+  private byte[] mShort   = new byte[]{0x12, 0x34};
+  private byte[] mInt     = new byte[]{0x12, 0x34, 0x56, 0x78};
+  private byte[] mHalfInt = new byte[]{0x56, 0x78};
+  private byte[] mLong    = new byte[]{0x12, 0x34, 0x56, 0x78, (byte) 0x9a, (byte) 0xbc, 0x01, 0x02};
+
+  @Benchmark
+  public byte[] toBcd() {
+    return IntegerUtils.toBcd(mPhone);
+  }
+
+  @Benchmark
+  public short parseShort() {
+    return IntegerUtils.parseShort(mShort);
+  }
+
+  @Benchmark
+  public int parseInt() {
+    return IntegerUtils.parseInt(mInt);
+  }
+
+  @Benchmark
+  public int parseIntPadded() {
+    return IntegerUtils.parseInt(mHalfInt);
+  }
+
+  @Benchmark
+  public long parseLong() {
+    return IntegerUtils.parseLong(mLong);
+  }
+
+}
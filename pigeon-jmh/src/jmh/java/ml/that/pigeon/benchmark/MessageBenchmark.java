@@ -0,0 +1,39 @@
+package ml.that.pigeon.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.Packet;
+
+/**
+ * Benchmarks of fragmenting messages into packets.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+  // Below, at and above a single packet, then a long message of a few packets
+  @Param({"128", "1023", "1024", "8192"})
+  public int bodySize;
+
+  private Message mMessage;
+
+  @Setup
+  public void setUp() {
+    mMessage = new Message.Builder((short) 0x0200)
+        .body(BenchmarkData.payload(bodySize, 0.05))
+        .phone(BenchmarkData.PHONE)
+        .build();
+  }
+
+  @Benchmark
+  public Packet[] getPackets() {
+    return mMessage.getPackets();
+  }
+
+}
@@ -0,0 +1,70 @@
+package ml.that.pigeon.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ml.that.pigeon.msg.AuthenticateRequest;
+import ml.that.pigeon.msg.ChallengeResponse;
+import ml.that.pigeon.msg.HeartbeatMessage;
+import ml.that.pigeon.msg.LoginResponse;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.RegisterRequest;
+
+/**
+ * Benchmarks of the typed message builders.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@State(Scope.Thread)
+public class MessageBuilderBenchmark {
+
+  private byte[] mRandomA;
+  private byte[] mRandomB;
+
+  @Setup
+  public void setUp() {
+    mRandomA = BenchmarkData.random(16);
+    mRandomB = BenchmarkData.payload(16, 0.5);
+  }
+
+  @Benchmark
+  public Message buildHeartbeat() {
+    return new HeartbeatMessage.Builder()
+        .phone(BenchmarkData.PHONE)
+        .build();
+  }
+
+  @Benchmark
+  public Message buildRegisterRequest() {
+    return new RegisterRequest.Builder()
+        .provId((byte) 44)
+        .cityId((byte) 1)
+        .plateText("TEST")
+        .phone(BenchmarkData.PHONE)
+        .build();
+  }
+
+  @Benchmark
+  public Message buildAuthenticateRequest() {
+    return new AuthenticateRequest.Builder("0123456789abcdef")
+        .phone(BenchmarkData.PHONE)
+        .build();
+  }
+
+  @Benchmark
+  public Message buildChallengeResponse() {
+    return new ChallengeResponse.Builder((short) 1, "0123456789abcdef", mRandomA, mRandomB)
+        .phone(BenchmarkData.PHONE)
+        .build();
+  }
+
+  @Benchmark
+  public Message buildLoginResponse() {
+    return new LoginResponse.Builder()
+        .phone(BenchmarkData.PHONE)
+        .build();
+  }
+
+}
@@ -0,0 +1,96 @@
+package ml.that.pigeon.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.FrameBuffer;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageView;
+import ml.that.pigeon.msg.Packet;
+
+/**
+ * Benchmarks of encoding packets to frames and decoding frames read from the wire, across payload
+ * sizes and densities of bytes to be escaped.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+@State(Scope.Thread)
+public class PacketBenchmark {
+
+  @Param({"16", "256", "1023"})
+  public int payloadSize;
+
+  @Param({"0", "0.05", "0.5"})
+  public double escapeDensity;
+
+  private Packet mPacket;
+  // The escaped frame without the surrounding flags, as the reader passes it
+  private byte[] mWire;
+  // The escaped frame with the flags, as the deprecated packet constructor takes it
+  private byte[] mRaw;
+
+  @Setup
+  public void setUp() {
+    mPacket = new Packet((short) 0x0200,
+                         false,
+                         Message.CIPHER_NONE,
+                         BenchmarkData.PHONE,
+                         (short) 1,
+                         0,
+                         0,
+                         BenchmarkData.payload(payloadSize, escapeDensity));
+    mRaw = mPacket.getBytes();
+    mWire = new byte[mRaw.length - 2];
+    System.arraycopy(mRaw, 1, mWire, 0, mWire.length);
+  }
+
+  @Benchmark
+  public int encodeFrame() {
+    Frame frame = mPacket.toFrame();
+    int len = frame.length();
+    frame.recycle();
+    return len;
+  }
+
+  @Benchmark
+  public byte[] encodeBytes() {
+    return mPacket.getBytes();
+  }
+
+  @Benchmark
+  public short decodeView() {
+    FrameBuffer buf = FrameBuffer.obtain();
+    try {
+      if (!buf.unescape(mWire, 0, mWire.length)) {
+        throw new IllegalStateException("Illegal escape sequence.");
+      }
+      return MessageView.wrap(buf).getSn();
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Benchmark
+  public Packet decodeViewToPacket() {
+    FrameBuffer buf = FrameBuffer.obtain();
+    try {
+      if (!buf.unescape(mWire, 0, mWire.length)) {
+        throw new IllegalStateException("Illegal escape sequence.");
+      }
+      return MessageView.wrap(buf).toPacket();
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Benchmark
+  @SuppressWarnings("deprecation")
+  public Packet decodeLegacy() {
+    return new Packet(mRaw);
+  }
+
+}
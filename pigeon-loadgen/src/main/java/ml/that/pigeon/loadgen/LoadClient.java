@@ -0,0 +1,215 @@
+package ml.that.pigeon.loadgen;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ml.that.pigeon.conn.Connection;
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.conn.MessageCollector;
+import ml.that.pigeon.conn.MessageViewListener;
+import ml.that.pigeon.filter.MessageIdFilter;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageEncoder;
+import ml.that.pigeon.msg.MessageView;
+import ml.that.pigeon.msg.RegisterReply;
+import ml.that.pigeon.msg.RegisterRequest;
+import ml.that.pigeon.util.LatencyHistogram;
+import ml.that.pigeon.util.LogUtils;
+
+/**
+ * A single connection of the load, driven by the ticks of the load generator.
+ * <p>
+ * The first tick connects, registers and logs in, the following ones send a burst of echo
+ * requests stamped with the time they were sent. The round trip of each echo is recorded when the
+ * reply is read. If the connection fails, or no reply arrives for a while although messages are
+ * pending, it is reopened on the next tick. The messages lost with it are counted as dropped.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+class LoadClient implements MessageViewListener {
+
+  private static final String TAG = LogUtils.makeTag(LoadClient.class);
+
+  // Time to wait for the reply to the registration, in milliseconds
+  private static final long REGISTER_TIMEOUT = 5000L;
+
+  private final Connection        mConnection;
+  private final LoadConfiguration mLoad;
+  private final long              mStallTimeout;
+  private final byte[]            mPadding;
+  private final Random            mRandom;
+
+  // Guarded by itself, recorded by the reader thread of the connection
+  private final LatencyHistogram mLatency = new LatencyHistogram();
+
+  private final AtomicLong mSent       = new AtomicLong();
+  private final AtomicLong mReceived   = new AtomicLong();
+  private final AtomicLong mReconnects = new AtomicLong();
+  private final AtomicLong mFailures   = new AtomicLong();
+
+  // Time of the last echo or connection, or of the first message sent while nothing was pending
+  private volatile long    mLastProgress;
+  private volatile boolean mOnline = false;
+
+  // Only used by the ticks, which never run concurrently
+  private String  mAuthCode;
+  private boolean mWasOnline = false;
+
+  LoadClient(ConnectionConfiguration cfg, LoadConfiguration load, int index) {
+    mConnection = new Connection(cfg);
+    mConnection.addViewListener(this, StandInServer.ECHO_REPLY_ID);
+    mLoad = load;
+    mStallTimeout = TimeUnit.MILLISECONDS.toNanos(load.getStallTimeout());
+    mPadding = new byte[load.getMaxSize()];
+    mRandom = new Random(index);
+  }
+
+  /** Sends the next burst of messages, (re)connecting first if needed. */
+  void tick() {
+    try {
+      if (mOnline && mConnection.isSocketClosed()) {
+        LogUtils.w(TAG, "tick: Connection lost, reconnect.");
+        close();
+      } else if (mOnline && getPending() > 0 && System.nanoTime() - mLastProgress > mStallTimeout) {
+        LogUtils.w(TAG, "tick: No reply for {} pending messages, reconnect.", getPending());
+        close();
+      }
+      if (!mOnline) {
+        connect();
+      }
+
+      for (int i = 0; i < mLoad.getBurst(); i++) {
+        send();
+      }
+    } catch (IOException | IllegalStateException e) {
+      LogUtils.w(TAG, "tick: Connection failed.", e);
+      mFailures.incrementAndGet();
+      close();
+    }
+  }
+
+  /** Closes the connection, the messages pending on it are lost. */
+  void close() {
+    mOnline = false;
+    mConnection.disconnect();
+  }
+
+  @Override
+  public void processView(MessageView view) {
+    if (view.getBodyLength() < StandInServer.STAMP_LENGTH) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    long stamp = ((long) view.getBodyInt(0) << 32) | (view.getBodyInt(4) & 0xffffffffL);
+    synchronized (mLatency) {
+      mLatency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - stamp)));
+    }
+    mReceived.incrementAndGet();
+    mLastProgress = now;
+  }
+
+  /**
+   * Moves the latencies recorded since the last call into the specified histogram.
+   *
+   * @param dst the histogram to add the latencies to
+   */
+  void drainLatency(LatencyHistogram dst) {
+    synchronized (mLatency) {
+      dst.add(mLatency);
+      mLatency.reset();
+    }
+  }
+
+  boolean isOnline() {
+    return mOnline;
+  }
+
+  long getSent() {
+    return mSent.get();
+  }
+
+  long getReceived() {
+    return mReceived.get();
+  }
+
+  long getReconnects() {
+    return mReconnects.get();
+  }
+
+  long getFailures() {
+    return mFailures.get();
+  }
+
+  /**
+   * Returns the number of messages not echoed yet, including the ones lost with a previous
+   * connection.
+   *
+   * @return the number of pending messages
+   */
+  private long getPending() {
+    return mSent.get() - mReceived.get();
+  }
+
+  private void connect() throws IOException {
+    mConnection.connect();
+    mLastProgress = System.nanoTime();
+
+    if (mAuthCode == null) {
+      mAuthCode = register();
+    }
+    mConnection.login(mAuthCode);
+    if (!mConnection.isAuthenticated()) {
+      throw new IOException("Login failed.");
+    }
+
+    if (mWasOnline) {
+      mReconnects.incrementAndGet();
+    }
+    mWasOnline = true;
+    mOnline = true;
+  }
+
+  private String register() throws IOException {
+    MessageCollector collector =
+        mConnection.createMessageCollector(new MessageIdFilter(RegisterReply.ID));
+    try {
+      mConnection.sendMessage(new RegisterRequest.Builder().build());
+      Message msg = collector.nextResult(REGISTER_TIMEOUT);
+      if (msg == null) {
+        throw new IOException("No register reply from the server.");
+      }
+
+      RegisterReply reply = msg instanceof RegisterReply
+                            ? (RegisterReply) msg
+                            : new RegisterReply.Builder(msg).build();
+      if (reply.getResult() != RegisterReply.RESULT_OK) {
+        throw new IOException("Registration failed - " + reply.getResult());
+      }
+      return reply.getAuthCode();
+    } finally {
+      collector.cancel();
+    }
+  }
+
+  private void send() {
+    int size = mLoad.getMinSize();
+    if (mLoad.getMaxSize() > size) {
+      size += mRandom.nextInt(mLoad.getMaxSize() - size + 1);
+    }
+
+    long now = System.nanoTime();
+    MessageEncoder encoder = MessageEncoder.obtain(StandInServer.ECHO_REQUEST_ID)
+        .putInt((int) (now >>> 32))
+        .putInt((int) now)
+        .putBytes(mPadding, 0, size - StandInServer.STAMP_LENGTH);
+    if (getPending() == 0) {
+      mLastProgress = now;
+    }
+    mConnection.sendMessage(encoder);
+    mSent.incrementAndGet();
+  }
+
+}
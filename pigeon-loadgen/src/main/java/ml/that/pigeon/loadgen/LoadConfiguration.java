@@ -0,0 +1,163 @@
+package ml.that.pigeon.loadgen;
+
+/**
+ * The load generated by {@link LoadGenerator}: how many connections are opened, and how each of
+ * them sends messages.
+ * <p>
+ * Every connection sends {@link #getRate()} messages per second on average, in bursts of {@link
+ * #getBurst()} messages written back to back. The body size of each message is picked uniformly
+ * between {@link #getMinSize()} and {@link #getMaxSize()}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class LoadConfiguration {
+
+  // The server to connect to, or null to start a stand-in server in process
+  private String mHost = null;
+  private int    mPort = 0;
+
+  private int    mConnections = 10;
+  private double mRate        = 10;
+  private int    mBurst       = 1;
+  private int    mMinSize     = 64;
+  private int    mMaxSize     = 64;
+
+  // In seconds, the latencies of the warm-up are not reported
+  private int mDuration = 30;
+  private int mWarmUp   = 5;
+
+  // Time without any reply to a pending message after which a connection is considered lost, in
+  // milliseconds
+  private long mStallTimeout = 3000L;
+  // Interval at which the stand-in server closes its oldest connection, in milliseconds, or 0 to
+  // never close connections
+  private long mCloseInterval = 0L;
+
+  public String getHost() {
+    return mHost;
+  }
+
+  public int getPort() {
+    return mPort;
+  }
+
+  public void setServer(String host, int port) {
+    if (port < 0 || port > 0xffff) {
+      throw new IllegalArgumentException("Port out of range.");
+    }
+
+    mHost = host;
+    mPort = port;
+  }
+
+  public int getConnections() {
+    return mConnections;
+  }
+
+  public void setConnections(int connections) {
+    if (connections <= 0) {
+      throw new IllegalArgumentException("Connections must be positive.");
+    }
+
+    mConnections = connections;
+  }
+
+  public double getRate() {
+    return mRate;
+  }
+
+  public void setRate(double rate) {
+    if (rate <= 0) {
+      throw new IllegalArgumentException("Rate must be positive.");
+    }
+
+    mRate = rate;
+  }
+
+  public int getBurst() {
+    return mBurst;
+  }
+
+  public void setBurst(int burst) {
+    if (burst <= 0) {
+      throw new IllegalArgumentException("Burst must be positive.");
+    }
+
+    mBurst = burst;
+  }
+
+  public int getMinSize() {
+    return mMinSize;
+  }
+
+  public int getMaxSize() {
+    return mMaxSize;
+  }
+
+  /**
+   * Sets the range of the body sizes of the messages sent.
+   *
+   * @param min the minimum body size, at least {@link StandInServer#STAMP_LENGTH}
+   * @param max the maximum body size
+   */
+  public void setSize(int min, int max) {
+    if (min < StandInServer.STAMP_LENGTH) {
+      throw new IllegalArgumentException("Size must hold the stamp.");
+    }
+    if (max < min) {
+      throw new IllegalArgumentException("Maximum size is less than minimum size.");
+    }
+
+    mMinSize = min;
+    mMaxSize = max;
+  }
+
+  public int getDuration() {
+    return mDuration;
+  }
+
+  public void setDuration(int duration) {
+    if (duration <= 0) {
+      throw new IllegalArgumentException("Duration must be positive.");
+    }
+
+    mDuration = duration;
+  }
+
+  public int getWarmUp() {
+    return mWarmUp;
+  }
+
+  public void setWarmUp(int warmUp) {
+    if (warmUp < 0) {
+      throw new IllegalArgumentException("Warm-up is less than 0.");
+    }
+
+    mWarmUp = warmUp;
+  }
+
+  public long getStallTimeout() {
+    return mStallTimeout;
+  }
+
+  public void setStallTimeout(long timeout) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("Stall timeout must be positive.");
+    }
+
+    mStallTimeout = timeout;
+  }
+
+  public long getCloseInterval() {
+    return mCloseInterval;
+  }
+
+  public void setCloseInterval(long interval) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("Close interval is less than 0.");
+    }
+
+    mCloseInterval = interval;
+  }
+
+}
@@ -0,0 +1,345 @@
+package ml.that.pigeon.loadgen;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ml.that.pigeon.conn.ConnectionConfiguration;
+import ml.that.pigeon.util.LatencyHistogram;
+import ml.that.pigeon.util.LogUtils;
+
+/**
+ * Opens a number of connections to a JT/T808 server and drives messages through them at a given
+ * rate, reporting the round trip latencies, the throughput, the reconnections and the dropped
+ * messages. Unless a server is specified, a {@link StandInServer} is started in process, so a
+ * production load can be reproduced on a single machine.
+ * <p>
+ * The generator prints one line per second while running, and a {@link LoadReport} at the end. The
+ * options are described by running it with {@code --help}.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class LoadGenerator {
+
+  private static final String USAGE = ""
+      + "Usage: LoadGenerator [options]\n"
+      + "  --host <host>            server to load, a stand-in server is started if omitted\n"
+      + "  --port <port>            port of the server, or to listen on with --server\n"
+      + "  --connections <n>        number of connections (10)\n"
+      + "  --rate <n>               messages per second of each connection (10)\n"
+      + "  --burst <n>              messages sent back to back at each tick (1)\n"
+      + "  --size <n>[-<m>]         body size, or range of body sizes, in bytes (64)\n"
+      + "  --duration <s>           measured duration in seconds (30)\n"
+      + "  --warmup <s>             warm-up before measuring in seconds (5)\n"
+      + "  --stall-timeout <ms>     time without reply before reconnecting (3000)\n"
+      + "  --close-interval <ms>    interval at which the stand-in server closes a connection (0)\n"
+      + "  --server                 only run the stand-in server\n";
+
+  private static final long REPORT_INTERVAL = 1000L;
+
+  private final LoadConfiguration mLoad;
+  private final PrintStream       mOut;
+
+  /**
+   * Creates a generator of the specified load.
+   *
+   * @param load the load to generate
+   * @param out  the stream to print the progress to, or {@code null} to run silently
+   */
+  public LoadGenerator(LoadConfiguration load, PrintStream out) {
+    if (load == null) {
+      throw new NullPointerException("Load configuration is null.");
+    }
+
+    mLoad = load;
+    mOut = out;
+  }
+
+  public static void main(String[] args) throws Exception {
+    LoadConfiguration load = new LoadConfiguration();
+    boolean serverOnly;
+    try {
+      serverOnly = parse(args, load);
+    } catch (IllegalArgumentException iae) {
+      System.err.println(iae.getMessage());
+      System.err.print(USAGE);
+      System.exit(2);
+      return;
+    }
+
+    // Warnings only, the load would be slowed down by the logs
+    LogUtils.setLevel(LogUtils.WARN);
+
+    if (serverOnly) {
+      StandInServer server = new StandInServer(load.getPort());
+      server.start();
+      System.out.println("Stand-in server listening on port " + server.getPort());
+      Thread.sleep(Long.MAX_VALUE);
+      return;
+    }
+
+    LoadReport report = new LoadGenerator(load, System.out).run();
+    System.out.println();
+    report.print(System.out);
+    System.exit(0);
+  }
+
+  /**
+   * Runs the load until the warm-up and the duration have elapsed, then waits for the replies to
+   * the pending messages up to the stall timeout.
+   *
+   * @return the report of the run
+   * @throws IOException if the stand-in server cannot be started
+   */
+  public LoadReport run() throws IOException, InterruptedException {
+    StandInServer server = null;
+    String host = mLoad.getHost();
+    int port = mLoad.getPort();
+    if (host == null) {
+      server = new StandInServer(port);
+      server.start();
+      host = "127.0.0.1";
+      port = server.getPort();
+    }
+
+    int count = mLoad.getConnections();
+    List<LoadClient> clients = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ConnectionConfiguration cfg = new ConnectionConfiguration(host, port);
+      cfg.setReconnectionAllowed(false);
+      clients.add(new LoadClient(cfg, mLoad, i));
+    }
+
+    int threads = Math.min(count, Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+    ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(threads, new LoadThreadFactory());
+    try {
+      return measure(clients, schedule(scheduler, clients, server));
+    } finally {
+      scheduler.shutdownNow();
+      scheduler.awaitTermination(mLoad.getStallTimeout(), TimeUnit.MILLISECONDS);
+      for (LoadClient client : clients) {
+        client.close();
+      }
+      if (server != null) {
+        server.close();
+      }
+    }
+  }
+
+  /** Schedules the ticks of the clients spread over a period, and the closing of connections. */
+  private List<ScheduledFuture<?>> schedule(ScheduledExecutorService scheduler,
+                                            List<LoadClient> clients,
+                                            final StandInServer server) {
+    List<ScheduledFuture<?>> tasks = new ArrayList<>();
+    long period = (long) (TimeUnit.SECONDS.toNanos(mLoad.getBurst()) / mLoad.getRate());
+    for (int i = 0; i < clients.size(); i++) {
+      final LoadClient client = clients.get(i);
+      tasks.add(scheduler.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          client.tick();
+        }
+      }, period * i / clients.size(), period, TimeUnit.NANOSECONDS));
+    }
+
+    long interval = mLoad.getCloseInterval();
+    if (server != null && interval > 0) {
+      tasks.add(scheduler.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          server.closeOldest();
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS));
+    }
+    return tasks;
+  }
+
+  /** Reports the progress every second, and collects the report once the run is over. */
+  private LoadReport measure(List<LoadClient> clients, List<ScheduledFuture<?>> tasks)
+      throws InterruptedException {
+    LatencyHistogram interval = new LatencyHistogram();
+    LatencyHistogram total = new LatencyHistogram();
+
+    int seconds = mLoad.getWarmUp() + mLoad.getDuration();
+    long start = System.currentTimeMillis();
+    Totals last = new Totals(clients);
+    long measuredFrom = 0;
+    for (int second = 1; second <= seconds; second++) {
+      Thread.sleep(Math.max(0, start + second * REPORT_INTERVAL - System.currentTimeMillis()));
+
+      for (LoadClient client : clients) {
+        client.drainLatency(interval);
+      }
+      Totals now = new Totals(clients);
+      if (mOut != null) {
+        mOut.printf(Locale.US,
+                    "[%4ds]%s online %d/%d, sent %d/s, received %d/s, p50 %.3f ms, p99 %.3f ms, "
+                    + "max %.3f ms, reconnects %d%n",
+                    second,
+                    second <= mLoad.getWarmUp() ? " warm-up," : "",
+                    now.online,
+                    clients.size(),
+                    now.sent - last.sent,
+                    now.received - last.received,
+                    interval.getValueAtPercentile(50) / 1000.0,
+                    interval.getValueAtPercentile(99) / 1000.0,
+                    interval.getMaxValue() / 1000.0,
+                    now.reconnects);
+      }
+      if (second > mLoad.getWarmUp()) {
+        total.add(interval);
+      } else {
+        measuredFrom = now.received;
+      }
+      interval.reset();
+      last = now;
+    }
+    long measured = last.received - measuredFrom;
+
+    // Stop sending, and give the pending messages a chance to be echoed
+    for (ScheduledFuture<?> task : tasks) {
+      task.cancel(false);
+    }
+    long deadline = System.currentTimeMillis() + mLoad.getStallTimeout();
+    Totals end = new Totals(clients);
+    while (end.received < end.sent && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+      end = new Totals(clients);
+    }
+    for (LoadClient client : clients) {
+      client.drainLatency(total);
+    }
+
+    return new LoadReport(clients.size(),
+                          mLoad.getDuration(),
+                          end.sent,
+                          end.received,
+                          measured,
+                          end.reconnects,
+                          end.failures,
+                          total);
+  }
+
+  /**
+   * Parses the command line options into the specified configuration.
+   *
+   * @return true if only the stand-in server should be run
+   * @throws IllegalArgumentException if an option is unknown or its value is illegal
+   */
+  static boolean parse(String[] args, LoadConfiguration load) {
+    boolean serverOnly = false;
+    String host = null;
+    int port = 0;
+    for (int i = 0; i < args.length; i++) {
+      String option = args[i];
+      if ("--server".equals(option)) {
+        serverOnly = true;
+        continue;
+      }
+      if ("--help".equals(option)) {
+        throw new IllegalArgumentException("Load generator of JT/T808 connections.");
+      }
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value of " + option);
+      }
+
+      String value = args[++i];
+      try {
+        switch (option) {
+          case "--host":
+            host = value;
+            break;
+          case "--port":
+            port = Integer.parseInt(value);
+            break;
+          case "--connections":
+            load.setConnections(Integer.parseInt(value));
+            break;
+          case "--rate":
+            load.setRate(Double.parseDouble(value));
+            break;
+          case "--burst":
+            load.setBurst(Integer.parseInt(value));
+            break;
+          case "--size":
+            int dash = value.indexOf('-');
+            if (dash < 0) {
+              load.setSize(Integer.parseInt(value), Integer.parseInt(value));
+            } else {
+              load.setSize(Integer.parseInt(value.substring(0, dash)),
+                           Integer.parseInt(value.substring(dash + 1)));
+            }
+            break;
+          case "--duration":
+            load.setDuration(Integer.parseInt(value));
+            break;
+          case "--warmup":
+            load.setWarmUp(Integer.parseInt(value));
+            break;
+          case "--stall-timeout":
+            load.setStallTimeout(Long.parseLong(value));
+            break;
+          case "--close-interval":
+            load.setCloseInterval(Long.parseLong(value));
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + option);
+        }
+      } catch (NumberFormatException nfe) {
+        throw new IllegalArgumentException("Illegal value of " + option + " - " + value);
+      }
+    }
+
+    if (host != null || port != 0) {
+      load.setServer(host, port);
+    }
+    return serverOnly;
+  }
+
+  /** The counters of all the clients at a point in time. */
+  private static class Totals {
+
+    long sent;
+    long received;
+    long reconnects;
+    long failures;
+    int  online;
+
+    Totals(List<LoadClient> clients) {
+      for (LoadClient client : clients) {
+        sent += client.getSent();
+        received += client.getReceived();
+        reconnects += client.getReconnects();
+        failures += client.getFailures();
+        if (client.isOnline()) {
+          online++;
+        }
+      }
+    }
+
+  }
+
+  /** Creates the daemon threads driving the clients. */
+  private static class LoadThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "Pigeon Load #" + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
@@ -0,0 +1,110 @@
+package ml.that.pigeon.loadgen;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import ml.that.pigeon.util.LatencyHistogram;
+
+/**
+ * The outcome of a load run. Latencies and throughput only cover the measured part of the run,
+ * after the warm-up, while the message counts cover the whole run.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class LoadReport {
+
+  private static final double[] PERCENTILES = new double[]{ 50, 90, 99, 99.9, 99.99 };
+
+  private final int              mConnections;
+  private final int              mDuration;
+  private final long             mSent;
+  private final long             mReceived;
+  private final long             mMeasured;
+  private final long             mReconnects;
+  private final long             mFailures;
+  private final LatencyHistogram mLatency;
+
+  LoadReport(int connections,
+             int duration,
+             long sent,
+             long received,
+             long measured,
+             long reconnects,
+             long failures,
+             LatencyHistogram latency) {
+    mConnections = connections;
+    mDuration = duration;
+    mSent = sent;
+    mReceived = received;
+    mMeasured = measured;
+    mReconnects = reconnects;
+    mFailures = failures;
+    mLatency = latency;
+  }
+
+  public long getSent() {
+    return mSent;
+  }
+
+  public long getReceived() {
+    return mReceived;
+  }
+
+  /**
+   * Returns the number of messages never echoed, including the ones pending on lost connections.
+   *
+   * @return the number of dropped messages
+   */
+  public long getDropped() {
+    return mSent - mReceived;
+  }
+
+  public long getReconnects() {
+    return mReconnects;
+  }
+
+  public long getFailures() {
+    return mFailures;
+  }
+
+  /**
+   * Returns the number of messages echoed per second after the warm-up.
+   *
+   * @return the throughput
+   */
+  public double getThroughput() {
+    return (double) mMeasured / mDuration;
+  }
+
+  /**
+   * Returns the round trip latencies measured after the warm-up, in microseconds.
+   *
+   * @return the latencies
+   */
+  public LatencyHistogram getLatency() {
+    return mLatency;
+  }
+
+  public void print(PrintStream out) {
+    out.printf(Locale.US, "connections  %d%n", mConnections);
+    out.printf(Locale.US, "sent         %d%n", mSent);
+    out.printf(Locale.US, "received     %d%n", mReceived);
+    out.printf(Locale.US, "dropped      %d%n", getDropped());
+    out.printf(Locale.US, "reconnects   %d%n", mReconnects);
+    out.printf(Locale.US, "failures     %d%n", mFailures);
+    out.printf(Locale.US, "throughput   %.1f msg/s%n", getThroughput());
+    out.printf(Locale.US, "latency      %d samples, mean %.3f ms, min %.3f ms, max %.3f ms%n",
+               mLatency.getTotalCount(),
+               mLatency.getMean() / 1000,
+               mLatency.getMinValue() / 1000.0,
+               mLatency.getMaxValue() / 1000.0);
+    for (double percentile : PERCENTILES) {
+      out.printf(Locale.US, "  p%-8s  %.3f ms%n",
+                 percentile == (long) percentile
+                 ? String.valueOf((long) percentile)
+                 : String.valueOf(percentile),
+                 mLatency.getValueAtPercentile(percentile) / 1000.0);
+    }
+  }
+
+}
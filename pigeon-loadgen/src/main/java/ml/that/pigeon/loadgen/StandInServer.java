@@ -0,0 +1,328 @@
+package ml.that.pigeon.loadgen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ml.that.pigeon.msg.AuthenticateRequest;
+import ml.that.pigeon.msg.ChallengeCommand;
+import ml.that.pigeon.msg.ChallengeResponse;
+import ml.that.pigeon.msg.Frame;
+import ml.that.pigeon.msg.FrameBuffer;
+import ml.that.pigeon.msg.LoginCommand;
+import ml.that.pigeon.msg.LoginResponse;
+import ml.that.pigeon.msg.Message;
+import ml.that.pigeon.msg.MessageView;
+import ml.that.pigeon.msg.RegisterReply;
+import ml.that.pigeon.msg.RegisterRequest;
+import ml.that.pigeon.msg.ServerGenericReply;
+import ml.that.pigeon.util.CryptoUtils;
+import ml.that.pigeon.util.LogUtils;
+
+/**
+ * An in-process stand-in for a JT/T808 server, listening on the loopback interface.
+ * <p>
+ * It speaks just enough of the protocol to drive clients through the flow used by the connection
+ * manager and {@link ml.that.pigeon.auth.AdvancedAuthentication}: every registration is accepted,
+ * every authenticate request is challenged and every challenge response is accepted. Messages with
+ * the ID {@link #ECHO_REQUEST_ID} have the first {@link #STAMP_LENGTH} bytes of their body echoed
+ * back in a {@link #ECHO_REPLY_ID} message, so clients can measure the round trip. Any other
+ * message is acknowledged with a server generic reply.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class StandInServer {
+
+  private static final String TAG = LogUtils.makeTag(StandInServer.class);
+
+  /** The ID of the upstream pass-through messages echoed by the server. */
+  public static final short ECHO_REQUEST_ID = 0x0900;
+  /** The ID of the downstream pass-through messages carrying the echo. */
+  public static final short ECHO_REPLY_ID   = (short) 0x8900;
+
+  /** The number of leading body bytes echoed back. */
+  public static final int STAMP_LENGTH = 8;
+
+  // The server key at index 0, as known by the clients
+  private static final String SVR_KEY = "0123456789ABCDEF";
+
+  private static final byte FLAG         = 0x7e;
+  private static final int  BUFFER_SIZE  = 4096;
+  private static final int  RANDOM_BYTES = 16;
+
+  private final ServerSocket   mServerSocket;
+  private final Queue<Session> mSessions     = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger  mSessionIndex = new AtomicInteger();
+  private final AtomicInteger  mAuthCodes    = new AtomicInteger();
+  private final AtomicLong     mLogins       = new AtomicLong();
+  private final AtomicLong     mEchoes       = new AtomicLong();
+  private final SecureRandom   mRandom       = new SecureRandom();
+
+  private Thread mAcceptThread;
+
+  private volatile boolean mClosed = false;
+
+  /**
+   * Creates a server listening on the specified port of the loopback interface.
+   *
+   * @param port the port, or {@code 0} for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public StandInServer(int port) throws IOException {
+    mServerSocket = new ServerSocket(port, 1024, InetAddress.getByName(null));
+  }
+
+  /** Starts accepting connections. */
+  public synchronized void start() {
+    if (mAcceptThread != null) {
+      throw new IllegalStateException("Server started already.");
+    }
+
+    mAcceptThread = new Thread() {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    };
+    mAcceptThread.setName("Stand-in Server Acceptor");
+    mAcceptThread.setDaemon(true);
+    mAcceptThread.start();
+  }
+
+  /** Stops accepting connections, and closes all the open ones. */
+  public void close() {
+    mClosed = true;
+    try {
+      mServerSocket.close();
+    } catch (IOException ioe) {
+      // Ignore
+    }
+    Session session;
+    while ((session = mSessions.poll()) != null) {
+      session.close();
+    }
+  }
+
+  /**
+   * Closes the oldest open connection, as a failure of the network or the server would.
+   *
+   * @return false if no connection was open
+   */
+  public boolean closeOldest() {
+    Session session = mSessions.poll();
+    if (session == null) {
+      return false;
+    }
+    session.close();
+    return true;
+  }
+
+  public int getPort() {
+    return mServerSocket.getLocalPort();
+  }
+
+  public int getSessionCount() {
+    return mSessions.size();
+  }
+
+  public long getLogins() {
+    return mLogins.get();
+  }
+
+  public long getEchoes() {
+    return mEchoes.get();
+  }
+
+  private void acceptConnections() {
+    while (!mClosed) {
+      try {
+        Socket socket = mServerSocket.accept();
+        socket.setTcpNoDelay(true);
+        Session session = new Session(socket, mSessionIndex.incrementAndGet());
+        mSessions.add(session);
+        session.start();
+      } catch (IOException ioe) {
+        if (!mClosed) {
+          LogUtils.w(TAG, "acceptConnections: Accept connection failed.", ioe);
+        }
+      }
+    }
+  }
+
+  private byte[] encryptRandom() throws GeneralSecurityException {
+    byte[] random = new byte[RANDOM_BYTES];
+    mRandom.nextBytes(random);
+    return CryptoUtils.encrypt(random, SVR_KEY);
+  }
+
+  /** A connection from a client, served by its own thread. */
+  private class Session extends Thread {
+
+    private final Socket       mSocket;
+    private final InputStream  mInput;
+    private final OutputStream mOutput;
+
+    // Only used by the session thread
+    private short mSn = 0;
+
+    Session(Socket socket, int index) throws IOException {
+      mSocket = socket;
+      mInput = socket.getInputStream();
+      mOutput = socket.getOutputStream();
+      setName("Stand-in Server Session #" + index);
+      setDaemon(true);
+    }
+
+    void close() {
+      try {
+        mSocket.close();
+      } catch (IOException ioe) {
+        // Ignore
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        readFrames();
+      } catch (IOException ioe) {
+        // The connection was closed by either side
+      } finally {
+        mSessions.remove(this);
+        close();
+      }
+    }
+
+    /** Splits the stream into frames, the same way as the message reader of the clients. */
+    private void readFrames() throws IOException {
+      byte[] buf = new byte[BUFFER_SIZE];
+      byte[] frame = new byte[FrameBuffer.CAPACITY * 2];
+      int frameLen = -1;
+      int len;
+      while ((len = mInput.read(buf)) != -1) {
+        for (int i = 0; i < len; i++) {
+          if (buf[i] == FLAG) {
+            if (frameLen > 0) {
+              processFrame(frame, frameLen);
+            }
+            frameLen = 0;
+          } else if (frameLen >= frame.length) {
+            frameLen = -1;
+          } else if (frameLen >= 0) {
+            frame[frameLen++] = buf[i];
+          }
+        }
+      }
+    }
+
+    private void processFrame(byte[] frame, int len) throws IOException {
+      FrameBuffer buf = FrameBuffer.obtain();
+      try {
+        if (!buf.unescape(frame, 0, len)) {
+          LogUtils.w(TAG, "processFrame: Illegal escape sequence, frame dropped.");
+          return;
+        }
+        MessageView view;
+        try {
+          view = MessageView.wrap(buf);
+        } catch (IllegalArgumentException iae) {
+          LogUtils.w(TAG, "processFrame: Illegal frame dropped.", iae);
+          return;
+        }
+        reply(view);
+      } catch (GeneralSecurityException gse) {
+        LogUtils.e(TAG, "processFrame: Encrypt random number failed.", gse);
+      } finally {
+        buf.release();
+      }
+    }
+
+    private void reply(MessageView view) throws IOException, GeneralSecurityException {
+      short id = view.getId();
+      switch (id) {
+        case ECHO_REQUEST_ID:
+          // Only the first packet of a long message carries the stamp
+          if (!view.isLong() || view.getIndex() <= 1) {
+            byte[] stamp = new byte[STAMP_LENGTH];
+            view.getBody(0, stamp, 0, Math.min(STAMP_LENGTH, view.getBodyLength()));
+            send(ECHO_REPLY_ID, stamp);
+            mEchoes.incrementAndGet();
+          }
+          break;
+        case RegisterRequest.ID:
+          byte[] code = ("AUTH" + mAuthCodes.incrementAndGet()).getBytes("ascii");
+          byte[] reg = new byte[3 + code.length];
+          putShort(reg, 0, view.getSn());
+          reg[2] = RegisterReply.RESULT_OK;
+          System.arraycopy(code, 0, reg, 3, code.length);
+          send(RegisterReply.ID, reg);
+          break;
+        case AuthenticateRequest.ID:
+          byte[] rdmA = encryptRandom();
+          byte[] challenge = new byte[5 + rdmA.length];
+          challenge[0] = ChallengeCommand.ALGORITHM_AES128;
+          // Server and client key indexes are both 0
+          System.arraycopy(rdmA, 0, challenge, 5, rdmA.length);
+          send(ChallengeCommand.ID, challenge);
+          break;
+        case ChallengeResponse.ID:
+          byte[] time = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US)
+              .format(new Date()).concat("00").getBytes("ascii");
+          byte[] svrChk = encryptRandom();
+          byte[] login = new byte[1 + time.length + svrChk.length];
+          login[0] = LoginCommand.RESULT_OK;
+          System.arraycopy(time, 0, login, 1, time.length);
+          System.arraycopy(svrChk, 0, login, 1 + time.length, svrChk.length);
+          send(LoginCommand.ID, login);
+          break;
+        case LoginResponse.ID:
+          mLogins.incrementAndGet();
+          break;
+        default:
+          byte[] ack = new byte[5];
+          putShort(ack, 0, view.getSn());
+          putShort(ack, 2, id);
+          ack[4] = ServerGenericReply.RESULT_OK;
+          send(ServerGenericReply.ID, ack);
+      }
+    }
+
+    private void send(short id, byte[] body) throws IOException {
+      Frame frame = Frame.obtain().encode(id,
+                                          false,
+                                          Message.CIPHER_NONE,
+                                          Message.EMPTY_PHONE,
+                                          mSn++,
+                                          (short) 0,
+                                          (short) 0,
+                                          body,
+                                          0,
+                                          body.length);
+      try {
+        mOutput.write(frame.array(), 0, frame.length());
+        mOutput.flush();
+      } finally {
+        frame.recycle();
+      }
+    }
+
+    private void putShort(byte[] dst, int off, short s) {
+      dst[off] = (byte) (s >> 8);
+      dst[off + 1] = (byte) s;
+    }
+
+  }
+
+}
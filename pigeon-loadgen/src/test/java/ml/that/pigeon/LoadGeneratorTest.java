@@ -0,0 +1,52 @@
+package ml.that.pigeon;
+
+import org.junit.Test;
+
+import ml.that.pigeon.loadgen.LoadConfiguration;
+import ml.that.pigeon.loadgen.LoadGenerator;
+import ml.that.pigeon.loadgen.LoadReport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link LoadGenerator}, will execute on the development machine (host).
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+public class LoadGeneratorTest {
+
+  @Test
+  public void testEchoesThroughStandInServer() throws Exception {
+    LoadConfiguration load = new LoadConfiguration();
+    load.setConnections(2);
+    load.setRate(20);
+    load.setSize(8, 2048);
+    load.setWarmUp(0);
+    load.setDuration(1);
+
+    LoadReport report = new LoadGenerator(load, null).run();
+
+    assertTrue(report.getSent() > 0);
+    assertEquals(0, report.getDropped());
+    assertEquals(0, report.getFailures());
+    assertEquals(report.getReceived(), report.getLatency().getTotalCount());
+  }
+
+  @Test
+  public void testReconnectsWhenServerClosesConnections() throws Exception {
+    LoadConfiguration load = new LoadConfiguration();
+    load.setConnections(2);
+    load.setRate(50);
+    load.setWarmUp(0);
+    load.setDuration(2);
+    load.setCloseInterval(500L);
+
+    LoadReport report = new LoadGenerator(load, null).run();
+
+    assertTrue(report.getReconnects() > 0);
+    assertTrue(report.getReceived() > 0);
+  }
+
+}
@@ -14,6 +14,10 @@ public class ClientConstants {
   public static final String PREF_KEY_PORT      = "port";
   public static final String PREF_KEY_AUTH_CODE = "auth_code";
 
+  // Prefixes of the preference keys of the heartbeat intervals learnt, see KeepAlivePrefs
+  public static final String PREF_KEY_KEEP_ALIVE_INTERVAL = "keep_alive_interval";
+  public static final String PREF_KEY_KEEP_ALIVE_LIMIT    = "keep_alive_limit";
+
   // Preference defaults
   public static final String PREF_DEFAULT_HOST      = "10.1.5.21";
   public static final int    PREF_DEFAULT_PORT      = 29930;
@@ -32,6 +32,7 @@ public class ConnectionManager {
   private String            mHost;
   private int               mPort;
   private String            mAuthCode;
+  private KeepAlivePrefs    mKeepAlivePrefs;
 
   private Connection mConnection;
 
@@ -47,6 +48,7 @@ public class ConnectionManager {
     mHost = mPrefs.getString(ClientConstants.PREF_KEY_HOST, ClientConstants.PREF_DEFAULT_HOST);
     mPort = mPrefs.getInt(ClientConstants.PREF_KEY_PORT, ClientConstants.PREF_DEFAULT_PORT);
     mAuthCode = mPrefs.getString(ClientConstants.PREF_KEY_AUTH_CODE, null);
+    mKeepAlivePrefs = new KeepAlivePrefs(svc, mPrefs);
 
     mTasks = new ArrayList<>();
     mSubmitter = svc.getSubmitter();
@@ -124,6 +126,7 @@ public class ConnectionManager {
       if (!isConnected()) {
         // Create the configuration for this new connection
         ConnectionConfiguration cfg = new ConnectionConfiguration(mHost, mPort);
+        cfg.setKeepAliveStore(mKeepAlivePrefs);
         // Create a new connection
         mConnection = new Connection(cfg);
         // Connect to the server
@@ -187,7 +190,9 @@ public class ConnectionManager {
       Log.d(TAG, "processMessage: msg=" + msg);
 
       if (RegisterReply.ID == msg.getId()) {
-        RegisterReply reply = new RegisterReply.Builder(msg).build();
+        RegisterReply reply = msg instanceof RegisterReply
+                              ? (RegisterReply) msg
+                              : new RegisterReply.Builder(msg).build();
         switch (reply.getResult()) {
           case RegisterReply.RESULT_OK:
             mAuthCode = reply.getAuthCode();
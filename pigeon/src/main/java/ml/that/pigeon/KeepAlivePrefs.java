@@ -0,0 +1,56 @@
+package ml.that.pigeon;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import ml.that.pigeon.conn.KeepAliveStore;
+
+/**
+ * Persists the heartbeat intervals learnt into the shared preferences, keyed by endpoint and by
+ * the network the device is on: the type of the active network and its APN or SSID.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class KeepAlivePrefs implements KeepAliveStore {
+
+  private final SharedPreferences   mPrefs;
+  private final ConnectivityManager mConnMgr;
+
+  public KeepAlivePrefs(Context context, SharedPreferences prefs) {
+    mPrefs = prefs;
+    mConnMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+  }
+
+  @Override
+  public String getNetwork() {
+    NetworkInfo info = mConnMgr.getActiveNetworkInfo();
+    return info == null ? "none" : info.getTypeName() + "/" + info.getExtraInfo();
+  }
+
+  @Override
+  public long getInterval(String network, String endpoint) {
+    return mPrefs.getLong(key(ClientConstants.PREF_KEY_KEEP_ALIVE_INTERVAL, network, endpoint),
+                          -1);
+  }
+
+  @Override
+  public long getLimit(String network, String endpoint) {
+    return mPrefs.getLong(key(ClientConstants.PREF_KEY_KEEP_ALIVE_LIMIT, network, endpoint), -1);
+  }
+
+  @Override
+  public void put(String network, String endpoint, long interval, long limit) {
+    mPrefs.edit()
+          .putLong(key(ClientConstants.PREF_KEY_KEEP_ALIVE_INTERVAL, network, endpoint), interval)
+          .putLong(key(ClientConstants.PREF_KEY_KEEP_ALIVE_LIMIT, network, endpoint), limit)
+          .apply();
+  }
+
+  /** Returns the preference key of a value learnt with the endpoint on the network. */
+  private static String key(String name, String network, String endpoint) {
+    return name + "/" + network + "/" + endpoint;
+  }
+
+}
@@ -11,8 +11,10 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import ml.that.pigeon.util.AndroidLogBackend;
 import ml.that.pigeon.util.IntentUtils;
 import ml.that.pigeon.util.LogUtils;
+import ml.that.pigeon.util.RandomPool;
 
 /**
  * Service that continues to run in background and send and receive messages from the server.
@@ -49,6 +51,10 @@ public class MessageService extends Service {
     Log.d(TAG, "onCreate: ");
     super.onCreate();
 
+    LogUtils.setBackend(new AndroidLogBackend());
+    // Seeds the login nonces while the process starts up
+    RandomPool.start();
+
     mPrefs = getSharedPreferences(ClientConstants.PREF_FILE_NAME, MODE_PRIVATE);
     mConnMgr = new ConnectionManager(this);
 
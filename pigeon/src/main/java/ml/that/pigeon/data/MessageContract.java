@@ -30,6 +30,12 @@ public class MessageContract {
     public static final String COLUMN_PHONE_NUMBER = "phone";
     public static final String COLUMN_MESSAGE_BODY = "msg_body";
     public static final String COLUMN_UPLOADED     = "uploaded";
+    public static final String COLUMN_BODY_CODEC   = "body_codec";
+
+    // Codecs of the message body column, rows written before the codec column existed are null
+    // and read as CODEC_NONE
+    public static final int CODEC_NONE    = 0;
+    public static final int CODEC_DEFLATE = 1;
 
     public static Uri buildUri(long id) {
       return ContentUris.withAppendedId(CONTENT_URI, id);
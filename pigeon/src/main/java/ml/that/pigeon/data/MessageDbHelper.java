@@ -8,7 +8,7 @@ import ml.that.pigeon.data.MessageContract.MessageEntry;
 
 public class MessageDbHelper extends SQLiteOpenHelper {
 
-  private static final int DATABASE_VERSION = 1;
+  private static final int DATABASE_VERSION = 2;
 
   private static final String DATABASE_NAME = "message.db";
 
@@ -23,13 +23,18 @@ public class MessageDbHelper extends SQLiteOpenHelper {
                                             + MessageEntry.COLUMN_MESSAGE_ID + " INTEGER, "
                                             + MessageEntry.COLUMN_PHONE_NUMBER + " BLOB, "
                                             + MessageEntry.COLUMN_MESSAGE_BODY + " BLOB, "
-                                            + MessageEntry.COLUMN_UPLOADED + " INTEGER );";
+                                            + MessageEntry.COLUMN_UPLOADED + " INTEGER, "
+                                            + MessageEntry.COLUMN_BODY_CODEC + " INTEGER );";
     db.execSQL(SQL_CREATE_MESSAGE_TABLE);
   }
 
   @Override
-  public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-    // TODO: 10/30/2016 implement this method
+  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    if (oldVersion < 2) {
+      // Existing rows keep their raw bodies, a null codec is read as none
+      db.execSQL("ALTER TABLE " + MessageEntry.TABLE_NAME
+                 + " ADD COLUMN " + MessageEntry.COLUMN_BODY_CODEC + " INTEGER;");
+    }
   }
 
 }
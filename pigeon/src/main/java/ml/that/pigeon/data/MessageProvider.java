@@ -4,17 +4,24 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 
+import java.util.Arrays;
+
 import ml.that.pigeon.data.MessageContract.MessageEntry;
+import ml.that.pigeon.util.CompressionUtils;
 
 public class MessageProvider extends ContentProvider {
 
   private static final int MESSAGE_DIR  = 0;
   private static final int MESSAGE_ITEM = 1;
 
+  // Bodies shorter than this rarely get smaller when compressed
+  private static final int MIN_COMPRESS_LENGTH = 16;
+
   private static UriMatcher sMatcher;
 
   private MessageDbHelper mDbHelper;
@@ -39,7 +46,7 @@ public class MessageProvider extends ContentProvider {
     switch (sMatcher.match(uri)) {
       case MESSAGE_DIR:
       case MESSAGE_ITEM:
-        long id = db.insert(MessageEntry.TABLE_NAME, null, values);
+        long id = db.insert(MessageEntry.TABLE_NAME, null, encodeBody(values));
         returnUri = Uri.parse(MessageContract.CONTENT_AUTHORITY
                               + "/" + MessageContract.PATH_MESSAGE
                               + "/" + id);
@@ -80,7 +87,7 @@ public class MessageProvider extends ContentProvider {
     switch (sMatcher.match(uri)) {
       case MESSAGE_DIR:
         c = db.query(MessageEntry.TABLE_NAME,
-                     projection,
+                     withCodec(projection),
                      selection,
                      selectionArgs,
                      null,
@@ -90,7 +97,7 @@ public class MessageProvider extends ContentProvider {
       case MESSAGE_ITEM:
         String id = uri.getPathSegments().get(1);
         c = db.query(MessageEntry.TABLE_NAME,
-                     projection,
+                     withCodec(projection),
                      "id = ?",
                      new String[]{ id },
                      null,
@@ -100,7 +107,7 @@ public class MessageProvider extends ContentProvider {
       default:
     }
     db.close();
-    return c;
+    return c != null ? new BodyDecodingCursor(c) : null;
   }
 
   @Override
@@ -109,11 +116,17 @@ public class MessageProvider extends ContentProvider {
     int updatedRows = 0;
     switch (sMatcher.match(uri)) {
       case MESSAGE_DIR:
-        updatedRows = db.update(MessageContract.PATH_MESSAGE, values, selection, selectionArgs);
+        updatedRows = db.update(MessageContract.PATH_MESSAGE,
+                                encodeBody(values),
+                                selection,
+                                selectionArgs);
         break;
       case MESSAGE_ITEM:
         String id = uri.getPathSegments().get(1);
-        updatedRows = db.update(MessageContract.PATH_MESSAGE, values, "id = ?", new String[]{ id });
+        updatedRows = db.update(MessageContract.PATH_MESSAGE,
+                                encodeBody(values),
+                                "id = ?",
+                                new String[]{ id });
         break;
       default:
     }
@@ -134,4 +147,94 @@ public class MessageProvider extends ContentProvider {
     }
   }
 
+  /**
+   * Returns the values to store with the message body compressed. The body is compressed unless
+   * the caller already specified a codec (e.g. {@link MessageEntry#CODEC_NONE} to store it raw),
+   * or the compressed body would not be smaller than the raw one.
+   *
+   * @param values the values passed in by the caller, will not be modified
+   * @return the values to store
+   */
+  private static ContentValues encodeBody(ContentValues values) {
+    if (values == null
+        || !values.containsKey(MessageEntry.COLUMN_MESSAGE_BODY)
+        || values.containsKey(MessageEntry.COLUMN_BODY_CODEC)) {
+      return values;
+    }
+
+    byte[] raw = values.getAsByteArray(MessageEntry.COLUMN_MESSAGE_BODY);
+    ContentValues encoded = new ContentValues(values);
+    if (raw != null && raw.length >= MIN_COMPRESS_LENGTH) {
+      byte[] compressed = CompressionUtils.deflate(raw);
+      if (compressed.length < raw.length) {
+        encoded.put(MessageEntry.COLUMN_MESSAGE_BODY, compressed);
+        encoded.put(MessageEntry.COLUMN_BODY_CODEC, MessageEntry.CODEC_DEFLATE);
+        return encoded;
+      }
+    }
+    encoded.put(MessageEntry.COLUMN_BODY_CODEC, MessageEntry.CODEC_NONE);
+
+    return encoded;
+  }
+
+  /**
+   * Returns a projection which also selects the codec column whenever the message body is
+   * selected, so that the body can be decoded.
+   *
+   * @param projection the projection passed in by the caller, {@code null} selects all columns
+   * @return the projection to query with
+   */
+  private static String[] withCodec(String[] projection) {
+    if (projection == null) {
+      return null;
+    }
+
+    boolean hasBody = false;
+    for (String column : projection) {
+      if (MessageEntry.COLUMN_BODY_CODEC.equals(column)) {
+        return projection;
+      }
+      if (MessageEntry.COLUMN_MESSAGE_BODY.equals(column)) {
+        hasBody = true;
+      }
+    }
+    if (!hasBody) {
+      return projection;
+    }
+
+    String[] result = Arrays.copyOf(projection, projection.length + 1);
+    result[projection.length] = MessageEntry.COLUMN_BODY_CODEC;
+    return result;
+  }
+
+  /** A cursor which transparently decompresses the message body column. */
+  private static class BodyDecodingCursor extends CursorWrapper {
+
+    private final int mBodyIndex;
+    private final int mCodecIndex;
+
+    BodyDecodingCursor(Cursor cursor) {
+      super(cursor);
+      mBodyIndex = cursor.getColumnIndex(MessageEntry.COLUMN_MESSAGE_BODY);
+      mCodecIndex = cursor.getColumnIndex(MessageEntry.COLUMN_BODY_CODEC);
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+      byte[] blob = super.getBlob(columnIndex);
+      if (columnIndex != mBodyIndex || mCodecIndex < 0 || isNull(mCodecIndex)) {
+        return blob;
+      }
+
+      switch (getInt(mCodecIndex)) {
+        case MessageEntry.CODEC_DEFLATE:
+          return CompressionUtils.inflate(blob);
+        case MessageEntry.CODEC_NONE:
+        default:
+          return blob;
+      }
+    }
+
+  }
+
 }
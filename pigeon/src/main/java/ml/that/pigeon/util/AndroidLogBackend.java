@@ -0,0 +1,26 @@
+package ml.that.pigeon.util;
+
+import android.util.Log;
+
+/**
+ * A log backend writing to Android LogCat.
+ *
+ * @author That Mr.L (thatmr.l@gmail.com)
+ */
+public class AndroidLogBackend implements LogBackend {
+
+  @Override
+  public boolean isLoggable(String tag, int level) {
+    // The level of LogUtils already filtered the message
+    return true;
+  }
+
+  @Override
+  public void log(int level, String tag, String msg, Throwable tr) {
+    if (tr != null) {
+      msg = msg + '\n' + Log.getStackTraceString(tr);
+    }
+    Log.println(level, tag, msg);
+  }
+
+}